@@ -0,0 +1,48 @@
+package au.org.ala.names.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks.
+ * <p>
+ * This accepts the usual JMH command line options.
+ * Unless otherwise specified, results are written in JSON format to
+ * <code>benchmarks.json</code> so that they can be compared between releases.
+ * </p>
+ */
+public class Benchmarks {
+    /** The default results file */
+    public static final String DEFAULT_RESULTS = "benchmarks.json";
+
+    public static void main(String... args) throws Exception {
+        CommandLineOptions cmd;
+        try {
+            cmd = new CommandLineOptions(args);
+        } catch (CommandLineOptionException ex) {
+            System.err.println("Error parsing command line: " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (!cmd.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if (!cmd.getResult().hasValue())
+            options.result(DEFAULT_RESULTS);
+        if (cmd.getIncludes().isEmpty())
+            options.include(Benchmarks.class.getPackage().getName() + "\\.");
+        new Runner(options.build()).run();
+    }
+}
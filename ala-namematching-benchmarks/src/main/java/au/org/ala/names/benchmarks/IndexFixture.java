@@ -0,0 +1,58 @@
+package au.org.ala.names.benchmarks;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.core.NameSearchConfiguration;
+import au.org.ala.names.ws.resources.NameSearchResource;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A name matching resource and workload, shared between benchmark threads.
+ * <p>
+ * The index is given by the <code>benchmark.index</code> system property
+ * and defaults to the index used by the server tests.
+ * The species groups are the ones bundled with the server.
+ * </p>
+ */
+@State(Scope.Benchmark)
+public class IndexFixture {
+    private NameSearchConfiguration configuration;
+    private NameSearchResource resource;
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String index = Workload.index();
+        if (!new File(index).isDirectory())
+            throw new IllegalStateException("No name matching index at " + index + ", set -D" + Workload.INDEX_PROPERTY + "=<path>");
+        this.configuration = new NameSearchConfiguration();
+        this.configuration.setIndex(index);
+        this.configuration.setGroups(NameSearchResource.class.getResource("/groups.json"));
+        this.configuration.setSubgroups(NameSearchResource.class.getResource("/subgroups.json"));
+        this.resource = new NameSearchResource(this.configuration);
+        this.workload = Workload.load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.resource.close();
+    }
+
+    public NameSearchConfiguration getConfiguration() {
+        return this.configuration;
+    }
+
+    public NameSearchResource getResource() {
+        return this.resource;
+    }
+
+    public NameSearch[] getSearches() {
+        return this.workload.getSearches().toArray(new NameSearch[0]);
+    }
+}
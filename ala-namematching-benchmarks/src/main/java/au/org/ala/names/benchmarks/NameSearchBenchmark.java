@@ -0,0 +1,52 @@
+package au.org.ala.names.benchmarks;
+
+import au.org.ala.names.ws.api.NameSearch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the preparation of searches before they are sent to the index.
+ * <p>
+ * Each operation uses one search from the workload, cycling through the searches in order.
+ * The hint stream benchmark uses a hinted copy of the workload, where the higher taxonomy has been
+ * turned into hints, and consumes the entire stream.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameSearchBenchmark {
+    private NameSearch[] searches;
+    private NameSearch[] hinted;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Workload workload = Workload.load();
+        this.searches = workload.getSearches().toArray(new NameSearch[0]);
+        this.hinted = workload.getHinted().stream().map(NameSearch::normalised).toArray(NameSearch[]::new);
+        this.next = 0;
+    }
+
+    private int next() {
+        int current = this.next;
+        this.next = (current + 1) % this.searches.length;
+        return current;
+    }
+
+    @Benchmark
+    public NameSearch normalised() {
+        return this.searches[this.next()].normalised();
+    }
+
+    @Benchmark
+    public void hintStream(Blackhole blackhole) {
+        this.hinted[this.next()].hintStream().forEach(blackhole::consume);
+    }
+}
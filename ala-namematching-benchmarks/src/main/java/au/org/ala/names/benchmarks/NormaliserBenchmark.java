@@ -0,0 +1,58 @@
+package au.org.ala.names.benchmarks;
+
+import au.org.ala.util.BasicNormaliser;
+import au.org.ala.util.FastNormaliser;
+import au.org.ala.util.Normaliser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark the normalisers used to clean up search text.
+ * <p>
+ * Each operation normalises one value from the workload,
+ * cycling through the scientific names and higher taxonomy in order.
+ * The normaliser options match the ones used by {@link au.org.ala.names.ws.api.NameSearch}.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormaliserBenchmark {
+    /** The normaliser implementation */
+    @Param({ "basic", "fast" })
+    public String normaliser;
+
+    private Normaliser instance;
+    private String[] text;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> values = Workload.load().getText();
+        this.text = values.toArray(new String[0]);
+        this.next = 0;
+        switch (this.normaliser) {
+            case "basic":
+                this.instance = new BasicNormaliser(true, true, true, false, false, true);
+                break;
+            case "fast":
+                this.instance = new FastNormaliser(true, true, true, false, false, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown normaliser " + this.normaliser);
+        }
+    }
+
+    @Benchmark
+    public String normalise() {
+        String value = this.text[this.next];
+        this.next = (this.next + 1) % this.text.length;
+        return this.instance.normalise(value);
+    }
+}
@@ -0,0 +1,74 @@
+package au.org.ala.names.benchmarks;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.resources.NameSearchResource;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark name matching against an index.
+ * <p>
+ * The <code>search</code> benchmark goes directly to the index each time, and so measures the cost
+ * of matching a name.
+ * The caches of individual index searches and vernacular names are cleared before each invocation,
+ * so that repeated searches in the workload do not hit them.
+ * Per-invocation setup adds some timing noise, which is small compared to a search of the index.
+ * The <code>match</code> benchmark goes through the search cache, as a web service request would,
+ * and so measures the cost of a mostly cached request.
+ * Each operation uses one search from the workload, cycling through the searches in order.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+    private NameSearchResource resource;
+    private NameSearch[] searches;
+    private int next;
+
+    @Setup
+    public void setUp(IndexFixture fixture) {
+        this.resource = fixture.getResource();
+        this.searches = fixture.getSearches();
+        this.next = 0;
+    }
+
+    private NameSearch next() {
+        NameSearch search = this.searches[this.next];
+        this.next = (this.next + 1) % this.searches.length;
+        return search;
+    }
+
+    @Benchmark
+    public NameUsageMatch search(Uncached uncached) throws Exception {
+        return this.resource.search(this.next());
+    }
+
+    @Benchmark
+    public NameUsageMatch match() {
+        return this.resource.match(this.next());
+    }
+
+    /**
+     * Clears the search caches before each invocation of a benchmark that uses it.
+     */
+    @State(Scope.Thread)
+    public static class Uncached {
+        private NameSearchResource resource;
+
+        @Setup(Level.Trial)
+        public void setUp(IndexFixture fixture) {
+            this.resource = fixture.getResource();
+        }
+
+        @Setup(Level.Invocation)
+        public void clear() {
+            this.resource.clearSearchCaches();
+        }
+    }
+}
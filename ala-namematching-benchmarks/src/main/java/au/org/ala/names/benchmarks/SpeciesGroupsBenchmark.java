@@ -0,0 +1,60 @@
+package au.org.ala.names.benchmarks;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.core.SpeciesGroupsUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark species group lookup.
+ * <p>
+ * The left values to look up come from matching the workload against the index,
+ * so that they are spread across the taxonomy in a realistic way.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpeciesGroupsBenchmark {
+    private SpeciesGroupsUtil groups;
+    private Integer[] lfts;
+    private int next;
+
+    @Setup
+    public void setUp(IndexFixture fixture) throws Exception {
+        this.groups = SpeciesGroupsUtil.getInstance(fixture.getConfiguration());
+        List<Integer> values = new ArrayList<>();
+        for (NameSearch search : fixture.getSearches()) {
+            NameUsageMatch match = fixture.getResource().match(search);
+            if (match.isSuccess() && match.getLft() != null)
+                values.add(match.getLft());
+        }
+        if (values.isEmpty())
+            throw new IllegalStateException("No workload names matched in the index");
+        this.lfts = values.toArray(new Integer[0]);
+        this.next = 0;
+    }
+
+    private Integer next() {
+        Integer lft = this.lfts[this.next];
+        this.next = (this.next + 1) % this.lfts.length;
+        return lft;
+    }
+
+    @Benchmark
+    public List<String> getSpeciesGroups() throws Exception {
+        return this.groups.getSpeciesGroups(this.next());
+    }
+
+    @Benchmark
+    public List<String> getSpeciesSubGroups() throws Exception {
+        return this.groups.getSpeciesSubGroups(this.next());
+    }
+}
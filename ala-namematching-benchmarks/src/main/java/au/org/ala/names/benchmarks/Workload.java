@@ -0,0 +1,200 @@
+package au.org.ala.names.benchmarks;
+
+import au.org.ala.names.ws.api.NameSearch;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A realistic benchmark workload, read from a CSV file of name matching arguments.
+ * <p>
+ * The CSV file has a header with the argument names used by the
+ * <code>match</code> client method:
+ * <code>scientificName</code>, <code>kingdom</code>, <code>phylum</code>, <code>clazz</code>,
+ * <code>order</code>, <code>family</code>, <code>genus</code>, <code>specificEpithet</code>,
+ * <code>infraspecificEpithet</code> and <code>rank</code>.
+ * This is the same format used by the load tester, so the same file can be used for both.
+ * </p>
+ * <p>
+ * By default, the bundled <code>names-args.csv</code> is used.
+ * A different file can be supplied by setting the <code>benchmark.args</code> system property to a URL.
+ * </p>
+ */
+public class Workload {
+    /** The system property for the workload URL */
+    public static final String ARGS_PROPERTY = "benchmark.args";
+    /** The system property for the index path */
+    public static final String INDEX_PROPERTY = "benchmark.index";
+    /** The default index path */
+    public static final String DEFAULT_INDEX = "/data/lucene/namematching-20210811-3";
+
+    /** The searches in the workload */
+    private final List<NameSearch> searches;
+
+    /**
+     * Construct a workload.
+     *
+     * @param searches The searches in the workload
+     */
+    public Workload(List<NameSearch> searches) {
+        this.searches = Collections.unmodifiableList(searches);
+    }
+
+    /**
+     * Get the searches in the workload.
+     *
+     * @return The list of searches, in file order
+     */
+    public List<NameSearch> getSearches() {
+        return this.searches;
+    }
+
+    /**
+     * Get the raw text values in the workload.
+     * <p>
+     * These are the non-empty scientific names and higher taxonomy, as supplied to the normaliser.
+     * </p>
+     *
+     * @return The list of text values
+     */
+    public List<String> getText() {
+        List<String> text = new ArrayList<>(this.searches.size() * 4);
+        for (NameSearch search : this.searches) {
+            this.addText(text, search.getScientificName());
+            this.addText(text, search.getKingdom());
+            this.addText(text, search.getPhylum());
+            this.addText(text, search.getClazz());
+            this.addText(text, search.getOrder());
+            this.addText(text, search.getFamily());
+            this.addText(text, search.getGenus());
+        }
+        return text;
+    }
+
+    /**
+     * Get a hinted version of the workload.
+     * <p>
+     * Each search has its higher taxonomy moved into hints, along with a plausible wrong alternative,
+     * so that the hint stream has a realistic number of combinations to generate.
+     * Searches without any higher taxonomy are left unchanged.
+     * </p>
+     *
+     * @return The list of hinted searches
+     */
+    public List<NameSearch> getHinted() {
+        List<NameSearch> hinted = new ArrayList<>(this.searches.size());
+        for (NameSearch search : this.searches) {
+            Map<String, List<String>> hints = new LinkedHashMap<>();
+            this.addHint(hints, "kingdom", search.getKingdom(), "Animalia", "Plantae");
+            this.addHint(hints, "phylum", search.getPhylum(), "Chordata", "Charophyta");
+            this.addHint(hints, "class", search.getClazz(), "Aves", "Mammalia");
+            this.addHint(hints, "family", search.getFamily(), null, null);
+            if (hints.isEmpty()) {
+                hinted.add(search);
+                continue;
+            }
+            hinted.add(NameSearch.builder()
+                    .scientificName(search.getScientificName())
+                    .genus(search.getGenus())
+                    .specificEpithet(search.getSpecificEpithet())
+                    .infraspecificEpithet(search.getInfraspecificEpithet())
+                    .rank(search.getRank())
+                    .hints(hints)
+                    .build()
+            );
+        }
+        return hinted;
+    }
+
+    private void addText(List<String> text, String value) {
+        if (value != null)
+            text.add(value);
+    }
+
+    private void addHint(Map<String, List<String>> hints, String rank, String value, String first, String second) {
+        if (value == null)
+            return;
+        List<String> values = new ArrayList<>(2);
+        values.add(value);
+        if (first != null)
+            values.add(value.equals(first) ? second : first);
+        hints.put(rank, values);
+    }
+
+    /**
+     * Read the workload given by the <code>benchmark.args</code> system property or the bundled workload.
+     *
+     * @return The workload
+     *
+     * @throws IOException if unable to read the workload
+     */
+    public static Workload load() throws IOException {
+        String args = System.getProperty(ARGS_PROPERTY);
+        return read(args == null ? Workload.class.getResource("/names-args.csv") : new URL(args));
+    }
+
+    /**
+     * Read a workload from a CSV file.
+     *
+     * @param source The source file
+     *
+     * @return The workload
+     *
+     * @throws IOException if unable to read the workload
+     */
+    public static Workload read(URL source) throws IOException {
+        List<NameSearch> searches = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(source.openStream(), StandardCharsets.UTF_8)) {
+            CSVReader csv = new CSVReaderBuilder(reader).build();
+            String[] header = csv.readNext();
+            Map<String, Integer> columns = new HashMap<>();
+            for (int i = 0; i < header.length; i++)
+                columns.put(header[i].trim(), i);
+            String[] row;
+            while ((row = csv.readNext()) != null) {
+                searches.add(NameSearch.builder()
+                        .scientificName(value(row, columns, "scientificName"))
+                        .kingdom(value(row, columns, "kingdom"))
+                        .phylum(value(row, columns, "phylum"))
+                        .clazz(value(row, columns, "clazz"))
+                        .order(value(row, columns, "order"))
+                        .family(value(row, columns, "family"))
+                        .genus(value(row, columns, "genus"))
+                        .specificEpithet(value(row, columns, "specificEpithet"))
+                        .infraspecificEpithet(value(row, columns, "infraspecificEpithet"))
+                        .rank(value(row, columns, "rank"))
+                        .build()
+                );
+            }
+        } catch (CsvValidationException ex) {
+            throw new IOException("Unable to read workload " + source, ex);
+        }
+        if (searches.isEmpty())
+            throw new IOException("Empty workload " + source);
+        return new Workload(searches);
+    }
+
+    private static String value(String[] row, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= row.length)
+            return null;
+        return StringUtils.isEmpty(row[index]) ? null : row[index];
+    }
+
+    /**
+     * Get the index to use for benchmarks that need a name matching index.
+     *
+     * @return The index path, from the <code>benchmark.index</code> system property or the default index
+     */
+    public static String index() {
+        return System.getProperty(INDEX_PROPERTY, DEFAULT_INDEX);
+    }
+}
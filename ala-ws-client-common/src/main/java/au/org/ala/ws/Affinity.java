@@ -0,0 +1,23 @@
+package au.org.ala.ws;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a retrofit service method parameter as the routing key for the request.
+ * <p>
+ * When the {@link LoadBalancer.Strategy#AFFINITY} strategy is used, requests with the same
+ * routing key are sent to the same endpoint, so that each endpoint caches a different set of results.
+ * If more than one parameter is marked, the routing key is the list of parameter values.
+ * </p>
+ *
+ * @see LoadBalancingInterceptor
+ */
+@Documented
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Affinity {
+}
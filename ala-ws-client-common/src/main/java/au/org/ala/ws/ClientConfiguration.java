@@ -9,6 +9,7 @@ import lombok.EqualsAndHashCode;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Cache;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.cache2k.Cache2kBuilder;
 import retrofit2.Retrofit;
@@ -21,7 +22,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 
 /**
  * A generic set of configuration parameters for a web client.
@@ -35,6 +38,11 @@ import java.util.Optional;
 @JsonDeserialize(builder = ClientConfiguration.ClientConfigurationBuilder.class)
 @Slf4j
 public class ClientConfiguration {
+    /** The default batch window in milliseconds */
+    public static final long DEFAULT_BATCH_WINDOW = 10L;
+    /** The default latency percentile used to decide when to hedge a request */
+    public static final double DEFAULT_HEDGE_PERCENTILE = 95.0;
+
     /** The base url to use when accessing the API */
     @JsonProperty
     private URL baseUrl;
@@ -53,9 +61,39 @@ public class ClientConfiguration {
     @JsonProperty
     @Builder.Default
     private long cacheSize = (long) 50 * 1024 * 1024;
+    /** The maximum number of concurrent asynchronous requests (defaults to the HTTP client default of 64 if null) */
+    @JsonProperty
+    private Integer maxRequests;
+    /** The maximum number of concurrent asynchronous requests to a single host (defaults to the HTTP client default of 5 if null) */
+    @JsonProperty
+    private Integer maxRequestsPerHost;
+    /** The maximum number of single requests to combine into a bulk request (no batching if null) */
+    @JsonProperty
+    private Integer batchSize;
+    /** The maximum time in milliseconds to wait for a batch to fill (defaults to {@link #DEFAULT_BATCH_WINDOW} if null) */
+    @JsonProperty
+    private Long batchWindow;
     /** The data cache (as opposed to the HTTP cache) */
     @JsonProperty
     private DataCacheConfiguration dataCache;
+    /** A directory for a persistent store of results that is kept between runs (no persistent store if null) */
+    @JsonProperty
+    private Path storeDir;
+    /** Equivalent servers to balance requests across (just the base url if null) */
+    @JsonProperty
+    private List<URL> endpoints;
+    /** Send a duplicate of slow, repeatable requests to a second endpoint (defaults to false if null) */
+    @JsonProperty
+    private Boolean hedge;
+    /** A fixed delay in milliseconds before hedging a request (uses the hedge percentile of recent latencies if null) */
+    @JsonProperty
+    private Long hedgeDelay;
+    /** The latency percentile used to decide when to hedge a request (defaults to {@link #DEFAULT_HEDGE_PERCENTILE} if null) */
+    @JsonProperty
+    private Double hedgePercentile;
+    /** How requests are routed to endpoints (defaults to {@link LoadBalancer.Strategy#BALANCED} if null) */
+    @JsonProperty
+    private LoadBalancer.Strategy routing;
 
     /**
      * Get the timeout duration.
@@ -67,6 +105,16 @@ public class ClientConfiguration {
         return Duration.of(this.timeOut, ChronoUnit.MILLIS);
     }
 
+    /**
+     * Get the batch window.
+     *
+     * @return The batch window in milliseconds, or the default window if not set
+     */
+    @JsonIgnore
+    public long getBatchWindowOrDefault() {
+        return this.batchWindow == null ? DEFAULT_BATCH_WINDOW : this.batchWindow;
+    }
+
     /**
      * Create an HTTP client corresponding to this configuration.
      *
@@ -75,6 +123,33 @@ public class ClientConfiguration {
      * @throws IOException if unable to build a cache directory
      */
     public OkHttpClient createClient() throws IOException {
+        return this.createClient(null);
+    }
+
+    /**
+     * Create an HTTP client corresponding to this configuration.
+     *
+     * @param affinity The function that converts an {@link Affinity} parameter value into a routing key (null for the value itself)
+     *
+     * @return The client
+     *
+     * @throws IOException if unable to build a cache directory
+     */
+    public OkHttpClient createClient(Function<Object, Object> affinity) throws IOException {
+        return this.createClient(affinity, null);
+    }
+
+    /**
+     * Create an HTTP client corresponding to this configuration.
+     *
+     * @param affinity The function that converts an {@link Affinity} parameter value into a routing key (null for the value itself)
+     * @param metrics The listener for request metrics (null for none)
+     *
+     * @return The client
+     *
+     * @throws IOException if unable to build a cache directory
+     */
+    public OkHttpClient createClient(Function<Object, Object> affinity, ClientMetrics metrics) throws IOException {
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
         .connectTimeout(this.getTimeoutDuration())
         .readTimeout(this.getTimeoutDuration());
@@ -84,7 +159,41 @@ public class ClientConfiguration {
             Cache cache = new Cache(dir.toFile(), this.cacheSize);
             builder.cache(cache);
         }
-        return builder.build();
+        if (this.maxRequests != null || this.maxRequestsPerHost != null) {
+            Dispatcher dispatcher = new Dispatcher();
+            if (this.maxRequests != null)
+                dispatcher.setMaxRequests(this.maxRequests);
+            if (this.maxRequestsPerHost != null)
+                dispatcher.setMaxRequestsPerHost(this.maxRequestsPerHost);
+            builder.dispatcher(dispatcher);
+        }
+        boolean balanced = this.endpoints != null && !this.endpoints.isEmpty();
+        if (metrics == null && !balanced)
+            return builder.build();
+        // Interceptors that wrap the whole request, including any retries or hedged requests
+        OkHttpClient client = builder.build();
+        OkHttpClient.Builder outer = client.newBuilder();
+        if (metrics != null)
+            outer.addInterceptor(new MetricsInterceptor(metrics));
+        if (balanced) {
+            LoadBalancer balancer = new LoadBalancer(this.endpoints, this.hedgePercentile == null ? DEFAULT_HEDGE_PERCENTILE : this.hedgePercentile, this.routing, this.getBaseUrlOrEndpoint());
+            boolean hedging = this.hedge != null && this.hedge;
+            log.debug("Routing requests across {} by {}, hedging {}", balancer.getEndpoints(), balancer.getStrategy(), hedging);
+            outer.addInterceptor(new LoadBalancingInterceptor(balancer, client, hedging, this.hedgeDelay, affinity));
+        }
+        return outer.build();
+    }
+
+    /**
+     * Get the base URL for the API.
+     *
+     * @return The base URL, or the first endpoint if no base URL has been set
+     */
+    @JsonIgnore
+    public URL getBaseUrlOrEndpoint() {
+        if (this.baseUrl == null && this.endpoints != null && !this.endpoints.isEmpty())
+            return this.endpoints.get(0);
+        return this.baseUrl;
     }
 
     /**
@@ -100,7 +209,7 @@ public class ClientConfiguration {
     public <S> S createRetrofitClient(OkHttpClient client, Class<S> service) {
         return new Retrofit.Builder()
         .client(client)
-        .baseUrl(this.baseUrl)
+        .baseUrl(this.getBaseUrlOrEndpoint())
         .addConverterFactory(ScalarsConverterFactory.create())  // support plain/text responses
         .addConverterFactory(JacksonConverterFactory.create())
         .validateEagerly(true)
@@ -123,4 +232,28 @@ public class ClientConfiguration {
             return Optional.empty();
         return Optional.of(this.dataCache.cacheBuilder(keyClass, valueClass));
     }
+
+    /**
+     * Build a data cache builder for a specific type of response.
+     * <p>
+     * Any configuration override for the cache name is used in preference
+     * to the general data cache configuration.
+     * </p>
+     *
+     * @param method The cache name
+     * @param keyClass The cache key class
+     * @param valueClass The expected value class
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     *
+     * @return An optional builder containing the cache configuration or null for no cache
+     *
+     * @see DataCacheConfiguration#forMethod(String)
+     */
+    public <K, V> Optional<Cache2kBuilder<K, V>> buildDataCache(String method, Class<K> keyClass, Class<V> valueClass) {
+        if (this.dataCache == null)
+            return Optional.empty();
+        return Optional.of(this.dataCache.forMethod(method).cacheBuilder(keyClass, valueClass));
+    }
 }
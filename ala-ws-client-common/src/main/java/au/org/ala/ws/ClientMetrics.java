@@ -0,0 +1,80 @@
+package au.org.ala.ws;
+
+/**
+ * A listener for client activity, used to collect metrics.
+ * <p>
+ * All methods do nothing by default, so that an implementation only needs
+ * to override the events that it is interested in.
+ * Methods may be called from many threads at once and should not block.
+ * </p>
+ *
+ * @see MetricsInterceptor
+ * @see DropwizardClientMetrics
+ */
+public interface ClientMetrics {
+    /** A listener that ignores everything */
+    ClientMetrics NONE = new ClientMetrics() {
+    };
+
+    /**
+     * A client method has been called.
+     *
+     * @param method The method name
+     */
+    default void call(String method) {
+    }
+
+    /**
+     * A lookup has been found in a cache.
+     *
+     * @param cache The cache name
+     */
+    default void cacheHit(String cache) {
+    }
+
+    /**
+     * A lookup has not been found in a cache.
+     *
+     * @param cache The cache name
+     */
+    default void cacheMiss(String cache) {
+    }
+
+    /**
+     * A bulk request has been made.
+     *
+     * @param method The method name
+     * @param size The number of items in the request
+     */
+    default void batch(String method, int size) {
+    }
+
+    /**
+     * An HTTP request has been started.
+     *
+     * @param method The service method name
+     */
+    default void requestStarted(String method) {
+    }
+
+    /**
+     * An HTTP request has completed.
+     *
+     * @param method The service method name
+     * @param status The HTTP status code
+     * @param nanos The time taken in nanoseconds, from sending the request to reading the response body
+     * @param requestBytes The size of the request body in bytes, or -1 if unknown
+     * @param responseBytes The size of the response body in bytes, or -1 if unknown
+     */
+    default void requestFinished(String method, int status, long nanos, long requestBytes, long responseBytes) {
+    }
+
+    /**
+     * An HTTP request has failed without a response.
+     *
+     * @param method The service method name
+     * @param nanos The time taken in nanoseconds
+     */
+    default void requestFailed(String method, long nanos) {
+    }
+}
@@ -1,5 +1,6 @@
 package au.org.ala.ws;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -7,6 +8,10 @@ import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Value;
 import org.cache2k.Cache2kBuilder;
+import org.cache2k.integration.FunctionalCacheLoader;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A simple cache configuration for {@link Cache2kBuilder}.
@@ -19,6 +24,21 @@ import org.cache2k.Cache2kBuilder;
  * a cache2k implmentation for <code>org.cache2k.spi.Cache2kCoreProvider</code>
  * in the classplath.
  * </p>
+ * <p>
+ * A client may keep a separate cache for each type of request.
+ * The configuration for an individual cache can be overridden by
+ * an entry in the {@link #methods} map, keyed by cache name.
+ * </p>
+ * <p>
+ * Entries can be given a limited lifetime with {@link #expireAfterWrite}.
+ * So that frequently used entries do not cause a blocking miss when they expire,
+ * they can be refreshed in the background shortly before they expire ({@link #refreshAhead})
+ * and the old value can still be returned for a while after expiry while a new value
+ * is being fetched ({@link #staleWhileRevalidate}).
+ * Caches with a loader use cache2k's own refresh-ahead mechanism (see {@link #loadingCacheBuilder(Class, Class, FunctionalCacheLoader)}).
+ * Caches without a loader keep entries for the stale period and leave it to the user of the
+ * cache to refresh them (see {@link #getRefreshTime()} and {@link #getRetentionTime()}).
+ * </p>
  */
 @Value
 @Builder
@@ -50,6 +70,54 @@ public class DataCacheConfiguration {
     @JsonProperty
     @Builder.Default
     private boolean suppressExceptions = false;
+    /** The time in milliseconds after which an entry expires. If set, this overrides eternal. Null by default */
+    @JsonProperty
+    private Long expireAfterWrite;
+    /** The time in milliseconds before expiry that an entry is refreshed in the background. Null for no refresh ahead */
+    @JsonProperty
+    private Long refreshAhead;
+    /** The time in milliseconds after expiry that an entry can still be used while it is refreshed in the background. Null for none */
+    @JsonProperty
+    private Long staleWhileRevalidate;
+    /** Configuration overrides for individual caches, keyed by cache name. Null for no overrides */
+    @JsonProperty
+    private Map<String, DataCacheConfiguration> methods;
+
+    /**
+     * Get the configuration for a specific cache.
+     *
+     * @param method The cache name
+     *
+     * @return The override for the cache, if present, otherwise this configuration
+     */
+    public DataCacheConfiguration forMethod(String method) {
+        DataCacheConfiguration override = this.methods == null ? null : this.methods.get(method);
+        return override == null ? this : override;
+    }
+
+    /**
+     * Get the age at which an entry should be refreshed.
+     *
+     * @return The age in milliseconds after which an entry should be refreshed, or null for entries that do not expire
+     */
+    @JsonIgnore
+    public Long getRefreshTime() {
+        if (this.expireAfterWrite == null)
+            return null;
+        return Math.max(0L, this.expireAfterWrite - (this.refreshAhead == null ? 0L : this.refreshAhead));
+    }
+
+    /**
+     * Get the age after which an entry can no longer be used.
+     *
+     * @return The age in milliseconds after which an entry can no longer be used, even while it is being refreshed, or null for entries that do not expire
+     */
+    @JsonIgnore
+    public Long getRetentionTime() {
+        if (this.expireAfterWrite == null)
+            return null;
+        return this.expireAfterWrite + (this.staleWhileRevalidate == null ? 0L : this.staleWhileRevalidate);
+    }
 
     /**
      * Construct a cache builder out of the information in this configuration.
@@ -57,6 +125,12 @@ public class DataCacheConfiguration {
      * The cache builder can be extended or overridden before the cahce is
      * constructed.
      * </p>
+     * <p>
+     * If {@link #expireAfterWrite} is set, entries are kept for the {@link #getRetentionTime() retention time}
+     * so that a stale value is still available while the user of the cache fetches a new one,
+     * and the time that each entry was written is recorded.
+     * Use {@link #loadingCacheBuilder(Class, Class, FunctionalCacheLoader)} for caches that use a loader.
+     * </p>
      *
      * @param keyClass The type of key for the cache
      * @param valueClass The type of value for the cache
@@ -66,10 +140,48 @@ public class DataCacheConfiguration {
      * @return A partially initialised builder.
      */
     public <K, V> Cache2kBuilder<K, V> cacheBuilder(Class<K> keyClass, Class<V> valueClass) {
+        Cache2kBuilder<K, V> builder = this.baseBuilder(keyClass, valueClass);
+        Long retention = this.getRetentionTime();
+        if (retention != null)
+            builder.expireAfterWrite(retention, TimeUnit.MILLISECONDS).recordRefreshedTime(true);
+        else
+            builder.eternal(this.eternal);
+        return builder;
+    }
+
+    /**
+     * Construct a cache builder for a cache that loads missing entries.
+     * <p>
+     * If {@link #expireAfterWrite} is set along with {@link #refreshAhead} or {@link #staleWhileRevalidate},
+     * entries are reloaded in the background {@link #refreshAhead} milliseconds before expiry,
+     * and the old value is returned until the new value has been loaded.
+     * </p>
+     *
+     * @param keyClass The type of key for the cache
+     * @param valueClass The type of value for the cache
+     * @param loader The loader for missing entries
+     * @param <K> The key type
+     * @param <V> The value type
+     *
+     * @return A partially initialised builder.
+     */
+    public <K, V> Cache2kBuilder<K, V> loadingCacheBuilder(Class<K> keyClass, Class<V> valueClass, FunctionalCacheLoader<K, V> loader) {
+        Cache2kBuilder<K, V> builder = this.baseBuilder(keyClass, valueClass).loader(loader);
+        if (this.expireAfterWrite != null) {
+            boolean refresh = this.refreshAhead != null || this.staleWhileRevalidate != null;
+            builder.expireAfterWrite(refresh ? Math.max(1L, this.getRefreshTime()) : this.expireAfterWrite, TimeUnit.MILLISECONDS);
+            builder.refreshAhead(refresh);
+        } else {
+            builder.eternal(this.eternal);
+        }
+        return builder;
+    }
+
+    // Build the settings common to all caches
+    private <K, V> Cache2kBuilder<K, V> baseBuilder(Class<K> keyClass, Class<V> valueClass) {
         return Cache2kBuilder.of(keyClass, valueClass)
                 .enableJmx(this.enableJmx)
                 .entryCapacity(this.entryCapacity)
-                .eternal(this.eternal)
                 .keepDataAfterExpired(this.keepDataAfterExpired)
                 .permitNullValues(this.permitNullValues)
                 .suppressExceptions(this.suppressExceptions);
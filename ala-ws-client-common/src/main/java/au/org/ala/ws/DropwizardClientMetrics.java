@@ -0,0 +1,113 @@
+package au.org.ala.ws;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report client metrics to a Dropwizard {@link MetricRegistry}.
+ * <p>
+ * Metrics are named with a prefix followed by the kind of metric and the method or cache name.
+ * For a prefix of <code>client</code>:
+ * </p>
+ * <ul>
+ *     <li><code>client.calls.<em>method</em></code> is a meter of client method calls</li>
+ *     <li><code>client.cache.<em>cache</em>.hits</code> and <code>client.cache.<em>cache</em>.misses</code> are meters of cache lookups,
+ *     and <code>client.cache.<em>cache</em>.hitRatio</code> is the proportion of hits</li>
+ *     <li><code>client.batches.<em>method</em></code> is a histogram of the number of items in bulk requests</li>
+ *     <li><code>client.requests.<em>method</em></code> is a timer of HTTP requests, including reading the response</li>
+ *     <li><code>client.requests.<em>method</em>.requestBytes</code> and <code>client.requests.<em>method</em>.responseBytes</code>
+ *     are histograms of request and response sizes</li>
+ *     <li><code>client.requests.<em>method</em>.errors</code> is a meter of failed requests and error responses</li>
+ *     <li><code>client.requests.inFlight</code> is a count of the HTTP requests in progress</li>
+ * </ul>
+ * <p>
+ * To use this, the <code>io.dropwizard.metrics:metrics-core</code> library needs to be on the classpath.
+ * </p>
+ */
+public class DropwizardClientMetrics implements ClientMetrics {
+    /** The metric registry */
+    @Getter
+    private final MetricRegistry registry;
+    /** The prefix for metric names */
+    @Getter
+    private final String prefix;
+    /** The number of requests in progress */
+    private final Counter inFlight;
+
+    /**
+     * Construct a metrics listener.
+     *
+     * @param registry The registry to report to
+     * @param prefix The prefix for metric names
+     */
+    public DropwizardClientMetrics(MetricRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+        this.inFlight = registry.counter(MetricRegistry.name(prefix, "requests", "inFlight"));
+    }
+
+    @Override
+    public void call(String method) {
+        this.registry.meter(MetricRegistry.name(this.prefix, "calls", method)).mark();
+    }
+
+    @Override
+    public void cacheHit(String cache) {
+        this.hitRatio(cache);
+        this.registry.meter(MetricRegistry.name(this.prefix, "cache", cache, "hits")).mark();
+    }
+
+    @Override
+    public void cacheMiss(String cache) {
+        this.hitRatio(cache);
+        this.registry.meter(MetricRegistry.name(this.prefix, "cache", cache, "misses")).mark();
+    }
+
+    @Override
+    public void batch(String method, int size) {
+        this.registry.histogram(MetricRegistry.name(this.prefix, "batches", method)).update(size);
+    }
+
+    @Override
+    public void requestStarted(String method) {
+        this.inFlight.inc();
+    }
+
+    @Override
+    public void requestFinished(String method, int status, long nanos, long requestBytes, long responseBytes) {
+        this.inFlight.dec();
+        this.registry.timer(MetricRegistry.name(this.prefix, "requests", method)).update(nanos, TimeUnit.NANOSECONDS);
+        if (requestBytes >= 0)
+            this.registry.histogram(MetricRegistry.name(this.prefix, "requests", method, "requestBytes")).update(requestBytes);
+        if (responseBytes >= 0)
+            this.registry.histogram(MetricRegistry.name(this.prefix, "requests", method, "responseBytes")).update(responseBytes);
+        if (status >= 400)
+            this.registry.meter(MetricRegistry.name(this.prefix, "requests", method, "errors")).mark();
+    }
+
+    @Override
+    public void requestFailed(String method, long nanos) {
+        this.inFlight.dec();
+        this.registry.timer(MetricRegistry.name(this.prefix, "requests", method)).update(nanos, TimeUnit.NANOSECONDS);
+        this.registry.meter(MetricRegistry.name(this.prefix, "requests", method, "errors")).mark();
+    }
+
+    // Make sure that there is a hit ratio for a cache
+    private void hitRatio(String cache) {
+        this.registry.gauge(MetricRegistry.name(this.prefix, "cache", cache, "hitRatio"), () -> {
+            Meter hits = this.registry.meter(MetricRegistry.name(this.prefix, "cache", cache, "hits"));
+            Meter misses = this.registry.meter(MetricRegistry.name(this.prefix, "cache", cache, "misses"));
+            return new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+                }
+            };
+        });
+    }
+}
@@ -0,0 +1,210 @@
+package au.org.ala.ws;
+
+import lombok.Getter;
+import okhttp3.HttpUrl;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A server that requests can be sent to, along with its recent performance.
+ * <p>
+ * Latency is tracked as a peak exponentially weighted moving average.
+ * A response slower than the current average immediately raises the average to that latency,
+ * while faster responses bring it down gradually.
+ * A slow or failing server is therefore avoided quickly and given
+ * traffic again once it has had time to recover.
+ * </p>
+ */
+public class Endpoint {
+    /** The decay time for the latency average in nanoseconds */
+    public static final long DECAY = 10_000_000_000L;
+    /** The latency in nanoseconds used to penalise a failed request */
+    public static final long PENALTY = 5_000_000_000L;
+    /** The time in nanoseconds that an endpoint is treated as unavailable after a failure */
+    public static final long RETRY = 5_000_000_000L;
+
+    /** The endpoint URL */
+    @Getter
+    private final HttpUrl url;
+    /** The number of requests in progress */
+    private final AtomicInteger outstanding;
+    /** The latency average in nanoseconds */
+    private double latency;
+    /** The time of the last latency update */
+    private long updated;
+    /** The time of the last failure, if the endpoint has not succeeded since */
+    private volatile Long failed;
+
+    /**
+     * Construct an endpoint.
+     *
+     * @param url The endpoint URL
+     */
+    public Endpoint(URL url) {
+        this.url = HttpUrl.get(url.toExternalForm());
+        this.outstanding = new AtomicInteger();
+        this.latency = 0.0;
+        this.updated = System.nanoTime();
+    }
+
+    /**
+     * Point a request URL at this endpoint, keeping the request path.
+     *
+     * @param request The request URL
+     *
+     * @return The request URL with the scheme, host and port of this endpoint
+     */
+    public HttpUrl route(HttpUrl request) {
+        return this.route(request, null);
+    }
+
+    /**
+     * Point a request URL at this endpoint.
+     * <p>
+     * The scheme, host and port are replaced by those of this endpoint.
+     * If the request path starts with the path of the base URL, that part of the path
+     * is replaced by the path of this endpoint, so that endpoints can have different context paths.
+     * </p>
+     *
+     * @param request The request URL
+     * @param base The base URL that the request was built from, or null for none
+     *
+     * @return The request URL, routed to this endpoint
+     */
+    public HttpUrl route(HttpUrl request, HttpUrl base) {
+        HttpUrl.Builder builder = request.newBuilder()
+                .scheme(this.url.scheme())
+                .host(this.url.host())
+                .port(this.url.port());
+        if (base != null) {
+            List<String> prefix = prefix(base);
+            List<String> path = request.pathSegments();
+            if (path.size() >= prefix.size() && path.subList(0, prefix.size()).equals(prefix)) {
+                List<String> replacement = prefix(this.url);
+                if (!prefix.equals(replacement)) {
+                    builder.encodedPath("/");
+                    for (String segment : replacement)
+                        builder.addPathSegment(segment);
+                    for (String segment : path.subList(prefix.size(), path.size()))
+                        builder.addPathSegment(segment);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    // The path segments of a base URL, without the trailing empty segment
+    private static List<String> prefix(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        if (!segments.isEmpty() && segments.get(segments.size() - 1).isEmpty())
+            segments = segments.subList(0, segments.size() - 1);
+        return segments;
+    }
+
+    /**
+     * Record the start of a request.
+     */
+    public void start() {
+        this.outstanding.incrementAndGet();
+    }
+
+    /**
+     * Record the end of a request.
+     *
+     * @param nanos The request latency in nanoseconds
+     */
+    public void finish(long nanos) {
+        this.outstanding.decrementAndGet();
+        this.failed = null;
+        this.observe(nanos);
+    }
+
+    /**
+     * Record the failure of a request.
+     * <p>
+     * Failures are treated as a very slow response.
+     * The endpoint is also treated as unavailable until {@link #RETRY} has passed or a request succeeds.
+     * </p>
+     */
+    public void fail() {
+        this.outstanding.decrementAndGet();
+        this.failed = System.nanoTime();
+        this.observe(PENALTY);
+    }
+
+    /**
+     * Record a request that was cancelled before it could complete.
+     * <p>
+     * A cancelled request says nothing about the endpoint, so only the count of requests in progress changes.
+     * </p>
+     */
+    public void cancel() {
+        this.outstanding.decrementAndGet();
+    }
+
+    /**
+     * Is this endpoint available?
+     *
+     * @return False if a request has failed within the retry time and no request has succeeded since
+     */
+    public boolean isAvailable() {
+        Long f = this.failed;
+        return f == null || System.nanoTime() - f >= RETRY;
+    }
+
+    /**
+     * Get the number of requests in progress.
+     *
+     * @return The number of requests in progress
+     */
+    public int getOutstanding() {
+        return this.outstanding.get();
+    }
+
+    /**
+     * Get the current latency estimate.
+     *
+     * @return The latency average in nanoseconds, decayed to the current time
+     */
+    public synchronized double getLatency() {
+        return this.decayed(System.nanoTime());
+    }
+
+    /**
+     * Get the cost of sending a request to this endpoint.
+     * <p>
+     * The cost is the latency estimate scaled by the number of requests in progress.
+     * Endpoints with no history have a latency of zero and are chosen
+     * by the number of requests in progress.
+     * </p>
+     *
+     * @return The cost
+     */
+    public double getCost() {
+        return (this.getLatency() + 1.0) * (this.outstanding.get() + 1);
+    }
+
+    // Update the latency average
+    private synchronized void observe(long nanos) {
+        long now = System.nanoTime();
+        if (nanos > this.latency) {
+            this.latency = nanos;
+        } else {
+            double w = Math.exp(-(double) (now - this.updated) / DECAY);
+            this.latency = this.latency * w + nanos * (1.0 - w);
+        }
+        this.updated = now;
+    }
+
+    // The latency average, decaying towards zero while there are no observations so that idle endpoints are tried again
+    private double decayed(long now) {
+        return this.latency * Math.exp(-(double) Math.max(0L, now - this.updated) / DECAY);
+    }
+
+    @Override
+    public String toString() {
+        return this.url.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package au.org.ala.ws;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a retrofit service method as safe to repeat.
+ * <p>
+ * GET requests are always treated as safe to repeat.
+ * Other requests, such as POST requests that carry a search in the body,
+ * can be marked with this annotation so that they can be retried against
+ * another endpoint or hedged.
+ * </p>
+ *
+ * @see LoadBalancingInterceptor
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Idempotent {
+}
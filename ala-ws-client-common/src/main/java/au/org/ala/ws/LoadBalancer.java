@@ -0,0 +1,273 @@
+package au.org.ala.ws;
+
+import lombok.Getter;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Choose an endpoint for each request from a list of equivalent servers.
+ * <p>
+ * Endpoints are chosen by the "power of two choices" method:
+ * two endpoints are picked at random and the one with the lower
+ * {@link Endpoint#getCost() cost} is used.
+ * This sends most requests to fast, lightly loaded servers without
+ * sending all requests to the single best server.
+ * </p>
+ * <p>
+ * With the {@link Strategy#AFFINITY} strategy, requests that carry a routing key are
+ * sent to an endpoint chosen by consistent hashing, so that the same key always goes to
+ * the same server and each server's cache holds a different part of the key space.
+ * An endpoint with much more than its share of the requests in progress is skipped in favour of the
+ * next endpoint on the hash ring, as is an endpoint that has recently failed.
+ * When a failed endpoint recovers, its keys return to it.
+ * Requests without a routing key are balanced as above.
+ * </p>
+ * <p>
+ * The balancer also keeps a window of recent request latencies,
+ * which is used to decide when to send a hedged request.
+ * </p>
+ */
+public class LoadBalancer {
+    /** The number of recent latencies kept */
+    public static final int WINDOW = 1024;
+    /** The number of latencies needed before a percentile is calculated */
+    public static final int MIN_SAMPLES = 20;
+    /** The number of new latencies before the percentile is recalculated */
+    private static final int RECALCULATE = 64;
+    /** The number of points on the hash ring for each endpoint */
+    public static final int VIRTUAL_NODES = 128;
+    /** The maximum load on an endpoint, relative to the average, before requests spill over to the next endpoint */
+    public static final double LOAD_FACTOR = 1.25;
+
+    /** The endpoints */
+    @Getter
+    private final List<Endpoint> endpoints;
+    /** The latency percentile used for hedging */
+    @Getter
+    private final double percentile;
+    /** The routing strategy */
+    @Getter
+    private final Strategy strategy;
+    /** The base URL that requests are built from */
+    @Getter
+    private final HttpUrl base;
+    /** The hash ring positions, in ascending order */
+    private final int[] ring;
+    /** The endpoint at each hash ring position */
+    private final Endpoint[] owners;
+    /** Recent latencies in nanoseconds */
+    private final long[] latencies;
+    /** The total number of latencies recorded */
+    private long count;
+    /** The most recently calculated percentile, in nanoseconds, or -1 for not enough samples */
+    private long cached;
+
+    /**
+     * Construct a load balancer.
+     *
+     * @param urls The endpoint URLs
+     * @param percentile The latency percentile used for hedging, between 0 and 100
+     */
+    public LoadBalancer(List<URL> urls, double percentile) {
+        this(urls, percentile, Strategy.BALANCED);
+    }
+
+    /**
+     * Construct a load balancer.
+     *
+     * @param urls The endpoint URLs
+     * @param percentile The latency percentile used for hedging, between 0 and 100
+     * @param strategy The routing strategy
+     */
+    public LoadBalancer(List<URL> urls, double percentile, Strategy strategy) {
+        this(urls, percentile, strategy, null);
+    }
+
+    /**
+     * Construct a load balancer.
+     *
+     * @param urls The endpoint URLs
+     * @param percentile The latency percentile used for hedging, between 0 and 100
+     * @param strategy The routing strategy
+     * @param base The base URL that requests are built from, or null for the first endpoint
+     */
+    public LoadBalancer(List<URL> urls, double percentile, Strategy strategy, URL base) {
+        if (urls == null || urls.isEmpty())
+            throw new IllegalArgumentException("No endpoints supplied");
+        if (percentile <= 0.0 || percentile > 100.0)
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        this.endpoints = Collections.unmodifiableList(urls.stream().map(Endpoint::new).collect(Collectors.toList()));
+        this.percentile = percentile;
+        this.strategy = strategy == null ? Strategy.BALANCED : strategy;
+        this.base = base == null ? this.endpoints.get(0).getUrl() : HttpUrl.get(base.toExternalForm());
+        this.ring = new int[this.endpoints.size() * VIRTUAL_NODES];
+        this.owners = new Endpoint[this.ring.length];
+        this.buildRing();
+        this.latencies = new long[WINDOW];
+        this.count = 0;
+        this.cached = -1;
+    }
+
+    /**
+     * Choose an endpoint for a request.
+     *
+     * @param request The request
+     * @param exclude Endpoints that should not be used, such as endpoints that have already failed
+     *
+     * @return The chosen endpoint, or null if all endpoints are excluded
+     */
+    public Endpoint choose(Request request, Collection<Endpoint> exclude) {
+        return this.choose(request, null, exclude);
+    }
+
+    /**
+     * Choose an endpoint for a request with a routing key.
+     *
+     * @param request The request
+     * @param key The routing key, or null for no key
+     * @param exclude Endpoints that should not be used, such as endpoints that have already failed
+     *
+     * @return The chosen endpoint, or null if all endpoints are excluded
+     */
+    public Endpoint choose(Request request, Object key, Collection<Endpoint> exclude) {
+        if (key != null && this.strategy == Strategy.AFFINITY) {
+            Endpoint endpoint = this.locate(key, exclude);
+            if (endpoint != null)
+                return endpoint;
+        }
+        List<Endpoint> candidates = this.endpoints;
+        if (!exclude.isEmpty()) {
+            candidates = new ArrayList<>(this.endpoints);
+            candidates.removeAll(exclude);
+        }
+        int n = candidates.size();
+        if (n == 0)
+            return null;
+        if (n == 1)
+            return candidates.get(0);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(n);
+        int j = random.nextInt(n - 1);
+        if (j >= i)
+            j++;
+        Endpoint a = candidates.get(i);
+        Endpoint b = candidates.get(j);
+        return a.getCost() <= b.getCost() ? a : b;
+    }
+
+    /**
+     * Record the latency of a successful request.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        this.latencies[(int) (this.count % WINDOW)] = nanos;
+        this.count++;
+        if (this.count % RECALCULATE == 0 || this.count == MIN_SAMPLES)
+            this.cached = this.calculate();
+    }
+
+    /**
+     * Get the latency percentile of recent requests.
+     *
+     * @return The latency at the hedging percentile, in nanoseconds, or -1 if there are not enough samples
+     */
+    public synchronized long getLatencyPercentile() {
+        return this.cached;
+    }
+
+    /**
+     * Find the endpoint for a key on the hash ring.
+     * <p>
+     * The ring is walked from the key's position until an available endpoint with no more than
+     * {@link #LOAD_FACTOR} times the average number of requests in progress is found.
+     * If every endpoint is unavailable, the first endpoint that is not excluded is used.
+     * </p>
+     *
+     * @param key The routing key
+     * @param exclude Endpoints that should not be used
+     *
+     * @return The endpoint, or null if all endpoints are excluded
+     */
+    public Endpoint locate(Object key, Collection<Endpoint> exclude) {
+        int total = 1;
+        int available = 0;
+        for (Endpoint endpoint : this.endpoints) {
+            if (!exclude.contains(endpoint) && endpoint.isAvailable()) {
+                total += endpoint.getOutstanding();
+                available++;
+            }
+        }
+        int bound = available == 0 ? Integer.MAX_VALUE : (int) Math.ceil(LOAD_FACTOR * total / available);
+        int start = Arrays.binarySearch(this.ring, mix(key.hashCode()));
+        if (start < 0)
+            start = -start - 1;
+        Endpoint fallback = null;
+        for (int i = 0; i < this.ring.length; i++) {
+            Endpoint endpoint = this.owners[(start + i) % this.ring.length];
+            if (exclude.contains(endpoint))
+                continue;
+            if (fallback == null)
+                fallback = endpoint;
+            if (available == 0 || (endpoint.isAvailable() && endpoint.getOutstanding() + 1 <= bound))
+                return endpoint;
+        }
+        return fallback;
+    }
+
+    // Place each endpoint at a number of points around the hash ring
+    private void buildRing() {
+        long[] points = new long[this.ring.length];
+        int p = 0;
+        for (int e = 0; e < this.endpoints.size(); e++) {
+            String name = this.endpoints.get(e).getUrl().toString();
+            for (int v = 0; v < VIRTUAL_NODES; v++)
+                points[p++] = ((long) mix((name + "#" + v).hashCode()) << 32) | e;
+        }
+        Arrays.sort(points);
+        for (int i = 0; i < points.length; i++) {
+            this.ring[i] = (int) (points[i] >> 32);
+            this.owners[i] = this.endpoints.get((int) points[i]);
+        }
+    }
+
+    // Spread a hash code across the full range of integers (the murmur3 finaliser)
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // Calculate the percentile from the current window
+    private long calculate() {
+        int n = (int) Math.min(this.count, WINDOW);
+        if (n < MIN_SAMPLES)
+            return -1;
+        long[] sorted = Arrays.copyOf(this.latencies, n);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(this.percentile / 100.0 * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, index))];
+    }
+
+    /**
+     * The way that endpoints are chosen.
+     */
+    public enum Strategy {
+        /** Send each request to the cheapest endpoint */
+        BALANCED,
+        /** Send requests with a routing key to the same endpoint each time, where possible */
+        AFFINITY
+    }
+}
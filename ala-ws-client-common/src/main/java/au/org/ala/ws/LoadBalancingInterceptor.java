@@ -0,0 +1,497 @@
+package au.org.ala.ws;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import retrofit2.Invocation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Send requests to one of a number of equivalent servers.
+ * <p>
+ * Each request is sent to an endpoint chosen by a {@link LoadBalancer}.
+ * If a request that is safe to repeat fails to get a response, it is retried on another endpoint.
+ * </p>
+ * <p>
+ * If hedging is enabled, a request that is safe to repeat and which has not completed after
+ * the hedge delay is sent to a second endpoint, and whichever response arrives first is used.
+ * The first attempt runs on the calling thread and the hedge goes through the client's dispatcher,
+ * so hedging does not need extra threads or get around the dispatcher's request limits.
+ * The hedge delay is either fixed or taken from a percentile of recent request latencies,
+ * so that only the slowest few percent of requests are duplicated.
+ * </p>
+ * <p>
+ * Requests are safe to repeat if they are GET requests or if the retrofit service method
+ * is marked as {@link Idempotent}.
+ * </p>
+ * <p>
+ * The routing key for a request is taken from the retrofit service method parameters marked as {@link Affinity}.
+ * The parameter values are passed through a key function, which can be used to
+ * normalise them so that equivalent requests have the same key.
+ * </p>
+ */
+@Slf4j
+public class LoadBalancingInterceptor implements Interceptor {
+    /** How often to check for cancellation and hedging while waiting for a hedged request, in milliseconds */
+    private static final long POLL = 100L;
+    /** Watches hedged requests. This only starts hedges and cancels calls, so one thread is enough */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hedge-watch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The load balancer */
+    @Getter
+    private final LoadBalancer balancer;
+    /** The client used to make hedged requests. This must not include this interceptor */
+    private final OkHttpClient client;
+    /** Hedge requests */
+    @Getter
+    private final boolean hedge;
+    /** The fixed hedge delay in milliseconds, or null to use the latency percentile */
+    @Getter
+    private final Long hedgeDelay;
+    /** The function that converts a parameter value into a routing key */
+    private final Function<Object, Object> affinity;
+    /** The indexes of the routing key parameters for each service method */
+    private final Map<Method, int[]> keyParameters;
+
+    /**
+     * Construct an interceptor.
+     *
+     * @param balancer The load balancer
+     * @param client The client used for hedged requests, which should not include this interceptor
+     * @param hedge Hedge requests that are safe to repeat
+     * @param hedgeDelay The fixed hedge delay in milliseconds, or null to use the balancer's latency percentile
+     */
+    public LoadBalancingInterceptor(LoadBalancer balancer, OkHttpClient client, boolean hedge, Long hedgeDelay) {
+        this(balancer, client, hedge, hedgeDelay, null);
+    }
+
+    /**
+     * Construct an interceptor.
+     *
+     * @param balancer The load balancer
+     * @param client The client used for hedged requests, which should not include this interceptor
+     * @param hedge Hedge requests that are safe to repeat
+     * @param hedgeDelay The fixed hedge delay in milliseconds, or null to use the balancer's latency percentile
+     * @param affinity The function that converts a parameter value into a routing key (null for the value itself)
+     */
+    public LoadBalancingInterceptor(LoadBalancer balancer, OkHttpClient client, boolean hedge, Long hedgeDelay, Function<Object, Object> affinity) {
+        this.balancer = balancer;
+        this.affinity = affinity == null ? Function.identity() : affinity;
+        this.keyParameters = new ConcurrentHashMap<>();
+        this.client = client;
+        this.hedge = hedge;
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean idempotent = isIdempotent(request);
+        Object key = this.balancer.getStrategy() == LoadBalancer.Strategy.AFFINITY ? this.getKey(request) : null;
+        if (this.hedge && idempotent && this.balancer.getEndpoints().size() > 1) {
+            long delay = this.getDelay();
+            if (delay >= 0)
+                return this.hedged(chain, request, key, delay);
+        }
+        List<Endpoint> failed = new ArrayList<>(1);
+        Endpoint endpoint = this.balancer.choose(request, key, failed);
+        while (true) {
+            try {
+                return this.proceed(chain, request, endpoint);
+            } catch (IOException ex) {
+                if (!idempotent || chain.call().isCanceled())
+                    throw ex;
+                failed.add(endpoint);
+                Endpoint next = this.balancer.choose(request, key, failed);
+                if (next == null)
+                    throw ex;
+                log.debug("Request to {} failed, retrying on {}", endpoint, next, ex);
+                endpoint = next;
+            }
+        }
+    }
+
+    /**
+     * Get the hedge delay.
+     *
+     * @return The delay in milliseconds, or -1 if there is not yet enough information to hedge
+     */
+    public long getDelay() {
+        if (this.hedgeDelay != null)
+            return this.hedgeDelay;
+        long percentile = this.balancer.getLatencyPercentile();
+        return percentile < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(percentile);
+    }
+
+    // Send a request to an endpoint via the chain
+    private Response proceed(Chain chain, Request request, Endpoint endpoint) throws IOException {
+        Request routed = request.newBuilder().url(this.route(request.url(), endpoint)).build();
+        long start = System.nanoTime();
+        endpoint.start();
+        try {
+            Response response = chain.proceed(routed);
+            this.complete(endpoint, response, System.nanoTime() - start);
+            return response;
+        } catch (IOException | RuntimeException ex) {
+            endpoint.fail();
+            throw ex;
+        }
+    }
+
+    // Point a request URL at an endpoint
+    private HttpUrl route(HttpUrl url, Endpoint endpoint) {
+        return endpoint.route(url, this.balancer.getBase());
+    }
+
+    // Record the outcome of a request
+    private void complete(Endpoint endpoint, Response response, long nanos) {
+        if (response.code() >= 500) {
+            endpoint.fail();
+        } else {
+            endpoint.finish(nanos);
+            this.balancer.record(nanos);
+        }
+    }
+
+    // Send a request with a hedge
+    private Response hedged(Chain chain, Request request, Object key, long delay) throws IOException {
+        Hedge hedge = new Hedge(chain.call(), request, key, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        Endpoint endpoint = hedge.choose();
+        ScheduledFuture<?> watch = SCHEDULER.scheduleWithFixedDelay(hedge::watch, Math.min(delay, POLL), POLL, TimeUnit.MILLISECONDS);
+        try {
+            while (true) {
+                IOException failure = null;
+                Call call = this.client.newCall(request.newBuilder().url(this.route(request.url(), endpoint)).build());
+                if (hedge.attempt(call)) {
+                    try {
+                        Response response = this.execute(call, endpoint);
+                        if (hedge.win(response))
+                            return response;
+                        response.close();
+                    } catch (IOException ex) {
+                        failure = ex;
+                    }
+                }
+                if (chain.call().isCanceled())
+                    throw failure != null ? failure : new IOException("Canceled");
+                Response response = hedge.await();
+                if (response != null)
+                    return response;
+                Endpoint next = hedge.choose();
+                if (next == null)
+                    throw failure != null ? failure : new IOException("No endpoints available");
+                log.debug("Request to {} failed, retrying on {}", endpoint, next, failure);
+                endpoint = next;
+            }
+        } finally {
+            watch.cancel(false);
+            hedge.close();
+        }
+    }
+
+    // Execute a call on the current thread, recording the outcome
+    private Response execute(Call call, Endpoint endpoint) throws IOException {
+        long start = System.nanoTime();
+        endpoint.start();
+        try {
+            Response response = call.execute();
+            this.complete(endpoint, response, System.nanoTime() - start);
+            return response;
+        } catch (IOException | RuntimeException ex) {
+            endpoint.fail();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the routing key for a request.
+     *
+     * @param request The request
+     *
+     * @return The routing key, or null if the service method has no {@link Affinity} parameters or the key is null
+     */
+    public Object getKey(Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation == null)
+            return null;
+        int[] indexes = this.keyParameters.computeIfAbsent(invocation.method(), LoadBalancingInterceptor::findKeyParameters);
+        List<?> arguments = invocation.arguments();
+        if (indexes.length == 0)
+            return null;
+        if (indexes.length == 1)
+            return this.toKey(arguments.get(indexes[0]));
+        List<Object> key = new ArrayList<>(indexes.length);
+        for (int index : indexes)
+            key.add(this.toKey(arguments.get(index)));
+        return key;
+    }
+
+    // Convert a parameter value into a key
+    private Object toKey(Object value) {
+        return value == null ? null : this.affinity.apply(value);
+    }
+
+    // Find the parameters marked as routing keys
+    private static int[] findKeyParameters(Method method) {
+        Annotation[][] annotations = method.getParameterAnnotations();
+        return IntStream.range(0, annotations.length)
+                .filter(i -> Arrays.stream(annotations[i]).anyMatch(a -> a instanceof Affinity))
+                .toArray();
+    }
+
+    /**
+     * Is this request safe to repeat?
+     *
+     * @param request The request
+     *
+     * @return True if the request is a GET request or the service method is marked as {@link Idempotent}
+     */
+    public static boolean isIdempotent(Request request) {
+        if (request.body() != null && request.body().isOneShot())
+            return false;
+        if ("GET".equals(request.method()) || "HEAD".equals(request.method()))
+            return true;
+        Invocation invocation = request.tag(Invocation.class);
+        return invocation != null && invocation.method().isAnnotationPresent(Idempotent.class);
+    }
+
+    /**
+     * The state of a hedged request.
+     * <p>
+     * The primary attempt runs on the calling thread.
+     * If it has not finished by the deadline, a second attempt is sent to another endpoint
+     * through the client's dispatcher, so that it is subject to the usual request limits.
+     * Whichever attempt responds first wins and the other attempt is cancelled.
+     * If the primary attempt fails before the deadline, no hedge is sent and the request is
+     * retried on another endpoint in the usual way.
+     * If the primary attempt fails after the hedge has been queued but before the dispatcher has started it,
+     * the hedge is dropped and the request is retried at once.
+     * </p>
+     */
+    private class Hedge {
+        /** The original call */
+        private final Call outer;
+        /** The request */
+        private final Request request;
+        /** The routing key */
+        private final Object key;
+        /** The time at which to hedge, in nanoseconds */
+        private final long deadline;
+        /** The endpoints that have been used */
+        private final List<Endpoint> used;
+        /** The outcome of the hedge, null if the hedge failed or lost */
+        private final CompletableFuture<Response> outcome;
+        /** The current primary call */
+        private Call primary;
+        /** The hedge call, if sent */
+        private Call secondary;
+        /** The endpoint for the hedge call */
+        private Endpoint hedged;
+        /** Set once no hedge is to be sent */
+        private boolean sent;
+        /** Set once a response has been chosen */
+        private boolean settled;
+
+        public Hedge(Call outer, Request request, Object key, long deadline) {
+            this.outer = outer;
+            this.request = request;
+            this.key = key;
+            this.deadline = deadline;
+            this.used = new ArrayList<>(2);
+            this.outcome = new CompletableFuture<>();
+        }
+
+        /**
+         * Choose an unused endpoint.
+         *
+         * @return The endpoint, or null for none available
+         */
+        public synchronized Endpoint choose() {
+            Endpoint endpoint = balancer.choose(this.request, this.key, this.used);
+            if (endpoint != null)
+                this.used.add(endpoint);
+            return endpoint;
+        }
+
+        /**
+         * Start a primary attempt.
+         *
+         * @param call The call for the attempt
+         *
+         * @return True if the attempt should go ahead, false if a response has already been chosen
+         */
+        public synchronized boolean attempt(Call call) {
+            if (this.settled)
+                return false;
+            this.primary = call;
+            return true;
+        }
+
+        /**
+         * Offer the response to the primary attempt.
+         *
+         * @param response The response
+         *
+         * @return True if the primary response is to be used, false if the hedge has already won
+         */
+        public synchronized boolean win(Response response) {
+            if (this.settled)
+                return false;
+            this.settled = true;
+            if (this.secondary != null)
+                this.secondary.cancel();
+            return true;
+        }
+
+        /**
+         * Wait for the hedge, if there is one, after the primary attempt has failed or lost.
+         * <p>
+         * If the hedge is still queued in the dispatcher, it is cancelled rather than waited for,
+         * since it may be waiting for the slot held by the original call.
+         * The hedge endpoint is then available for the retry.
+         * </p>
+         *
+         * @return The hedge response, or null if there is no hedge or the hedge failed
+         *
+         * @throws IOException if the original call has been cancelled
+         */
+        public Response await() throws IOException {
+            synchronized (this) {
+                if (!this.sent) {
+                    this.sent = true;
+                    return null;
+                }
+                if (this.secondary == null)
+                    return null;
+                if (!this.settled && client.dispatcher().queuedCalls().contains(this.secondary)) {
+                    // The hedge is waiting for a dispatcher slot, possibly the one held by the original call,
+                    // so waiting for it could deadlock. Drop it and retry straight away
+                    this.secondary.cancel();
+                    this.used.remove(this.hedged);
+                    this.secondary = null;
+                    return null;
+                }
+            }
+            while (true) {
+                if (this.outer.isCanceled())
+                    throw new IOException("Canceled");
+                try {
+                    return this.outcome.get(POLL, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ex) {
+                    // Check cancellation and try again
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for response");
+                } catch (ExecutionException ex) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Check for cancellation and send the hedge when the deadline has passed.
+         */
+        public void watch() {
+            Endpoint endpoint;
+            Call call;
+            Call original;
+            synchronized (this) {
+                if (this.settled)
+                    return;
+                if (this.outer.isCanceled()) {
+                    this.cancel();
+                    return;
+                }
+                if (this.sent || System.nanoTime() < this.deadline)
+                    return;
+                this.sent = true;
+                endpoint = balancer.choose(this.request, this.key, this.used);
+                if (endpoint == null) {
+                    this.outcome.complete(null);
+                    return;
+                }
+                this.used.add(endpoint);
+                call = client.newCall(this.request.newBuilder().url(route(this.request.url(), endpoint)).build());
+                this.secondary = call;
+                this.hedged = endpoint;
+                original = this.primary;
+            }
+            log.debug("Hedging request to {} with {}", original == null ? null : original.request().url(), endpoint);
+            long start = System.nanoTime();
+            endpoint.start();
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    complete(endpoint, response, System.nanoTime() - start);
+                    synchronized (Hedge.this) {
+                        if (settled) {
+                            response.close();
+                            outcome.complete(null);
+                            return;
+                        }
+                        settled = true;
+                        if (primary != null)
+                            primary.cancel();
+                    }
+                    outcome.complete(response);
+                }
+
+                @Override
+                public void onFailure(Call call, IOException ex) {
+                    if (call.isCanceled())
+                        endpoint.cancel();
+                    else
+                        endpoint.fail();
+                    outcome.complete(null);
+                }
+            });
+        }
+
+        /**
+         * Finish with the request, cancelling anything still in progress.
+         * The winning call is left alone, so that the response body can be read.
+         */
+        public synchronized void close() {
+            if (!this.settled) {
+                this.settled = true;
+                this.cancel();
+            }
+        }
+
+        // Cancel the calls in progress
+        private void cancel() {
+            if (this.primary != null)
+                this.primary.cancel();
+            if (this.secondary != null)
+                this.secondary.cancel();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package au.org.ala.ws;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import retrofit2.Invocation;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Report HTTP requests to a {@link ClientMetrics} listener.
+ * <p>
+ * Requests are named after the retrofit service method that made them,
+ * or the URL path if there is no service method.
+ * Service method parameters that are collections are reported as batches.
+ * A request is finished when the response body has been read and closed,
+ * so that the time taken and the response size include the whole response.
+ * </p>
+ */
+public class MetricsInterceptor implements Interceptor {
+    /** The metrics listener */
+    private final ClientMetrics metrics;
+
+    /**
+     * Construct an interceptor.
+     *
+     * @param metrics The metrics listener
+     */
+    public MetricsInterceptor(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String method = getMethod(request);
+        long requestBytes = request.body() == null ? 0 : request.body().contentLength();
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation != null) {
+            for (Object arg : invocation.arguments())
+                if (arg instanceof Collection)
+                    this.metrics.batch(method, ((Collection<?>) arg).size());
+        }
+        long start = System.nanoTime();
+        this.metrics.requestStarted(method);
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException ex) {
+            this.metrics.requestFailed(method, System.nanoTime() - start);
+            throw ex;
+        }
+        ResponseBody body = response.body();
+        if (body == null) {
+            this.metrics.requestFinished(method, response.code(), System.nanoTime() - start, requestBytes, -1);
+            return response;
+        }
+        return response.newBuilder().body(new CountingBody(body, method, response.code(), start, requestBytes)).build();
+    }
+
+    /**
+     * Get the name of a request.
+     *
+     * @param request The request
+     *
+     * @return The retrofit service method name, or the URL path if there is no service method
+     */
+    public static String getMethod(Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        return invocation != null ? invocation.method().getName() : request.url().encodedPath();
+    }
+
+    /**
+     * A response body that reports the request when it is closed.
+     */
+    private class CountingBody extends ResponseBody {
+        private final ResponseBody body;
+        private final String method;
+        private final int status;
+        private final long start;
+        private final long requestBytes;
+        private final AtomicBoolean reported;
+        private long responseBytes;
+        private BufferedSource source;
+
+        public CountingBody(ResponseBody body, String method, int status, long start, long requestBytes) {
+            this.body = body;
+            this.method = method;
+            this.status = status;
+            this.start = start;
+            this.requestBytes = requestBytes;
+            this.reported = new AtomicBoolean();
+            this.responseBytes = 0;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return this.body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return this.body.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            if (this.source == null) {
+                this.source = Okio.buffer(new ForwardingSource(this.body.source()) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read > 0)
+                            responseBytes += read;
+                        return read;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        report();
+                        super.close();
+                    }
+                });
+            }
+            return this.source;
+        }
+
+        @Override
+        public void close() {
+            this.report();
+            this.body.close();
+        }
+
+        // Report the request once
+        private void report() {
+            if (this.reported.compareAndSet(false, true))
+                metrics.requestFinished(this.method, this.status, System.nanoTime() - this.start, this.requestBytes, this.responseBytes);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package au.org.ala.ws;
 import au.org.ala.util.TestUtils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import okhttp3.OkHttpClient;
 import org.cache2k.Cache;
 import org.cache2k.Cache2kBuilder;
 import org.junit.Test;
@@ -75,6 +76,32 @@ public class ClientConfigurationTest extends TestUtils {
         cache.get().clearAndClose();
     }
 
+    @Test
+    public void testBuild7() throws Exception {
+        ClientConfiguration.ClientConfigurationBuilder builder = ClientConfiguration.builder();
+        builder.cache(false);
+        builder.maxRequests(200);
+        builder.maxRequestsPerHost(100);
+        ClientConfiguration configuration = builder.build();
+        assertEquals(200, configuration.getMaxRequests().intValue());
+        assertEquals(100, configuration.getMaxRequestsPerHost().intValue());
+        OkHttpClient client = configuration.createClient();
+        assertEquals(200, client.dispatcher().getMaxRequests());
+        assertEquals(100, client.dispatcher().getMaxRequestsPerHost());
+    }
+
+    @Test
+    public void testBuild8() throws Exception {
+        ClientConfiguration.ClientConfigurationBuilder builder = ClientConfiguration.builder();
+        builder.cache(false);
+        ClientConfiguration configuration = builder.build();
+        assertNull(configuration.getMaxRequests());
+        assertNull(configuration.getMaxRequestsPerHost());
+        OkHttpClient client = configuration.createClient();
+        assertEquals(64, client.dispatcher().getMaxRequests());
+        assertEquals(5, client.dispatcher().getMaxRequestsPerHost());
+    }
+
     @Test
     public void testWriteJson1() throws Exception {
         ClientConfiguration configuration = ClientConfiguration.builder()
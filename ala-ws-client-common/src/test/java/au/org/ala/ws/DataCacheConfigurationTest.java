@@ -8,9 +8,13 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class DataCacheConfigurationTest extends TestUtils {
     @Test
@@ -37,6 +41,40 @@ public class DataCacheConfigurationTest extends TestUtils {
         assertEquals(false, configuration.isSuppressExceptions());
     }
 
+    @Test
+    public void testReadJSON3() throws Exception {
+        ObjectMapper om = new ObjectMapper();
+        DataCacheConfiguration configuration = om.readValue(this.getClass().getResource("cache-config-3.json"), DataCacheConfiguration.class);
+        assertEquals(20000, configuration.getEntryCapacity());
+        assertEquals(2, configuration.getMethods().size());
+        assertEquals(500000, configuration.forMethod("get").getEntryCapacity());
+        assertEquals(true, configuration.forMethod("get").isPermitNullValues());
+        assertEquals(100, configuration.forMethod("check").getEntryCapacity());
+        assertEquals(false, configuration.forMethod("check").isPermitNullValues());
+        assertSame(configuration, configuration.forMethod("match"));
+    }
+
+    @Test
+    public void testReadJSON4() throws Exception {
+        ObjectMapper om = new ObjectMapper();
+        DataCacheConfiguration configuration = om.readValue(this.getClass().getResource("cache-config-4.json"), DataCacheConfiguration.class);
+        assertEquals(3600000L, configuration.getExpireAfterWrite().longValue());
+        assertEquals(300000L, configuration.getRefreshAhead().longValue());
+        assertEquals(600000L, configuration.getStaleWhileRevalidate().longValue());
+        assertEquals(3300000L, configuration.getRefreshTime().longValue());
+        assertEquals(4200000L, configuration.getRetentionTime().longValue());
+    }
+
+    @Test
+    public void testRefreshTime1() throws Exception {
+        DataCacheConfiguration configuration = DataCacheConfiguration.builder().build();
+        assertNull(configuration.getRefreshTime());
+        assertNull(configuration.getRetentionTime());
+        configuration = DataCacheConfiguration.builder().expireAfterWrite(1000L).build();
+        assertEquals(1000L, configuration.getRefreshTime().longValue());
+        assertEquals(1000L, configuration.getRetentionTime().longValue());
+    }
+
     @Test
     public void testWriteJSON1() throws Exception {
         DataCacheConfiguration configuration = DataCacheConfiguration.builder()
@@ -80,5 +118,42 @@ public class DataCacheConfigurationTest extends TestUtils {
         Assert.assertEquals("fredX", cache.get("fred"));
     }
 
+    /** Entries are kept for the stale period when there is no loader */
+    @Test
+    public void testCreateBuilder2() throws Exception {
+        DataCacheConfiguration configuration = DataCacheConfiguration.builder()
+                .expireAfterWrite(100L)
+                .staleWhileRevalidate(10000L)
+                .build();
+        Cache<String, String> cache = configuration.cacheBuilder(String.class, String.class).build();
+        cache.put("hello", "helloX");
+        Thread.sleep(300);
+        assertEquals("helloX", cache.peek("hello"));
+    }
 
+    /** Loading caches refresh entries in the background and keep returning the old value */
+    @Test
+    public void testLoadingBuilder1() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        DataCacheConfiguration configuration = DataCacheConfiguration.builder()
+                .expireAfterWrite(400L)
+                .refreshAhead(200L)
+                .build();
+        Cache<String, String> cache = configuration.loadingCacheBuilder(String.class, String.class, k -> k + loads.incrementAndGet()).build();
+        assertEquals("hello1", cache.get("hello"));
+        long end = System.currentTimeMillis() + 5000;
+        while (loads.get() < 2 && System.currentTimeMillis() < end) {
+            assertNotNull(cache.peek("hello"));
+            Thread.sleep(20);
+        }
+        assertTrue(loads.get() >= 2);
+        assertTrue(cache.get("hello").startsWith("hello"));
+    }
+
+    @Test
+    public void testLoadingBuilder2() throws Exception {
+        DataCacheConfiguration configuration = DataCacheConfiguration.builder().build();
+        Cache<String, String> cache = configuration.loadingCacheBuilder(String.class, String.class, k -> k + "X").build();
+        assertEquals("helloX", cache.get("hello"));
+    }
 }
@@ -0,0 +1,75 @@
+package au.org.ala.ws;
+
+import com.codahale.metrics.MetricRegistry;
+import okhttp3.Request;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Invocation;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class DropwizardClientMetricsTest {
+    private MetricRegistry registry;
+    private DropwizardClientMetrics metrics;
+
+    @Before
+    public void setUp() {
+        this.registry = new MetricRegistry();
+        this.metrics = new DropwizardClientMetrics(this.registry, "test");
+    }
+
+    @Test
+    public void testCall1() {
+        this.metrics.call("match");
+        this.metrics.call("match");
+        this.metrics.call("get");
+        assertEquals(2, this.registry.meter("test.calls.match").getCount());
+        assertEquals(1, this.registry.meter("test.calls.get").getCount());
+    }
+
+    @Test
+    public void testCache1() {
+        this.metrics.cacheHit("match");
+        this.metrics.cacheHit("match");
+        this.metrics.cacheHit("match");
+        this.metrics.cacheMiss("match");
+        assertEquals(3, this.registry.meter("test.cache.match.hits").getCount());
+        assertEquals(1, this.registry.meter("test.cache.match.misses").getCount());
+        assertEquals(0.75, (Double) this.registry.getGauges().get("test.cache.match.hitRatio").getValue(), 0.001);
+    }
+
+    @Test
+    public void testRequest1() {
+        this.metrics.batch("matchAll", 10);
+        this.metrics.requestStarted("matchAll");
+        assertEquals(1, this.registry.counter("test.requests.inFlight").getCount());
+        this.metrics.requestFinished("matchAll", 200, 1000000L, 100, -1);
+        assertEquals(0, this.registry.counter("test.requests.inFlight").getCount());
+        assertEquals(1, this.registry.timer("test.requests.matchAll").getCount());
+        assertEquals(100, this.registry.histogram("test.requests.matchAll.requestBytes").getSnapshot().getMax());
+        assertEquals(0, this.registry.histogram("test.requests.matchAll.responseBytes").getCount());
+        assertEquals(10, this.registry.histogram("test.batches.matchAll").getSnapshot().getMax());
+        assertEquals(0, this.registry.meter("test.requests.matchAll.errors").getCount());
+    }
+
+    @Test
+    public void testRequest2() {
+        this.metrics.requestStarted("match");
+        this.metrics.requestFinished("match", 404, 1000000L, 10, 10);
+        this.metrics.requestStarted("match");
+        this.metrics.requestFailed("match", 1000000L);
+        assertEquals(0, this.registry.counter("test.requests.inFlight").getCount());
+        assertEquals(2, this.registry.timer("test.requests.match").getCount());
+        assertEquals(2, this.registry.meter("test.requests.match.errors").getCount());
+    }
+
+    @Test
+    public void testMethod1() throws Exception {
+        Request request = new Request.Builder().url("http://localhost/api/search?q=Acacia").build();
+        assertEquals("/api/search", MetricsInterceptor.getMethod(request));
+        request = request.newBuilder().tag(Invocation.class, Invocation.of(LoadBalancerTest.Service.class.getMethod("search"), Collections.emptyList())).build();
+        assertEquals("search", MetricsInterceptor.getMethod(request));
+    }
+}
@@ -0,0 +1,207 @@
+package au.org.ala.ws;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.junit.Test;
+import retrofit2.Invocation;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LoadBalancerTest {
+    private static final Request REQUEST = new Request.Builder().url("http://localhost/api/search?q=Acacia").build();
+
+    private LoadBalancer create(String... urls) throws Exception {
+        return this.create(LoadBalancer.Strategy.BALANCED, urls);
+    }
+
+    private LoadBalancer create(LoadBalancer.Strategy strategy, String... urls) throws Exception {
+        URL[] u = new URL[urls.length];
+        for (int i = 0; i < urls.length; i++)
+            u[i] = new URL(urls[i]);
+        return new LoadBalancer(Arrays.asList(u), 95.0, strategy);
+    }
+
+    @Test
+    public void testChoose1() throws Exception {
+        LoadBalancer balancer = this.create("http://host1:8080", "http://host2:8080");
+        Endpoint host1 = balancer.getEndpoints().get(0);
+        Endpoint host2 = balancer.getEndpoints().get(1);
+        assertSame(host2, balancer.choose(REQUEST, Collections.singletonList(host1)));
+        assertSame(host1, balancer.choose(REQUEST, Collections.singletonList(host2)));
+        assertNull(balancer.choose(REQUEST, Arrays.asList(host1, host2)));
+    }
+
+    /** Busy endpoints are avoided */
+    @Test
+    public void testChoose2() throws Exception {
+        LoadBalancer balancer = this.create("http://host1:8080", "http://host2:8080");
+        Endpoint host1 = balancer.getEndpoints().get(0);
+        Endpoint host2 = balancer.getEndpoints().get(1);
+        host1.start();
+        for (int i = 0; i < 20; i++)
+            assertSame(host2, balancer.choose(REQUEST, Collections.emptyList()));
+        host2.start();
+        host2.start();
+        for (int i = 0; i < 20; i++)
+            assertSame(host1, balancer.choose(REQUEST, Collections.emptyList()));
+    }
+
+    /** Failing endpoints are avoided */
+    @Test
+    public void testChoose3() throws Exception {
+        LoadBalancer balancer = this.create("http://host1:8080", "http://host2:8080");
+        Endpoint host1 = balancer.getEndpoints().get(0);
+        Endpoint host2 = balancer.getEndpoints().get(1);
+        host1.start();
+        host1.fail();
+        host2.start();
+        host2.finish(1_000_000L);
+        assertEquals(0, host1.getOutstanding());
+        assertTrue(host1.getCost() > host2.getCost());
+        for (int i = 0; i < 20; i++)
+            assertSame(host2, balancer.choose(REQUEST, Collections.emptyList()));
+    }
+
+    @Test
+    public void testPercentile1() throws Exception {
+        LoadBalancer balancer = this.create("http://host1:8080");
+        assertEquals(-1L, balancer.getLatencyPercentile());
+        for (int i = 1; i < LoadBalancer.MIN_SAMPLES; i++)
+            balancer.record(i);
+        assertEquals(-1L, balancer.getLatencyPercentile());
+        balancer.record(LoadBalancer.MIN_SAMPLES);
+        assertEquals(19L, balancer.getLatencyPercentile());
+        for (int i = LoadBalancer.MIN_SAMPLES + 1; i <= 64; i++)
+            balancer.record(i);
+        assertEquals(61L, balancer.getLatencyPercentile());
+    }
+
+    /** The same key goes to the same endpoint and keys are spread across endpoints */
+    @Test
+    public void testAffinity1() throws Exception {
+        LoadBalancer balancer = this.create(LoadBalancer.Strategy.AFFINITY, "http://host1:8080", "http://host2:8080", "http://host3:8080");
+        Map<Endpoint, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = "Acacia " + i;
+            Endpoint endpoint = balancer.choose(REQUEST, key, Collections.emptyList());
+            assertSame(endpoint, balancer.choose(REQUEST, key, Collections.emptyList()));
+            counts.merge(endpoint, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values())
+            assertTrue("Unbalanced " + counts, count > 600 && count < 1400);
+    }
+
+    /** Only the keys for a missing endpoint move, and they move back when it recovers */
+    @Test
+    public void testAffinity2() throws Exception {
+        LoadBalancer balancer = this.create(LoadBalancer.Strategy.AFFINITY, "http://host1:8080", "http://host2:8080", "http://host3:8080");
+        Endpoint host2 = balancer.getEndpoints().get(1);
+        List<Endpoint> before = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            before.add(balancer.choose(REQUEST, "Acacia " + i, Collections.emptyList()));
+        host2.start();
+        host2.fail();
+        assertFalse(host2.isAvailable());
+        for (int i = 0; i < 1000; i++) {
+            Endpoint endpoint = balancer.choose(REQUEST, "Acacia " + i, Collections.emptyList());
+            assertNotSame(host2, endpoint);
+            if (before.get(i) != host2)
+                assertSame(before.get(i), endpoint);
+        }
+        host2.start();
+        host2.finish(1000L);
+        assertTrue(host2.isAvailable());
+        for (int i = 0; i < 1000; i++)
+            assertSame(before.get(i), balancer.choose(REQUEST, "Acacia " + i, Collections.emptyList()));
+    }
+
+    /** An overloaded endpoint spills over to the next endpoint */
+    @Test
+    public void testAffinity3() throws Exception {
+        LoadBalancer balancer = this.create(LoadBalancer.Strategy.AFFINITY, "http://host1:8080", "http://host2:8080");
+        Endpoint home = balancer.choose(REQUEST, "Acacia dealbata", Collections.emptyList());
+        for (int i = 0; i < 4; i++)
+            home.start();
+        Endpoint spill = balancer.choose(REQUEST, "Acacia dealbata", Collections.emptyList());
+        assertNotSame(home, spill);
+        assertSame(spill, balancer.choose(REQUEST, "Acacia dealbata", Collections.singletonList(home)));
+        for (int i = 0; i < 4; i++)
+            spill.start();
+        assertSame(home, balancer.choose(REQUEST, "Acacia dealbata", Collections.emptyList()));
+    }
+
+    /** Requests without a key are balanced */
+    @Test
+    public void testAffinity4() throws Exception {
+        LoadBalancer balancer = this.create(LoadBalancer.Strategy.AFFINITY, "http://host1:8080", "http://host2:8080");
+        Endpoint host1 = balancer.getEndpoints().get(0);
+        Endpoint host2 = balancer.getEndpoints().get(1);
+        host1.start();
+        for (int i = 0; i < 20; i++)
+            assertSame(host2, balancer.choose(REQUEST, null, Collections.emptyList()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate1() throws Exception {
+        new LoadBalancer(Collections.emptyList(), 95.0);
+    }
+
+    @Test
+    public void testRoute1() throws Exception {
+        Endpoint endpoint = new Endpoint(new URL("https://host2:8443"));
+        HttpUrl routed = endpoint.route(HttpUrl.get("http://host1:8080/api/search?q=Acacia"));
+        assertEquals("https://host2:8443/api/search?q=Acacia", routed.toString());
+    }
+
+    /** Context paths are rewritten relative to the base URL */
+    @Test
+    public void testRoute2() throws Exception {
+        HttpUrl base = HttpUrl.get("http://host1:8080/namematching/");
+        Endpoint endpoint = new Endpoint(new URL("https://host2:8443/other/namematching/"));
+        assertEquals("https://host2:8443/other/namematching/api/search?q=Acacia", endpoint.route(HttpUrl.get("http://host1:8080/namematching/api/search?q=Acacia"), base).toString());
+        endpoint = new Endpoint(new URL("https://host2:8443/"));
+        assertEquals("https://host2:8443/api/search?q=Acacia", endpoint.route(HttpUrl.get("http://host1:8080/namematching/api/search?q=Acacia"), base).toString());
+        assertEquals("https://host2:8443/api/", endpoint.route(HttpUrl.get("http://host1:8080/namematching/api/"), base).toString());
+        endpoint = new Endpoint(new URL("https://host2:8443/namematching"));
+        assertEquals("https://host2:8443/namematching/api/search?q=Acacia", endpoint.route(HttpUrl.get("http://host1:8080/namematching/api/search?q=Acacia"), base).toString());
+    }
+
+    /** The balancer knows the base URL */
+    @Test
+    public void testBase1() throws Exception {
+        LoadBalancer balancer = this.create("http://host1:8080/a/", "http://host2:8080/b/");
+        assertEquals(HttpUrl.get("http://host1:8080/a/"), balancer.getBase());
+        balancer = new LoadBalancer(Arrays.asList(new URL("http://host1:8080/a/")), 95.0, null, new URL("http://host3/c/"));
+        assertEquals(HttpUrl.get("http://host3/c/"), balancer.getBase());
+    }
+
+    @Test
+    public void testIdempotent1() throws Exception {
+        assertTrue(LoadBalancingInterceptor.isIdempotent(REQUEST));
+        RequestBody body = RequestBody.create("{}", MediaType.get("application/json"));
+        Request post = new Request.Builder().url("http://localhost/api/searchByClassification").post(body).build();
+        assertFalse(LoadBalancingInterceptor.isIdempotent(post));
+        Request marked = post.newBuilder().tag(Invocation.class, Invocation.of(Service.class.getMethod("search"), Collections.emptyList())).build();
+        assertTrue(LoadBalancingInterceptor.isIdempotent(marked));
+        Request unmarked = post.newBuilder().tag(Invocation.class, Invocation.of(Service.class.getMethod("update"), Collections.emptyList())).build();
+        assertFalse(LoadBalancingInterceptor.isIdempotent(unmarked));
+    }
+
+    public interface Service {
+        @Idempotent
+        void search();
+
+        void update();
+    }
+}
@@ -0,0 +1,287 @@
+package au.org.ala.ws.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collect time statistics in a histogram.
+ * <p>
+ * Times are recorded in nanoseconds into a fixed-size <a href="http://hdrhistogram.org/">HdrHistogram</a>,
+ * with 3 significant digits of precision.
+ * Memory use does not depend on the number of samples and merging two sets of statistics
+ * does not need to copy the samples, so long soak tests can be run without running out of memory.
+ * </p>
+ * <p>
+ * When requests are made at a fixed rate, a slow response delays the requests that follow it,
+ * which would otherwise be left out of the statistics.
+ * If an expected interval is supplied, a second, corrected histogram is kept that
+ * fills in these missing samples.
+ * </p>
+ */
+public class HistogramStatistics {
+    /** The largest time that can be recorded, in nanoseconds */
+    public static final long HIGHEST_TRACKABLE = TimeUnit.HOURS.toNanos(1);
+    /** The number of significant digits kept */
+    public static final int SIGNIFICANT_DIGITS = 3;
+
+    /** The start time */
+    private long start;
+    /** The stop time */
+    private long stop;
+    /** The expected interval between samples in nanoseconds, or 0 for as fast as possible */
+    private final long expectedInterval;
+    /** The recorded times */
+    private final Histogram histogram;
+    /** The times with correction for coordinated omission, or null for no expected interval */
+    private final Histogram corrected;
+
+    /**
+     * Construct an empty set of statistics.
+     *
+     * @param expectedInterval The expected interval between samples in nanoseconds, or 0 for as fast as possible
+     */
+    public HistogramStatistics(long expectedInterval) {
+        this.expectedInterval = expectedInterval;
+        this.histogram = new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+        this.corrected = expectedInterval > 0 ? new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS) : null;
+        this.start = -1L;
+        this.stop = -1L;
+    }
+
+    /**
+     * Construct an empty set of statistics for samples that are collected as fast as possible.
+     */
+    public HistogramStatistics() {
+        this(0L);
+    }
+
+    /**
+     * Timestamp the start of recording
+     */
+    public void start() {
+        this.start = System.currentTimeMillis();
+    }
+
+    /**
+     * Timestamp the end of recording
+     */
+    public void stop() {
+        this.stop = System.currentTimeMillis();
+    }
+
+    /**
+     * Add a time to the statistics.
+     * <p>
+     * Times larger than {@link #HIGHEST_TRACKABLE} are recorded as the highest trackable value.
+     * </p>
+     *
+     * @param nanos The time in nanoseconds
+     */
+    public void add(long nanos) {
+        long value = Math.max(0L, Math.min(nanos, HIGHEST_TRACKABLE));
+        this.histogram.recordValue(value);
+        if (this.corrected != null)
+            this.corrected.recordValueWithExpectedInterval(value, this.expectedInterval);
+    }
+
+    /**
+     * Provide a new set of statistics by merging two sets.
+     * <p>
+     * The corrected times are only kept if both sets have corrected times.
+     * </p>
+     *
+     * @param one The first set to merge
+     * @param other The other set to merge
+     *
+     * @return The merged set
+     */
+    public static HistogramStatistics merge(HistogramStatistics one, HistogramStatistics other) {
+        long interval = one.corrected != null && other.corrected != null ? Math.min(one.expectedInterval, other.expectedInterval) : 0L;
+        HistogramStatistics stats = new HistogramStatistics(interval);
+        stats.histogram.add(one.histogram);
+        stats.histogram.add(other.histogram);
+        if (stats.corrected != null) {
+            stats.corrected.add(one.corrected);
+            stats.corrected.add(other.corrected);
+        }
+        stats.start = one.start <= 0 ? other.start : (other.start <= 0 ? one.start : Math.min(one.start, other.start));
+        stats.stop = one.stop <= 0 ? other.stop : (other.stop <= 0 ? one.stop : Math.max(one.stop, other.stop));
+        return stats;
+    }
+
+    /**
+     * Get the number of entries
+     *
+     * @return The number of individual values
+     */
+    public long getN() {
+        return this.histogram.getTotalCount();
+    }
+
+    /**
+     * Calculate the throughput in terms of items per second
+     *
+     * @return The throughput
+     */
+    public double getThroughput() {
+        if (this.start <= 0 || this.stop <= 0)
+            throw new IllegalStateException("No times recorded");
+        return (this.getN() * 1000.0) / Math.max(this.stop - this.start, 1L);
+    }
+
+    /**
+     * Get the mean time, in nanoseconds
+     *
+     * @return The mean
+     */
+    public double getMean() {
+        return this.histogram.getMean();
+    }
+
+    /**
+     * Get the standard deviation of the times, in nanoseconds
+     *
+     * @return The standard deviation
+     */
+    public double getStdDev() {
+        return this.histogram.getStdDeviation();
+    }
+
+    /**
+     * Get the minimum time, in nanoseconds
+     *
+     * @return The minimum time, or 0 for no samples
+     */
+    public long getMin() {
+        return this.getN() == 0 ? 0L : this.histogram.getMinValue();
+    }
+
+    /**
+     * Get the maximum time, in nanoseconds
+     *
+     * @return The maximum time
+     */
+    public long getMax() {
+        return this.histogram.getMaxValue();
+    }
+
+    /**
+     * Get a time percentile, in nanoseconds
+     *
+     * @param percentile The percentile, from 0 to 100
+     *
+     * @return The time at that percentile
+     */
+    public long getPercentile(double percentile) {
+        return this.histogram.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Get a time percentile, corrected for coordinated omission, in nanoseconds
+     *
+     * @param percentile The percentile, from 0 to 100
+     *
+     * @return The corrected time at that percentile, or the uncorrected time if there is no expected interval
+     */
+    public long getCorrectedPercentile(double percentile) {
+        return this.corrected == null ? this.getPercentile(percentile) : this.corrected.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Get the maximum time, corrected for coordinated omission, in nanoseconds
+     *
+     * @return The corrected maximum time, or the uncorrected time if there is no expected interval
+     */
+    public long getCorrectedMax() {
+        return this.corrected == null ? this.getMax() : this.corrected.getMaxValue();
+    }
+
+    /**
+     * Create a header for the output
+     * <p>
+     * Times are reported in milliseconds.
+     * The corrected columns are empty if requests were made as fast as possible.
+     * </p>
+     *
+     * @param writer The writer to write to
+     *
+     * @throws IOException if unable to writer
+     */
+    public static void reportHeader(Writer writer) throws IOException {
+        writer.write("samples");
+        writer.write(",");
+        writer.write("mean");
+        writer.write(",");
+        writer.write("stddev");
+        writer.write(",");
+        writer.write("min");
+        writer.write(",");
+        writer.write("p50");
+        writer.write(",");
+        writer.write("p90");
+        writer.write(",");
+        writer.write("p99");
+        writer.write(",");
+        writer.write("p99.9");
+        writer.write(",");
+        writer.write("max");
+        writer.write(",");
+        writer.write("correctedP50");
+        writer.write(",");
+        writer.write("correctedP90");
+        writer.write(",");
+        writer.write("correctedP99");
+        writer.write(",");
+        writer.write("correctedP99.9");
+        writer.write(",");
+        writer.write("correctedMax");
+    }
+
+    /**
+     * Print out the statistics
+     *
+     * @param writer What to write to
+     *
+     * @throws IOException if unable to write
+     */
+    public void report(Writer writer) throws IOException {
+        DecimalFormat cFormat = new DecimalFormat("0");
+        DecimalFormat tFormat = new DecimalFormat("0.000");
+        double scale = TimeUnit.MILLISECONDS.toNanos(1);
+        writer.write(cFormat.format(this.getN()));
+        writer.write(",");
+        writer.write(tFormat.format(this.getMean() / scale));
+        writer.write(",");
+        writer.write(tFormat.format(this.getStdDev() / scale));
+        writer.write(",");
+        writer.write(tFormat.format(this.getMin() / scale));
+        writer.write(",");
+        writer.write(tFormat.format(this.getPercentile(50.0) / scale));
+        writer.write(",");
+        writer.write(tFormat.format(this.getPercentile(90.0) / scale));
+        writer.write(",");
+        writer.write(tFormat.format(this.getPercentile(99.0) / scale));
+        writer.write(",");
+        writer.write(tFormat.format(this.getPercentile(99.9) / scale));
+        writer.write(",");
+        writer.write(tFormat.format(this.getMax() / scale));
+        if (this.corrected == null) {
+            writer.write(",,,,,");
+        } else {
+            writer.write(",");
+            writer.write(tFormat.format(this.getCorrectedPercentile(50.0) / scale));
+            writer.write(",");
+            writer.write(tFormat.format(this.getCorrectedPercentile(90.0) / scale));
+            writer.write(",");
+            writer.write(tFormat.format(this.getCorrectedPercentile(99.0) / scale));
+            writer.write(",");
+            writer.write(tFormat.format(this.getCorrectedPercentile(99.9) / scale));
+            writer.write(",");
+            writer.write(tFormat.format(this.getCorrectedMax() / scale));
+        }
+    }
+}
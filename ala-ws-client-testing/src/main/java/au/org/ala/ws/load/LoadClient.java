@@ -4,6 +4,7 @@ import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
@@ -20,15 +21,15 @@ public class LoadClient<T> implements Runnable {
     private int requestRate;
     /** The source object to generate requests */
     private LoadSource<T> source;
-    /** The run statistics */
+    /** The run statistics, corrected for coordinated omission if there is a request rate */
     @Getter
-    private Statistics<Long> statistics;
+    private HistogramStatistics statistics;
 
     public LoadClient(LoadSource<T> source, int requests, int requestRate) {
         this.source = source;
         this.requests = requests;
         this.requestRate = requestRate;
-        this.statistics = Statistics.longStatistics();
+        this.statistics = new HistogramStatistics(TimeUnit.MILLISECONDS.toNanos(requestRate));
     }
 
     /**
@@ -52,12 +53,13 @@ public class LoadClient<T> implements Runnable {
                     return;
                 }
                 Supplier<T> call = this.source.next();
-                long start = System.currentTimeMillis();
+                long start = System.nanoTime();
                 call.get();
-                long time = System.currentTimeMillis() - start;
+                long time = System.nanoTime() - start;
                 this.statistics.add(time);
-                if (this.requestRate > 0 && time < this.requestRate)
-                    Thread.sleep(this.requestRate - time);
+                long wait = TimeUnit.MILLISECONDS.toNanos(this.requestRate) - time;
+                if (this.requestRate > 0 && wait > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
                 if ((i + 1) % REPORT_INTERVAL == 0)
                     logger.info("Run " + (i + 1) + " tests");
             }
@@ -80,7 +80,7 @@ public class LoadTester<T> implements Runnable {
         writer.write(",");
         writer.write("clients");
         writer.write(",");
-        Statistics.reportHeader(writer);
+        HistogramStatistics.reportHeader(writer);
         writer.write("\n");
         writer.flush();
     }
@@ -93,7 +93,7 @@ public class LoadTester<T> implements Runnable {
         writer.write(",");
         writer.write(this.clients == 0 ? "" : Integer.toString(this.clients));
         writer.write(",");
-        Optional<Statistics<Long>> stats = this.loads.stream().map(LoadClient::getStatistics).reduce((s1, s2) -> Statistics.merge(s1, s2));
+        Optional<HistogramStatistics> stats = this.loads.stream().map(LoadClient::getStatistics).reduce(HistogramStatistics::merge);
         if (stats.isPresent()) {
             stats.get().report(writer);
         } else {
@@ -18,7 +18,10 @@ import java.util.function.UnaryOperator;
  * </p>
  *
  * @param <T> The type of measure being collected
+ *
+ * @deprecated Keeping every sample uses a lot of memory for long runs. Use {@link HistogramStatistics}
  */
+@Deprecated
 public class Statistics<T> {
     /** The start time */
     private long start;
@@ -3,6 +3,10 @@ package au.org.ala.names.ws.client;
 import au.org.ala.names.ws.api.NameMatchService;
 import au.org.ala.names.ws.api.NameSearch;
 import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.ws.Affinity;
+import au.org.ala.ws.Idempotent;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.*;
 
@@ -17,14 +21,21 @@ import java.util.Set;
  */
 interface ALANameUsageMatchRetrofitService {
 
+    @Idempotent
     @POST("/api/searchByClassification")
     @Headers({"Content-Type: application/json"})
-    Call<NameUsageMatch> match(@Body NameSearch search);
+    Call<NameUsageMatch> match(@Body @Affinity NameSearch search);
 
+    @Idempotent
     @POST("/api/searchAllByClassification")
     @Headers({"Content-Type: application/json"})
     Call<List<NameUsageMatch>> matchAll(@Body List<NameSearch> searches);
 
+    @POST("/api/searchAllByClassification/stream")
+    @Headers({"Content-Type: application/x-ndjson", "Accept: application/x-ndjson"})
+    @Streaming
+    Call<ResponseBody> matchStream(@Body RequestBody searches);
+
     @GET("/api/searchByClassification")
     @Headers({"Content-Type: application/json"})
     Call<NameUsageMatch> match(
@@ -42,31 +53,33 @@ interface ALANameUsageMatchRetrofitService {
 
     @GET("/api/search")
     @Headers({"Content-Type: application/json"})
-    Call<NameUsageMatch> match(@Query("q") String scientificName);
+    Call<NameUsageMatch> match(@Query("q") @Affinity String scientificName);
 
     @GET("/api/searchByVernacularName")
     @Headers({"Content-Type: application/json"})
-    Call<NameUsageMatch> matchVernacular(@Query("vernacularName") String vernacularName);
+    Call<NameUsageMatch> matchVernacular(@Query("vernacularName") @Affinity String vernacularName);
 
     @GET("/api/getByTaxonID")
     @Headers({"Content-Type: application/json"})
-    Call<NameUsageMatch> get(@Query("taxonID") String taxonID, @Query("follow") boolean follow);
+    Call<NameUsageMatch> get(@Query("taxonID") @Affinity String taxonID, @Query("follow") boolean follow);
 
+    @Idempotent
     @POST("/api/getAllByTaxonID")
     @Headers({"Content-Type: application/json"})
     Call<List<NameUsageMatch>> getAll(@Query("taxonIDs") List<String> taxonIDs, @Query("follow") boolean follow);
 
     @GET("/api/getNameByTaxonID")
     @Headers({"Content-Type: application/json"})
-    Call<String> getName(@Query("taxonID") String taxonID, @Query("follow") boolean follow);
+    Call<String> getName(@Query("taxonID") @Affinity String taxonID, @Query("follow") boolean follow);
 
+    @Idempotent
     @POST("/api/getAllNamesByTaxonID")
     @Headers({"Content-Type: application/json"})
     Call<List<String>> getAllNames(@Query("taxonIDs") List<String> taxonIDs, @Query("follow") boolean follow);
 
     @GET("/api/check")
     @Headers({"Content-Type: application/json"})
-    Call<Boolean> check(@Query("name") String name, @Query("rank") String rank);
+    Call<Boolean> check(@Query("name") @Affinity String name, @Query("rank") String rank);
 
     @GET("/api/autocomplete")
     @Headers({"Content-Type: application/json"})
@@ -74,18 +87,22 @@ interface ALANameUsageMatchRetrofitService {
 
     @GET("/api/searchForLsidById")
     @Headers({"Content-Type: application/json"})
-    Call<String> searchForLsidById(@Query("id") String id);
+    Call<String> searchForLsidById(@Query("id") @Affinity String id);
 
     @GET("/api/searchForLSID")
     @Headers({"Content-Type: application/json"})
-    Call<String> searchForLSID(@Query("name") String name);
+    Call<String> searchForLSID(@Query("name") @Affinity String name);
 
+    @Idempotent
     @POST("/api/getGuidsForTaxa")
     @Headers({"Content-Type: application/json"})
     Call<List<String>> getGuidsForTaxa(@Body List<String> taxaQueries);
 
     @GET("/api/getCommonNamesForLSID")
     @Headers({"Content-Type: application/json"})
-    Call<Set<String>> getCommonNamesForLSID(@Query("lsid") String lsid, @Query("max") Integer max);
+    Call<Set<String>> getCommonNamesForLSID(@Query("lsid") @Affinity String lsid, @Query("max") Integer max);
+
+    @GET("/api/indexVersion")
+    Call<String> indexVersion();
 
 }
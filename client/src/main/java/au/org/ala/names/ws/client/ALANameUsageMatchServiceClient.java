@@ -5,10 +5,22 @@ import au.org.ala.names.ws.api.NameSearch;
 import au.org.ala.names.ws.api.NameUsageMatch;
 import au.org.ala.ws.ClientConfiguration;
 import au.org.ala.ws.ClientException;
+import au.org.ala.ws.ClientMetrics;
+import au.org.ala.ws.DataCacheConfiguration;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import org.cache2k.Cache;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
 import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.HttpException;
 import retrofit2.Response;
 
@@ -17,19 +29,131 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * A client for the name matching service.
+ * <p>
+ * Each method is available in both a blocking form, from {@link NameMatchService},
+ * and an asynchronous form, from {@link AsyncNameMatchService}.
+ * Asynchronous calls are queued on the HTTP client's dispatcher, so that a small number
+ * of threads can keep a large number of requests in flight.
+ * The number of concurrent requests is limited by {@link ClientConfiguration#getMaxRequests()}
+ * and {@link ClientConfiguration#getMaxRequestsPerHost()}.
+ * Asynchronous results are completed on a dispatcher thread,
+ * so dependent actions should not block for long.
+ * </p>
+ * <p>
+ * If {@link ClientConfiguration#getBatchSize()} is set, single searches that miss the data cache
+ * are combined into bulk requests by a {@link MatchBatcher}.
+ * </p>
+ * <p>
+ * If a data cache is configured, each type of lookup has its own cache,
+ * named after the method that uses it.
+ * Bulk lookups share the cache of the corresponding single lookup and only
+ * send uncached keys to the server.
+ * The configuration of each cache can be overridden by name
+ * via {@link au.org.ala.ws.DataCacheConfiguration#getMethods()}.
+ * Autocomplete searches and LSID lookups by identifier or taxa query are not cached.
+ * </p>
+ * <p>
+ * If {@link ClientConfiguration#getStoreDir()} is set, search results are also kept in a
+ * {@link PersistentStore} that survives restarts and can be shared by several processes.
+ * The store is tagged with the server's index version, so that results from an out of date index are discarded.
+ * </p>
+ * <p>
+ * If {@link ClientConfiguration#getEndpoints()} is set, requests are spread across several servers.
+ * With affinity routing, single searches and lookups are routed by their canonical search or identifier,
+ * so that each server caches a different part of the name space.
+ * </p>
+ */
 @Slf4j
-public class ALANameUsageMatchServiceClient implements NameMatchService {
+public class ALANameUsageMatchServiceClient implements NameMatchService, AsyncNameMatchService {
+    /** The media type for newline-delimited JSON */
+    private static final MediaType APPLICATION_NDJSON = MediaType.get("application/x-ndjson");
+    /** The default number of searches sent in a single streaming request */
+    public static final int DEFAULT_STREAM_SEGMENT = 200;
+    /** The default number of searches in a chunk for chunked matching */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    /** The default number of chunks in progress for chunked matching */
+    public static final int DEFAULT_CHUNKS_IN_FLIGHT = 4;
+
+    /** Writer for streamed searches */
+    private static final ObjectWriter STREAM_WRITER = new ObjectMapper().writerFor(NameSearch.class);
+    /** Reader for streamed matches */
+    private static final ObjectReader STREAM_READER = new ObjectMapper().readerFor(NameUsageMatch.class);
+
+    /** The cache name for {@link #match(NameSearch)} and {@link #matchAll(List)} */
+    public static final String MATCH_CACHE = "match";
+    /** The cache name for {@link #match(String)} */
+    public static final String MATCH_NAME_CACHE = "matchName";
+    /** The cache name for {@link #matchVernacular(String)} */
+    public static final String MATCH_VERNACULAR_CACHE = "matchVernacular";
+    /** The cache name for {@link #get(String, Boolean)} and {@link #getAll(List, Boolean)} */
+    public static final String GET_CACHE = "get";
+    /** The cache name for {@link #getName(String, Boolean)} and {@link #getAllNames(List, Boolean)} */
+    public static final String GET_NAME_CACHE = "getName";
+    /** The cache name for {@link #check(String, String)} */
+    public static final String CHECK_CACHE = "check";
+    /** The cache name for {@link #searchForLSID(String)} */
+    public static final String SEARCH_FOR_LSID_CACHE = "searchForLSID";
+    /** The cache name for {@link #getCommonNamesForLSID(String, Integer)} */
+    public static final String COMMON_NAMES_CACHE = "getCommonNamesForLSID";
+    /** The name of the persistent store, for metrics */
+    public static final String STORE = "store";
+    /** The time in milliseconds to wait before trying to open the persistent store again after a failure */
+    public static final long STORE_RETRY = 60000L;
+    /** The time in milliseconds between checks that the persistent store matches the server's index version */
+    public static final long STORE_CHECK = 600000L;
 
     //Wrapped service
     private final ALANameUsageMatchRetrofitService alaNameUsageMatchService;
 
     private final OkHttpClient okHttpClient;
 
-    // A data cache, if configured
-    private final Optional<Cache<NameSearch, MatchResult>> matchCache;
+    // The listener for client metrics
+    private final ClientMetrics metrics;
+
+    // Data caches, if configured
+    private final Optional<SingleFlightCache<NameSearch, NameUsageMatch>> matchCache;
+    private final Optional<SingleFlightCache<String, NameUsageMatch>> matchNameCache;
+    private final Optional<SingleFlightCache<String, NameUsageMatch>> matchVernacularCache;
+    private final Optional<SingleFlightCache<TaxonKey, NameUsageMatch>> getCache;
+    private final Optional<SingleFlightCache<TaxonKey, String>> getNameCache;
+    private final Optional<SingleFlightCache<CheckKey, Boolean>> checkCache;
+    private final Optional<SingleFlightCache<String, String>> searchForLSIDCache;
+    private final Optional<SingleFlightCache<CommonNamesKey, Set<String>>> commonNamesCache;
+
+    // Combines single searches into bulk requests, if configured
+    private final MatchBatcher batcher;
+
+    // The directory for the persistent store, if configured
+    private final Path storeDir;
+    // The persistent store, opened on first use
+    private volatile PersistentStore<NameSearch, NameUsageMatch> store;
+    // Serialises opening and closing the store
+    private final Object storeLock = new Object();
+    // The time before which no attempt is made to open the store, after a failure
+    private volatile long storeRetry;
+    // The time to wait after a failure before trying to open the store again, in milliseconds
+    long storeRetryDelay = STORE_RETRY;
+    // Set while the store is being opened in the background
+    private final AtomicBoolean storeOpening = new AtomicBoolean();
+    // The time after which the store version is checked against the server
+    private volatile long storeCheck;
+    // The time between checks of the store version, in milliseconds
+    long storeCheckDelay = STORE_CHECK;
+    // Set while the store version is being checked in the background
+    private final AtomicBoolean storeChecking = new AtomicBoolean();
+    // Set once the client has been closed
+    private boolean storeClosed;
+    // The HTTP cache is in a temporary directory that should be removed on close
+    private final boolean temporaryCache;
 
     /**
      * Creates an instance using the provided configuration settings.
@@ -39,14 +163,100 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      * @throws IOException if unable to build underlying services
      */
     public ALANameUsageMatchServiceClient(ClientConfiguration configuration) throws IOException {
-        this.okHttpClient = configuration.createClient();
-        this.matchCache = configuration.buildDataCache(NameSearch.class, MatchResult.class)
-                .map(b -> b.loader(k -> MatchResult.empty(k)).build());
+        this(configuration, null);
+    }
+
+    /**
+     * Creates an instance using the provided configuration settings and reporting metrics.
+     * <p>
+     * Client method calls, data cache and persistent store hits and misses, bulk request sizes
+     * and HTTP requests are reported to the metrics listener.
+     * </p>
+     *
+     * @param configuration Rest client configuration
+     * @param metrics The metrics listener (null for none)
+     *
+     * @throws IOException if unable to build underlying services
+     *
+     * @see au.org.ala.ws.DropwizardClientMetrics
+     */
+    public ALANameUsageMatchServiceClient(ClientConfiguration configuration, ClientMetrics metrics) throws IOException {
+        this.metrics = metrics == null ? ClientMetrics.NONE : metrics;
+        this.okHttpClient = configuration.createClient(ALANameUsageMatchServiceClient::routingKey, metrics);
+        this.matchCache = buildCache(configuration, MATCH_CACHE, this.metrics, NameSearch.class, NameUsageMatch.class, false);
+        this.matchNameCache = buildCache(configuration, MATCH_NAME_CACHE, this.metrics, String.class, NameUsageMatch.class, false);
+        this.matchVernacularCache = buildCache(configuration, MATCH_VERNACULAR_CACHE, this.metrics, String.class, NameUsageMatch.class, false);
+        this.getCache = buildCache(configuration, GET_CACHE, this.metrics, TaxonKey.class, NameUsageMatch.class, false);
+        this.getNameCache = buildCache(configuration, GET_NAME_CACHE, this.metrics, TaxonKey.class, String.class, true);
+        this.checkCache = buildCache(configuration, CHECK_CACHE, this.metrics, CheckKey.class, Boolean.class, true);
+        this.searchForLSIDCache = buildCache(configuration, SEARCH_FOR_LSID_CACHE, this.metrics, String.class, String.class, true);
+        this.commonNamesCache = buildCache(configuration, COMMON_NAMES_CACHE, this.metrics, CommonNamesKey.class, stringSetClass(), false);
         alaNameUsageMatchService = configuration.createRetrofitClient(this.okHttpClient, ALANameUsageMatchRetrofitService.class);
+        this.batcher = configuration.getBatchSize() == null ? null : new MatchBatcher(
+                s -> this.callAsync(this.alaNameUsageMatchService.match(s)),
+                l -> this.callAsync(this.alaNameUsageMatchService.matchAll(l)),
+                configuration.getBatchSize(),
+                configuration.getBatchWindowOrDefault()
+        );
+        this.storeDir = configuration.getStoreDir();
+        this.temporaryCache = configuration.getCacheDir() == null;
+    }
+
+    /**
+     * Build a data cache for a type of request.
+     *
+     * @param configuration The client configuration
+     * @param method The cache name
+     * @param metrics The listener for cache hits and misses
+     * @param keyClass The key class
+     * @param valueClass The value class
+     * @param cacheNulls Cache null responses, if the cache configuration permits null values
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     *
+     * @return The cache, or empty for no data cache
+     */
+    private static <K, V> Optional<SingleFlightCache<K, V>> buildCache(ClientConfiguration configuration, String method, ClientMetrics metrics, Class<K> keyClass, Class<V> valueClass, boolean cacheNulls) {
+        return configuration.buildDataCache(method, keyClass, valueClass).map(b -> {
+            DataCacheConfiguration config = configuration.getDataCache().forMethod(method);
+            return new SingleFlightCache<>(
+                    b.build(),
+                    cacheNulls && config.isPermitNullValues(),
+                    config.getRefreshTime(),
+                    config.getRetentionTime(),
+                    method,
+                    metrics
+            );
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Set<String>> stringSetClass() {
+        return (Class<Set<String>>) (Class<?>) Set.class;
+    }
+
+    /**
+     * Get the routing key for a request parameter.
+     * <p>
+     * Searches are reduced to their canonical form, the same key that the server caches them under,
+     * so that equivalent searches are sent to the same server.
+     * </p>
+     *
+     * @param value The parameter value
+     *
+     * @return The routing key
+     */
+    static Object routingKey(Object value) {
+        return value instanceof NameSearch ? ((NameSearch) value).canonical() : value;
     }
 
     /**
      * Search for a match for a search key.
+     * <p>
+     * If another thread is already requesting the same search,
+     * this waits for that result rather than making a new request.
+     * </p>
      *
      * @param search The search key
      *
@@ -56,24 +266,309 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
       */
     @Override
     public NameUsageMatch match(NameSearch search)  {
+        this.metrics.call("match");
         if (!this.matchCache.isPresent())
-            return this.call(this.alaNameUsageMatchService.match(search));
-        MatchResult result = this.matchCache.get().get(search);
-        return this.resolve(result);
+            return this.matchOne(search);
+        return this.matchCache.get().get(search, this::matchOne);
     }
 
-    // Resolve a result and return the match
-    protected NameUsageMatch resolve(MatchResult result) {
-        if (result.getValue() == null) {
-            NameUsageMatch match = this.call(this.alaNameUsageMatchService.match(result.getKey()));
-            result.setValue(match);
-            this.matchCache.get().put(result.getKey(), result);
+    /**
+     * Search for a match for a search key, without waiting for the result.
+     * <p>
+     * Cached results are returned immediately.
+     * </p>
+     *
+     * @param search The search key
+     *
+     * @return The future matching result
+     *
+     * @see AsyncNameMatchService#matchAsync(NameSearch)
+     */
+    @Override
+    public CompletableFuture<NameUsageMatch> matchAsync(NameSearch search) {
+        this.metrics.call("matchAsync");
+        if (!this.matchCache.isPresent())
+            return this.matchOneAsync(search);
+        return this.matchCache.get().getAsync(search, this::matchOneAsync);
+    }
+
+    // Match a single search, from the persistent store, or directly or as part of a batch
+    private NameUsageMatch matchOne(NameSearch search) {
+        PersistentStore<NameSearch, NameUsageMatch> store = this.getStore();
+        NameUsageMatch match = this.fromStore(store, search);
+        if (match != null)
+            return match;
+        if (this.batcher == null)
+            match = this.call(this.alaNameUsageMatchService.match(search));
+        else
+            match = SingleFlightCache.join(this.batcher.submit(search));
+        if (store != null && match != null)
+            store.put(search, match);
+        return match;
+    }
+
+    // Match a single search without waiting, from the persistent store, or directly or as part of a batch
+    private CompletableFuture<NameUsageMatch> matchOneAsync(NameSearch search) {
+        PersistentStore<NameSearch, NameUsageMatch> store = this.getStoreAsync();
+        NameUsageMatch stored = this.fromStore(store, search);
+        if (stored != null)
+            return CompletableFuture.completedFuture(stored);
+        CompletableFuture<NameUsageMatch> match = this.batcher == null ? this.callAsync(this.alaNameUsageMatchService.match(search)) : this.batcher.submit(search);
+        if (store == null)
+            return match;
+        return match.thenApply(m -> {
+            if (m != null)
+                store.put(search, m);
+            return m;
+        });
+    }
+
+    // Match a list of searches, using the persistent store for any searches that it holds
+    private List<NameUsageMatch> matchMany(List<NameSearch> searches) {
+        PersistentStore<NameSearch, NameUsageMatch> store = this.getStore();
+        if (store == null)
+            return this.call(this.alaNameUsageMatchService.matchAll(searches));
+        List<NameUsageMatch> stored = new ArrayList<>(searches.size());
+        List<NameSearch> query = this.fromStore(store, searches, stored);
+        if (query == null)
+            return stored;
+        return this.toStore(store, query, stored, this.call(this.alaNameUsageMatchService.matchAll(query)));
+    }
+
+    // Match a list of searches without waiting, using the persistent store for any searches that it holds
+    private CompletableFuture<List<NameUsageMatch>> matchManyAsync(List<NameSearch> searches) {
+        PersistentStore<NameSearch, NameUsageMatch> store = this.getStoreAsync();
+        if (store == null)
+            return this.callAsync(this.alaNameUsageMatchService.matchAll(searches));
+        List<NameUsageMatch> stored = new ArrayList<>(searches.size());
+        List<NameSearch> query = this.fromStore(store, searches, stored);
+        if (query == null)
+            return CompletableFuture.completedFuture(stored);
+        return this.callAsync(this.alaNameUsageMatchService.matchAll(query)).thenApply(m -> this.toStore(store, query, stored, m));
+    }
+
+    // Match a list of searches without waiting, sending only the searches that are not in the store and not null
+    private CompletableFuture<List<NameUsageMatch>> matchCompactAsync(List<NameSearch> searches) {
+        PersistentStore<NameSearch, NameUsageMatch> store = this.getStoreAsync();
+        List<NameUsageMatch> stored = new ArrayList<>(searches.size());
+        List<NameSearch> query = store == null ? searches : this.fromStore(store, searches, stored);
+        if (query == null)
+            return CompletableFuture.completedFuture(stored);
+        List<NameSearch> compact = query.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        if (compact.isEmpty())
+            return CompletableFuture.completedFuture(Collections.nCopies(searches.size(), null));
+        return this.callAsync(this.alaNameUsageMatchService.matchAll(compact)).thenApply(m -> {
+            List<NameUsageMatch> matches = expand(query, m);
+            return store == null ? matches : this.toStore(store, query, stored, matches);
+        });
+    }
+
+    // Get a stored match, reporting whether it was found
+    private NameUsageMatch fromStore(PersistentStore<NameSearch, NameUsageMatch> store, NameSearch search) {
+        if (store == null)
+            return null;
+        NameUsageMatch match = store.get(search);
+        if (match != null)
+            this.metrics.cacheHit(STORE);
+        else
+            this.metrics.cacheMiss(STORE);
+        return match;
+    }
+
+    /**
+     * Fill out stored matches.
+     *
+     * @param store The store
+     * @param searches The searches
+     * @param stored The list to fill with stored matches, or null for not stored
+     *
+     * @return The searches that need to be requested, with null for stored searches, or null if everything is stored
+     */
+    private List<NameSearch> fromStore(PersistentStore<NameSearch, NameUsageMatch> store, List<NameSearch> searches, List<NameUsageMatch> stored) {
+        List<NameSearch> query = new ArrayList<>(searches.size());
+        boolean request = false;
+        for (NameSearch search : searches) {
+            NameUsageMatch match = search == null ? null : this.fromStore(store, search);
+            stored.add(match);
+            query.add(match == null ? search : null);
+            request = request || (search != null && match == null);
+        }
+        return request ? query : null;
+    }
+
+    /**
+     * Merge requested matches with stored matches and add the requested matches to the store.
+     *
+     * @param store The store
+     * @param query The requested searches, with null for stored searches
+     * @param stored The stored matches
+     * @param matches The requested matches
+     *
+     * @return The merged matches
+     */
+    private List<NameUsageMatch> toStore(PersistentStore<NameSearch, NameUsageMatch> store, List<NameSearch> query, List<NameUsageMatch> stored, List<NameUsageMatch> matches) {
+        if (matches == null || matches.size() != query.size())
+            throw new ClientException("Expected " + query.size() + " matches, got " + (matches == null ? 0 : matches.size()));
+        for (int i = 0; i < query.size(); i++) {
+            NameSearch search = query.get(i);
+            NameUsageMatch match = matches.get(i);
+            if (search != null) {
+                stored.set(i, match);
+                if (match != null)
+                    store.put(search, match);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Get the persistent store, opening it if necessary.
+     * <p>
+     * Opening the store asks the server for the index version.
+     * If the store cannot be opened, a warning is logged and the store is not used
+     * until another attempt is made after {@link #STORE_RETRY} milliseconds.
+     * Every {@link #STORE_CHECK} milliseconds, the index version is checked again in the background
+     * and, if the server has changed index, the store is replaced by a store for the new version.
+     * </p>
+     *
+     * @return The store, or null for no store
+     */
+    private PersistentStore<NameSearch, NameUsageMatch> getStore() {
+        PersistentStore<NameSearch, NameUsageMatch> store = this.store;
+        if (store != null)
+            this.checkStore(store);
+        if (store != null || this.storeDir == null || System.currentTimeMillis() < this.storeRetry)
+            return store;
+        synchronized (this.storeLock) {
+            if (this.store == null && System.currentTimeMillis() >= this.storeRetry) {
+                try {
+                    this.openStore(this.getIndexVersion());
+                } catch (RuntimeException ex) {
+                    this.storeFailed(ex);
+                }
+            }
+            return this.store;
         }
-        return result.getValue();
+    }
+
+    /**
+     * Get the persistent store without waiting.
+     * <p>
+     * If the store is not yet open, it is opened in the background
+     * and requests go straight to the server until it is ready.
+     * </p>
+     *
+     * @return The store, or null for no store or not yet open
+     */
+    private PersistentStore<NameSearch, NameUsageMatch> getStoreAsync() {
+        PersistentStore<NameSearch, NameUsageMatch> store = this.store;
+        if (store != null)
+            this.checkStore(store);
+        if (store != null || this.storeDir == null || System.currentTimeMillis() < this.storeRetry)
+            return store;
+        if (this.storeOpening.compareAndSet(false, true)) {
+            try {
+                this.callAsync(this.alaNameUsageMatchService.indexVersion()).whenComplete((version, ex) -> {
+                    try {
+                        if (ex != null) {
+                            this.storeFailed(ex);
+                        } else {
+                            synchronized (this.storeLock) {
+                                if (this.store == null)
+                                    this.openStore(version);
+                            }
+                        }
+                    } finally {
+                        this.storeOpening.set(false);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                this.storeFailed(ex);
+                this.storeOpening.set(false);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check, in the background, that the store is for the index that the server is using.
+     * <p>
+     * If the server reports a different index version, the store is closed and a store for the new version is opened.
+     * Requests carry on using the current store until the check is complete.
+     * </p>
+     *
+     * @param store The current store
+     */
+    private void checkStore(PersistentStore<NameSearch, NameUsageMatch> store) {
+        if (System.currentTimeMillis() < this.storeCheck || !this.storeChecking.compareAndSet(false, true))
+            return;
+        this.storeCheck = System.currentTimeMillis() + this.storeCheckDelay;
+        try {
+            this.callAsync(this.alaNameUsageMatchService.indexVersion()).whenComplete((version, ex) -> {
+                try {
+                    if (ex != null) {
+                        log.debug("Unable to check index version for " + store.getFile(), ex);
+                    } else if (version != null && !version.equals(store.getVersion())) {
+                        synchronized (this.storeLock) {
+                            if (this.store == store && !this.storeClosed) {
+                                log.info("Index version changed from {} to {}, replacing store", store.getVersion(), version);
+                                this.store = null;
+                                this.closeStore(store);
+                                this.openStore(version);
+                            }
+                        }
+                    }
+                } finally {
+                    this.storeChecking.set(false);
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.debug("Unable to check index version for " + store.getFile(), ex);
+            this.storeChecking.set(false);
+        }
+    }
+
+    // Open the store for an index version. Must hold the store lock
+    private void openStore(String version) {
+        if (this.storeClosed)
+            return;
+        try {
+            this.store = new PersistentStore<>(this.storeDir, version, NameSearch.class, NameUsageMatch.class);
+            this.storeCheck = System.currentTimeMillis() + this.storeCheckDelay;
+        } catch (IOException | RuntimeException ex) {
+            this.storeFailed(ex);
+        }
+    }
+
+    // Close a store that is no longer wanted
+    private void closeStore(PersistentStore<NameSearch, NameUsageMatch> store) {
+        try {
+            store.close();
+        } catch (IOException ex) {
+            log.warn("Unable to close store " + store.getFile(), ex);
+        }
+    }
+
+    // Note a failure to open the store and hold off before trying again
+    private void storeFailed(Throwable ex) {
+        this.storeRetry = System.currentTimeMillis() + this.storeRetryDelay;
+        log.warn("Unable to open persistent store in " + this.storeDir + ", results will not be stored for " + this.storeRetryDelay + "ms", ex);
+    }
+
+    /**
+     * Get the version of the index that the server is using.
+     *
+     * @return The index version
+     */
+    public String getIndexVersion() {
+        return this.call(this.alaNameUsageMatchService.indexVersion());
     }
 
     /**
      * Search for a match for a list of search keys.
+     * <p>
+     * Only searches that are not cached or already being requested are sent to the server.
+     * </p>
      *
      * @param searches The search keys
      *
@@ -83,35 +578,122 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public List<NameUsageMatch> matchAll(List<NameSearch> searches)  {
+        this.metrics.call("matchAll");
         if (!this.matchCache.isPresent())
-            return this.call(this.alaNameUsageMatchService.matchAll(searches));
-        List<MatchResult> results = searches.stream()
-                .map(s -> this.matchCache.get().get(s))
-                .collect(Collectors.toList());
-        return this.resolve(results);
+            return this.matchMany(searches);
+        return this.matchCache.get().getAll(searches, this::matchMany);
+    }
+
+    /**
+     * Search for a match for a list of search keys, without waiting for the result.
+     * <p>
+     * Only searches that are not cached or already being requested are sent to the server.
+     * If all the keys are cached, the result is returned immediately.
+     * </p>
+     *
+     * @param searches The search keys
+     *
+     * @return The future matching results
+     *
+     * @see AsyncNameMatchService#matchAllAsync(List)
+     */
+    @Override
+    public CompletableFuture<List<NameUsageMatch>> matchAllAsync(List<NameSearch> searches) {
+        this.metrics.call("matchAllAsync");
+        if (!this.matchCache.isPresent())
+            return this.matchManyAsync(searches);
+        return this.matchCache.get().getAllAsync(searches, this::matchManyAsync);
     }
 
-    // Resolve a list of results and return the matches
-    // Uses a bulk query
-    protected List<NameUsageMatch> resolve(List<MatchResult> results) {
-        if (results.stream().allMatch(Result::isSet)) {
-            return results.stream().map(Result::getValue).collect(Collectors.toList());
+    /**
+     * Match a stream of searches in chunks.
+     *
+     * @param searches The searches, which may contain nulls
+     *
+     * @return An iterator over the matches, in the same order as the searches and with null for a null search
+     *
+     * @see #matchChunked(Iterator, int, int)
+     */
+    public Iterator<NameUsageMatch> matchChunked(Iterator<NameSearch> searches) {
+        return this.matchChunked(searches, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS_IN_FLIGHT);
+    }
+
+    /**
+     * Match a stream of searches in chunks.
+     * <p>
+     * Searches are taken from the iterator a chunk at a time and sent as bulk requests,
+     * with up to a maximum number of chunks in progress at once.
+     * Only searches that are not cached, not stored and not null are sent to the server,
+     * so a chunk of cached searches does not result in a request.
+     * Requests are made as the matches are read, so the number of searches and matches
+     * held in memory is limited by the chunk size and the number of chunks in flight.
+     * </p>
+     *
+     * @param searches The searches, which may contain nulls
+     * @param chunk The maximum number of searches in each chunk
+     * @param inFlight The maximum number of chunks in progress
+     *
+     * @return An iterator over the matches, in the same order as the searches and with null for a null search
+     *
+     * @see ChunkedIterator
+     */
+    public Iterator<NameUsageMatch> matchChunked(Iterator<NameSearch> searches, int chunk, int inFlight) {
+        this.metrics.call("matchChunked");
+        Function<List<NameSearch>, CompletableFuture<List<NameUsageMatch>>> bulk = this::matchCompactAsync;
+        if (this.matchCache.isPresent()) {
+            SingleFlightCache<NameSearch, NameUsageMatch> cache = this.matchCache.get();
+            bulk = l -> cache.getAllAsync(l, this::matchCompactAsync);
         }
-        final List<NameSearch> query = results.stream().map(r -> r.isSet() ? null : r.getKey()).collect(Collectors.toList());
-        final List<NameUsageMatch> values = this.call(this.alaNameUsageMatchService.matchAll(query));
-        final List<NameUsageMatch> matches = new ArrayList<>(query.size());
-        final int len = Math.min(query.size(), values.size());
-        for (int i = 0; i < len; i++) {
-            NameUsageMatch match = values.get(i);
-            MatchResult result = results.get(i);
-            if (match != null) {
-                result.setValue(match);
-                this.matchCache.get().put(result.getKey(), result);
+        return new ChunkedIterator<>(searches, bulk, chunk, inFlight);
+    }
+
+    /**
+     * Match a stream of searches, using newline-delimited JSON.
+     * <p>
+     * Searches are taken from the iterator as they are sent and matches
+     * are passed to the consumer as they are received, in the same order as the searches.
+     * Neither the searches nor the matches are held in memory.
+     * The data cache is not used.
+     * </p>
+     *
+     * @param searches The searches, which may contain nulls
+     * @param consumer The consumer of matches, null for a null search
+     *
+     * @see #matchStream(Iterator, Consumer, int)
+     */
+    public void matchStream(Iterator<NameSearch> searches, Consumer<NameUsageMatch> consumer) {
+        this.matchStream(searches, consumer, DEFAULT_STREAM_SEGMENT);
+    }
+
+    /**
+     * Match a stream of searches, using newline-delimited JSON.
+     * <p>
+     * The underlying HTTP client writes the entire request before reading the response,
+     * so the searches are sent in a series of segments.
+     * Each segment needs to be small enough for the server to be able
+     * to buffer the responses while waiting for the rest of the segment,
+     * otherwise the server will stall.
+     * </p>
+     *
+     * @param searches The searches, which may contain nulls
+     * @param consumer The consumer of matches, null for a null search
+     * @param segment The maximum number of searches in each request
+     */
+    public void matchStream(Iterator<NameSearch> searches, Consumer<NameUsageMatch> consumer, int segment) {
+        this.metrics.call("matchStream");
+        if (segment < 1)
+            throw new IllegalArgumentException("Segment size must be positive: " + segment);
+        while (searches.hasNext()) {
+            Call<ResponseBody> call = this.alaNameUsageMatchService.matchStream(new SearchStreamBody(searches, segment));
+            try (ResponseBody body = this.call(call); JsonParser parser = STREAM_READER.getFactory().createParser(body.byteStream())) {
+                while (parser.nextToken() != null)
+                    consumer.accept(parser.currentToken() == JsonToken.VALUE_NULL ? null : STREAM_READER.readValue(parser));
+            } catch (IOException ex) {
+                throw new ClientException("Unable to read match stream for " + call, ex);
             }
-            matches.add(result.getValue());
         }
-        return matches;
     }
+
     /**
      * Find a mataching taxon based on the Linnaean hierarchy.
      *
@@ -130,9 +712,34 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public NameUsageMatch match(String scientificName, String kingdom, String phylum, String clazz, String order, String family, String genus, String specificEpithet, String infraspecificEpithet, String rank) {
+        this.metrics.call("match");
         return this.call(this.alaNameUsageMatchService.match(scientificName, kingdom, phylum, clazz, order, family, genus, specificEpithet, infraspecificEpithet, rank));
     }
 
+    /**
+     * Find a mataching taxon based on the Linnaean hierarchy, without waiting for the result.
+     *
+     * @param scientificName The scientific name
+     * @param kingdom The Linnaean kingdom name
+     * @param phylum The Linnaean phylum name
+     * @param clazz The Linnaean class name
+     * @param order The Linnaean order name
+     * @param family The Linnaean family name
+     * @param genus The Linnaean genus name
+     * @param specificEpithet The specific epithet (species component of a binomial name)
+     * @param infraspecificEpithet The infraspecific epithet (subspecies, variety etc component of a trinomial name)
+     * @param rank The Linnaean rank name
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see #match(String, String, String, String, String, String, String, String, String, String)
+     */
+    @Override
+    public CompletableFuture<NameUsageMatch> matchAsync(String scientificName, String kingdom, String phylum, String clazz, String order, String family, String genus, String specificEpithet, String infraspecificEpithet, String rank) {
+        this.metrics.call("matchAsync");
+        return this.callAsync(this.alaNameUsageMatchService.match(scientificName, kingdom, phylum, clazz, order, family, genus, specificEpithet, infraspecificEpithet, rank));
+    }
+
     /**
      * Search for a taxon with a given scientific name.
      * <p>
@@ -145,7 +752,27 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public NameUsageMatch match(String scientificName) {
-        return this.call(this.alaNameUsageMatchService.match(scientificName));
+        this.metrics.call("match");
+        if (!this.matchNameCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.match(scientificName));
+        return this.matchNameCache.get().get(scientificName, k -> this.call(this.alaNameUsageMatchService.match(k)));
+    }
+
+    /**
+     * Search for a taxon with a given scientific name, without waiting for the result.
+     *
+     * @param scientificName The scientific name of the taxon
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see #match(String)
+     */
+    @Override
+    public CompletableFuture<NameUsageMatch> matchAsync(String scientificName) {
+        this.metrics.call("matchAsync");
+        if (!this.matchNameCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.match(scientificName));
+        return this.matchNameCache.get().getAsync(scientificName, k -> this.callAsync(this.alaNameUsageMatchService.match(k)));
     }
 
     /**
@@ -160,7 +787,27 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public NameUsageMatch matchVernacular(String vernacularName) {
-        return this.call(this.alaNameUsageMatchService.matchVernacular(vernacularName));
+        this.metrics.call("matchVernacular");
+        if (!this.matchVernacularCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.matchVernacular(vernacularName));
+        return this.matchVernacularCache.get().get(vernacularName, k -> this.call(this.alaNameUsageMatchService.matchVernacular(k)));
+    }
+
+    /**
+     * Search for a taxon with a given vernacular (common) name, without waiting for the result.
+     *
+     * @param vernacularName The vernacular name to search for
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see #matchVernacular(String)
+     */
+    @Override
+    public CompletableFuture<NameUsageMatch> matchVernacularAsync(String vernacularName) {
+        this.metrics.call("matchVernacularAsync");
+        if (!this.matchVernacularCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.matchVernacular(vernacularName));
+        return this.matchVernacularCache.get().getAsync(vernacularName, k -> this.callAsync(this.alaNameUsageMatchService.matchVernacular(k)));
     }
 
     /**
@@ -175,7 +822,28 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public Boolean check(String name, String rank) {
-        return this.call(this.alaNameUsageMatchService.check(name, rank));
+        this.metrics.call("check");
+        if (!this.checkCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.check(name, rank));
+        return this.checkCache.get().get(new CheckKey(name, rank), k -> this.call(this.alaNameUsageMatchService.check(k.getName(), k.getRank())));
+    }
+
+    /**
+     * Check a name against a rank, without waiting for the result.
+     *
+     * @param name The name
+     * @param rank The rank
+     *
+     * @return A future true if the name is valid, false if invalid, null if unknown
+     *
+     * @see #check(String, String)
+     */
+    @Override
+    public CompletableFuture<Boolean> checkAsync(String name, String rank) {
+        this.metrics.call("checkAsync");
+        if (!this.checkCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.check(name, rank));
+        return this.checkCache.get().getAsync(new CheckKey(name, rank), k -> this.callAsync(this.alaNameUsageMatchService.check(k.getName(), k.getRank())));
     }
 
     /**
@@ -188,9 +856,27 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public List<Map> autocomplete(String query, Integer max, Boolean includeSynonyms) {
+        this.metrics.call("autocomplete");
         return this.call(this.alaNameUsageMatchService.autocomplete(query, max, includeSynonyms));
     }
 
+    /**
+     * Autocomplete search, without waiting for the result.
+     *
+     * @param query The beginning of the names to match (scientific or vernacular)
+     * @param max The maximum number of matches to return
+     * @param includeSynonyms Include synonym matches
+     *
+     * @return The future list of autocomplete matches
+     *
+     * @see #autocomplete(String, Integer, Boolean)
+     */
+    @Override
+    public CompletableFuture<List<Map>> autocompleteAsync(String query, Integer max, Boolean includeSynonyms) {
+        this.metrics.call("autocompleteAsync");
+        return this.callAsync(this.alaNameUsageMatchService.autocomplete(query, max, includeSynonyms));
+    }
+
     /**
      * Search for a record with a specific LSID.
      *
@@ -199,9 +885,25 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public String searchForLsidById(String id) {
+        this.metrics.call("searchForLsidById");
         return this.call(this.alaNameUsageMatchService.searchForLsidById(id));
     }
 
+    /**
+     * Search for a record with a specific LSID, without waiting for the result.
+     *
+     * @param id The taxon identifier
+     *
+     * @return The future matching LSID or null
+     *
+     * @see #searchForLsidById(String)
+     */
+    @Override
+    public CompletableFuture<String> searchForLsidByIdAsync(String id) {
+        this.metrics.call("searchForLsidByIdAsync");
+        return this.callAsync(this.alaNameUsageMatchService.searchForLsidById(id));
+    }
+
     /**
      * Search for an LSID with a scientific name.
      *
@@ -210,7 +912,27 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public String searchForLSID(String name) {
-        return this.call(this.alaNameUsageMatchService.searchForLSID(name));
+        this.metrics.call("searchForLSID");
+        if (!this.searchForLSIDCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.searchForLSID(name));
+        return this.searchForLSIDCache.get().get(name, k -> this.call(this.alaNameUsageMatchService.searchForLSID(k)));
+    }
+
+    /**
+     * Search for an LSID with a scientific name, without waiting for the result.
+     *
+     * @param name The scientific name
+     *
+     * @return The future matching LSID or null
+     *
+     * @see #searchForLSID(String)
+     */
+    @Override
+    public CompletableFuture<String> searchForLSIDAsync(String name) {
+        this.metrics.call("searchForLSIDAsync");
+        if (!this.searchForLSIDCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.searchForLSID(name));
+        return this.searchForLSIDCache.get().getAsync(name, k -> this.callAsync(this.alaNameUsageMatchService.searchForLSID(k)));
     }
 
     /**
@@ -221,9 +943,25 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public List<String> getGuidsForTaxa(List<String> taxaQueries) {
+        this.metrics.call("getGuidsForTaxa");
         return this.call(this.alaNameUsageMatchService.getGuidsForTaxa(taxaQueries));
     }
 
+    /**
+     * Search for a list of LSIDs with a list of scientificName or scientificName(kingdom), without waiting for the result.
+     *
+     * @param taxaQueries The scientificName or scientificName(kingdom)
+     *
+     * @return The future list of matches. Each match is the LSID or null
+     *
+     * @see #getGuidsForTaxa(List)
+     */
+    @Override
+    public CompletableFuture<List<String>> getGuidsForTaxaAsync(List<String> taxaQueries) {
+        this.metrics.call("getGuidsForTaxaAsync");
+        return this.callAsync(this.alaNameUsageMatchService.getGuidsForTaxa(taxaQueries));
+    }
+
     /**
      * Search for a list of vernacular names for an LSID.
      *
@@ -233,7 +971,28 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public Set<String> getCommonNamesForLSID(String lsid, Integer max) {
-        return this.call(this.alaNameUsageMatchService.getCommonNamesForLSID(lsid, max));
+        this.metrics.call("getCommonNamesForLSID");
+        if (!this.commonNamesCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.getCommonNamesForLSID(lsid, max));
+        return this.commonNamesCache.get().get(new CommonNamesKey(lsid, max), k -> this.call(this.alaNameUsageMatchService.getCommonNamesForLSID(k.getLsid(), k.getMax())));
+    }
+
+    /**
+     * Search for a list of vernacular names for an LSID, without waiting for the result.
+     *
+     * @param lsid The taxon identifier
+     * @param max The maximum number of vernaculars to return
+     *
+     * @return The future set of vernacular names
+     *
+     * @see #getCommonNamesForLSID(String, Integer)
+     */
+    @Override
+    public CompletableFuture<Set<String>> getCommonNamesForLSIDAsync(String lsid, Integer max) {
+        this.metrics.call("getCommonNamesForLSIDAsync");
+        if (!this.commonNamesCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.getCommonNamesForLSID(lsid, max));
+        return this.commonNamesCache.get().getAsync(new CommonNamesKey(lsid, max), k -> this.callAsync(this.alaNameUsageMatchService.getCommonNamesForLSID(k.getLsid(), k.getMax())));
     }
 
     /**
@@ -244,7 +1003,28 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public NameUsageMatch get(String taxonID, Boolean follow) {
-        return this.call(this.alaNameUsageMatchService.get(taxonID, follow));
+        this.metrics.call("get");
+        if (!this.getCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.get(taxonID, follow));
+        return this.getCache.get().get(new TaxonKey(taxonID, follow), k -> this.call(this.alaNameUsageMatchService.get(k.getTaxonID(), k.getFollow())));
+    }
+
+    /**
+     * Get taxon information via a specific taxon identifier, without waiting for the result.
+     *
+     * @param taxonID The taxon identifier
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see #get(String, Boolean)
+     */
+    @Override
+    public CompletableFuture<NameUsageMatch> getAsync(String taxonID, Boolean follow) {
+        this.metrics.call("getAsync");
+        if (!this.getCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.get(taxonID, follow));
+        return this.getCache.get().getAsync(new TaxonKey(taxonID, follow), k -> this.callAsync(this.alaNameUsageMatchService.get(k.getTaxonID(), k.getFollow())));
     }
 
     /**
@@ -257,7 +1037,34 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public List<NameUsageMatch> getAll(List<String> taxonIDs, Boolean follow) {
-        return this.call(this.alaNameUsageMatchService.getAll(taxonIDs, follow));
+        this.metrics.call("getAll");
+        if (!this.getCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.getAll(taxonIDs, follow));
+        return this.getCache.get().getAll(TaxonKey.of(taxonIDs, follow), q -> {
+            List<String> ids = TaxonKey.compact(q);
+            return expand(q, this.call(this.alaNameUsageMatchService.getAll(ids, follow)));
+        });
+    }
+
+    /**
+     * Bulk lookup of taxon information for a list of taxon identifiers, without waiting for the result.
+     *
+     * @param taxonIDs The list of taxon identifiers
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return The future list of matches, with fail results for no match
+     *
+     * @see #getAll(List, Boolean)
+     */
+    @Override
+    public CompletableFuture<List<NameUsageMatch>> getAllAsync(List<String> taxonIDs, Boolean follow) {
+        this.metrics.call("getAllAsync");
+        if (!this.getCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.getAll(taxonIDs, follow));
+        return this.getCache.get().getAllAsync(TaxonKey.of(taxonIDs, follow), q -> {
+            List<String> ids = TaxonKey.compact(q);
+            return this.callAsync(this.alaNameUsageMatchService.getAll(ids, follow)).thenApply(v -> expand(q, v));
+        });
     }
 
     /**
@@ -269,7 +1076,28 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public String getName(String taxonID, Boolean follow) {
-        return this.call(this.alaNameUsageMatchService.getName(taxonID, follow));
+        this.metrics.call("getName");
+        if (!this.getNameCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.getName(taxonID, follow));
+        return this.getNameCache.get().get(new TaxonKey(taxonID, follow), k -> this.call(this.alaNameUsageMatchService.getName(k.getTaxonID(), k.getFollow())));
+    }
+
+    /**
+     * Get the scientific name for a specific taxon identifier, without waiting for the result.
+     *
+     * @param taxonID The taxon identifier
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return The future matching name, or null for not found
+     *
+     * @see #getName(String, Boolean)
+     */
+    @Override
+    public CompletableFuture<String> getNameAsync(String taxonID, Boolean follow) {
+        this.metrics.call("getNameAsync");
+        if (!this.getNameCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.getName(taxonID, follow));
+        return this.getNameCache.get().getAsync(new TaxonKey(taxonID, follow), k -> this.callAsync(this.alaNameUsageMatchService.getName(k.getTaxonID(), k.getFollow())));
     }
 
     /**
@@ -281,12 +1109,48 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
      */
     @Override
     public List<String> getAllNames(List<String> taxonIDs, Boolean follow) {
-        return this.call(this.alaNameUsageMatchService.getAllNames(taxonIDs, follow));
+        this.metrics.call("getAllNames");
+        if (!this.getNameCache.isPresent())
+            return this.call(this.alaNameUsageMatchService.getAllNames(taxonIDs, follow));
+        return this.getNameCache.get().getAll(TaxonKey.of(taxonIDs, follow), q -> {
+            List<String> ids = TaxonKey.compact(q);
+            return expand(q, this.call(this.alaNameUsageMatchService.getAllNames(ids, follow)));
+        });
+    }
+
+    /**
+     * Bulk lookup of scientific names for taxon identifiers, without waiting for the result.
+     *
+     * @param taxonIDs The taxon identifiers
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return A future list containing the matching names, or null for not found
+     *
+     * @see #getAllNames(List, Boolean)
+     */
+    @Override
+    public CompletableFuture<List<String>> getAllNamesAsync(List<String> taxonIDs, Boolean follow) {
+        this.metrics.call("getAllNamesAsync");
+        if (!this.getNameCache.isPresent())
+            return this.callAsync(this.alaNameUsageMatchService.getAllNames(taxonIDs, follow));
+        return this.getNameCache.get().getAllAsync(TaxonKey.of(taxonIDs, follow), q -> {
+            List<String> ids = TaxonKey.compact(q);
+            return this.callAsync(this.alaNameUsageMatchService.getAllNames(ids, follow)).thenApply(v -> expand(q, v));
+        });
     }
 
     @Override
     public void close() throws IOException {
-        if (Objects.nonNull(okHttpClient) && Objects.nonNull(okHttpClient.cache())) {
+        if (Objects.nonNull(this.batcher))
+            this.batcher.close();
+        synchronized (this.storeLock) {
+            this.storeClosed = true;
+            if (Objects.nonNull(this.store))
+                this.store.close();
+        }
+        if (Objects.nonNull(okHttpClient))
+            okHttpClient.dispatcher().executorService().shutdown();
+        if (this.temporaryCache && Objects.nonNull(okHttpClient) && Objects.nonNull(okHttpClient.cache())) {
             File cacheDirectory = okHttpClient.cache().directory();
             if (cacheDirectory.exists()) {
                 try (Stream<File> files = Files.walk(cacheDirectory.toPath())
@@ -298,6 +1162,122 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
         }
     }
 
+    /**
+     * Spread the results of a compacted bulk request back over a padded query.
+     *
+     * @param query The query, with nulls for keys that were not requested
+     * @param values The results for the non-null keys, in order
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     *
+     * @return A list the same length as the query, with nulls for keys that were not requested
+     *
+     * @throws ClientException if the number of results does not match the number of keys requested
+     */
+    private static <K, V> List<V> expand(List<K> query, List<V> values) {
+        long requested = query.stream().filter(Objects::nonNull).count();
+        if (values == null || values.size() != requested)
+            throw new ClientException("Expected " + requested + " results, got " + (values == null ? 0 : values.size()));
+        List<V> results = new ArrayList<>(query.size());
+        Iterator<V> vi = values.iterator();
+        for (K key : query)
+            results.add(key == null ? null : vi.next());
+        return results;
+    }
+
+    /**
+     * Cache key for taxon identifier lookups.
+     */
+    @Value
+    static class TaxonKey {
+        /** The taxon identifier */
+        private String taxonID;
+        /** Follow synonyms to the accepted taxon */
+        private Boolean follow;
+
+        /**
+         * Build keys for a bulk lookup.
+         *
+         * @param taxonIDs The taxon identifiers, possibly containing nulls
+         * @param follow Follow synonyms to the accepted taxon
+         *
+         * @return A list of keys, with null for a null identifier
+         */
+        public static List<TaxonKey> of(List<String> taxonIDs, Boolean follow) {
+            return taxonIDs.stream().map(id -> id == null ? null : new TaxonKey(id, follow)).collect(Collectors.toList());
+        }
+
+        /**
+         * Get the identifiers that need to be requested.
+         *
+         * @param query The padded query
+         *
+         * @return The non-null identifiers, in order
+         */
+        public static List<String> compact(List<TaxonKey> query) {
+            return query.stream().filter(Objects::nonNull).map(TaxonKey::getTaxonID).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Cache key for name/rank checks.
+     */
+    @Value
+    static class CheckKey {
+        /** The name */
+        private String name;
+        /** The rank */
+        private String rank;
+    }
+
+    /**
+     * Cache key for vernacular name lookups.
+     */
+    @Value
+    static class CommonNamesKey {
+        /** The taxon identifier */
+        private String lsid;
+        /** The maximum number of names */
+        private Integer max;
+    }
+
+    /**
+     * A request body that writes the next segment of a search stream as newline-delimited JSON.
+     */
+    private static class SearchStreamBody extends RequestBody {
+        private final Iterator<NameSearch> searches;
+        private final int segment;
+
+        public SearchStreamBody(Iterator<NameSearch> searches, int segment) {
+            this.searches = searches;
+            this.segment = segment;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return APPLICATION_NDJSON;
+        }
+
+        /**
+         * The body consumes the underlying iterator and cannot be re-sent.
+         *
+         * @return True
+         */
+        @Override
+        public boolean isOneShot() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            for (int i = 0; i < this.segment && this.searches.hasNext(); i++) {
+                sink.write(STREAM_WRITER.writeValueAsBytes(this.searches.next()));
+                sink.writeByte('\n');
+            }
+        }
+    }
+
     /**
      * Make a call to the web service and return teh result
      *
@@ -322,4 +1302,40 @@ public class ALANameUsageMatchServiceClient implements NameMatchService {
             throw new ClientException("Unable to contact service for " + call, ex);
         }
     }
+
+    /**
+     * Queue a call to the web service and return a future result
+     *
+     * @param call The HTTP call
+     *
+     * @param <T> The type of response expected
+     *
+     * @return The future response, completing with null if a 204 (no content) result is returned from the server.
+     *   The future completes exceptionally with a {@link HttpException} for an error response and
+     *   a {@link ClientException} if unable to contact the service.
+     */
+    private <T> CompletableFuture<T> callAsync(Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        call.enqueue(new Callback<T>() {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                if (response.isSuccessful()) {
+                    future.complete(response.body());
+                } else {
+                    log.debug("Response returned error - {}", response);
+                    future.completeExceptionally(new HttpException(response));
+                }
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                future.completeExceptionally(t instanceof IOException ? new ClientException("Unable to contact service for " + call, t) : t);
+            }
+        });
+        future.whenComplete((r, t) -> {
+            if (future.isCancelled())
+                call.cancel();
+        });
+        return future;
+    }
 }
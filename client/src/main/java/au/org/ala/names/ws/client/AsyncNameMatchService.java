@@ -0,0 +1,216 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.names.ws.api.NameMatchService;
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous name matching interface.
+ * <p>
+ * Each method corresponds to a method in {@link NameMatchService} but returns
+ * immediately with a future that is completed when the result arrives.
+ * Failures complete the future exceptionally, with the same exceptions that the
+ * synchronous methods would throw.
+ * </p>
+ *
+ * @see NameMatchService
+ */
+public interface AsyncNameMatchService {
+    /**
+     * Find a matching taxon based on a search specification.
+     *
+     * @param search The search specification
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see NameMatchService#match(NameSearch)
+     */
+    CompletableFuture<NameUsageMatch> matchAsync(NameSearch search);
+
+    /**
+     * Bulk name search.
+     *
+     * @param searches The search specifications. possibly containing nulls
+     *
+     * @return A future list of matches, with success=false if not found and nulls for null requests
+     *
+     * @see NameMatchService#matchAll(List)
+     */
+    CompletableFuture<List<NameUsageMatch>> matchAllAsync(List<NameSearch> searches);
+
+    /**
+     * Find a mataching taxon based on the Linnaean hierarchy.
+     *
+     * @param scientificName The scientific name
+     * @param kingdom The Linnaean kingdom name
+     * @param phylum The Linnaean phylum name
+     * @param clazz The Linnaean class name
+     * @param order The Linnaean order name
+     * @param family The Linnaean family name
+     * @param genus The Linnaean genus name
+     * @param specificEpithet The specific epithet (species component of a binomial name)
+     * @param infraspecificEpithet The infraspecific epithet (subspecies, variety etc component of a trinomial name)
+     * @param rank The Linnaean rank name
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see NameMatchService#match(String, String, String, String, String, String, String, String, String, String)
+     */
+    CompletableFuture<NameUsageMatch> matchAsync(
+            String scientificName,
+            String kingdom,
+            String phylum,
+            String clazz,
+            String order,
+            String family,
+            String genus,
+            String specificEpithet,
+            String infraspecificEpithet,
+            String rank
+    );
+
+    /**
+     * Search for a taxon with a given scientific name.
+     *
+     * @param scientificName The scientific name of the taxon
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see NameMatchService#match(String)
+     */
+    CompletableFuture<NameUsageMatch> matchAsync(String scientificName);
+
+    /**
+     * Search for a taxon with a given vernacular (common) name.
+     *
+     * @param vernacularName The vernacular name to search for
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see NameMatchService#matchVernacular(String)
+     */
+    CompletableFuture<NameUsageMatch> matchVernacularAsync(String vernacularName);
+
+    /**
+     * Get taxon information via a specific taxon identifier.
+     *
+     * @param taxonID The taxon identifier
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return A future matching taxon, with success=false if not found
+     *
+     * @see NameMatchService#get(String, Boolean)
+     */
+    CompletableFuture<NameUsageMatch> getAsync(String taxonID, Boolean follow);
+
+    /**
+     * Get the scientific name for a specific taxon identifier.
+     *
+     * @param taxonID The taxon identifier
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return The future matching name, or null for not found
+     *
+     * @see NameMatchService#getName(String, Boolean)
+     */
+    CompletableFuture<String> getNameAsync(String taxonID, Boolean follow);
+
+    /**
+     * Bulk lookup of taxon information for a list of taxon identifiers.
+     *
+     * @param taxonIDs The list of taxon identifiers
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return The future list of matches, with fail results for no match
+     *
+     * @see NameMatchService#getAll(List, Boolean)
+     */
+    CompletableFuture<List<NameUsageMatch>> getAllAsync(List<String> taxonIDs, Boolean follow);
+
+    /**
+     * Bulk lookup of scientific names for taxon identifiers.
+     *
+     * @param taxonIDs The taxon identifiers
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return A future list containing the matching names, or null for not found
+     *
+     * @see NameMatchService#getAllNames(List, Boolean)
+     */
+    CompletableFuture<List<String>> getAllNamesAsync(List<String> taxonIDs, Boolean follow);
+
+    /**
+     * Check a name against a rank.
+     *
+     * @param name The name
+     * @param rank The rank
+     *
+     * @return A future true if the name is valid, false if invalid, null if unknown
+     *
+     * @see NameMatchService#check(String, String)
+     */
+    CompletableFuture<Boolean> checkAsync(String name, String rank);
+
+    /**
+     * Autocomplete search.
+     *
+     * @param query The beginning of the names to match (scientific or vernacular)
+     * @param max The maximum number of matches to return
+     * @param includeSynonyms Include synonym matches
+     *
+     * @return A future list of autocomplete matches
+     *
+     * @see NameMatchService#autocomplete(String, Integer, Boolean)
+     */
+    CompletableFuture<List<Map>> autocompleteAsync(String query, Integer max, Boolean includeSynonyms);
+
+    /**
+     * Search for a record with a specific LSID.
+     *
+     * @param id The taxon identifier
+     *
+     * @return The future matching LSID or null
+     *
+     * @see NameMatchService#searchForLsidById(String)
+     */
+    CompletableFuture<String> searchForLsidByIdAsync(String id);
+
+    /**
+     * Search for an LSID with a scientific name.
+     *
+     * @param name The scientific name
+     *
+     * @return The future matching LSID or null
+     *
+     * @see NameMatchService#searchForLSID(String)
+     */
+    CompletableFuture<String> searchForLSIDAsync(String name);
+
+    /**
+     * Search for a list of LSIDs with a list of scientificName or scientificName(kingdom).
+     *
+     * @param taxaQueries The scientificName or scientificName(kingdom)
+     *
+     * @return The future list of matches. Each match is the LSID or null
+     *
+     * @see NameMatchService#getGuidsForTaxa(List)
+     */
+    CompletableFuture<List<String>> getGuidsForTaxaAsync(List<String> taxaQueries);
+
+    /**
+     * Search for a list of vernacular names for an LSID.
+     *
+     * @param lsid The taxon identifier
+     * @param max The maximum number of vernaculars to return
+     *
+     * @return The future set of vernacular names
+     *
+     * @see NameMatchService#getCommonNamesForLSID(String, Integer)
+     */
+    CompletableFuture<Set<String>> getCommonNamesForLSIDAsync(String lsid, Integer max);
+}
@@ -0,0 +1,167 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.ws.ClientException;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Process a stream of requests in chunks, with a limited number of chunks in progress at once.
+ * <p>
+ * Requests are taken from the source iterator a chunk at a time and passed to a bulk function.
+ * Up to a maximum number of chunks are in progress while results are being read, so that
+ * the next results are usually ready by the time they are needed.
+ * Results are returned in the same order as the requests.
+ * If a chunk fails, iteration stops and every later call to {@link #hasNext()} or {@link #next()}
+ * throws the same failure, so that results never get out of step with the requests.
+ * Only the chunks in progress are held in memory, so very long streams
+ * can be processed without holding everything in memory.
+ * </p>
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @param <T> The request type
+ * @param <R> The result type
+ */
+public class ChunkedIterator<T, R> implements Iterator<R> {
+    /** The source of requests */
+    private final Iterator<T> source;
+    /** The bulk function */
+    private final Function<List<T>, CompletableFuture<List<R>>> bulk;
+    /** The maximum number of requests in a chunk */
+    @Getter
+    private final int chunk;
+    /** The maximum number of chunks in progress */
+    @Getter
+    private final int inFlight;
+    /** The chunks in progress, in request order */
+    private final Deque<Pending> pending;
+    /** The results of the current chunk */
+    private Iterator<R> current;
+    /** The failure that stopped iteration, if any */
+    private RuntimeException failure;
+
+    /**
+     * Construct a chunked iterator.
+     *
+     * @param source The source of requests
+     * @param bulk The bulk function, which must return a list of results the same length as the chunk
+     * @param chunk The maximum number of requests in a chunk
+     * @param inFlight The maximum number of chunks in progress
+     */
+    public ChunkedIterator(Iterator<T> source, Function<List<T>, CompletableFuture<List<R>>> bulk, int chunk, int inFlight) {
+        if (chunk < 1)
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunk);
+        if (inFlight < 1)
+            throw new IllegalArgumentException("Chunks in flight must be positive: " + inFlight);
+        this.source = source;
+        this.bulk = bulk;
+        this.chunk = chunk;
+        this.inFlight = inFlight;
+        this.pending = new ArrayDeque<>(inFlight);
+        this.current = Collections.emptyIterator();
+    }
+
+    /**
+     * Is there another result?
+     * <p>
+     * If the current chunk has been used up, this waits for the next chunk to complete.
+     * </p>
+     *
+     * @return True if there is another result
+     *
+     * @throws RuntimeException if the next chunk fails, or an earlier chunk has failed
+     */
+    @Override
+    public boolean hasNext() {
+        if (this.failure != null)
+            throw this.failure;
+        while (!this.current.hasNext()) {
+            this.fill();
+            Pending next = this.pending.poll();
+            if (next == null)
+                return false;
+            List<R> results;
+            try {
+                results = SingleFlightCache.join(next.results);
+            } catch (RuntimeException ex) {
+                throw this.fail(ex);
+            }
+            if (results == null || results.size() != next.size)
+                throw this.fail(new ClientException("Expected " + next.size + " results, got " + (results == null ? 0 : results.size())));
+            this.current = results.iterator();
+        }
+        return true;
+    }
+
+    /**
+     * Get the next result.
+     *
+     * @return The next result
+     */
+    @Override
+    public R next() {
+        if (!this.hasNext())
+            throw new NoSuchElementException();
+        return this.current.next();
+    }
+
+    /**
+     * Get the number of chunks currently in progress.
+     *
+     * @return The number of chunks that have been sent and not yet read
+     */
+    public int getPending() {
+        return this.pending.size();
+    }
+
+    // Start chunks until the maximum number is in progress or the source runs out
+    private void fill() {
+        while (this.pending.size() < this.inFlight && this.source.hasNext()) {
+            List<T> requests = new ArrayList<>(this.chunk);
+            while (requests.size() < this.chunk && this.source.hasNext())
+                requests.add(this.source.next());
+            CompletableFuture<List<R>> results;
+            try {
+                results = this.bulk.apply(requests);
+            } catch (RuntimeException ex) {
+                results = new CompletableFuture<>();
+                results.completeExceptionally(ex);
+            }
+            this.pending.add(new Pending(requests.size(), results));
+        }
+    }
+
+    // Abandon any chunks in progress after a failure and stop iterating
+    private RuntimeException fail(RuntimeException ex) {
+        for (Pending p : this.pending)
+            p.results.cancel(true);
+        this.pending.clear();
+        this.failure = ex;
+        return ex;
+    }
+
+    /**
+     * A chunk in progress.
+     */
+    private class Pending {
+        /** The number of requests in the chunk */
+        private final int size;
+        /** The future results */
+        private final CompletableFuture<List<R>> results;
+
+        public Pending(int size, CompletableFuture<List<R>> results) {
+            this.size = size;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.ws.ClientException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Combine individual searches into bulk requests.
+ * <p>
+ * Searches are collected until either the batch is full or the batch window has
+ * passed since the first search in the batch arrived.
+ * The batch is then sent as a single bulk request and each search is given its own result.
+ * A batch that only contains a single search is sent as a single request.
+ * </p>
+ * <p>
+ * This trades a small amount of latency for a large reduction in the number of requests
+ * when many threads are making single searches at the same time.
+ * </p>
+ */
+@Slf4j
+public class MatchBatcher implements Closeable {
+    /** Used to name the timer thread */
+    private static final AtomicInteger INSTANCE = new AtomicInteger();
+
+    /** The source of single matches */
+    private final Function<NameSearch, CompletableFuture<NameUsageMatch>> single;
+    /** The source of bulk matches */
+    private final Function<List<NameSearch>, CompletableFuture<List<NameUsageMatch>>> bulk;
+    /** The maximum number of searches in a batch */
+    @Getter
+    private final int size;
+    /** The maximum time to wait for a batch to fill, in milliseconds */
+    @Getter
+    private final long window;
+    /** The timer used to send partial batches */
+    private final ScheduledExecutorService timer;
+    /** The searches waiting to be sent */
+    private List<NameSearch> searches;
+    /** The results waiting for the searches to be sent */
+    private List<CompletableFuture<NameUsageMatch>> results;
+    /** The scheduled send for the current batch */
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * Construct a batcher.
+     *
+     * @param single The source of single matches
+     * @param bulk The source of bulk matches
+     * @param size The maximum number of searches in a batch
+     * @param window The maximum time to wait for a batch to fill, in milliseconds
+     */
+    public MatchBatcher(Function<NameSearch, CompletableFuture<NameUsageMatch>> single, Function<List<NameSearch>, CompletableFuture<List<NameUsageMatch>>> bulk, int size, long window) {
+        if (size < 1)
+            throw new IllegalArgumentException("Batch size must be positive: " + size);
+        if (window < 0)
+            throw new IllegalArgumentException("Batch window must not be negative: " + window);
+        this.single = single;
+        this.bulk = bulk;
+        this.size = size;
+        this.window = window;
+        final String name = "match-batcher-" + INSTANCE.incrementAndGet();
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.searches = new ArrayList<>(size);
+        this.results = new ArrayList<>(size);
+    }
+
+    /**
+     * Add a search to the current batch.
+     *
+     * @param search The search
+     *
+     * @return The future result of the search
+     */
+    public CompletableFuture<NameUsageMatch> submit(NameSearch search) {
+        CompletableFuture<NameUsageMatch> result = new CompletableFuture<>();
+        List<NameSearch> sendSearches = null;
+        List<CompletableFuture<NameUsageMatch>> sendResults = null;
+        synchronized (this) {
+            this.searches.add(search);
+            this.results.add(result);
+            if (this.searches.size() >= this.size) {
+                sendSearches = this.searches;
+                sendResults = this.results;
+                this.reset();
+            } else if (this.scheduled == null) {
+                this.scheduled = this.timer.schedule(this::flush, this.window, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (sendSearches != null)
+            this.send(sendSearches, sendResults);
+        return result;
+    }
+
+    /**
+     * Send any waiting searches immediately.
+     */
+    public void flush() {
+        List<NameSearch> sendSearches;
+        List<CompletableFuture<NameUsageMatch>> sendResults;
+        synchronized (this) {
+            if (this.searches.isEmpty())
+                return;
+            sendSearches = this.searches;
+            sendResults = this.results;
+            this.reset();
+        }
+        this.send(sendSearches, sendResults);
+    }
+
+    // Start a new batch. Must be called while synchronized
+    private void reset() {
+        if (this.scheduled != null)
+            this.scheduled.cancel(false);
+        this.scheduled = null;
+        this.searches = new ArrayList<>(this.size);
+        this.results = new ArrayList<>(this.size);
+    }
+
+    // Send a batch and distribute the results
+    private void send(List<NameSearch> searches, List<CompletableFuture<NameUsageMatch>> results) {
+        try {
+            if (searches.size() == 1) {
+                this.single.apply(searches.get(0)).whenComplete((match, ex) -> {
+                    if (ex != null)
+                        results.get(0).completeExceptionally(ex);
+                    else
+                        results.get(0).complete(match);
+                });
+                return;
+            }
+            log.debug("Sending batch of {} searches", searches.size());
+            this.bulk.apply(searches).whenComplete((matches, ex) -> {
+                if (ex == null && (matches == null || matches.size() != searches.size()))
+                    ex = new ClientException("Expected " + searches.size() + " matches, got " + (matches == null ? 0 : matches.size()));
+                for (int i = 0; i < results.size(); i++) {
+                    if (ex != null)
+                        results.get(i).completeExceptionally(ex);
+                    else
+                        results.get(i).complete(matches.get(i));
+                }
+            });
+        } catch (RuntimeException ex) {
+            results.forEach(r -> r.completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * Send any waiting searches and stop the timer.
+     */
+    @Override
+    public void close() {
+        this.flush();
+        this.timer.shutdown();
+    }
+}
@@ -0,0 +1,443 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.ws.ClientException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent key to value store that survives restarts and can be shared between processes.
+ * <p>
+ * The store is an append-only log file, holding a header with the index version followed by
+ * a list of length-prefixed JSON keys and values.
+ * An in-memory index maps a 128-bit digest of each key onto the position of its entry in the file, and
+ * keys and values are read from the file when needed, so the index stays small however long the keys are.
+ * The stored key is checked on reading, so a digest collision gives a miss rather than a wrong value.
+ * </p>
+ * <p>
+ * Each index version has its own file.
+ * When a store is opened, the files for other versions are deleted, since the
+ * results that they contain may no longer be valid.
+ * A process holds a shared lock on a byte range past the end of the data for as long as it has a store open,
+ * and files for other versions are only deleted if an exclusive lock on that range can be taken.
+ * Files that are still in use by another process, such as a client of another server or
+ * of the old index during an upgrade, are left alone until a later store is opened.
+ * </p>
+ * <p>
+ * Several processes on the same host can share a store.
+ * Writers take an exclusive lock on the file while appending and readers take
+ * a shared lock while reading entries added by other processes.
+ * A partly written entry, left by a process that died while writing, is ignored
+ * by readers and removed by the next writer.
+ * </p>
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+@Slf4j
+public class PersistentStore<K, V> implements Closeable {
+    /** The file identifier */
+    private static final int MAGIC = 0x414c4153;
+    /** The file format version */
+    private static final int FORMAT = 1;
+    /** The file name prefix */
+    private static final String PREFIX = "store-";
+    /** The file name suffix */
+    private static final String SUFFIX = ".log";
+    /** The size of the byte range locked by readers and writers */
+    private static final long DATA = Long.MAX_VALUE - 1;
+    /** The position of the byte that is locked while a store is open */
+    private static final long LIVE = DATA;
+    /** Digests for keys */
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("No MD5 digest available", ex);
+        }
+    });
+    /** The stores open in this process, since file locks are held by the process rather than the thread or channel */
+    private static final Map<Path, Holder> HOLDERS = new HashMap<>();
+
+    /** The store file */
+    @Getter
+    private final Path file;
+    /** The index version */
+    @Getter
+    private final String version;
+    /** The key writer */
+    private final ObjectWriter keyWriter;
+    /** The value reader */
+    private final ObjectReader valueReader;
+    /** The value writer */
+    private final ObjectWriter valueWriter;
+    /** The channel used to read and write the file */
+    private final FileChannel channel;
+    /** The process-wide hold on the file, also used as the monitor for file locking */
+    private final Holder monitor;
+    /** The position of each entry, by key digest */
+    private final Map<Digest, Long> index;
+    /** The position up to which the file has been read */
+    private volatile long scanned;
+    /** Set once the store has been closed */
+    private volatile boolean closed;
+
+    /**
+     * Open a store.
+     *
+     * @param dir The directory holding the store files
+     * @param version The index version
+     * @param keyClass The key class
+     * @param valueClass The value class
+     *
+     * @throws IOException if unable to open the store
+     */
+    public PersistentStore(Path dir, String version, Class<K> keyClass, Class<V> valueClass) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Files.createDirectories(dir);
+        this.file = dir.resolve(PREFIX + version.replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX).toAbsolutePath();
+        this.version = version;
+        this.keyWriter = mapper.writerFor(keyClass);
+        this.valueReader = mapper.readerFor(valueClass);
+        this.valueWriter = mapper.writerFor(valueClass);
+        this.index = new ConcurrentHashMap<>();
+        this.monitor = acquire(this.file);
+        try {
+            removeStale(dir);
+            this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException ex) {
+            release(this.file);
+            throw ex;
+        }
+        try {
+            this.open();
+            this.refresh();
+        } catch (IOException | RuntimeException ex) {
+            this.close();
+            throw ex;
+        }
+        log.info("Opened store {} with {} entries", this.file, this.index.size());
+    }
+
+    /**
+     * Get a value from the store.
+     * <p>
+     * If the key is not already known, any entries added by other processes are read first.
+     * </p>
+     *
+     * @param key The key
+     *
+     * @return The value, or null for not found
+     *
+     * @throws ClientException if unable to read the store
+     */
+    public V get(K key) {
+        if (this.closed)
+            return null;
+        try {
+            byte[] kb = this.keyWriter.writeValueAsBytes(key);
+            Digest digest = Digest.of(kb, 0, kb.length);
+            Long position = this.index.get(digest);
+            if (position == null && this.channel.size() > this.scanned) {
+                this.refresh();
+                position = this.index.get(digest);
+            }
+            return position == null ? null : this.read(position, kb);
+        } catch (ClosedChannelException ex) {
+            return null;
+        } catch (IOException ex) {
+            throw new ClientException("Unable to read " + key + " from " + this.file, ex);
+        }
+    }
+
+    /**
+     * Add a value to the store.
+     * <p>
+     * Values for keys that are already in the store are not added again.
+     * </p>
+     *
+     * @param key The key
+     * @param value The value
+     *
+     * @throws ClientException if unable to write to the store
+     */
+    public void put(K key, V value) {
+        if (this.closed)
+            return;
+        try {
+            byte[] kb = this.keyWriter.writeValueAsBytes(key);
+            Digest digest = Digest.of(kb, 0, kb.length);
+            if (this.index.containsKey(digest))
+                return;
+            byte[] vb = this.valueWriter.writeValueAsBytes(value);
+            synchronized (this.monitor) {
+                try (FileLock lock = this.channel.lock(0L, DATA, false)) {
+                    this.scan();
+                    long end = this.channel.size();
+                    if (end > this.scanned) {
+                        log.warn("Removing {} bytes of incomplete entry from {}", end - this.scanned, this.file);
+                        this.channel.truncate(this.scanned);
+                    }
+                    if (this.index.containsKey(digest))
+                        return;
+                    ByteBuffer buffer = ByteBuffer.allocate(8 + kb.length + vb.length);
+                    ((Buffer) buffer.putInt(kb.length).put(kb).putInt(vb.length).put(vb)).flip();
+                    long position = this.scanned;
+                    while (buffer.hasRemaining())
+                        position += this.channel.write(buffer, position);
+                    this.index.put(digest, this.scanned);
+                    this.scanned = position;
+                }
+            }
+        } catch (ClosedChannelException ex) {
+            // Closed while writing, since the store has been replaced
+        } catch (IOException ex) {
+            throw new ClientException("Unable to write " + key + " to " + this.file, ex);
+        }
+    }
+
+    /**
+     * Get the number of entries in the store.
+     *
+     * @return The number of entries read so far
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Read any entries added by other processes.
+     *
+     * @throws IOException if unable to read the file
+     */
+    public void refresh() throws IOException {
+        synchronized (this.monitor) {
+            try (FileLock lock = this.channel.lock(0L, DATA, true)) {
+                this.scan();
+            }
+        }
+    }
+
+    /**
+     * Close the store.
+     * <p>
+     * A closed store is empty and ignores new entries, so that anything still holding
+     * a replaced store carries on without errors.
+     * </p>
+     *
+     * @throws IOException if unable to close the file
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.monitor) {
+            if (this.closed)
+                return;
+            this.closed = true;
+        }
+        try {
+            this.channel.close();
+        } finally {
+            release(this.file);
+        }
+    }
+
+    // Write or check the header
+    private void open() throws IOException {
+        synchronized (this.monitor) {
+            try (FileLock lock = this.channel.lock(0L, DATA, false)) {
+                byte[] vb = this.version.getBytes(StandardCharsets.UTF_8);
+                if (this.channel.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(12 + vb.length);
+                    ((Buffer) header.putInt(MAGIC).putInt(FORMAT).putInt(vb.length).put(vb)).flip();
+                    while (header.hasRemaining())
+                        this.channel.write(header, header.position());
+                    this.channel.force(false);
+                }
+                ByteBuffer header = ByteBuffer.allocate(12 + vb.length);
+                this.readFully(header, 0L);
+                ((Buffer) header).flip();
+                if (header.getInt() != MAGIC || header.getInt() != FORMAT || header.getInt() != vb.length)
+                    throw new IOException("Store " + this.file + " is not a store for version " + this.version);
+                byte[] fv = new byte[vb.length];
+                header.get(fv);
+                if (!this.version.equals(new String(fv, StandardCharsets.UTF_8)))
+                    throw new IOException("Store " + this.file + " is not a store for version " + this.version);
+                this.scanned = header.capacity();
+            }
+        }
+    }
+
+    // Read complete entries after the scanned position. Must hold a lock on the file
+    private void scan() throws IOException {
+        long size = this.channel.size();
+        if (size <= this.scanned)
+            return;
+        MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.scanned, size - this.scanned);
+        int pos = 0;
+        while (buffer.remaining() >= 4) {
+            int kl = buffer.getInt();
+            if (kl < 0 || buffer.remaining() < kl + 4)
+                break;
+            int entryPos = buffer.position() - 4;
+            byte[] kb = new byte[kl];
+            buffer.get(kb);
+            int vl = buffer.getInt();
+            if (vl < 0 || buffer.remaining() < vl)
+                break;
+            ((Buffer) buffer).position(buffer.position() + vl);
+            this.index.putIfAbsent(Digest.of(kb, 0, kl), this.scanned + entryPos);
+            pos = buffer.position();
+        }
+        this.scanned += pos;
+    }
+
+    // Read the value of the entry at a position in the file, checking that the entry is for the key
+    private V read(long position, byte[] kb) throws IOException {
+        ByteBuffer key = ByteBuffer.allocate(4 + kb.length + 4);
+        this.readFully(key, position);
+        ((Buffer) key).flip();
+        if (key.getInt() != kb.length)
+            return null;
+        for (byte b : kb)
+            if (key.get() != b)
+                return null;
+        ByteBuffer value = ByteBuffer.allocate(key.getInt());
+        this.readFully(value, position + 8 + kb.length);
+        return this.valueReader.readValue(value.array());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = this.channel.read(buffer, position + buffer.position());
+            if (n < 0)
+                throw new IOException("Unexpected end of store " + this.file);
+        }
+    }
+
+    // Remove stores for other versions that are not in use
+    private static void removeStale(Path dir) {
+        try (DirectoryStream<Path> stores = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path store : stores) {
+                Path path = store.toAbsolutePath();
+                synchronized (HOLDERS) {
+                    if (HOLDERS.containsKey(path))
+                        continue;
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                        FileLock lock = channel.tryLock(LIVE, 1L, false);
+                        if (lock == null) {
+                            log.debug("Out of date store {} is in use by another process", path);
+                            continue;
+                        }
+                        try {
+                            log.info("Removing out of date store {}", path);
+                            Files.deleteIfExists(path);
+                        } finally {
+                            lock.release();
+                        }
+                    } catch (IOException | OverlappingFileLockException ex) {
+                        log.warn("Unable to remove out of date store " + path, ex);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Unable to remove out of date stores in " + dir, ex);
+        }
+    }
+
+    // Take or share this process's hold on a store file
+    private static Holder acquire(Path file) throws IOException {
+        synchronized (HOLDERS) {
+            Holder holder = HOLDERS.get(file);
+            if (holder == null) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    holder = new Holder(channel, channel.lock(LIVE, 1L, true));
+                } catch (IOException | RuntimeException ex) {
+                    channel.close();
+                    throw ex;
+                }
+                HOLDERS.put(file, holder);
+            }
+            holder.count++;
+            return holder;
+        }
+    }
+
+    // Give up this process's hold on a store file, once there are no more open stores for it
+    private static void release(Path file) throws IOException {
+        synchronized (HOLDERS) {
+            Holder holder = HOLDERS.get(file);
+            if (holder == null || --holder.count > 0)
+                return;
+            HOLDERS.remove(file);
+            holder.channel.close();
+        }
+    }
+
+    /**
+     * A process's hold on a store file.
+     * <p>
+     * This holds a shared lock on the byte at {@link #LIVE} for as long as any store for the file is open,
+     * so that other processes can tell that the file is in use.
+     * </p>
+     */
+    private static class Holder {
+        /** The channel holding the lock */
+        private final FileChannel channel;
+        /** The lock */
+        private final FileLock lock;
+        /** The number of open stores using the file */
+        private int count;
+
+        public Holder(FileChannel channel, FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+            this.count = 0;
+        }
+    }
+
+    /**
+     * A 128-bit digest of an encoded key.
+     */
+    @EqualsAndHashCode
+    private static class Digest {
+        private final long high;
+        private final long low;
+
+        private Digest(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        public static Digest of(byte[] bytes, int offset, int length) {
+            MessageDigest md5 = MD5.get();
+            md5.reset();
+            md5.update(bytes, offset, length);
+            ByteBuffer digest = ByteBuffer.wrap(md5.digest());
+            return new Digest(digest.getLong(), digest.getLong());
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.ws.ClientException;
+import au.org.ala.ws.ClientMetrics;
+import lombok.Getter;
+import org.cache2k.Cache;
+import org.cache2k.CacheEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A data cache that makes sure that only one request is made for a missing key at a time.
+ * <p>
+ * When several threads miss on the same key at the same time,
+ * the first thread makes the request and the others wait for the result,
+ * rather than each thread making its own request.
+ * The same applies to bulk requests: keys that are already being requested,
+ * either singly or as part of another bulk request, are left out of the request
+ * and the result of the existing request is used instead.
+ * </p>
+ * <p>
+ * Entries can have a refresh time and a retention time, measured from when the entry was written.
+ * An entry older than the refresh time is still returned, but a new value is requested in the background,
+ * so that frequently used entries do not cause a blocking miss when they expire.
+ * An entry older than the retention time is treated as missing.
+ * Refreshes for blocking loaders run on a small shared pool; if the pool is busy, the refresh is skipped
+ * and the entry is refreshed on a later lookup instead.
+ * Refreshes for asynchronous loaders go through the loader, and so are subject to the HTTP client's request limits.
+ * </p>
+ * <p>
+ * Cache hits and misses are reported to a {@link ClientMetrics} listener under the cache name.
+ * </p>
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class SingleFlightCache<K, V> {
+    /** The maximum number of background refreshes for blocking loaders running at once */
+    public static final int REFRESH_THREADS = 4;
+    /** The maximum number of background refreshes for blocking loaders waiting to run. Further refreshes are skipped */
+    public static final int REFRESH_QUEUE = 64;
+    /** Used to name refresh threads */
+    private static final AtomicInteger THREAD = new AtomicInteger();
+    /** Runs background refreshes for blocking loaders */
+    private static final ThreadPoolExecutor REFRESHER = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE), r -> {
+        Thread thread = new Thread(r, "cache-refresh-" + THREAD.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        REFRESHER.allowCoreThreadTimeOut(true);
+    }
+
+    /** The underlying cache */
+    @Getter
+    private final Cache<K, V> cache;
+    /** Cache null values */
+    private final boolean cacheNulls;
+    /** The requests in progress */
+    private final Map<K, CompletableFuture<V>> inFlight;
+    /** The age in milliseconds after which an entry is refreshed in the background */
+    @Getter
+    private final long refreshTime;
+    /** The age in milliseconds after which an entry can no longer be used */
+    @Getter
+    private final long retentionTime;
+    /** The cache name, for metrics */
+    @Getter
+    private final String name;
+    /** The listener for cache hits and misses */
+    private final ClientMetrics metrics;
+
+    /**
+     * Construct a single-flight cache.
+     *
+     * @param cache The underlying cache
+     * @param cacheNulls Keep null results in the cache. Otherwise a null result is requested again next time
+     */
+    public SingleFlightCache(Cache<K, V> cache, boolean cacheNulls) {
+        this(cache, cacheNulls, null, null);
+    }
+
+    /**
+     * Construct a single-flight cache with entries that are refreshed.
+     * <p>
+     * The underlying cache should keep entries for at least the retention time
+     * and record refresh times (see {@link org.cache2k.Cache2kBuilder#recordRefreshedTime(boolean)}).
+     * </p>
+     *
+     * @param cache The underlying cache
+     * @param cacheNulls Keep null results in the cache. Otherwise a null result is requested again next time
+     * @param refreshTime The age in milliseconds after which an entry is refreshed in the background (null for never)
+     * @param retentionTime The age in milliseconds after which an entry is no longer used (null for never)
+     */
+    public SingleFlightCache(Cache<K, V> cache, boolean cacheNulls, Long refreshTime, Long retentionTime) {
+        this(cache, cacheNulls, refreshTime, retentionTime, null, ClientMetrics.NONE);
+    }
+
+    /**
+     * Construct a single-flight cache that reports hits and misses.
+     *
+     * @param cache The underlying cache
+     * @param cacheNulls Keep null results in the cache. Otherwise a null result is requested again next time
+     * @param refreshTime The age in milliseconds after which an entry is refreshed in the background (null for never)
+     * @param retentionTime The age in milliseconds after which an entry is no longer used (null for never)
+     * @param name The cache name
+     * @param metrics The listener for cache hits and misses
+     */
+    public SingleFlightCache(Cache<K, V> cache, boolean cacheNulls, Long refreshTime, Long retentionTime, String name, ClientMetrics metrics) {
+        this.cache = cache;
+        this.name = name;
+        this.metrics = metrics;
+        this.cacheNulls = cacheNulls;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.retentionTime = retentionTime == null ? Long.MAX_VALUE : retentionTime;
+        this.refreshTime = refreshTime == null ? this.retentionTime : Math.min(refreshTime, this.retentionTime);
+    }
+
+    /**
+     * Get a value, waiting for any request that is already in progress.
+     * <p>
+     * If the value needs to be requested, the loader is called on the current thread.
+     * </p>
+     *
+     * @param key The key
+     * @param loader The loader that makes a request for the key
+     *
+     * @return The value
+     *
+     * @throws RuntimeException from the loader, if the request fails
+     */
+    public V get(K key, Function<K, V> loader) {
+        Hit entry = this.lookup(key);
+        if (entry != null) {
+            if (entry.due)
+                this.refresh(key, entry.value, k -> CompletableFuture.supplyAsync(() -> loader.apply(k), REFRESHER));
+            return entry.value;
+        }
+        CompletableFuture<V> pending = new CompletableFuture<>();
+        CompletableFuture<V> existing = this.inFlight.putIfAbsent(key, pending);
+        if (existing != null)
+            return join(existing);
+        try {
+            entry = this.peek(key); // May have arrived while registering
+            if (entry != null) {
+                this.release(key, pending, entry.value);
+                return entry.value;
+            }
+            V value = loader.apply(key);
+            this.complete(key, pending, value);
+            return value;
+        } catch (RuntimeException ex) {
+            this.fail(key, pending, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Get a value without waiting.
+     * <p>
+     * The value is returned immediately if it is in the cache.
+     * </p>
+     *
+     * @param key The key
+     * @param loader The loader that makes a request for the key
+     *
+     * @return The future value
+     */
+    public CompletableFuture<V> getAsync(K key, Function<K, CompletableFuture<V>> loader) {
+        Hit entry = this.lookup(key);
+        if (entry != null) {
+            if (entry.due)
+                this.refresh(key, entry.value, loader);
+            return CompletableFuture.completedFuture(entry.value);
+        }
+        CompletableFuture<V> pending = new CompletableFuture<>();
+        CompletableFuture<V> existing = this.inFlight.putIfAbsent(key, pending);
+        if (existing != null)
+            return existing;
+        entry = this.peek(key);
+        if (entry != null) {
+            this.release(key, pending, entry.value);
+            return pending;
+        }
+        try {
+            loader.apply(key).whenComplete((value, ex) -> {
+                if (ex != null)
+                    this.fail(key, pending, ex);
+                else
+                    this.complete(key, pending, value);
+            });
+        } catch (RuntimeException ex) {
+            this.fail(key, pending, ex);
+        }
+        return pending;
+    }
+
+    /**
+     * Get a list of values, waiting for any requests that are already in progress.
+     * <p>
+     * The loader is given a list of keys that is the same length as the original list.
+     * Keys that do not need to be requested are replaced by null.
+     * The loader is expected to return a list of values in the same order,
+     * with any value for a null key being ignored.
+     * If there are no keys to request, the loader is not called.
+     * Null keys give null values.
+     * </p>
+     * <p>
+     * Entries that are due for a refresh are returned from the cache and included in the request.
+     * If the only keys to request are refreshes, the request is made in the background.
+     * </p>
+     *
+     * @param keys The keys
+     * @param loader The loader that makes a bulk request for the keys
+     *
+     * @return The values, in the same order as the keys
+     *
+     * @throws RuntimeException from the loader, if the request fails
+     */
+    public List<V> getAll(List<K> keys, Function<List<K>, List<V>> loader) {
+        Bulk bulk = new Bulk(keys);
+        if (bulk.requested > 0) {
+            try {
+                bulk.complete(loader.apply(bulk.query));
+            } catch (RuntimeException ex) {
+                bulk.fail(ex);
+                throw ex;
+            }
+        } else if (bulk.refreshing > 0) {
+            try {
+                CompletableFuture.supplyAsync(() -> loader.apply(bulk.query), REFRESHER).whenComplete((values, ex) -> {
+                    if (ex != null)
+                        bulk.fail(ex);
+                    else
+                        bulk.complete(values);
+                });
+            } catch (RejectedExecutionException ex) {
+                bulk.skip();
+            }
+        }
+        List<V> values = new ArrayList<>(keys.size());
+        for (CompletableFuture<V> future : bulk.results)
+            values.add(future == null ? null : join(future));
+        return values;
+    }
+
+    /**
+     * Get a list of values without waiting.
+     *
+     * @param keys The keys
+     * @param loader The loader that makes a bulk request for the keys
+     *
+     * @return The future values, in the same order as the keys
+     *
+     * @see #getAll(List, Function)
+     */
+    public CompletableFuture<List<V>> getAllAsync(List<K> keys, Function<List<K>, CompletableFuture<List<V>>> loader) {
+        Bulk bulk = new Bulk(keys);
+        if (bulk.requested > 0 || bulk.refreshing > 0) {
+            try {
+                loader.apply(bulk.query).whenComplete((values, ex) -> {
+                    if (ex != null)
+                        bulk.fail(ex);
+                    else
+                        bulk.complete(values);
+                });
+            } catch (RuntimeException ex) {
+                bulk.fail(ex);
+            }
+        }
+        CompletableFuture<?>[] waiting = bulk.results.stream().filter(f -> f != null).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(waiting).thenApply(v -> {
+            List<V> values = new ArrayList<>(keys.size());
+            for (CompletableFuture<V> future : bulk.results)
+                values.add(future == null ? null : future.join());
+            return values;
+        });
+    }
+
+    /**
+     * Get the number of requests currently in progress.
+     *
+     * @return The number of keys being requested
+     */
+    public int getInFlight() {
+        return this.inFlight.size();
+    }
+
+    // Find a usable cache entry and report whether it was found
+    private Hit lookup(K key) {
+        Hit entry = this.peek(key);
+        if (entry != null)
+            this.metrics.cacheHit(this.name);
+        else
+            this.metrics.cacheMiss(this.name);
+        return entry;
+    }
+
+    // Find a usable cache entry, noting whether it is due for a refresh
+    private Hit peek(K key) {
+        if (this.refreshTime == Long.MAX_VALUE) {
+            CacheEntry<K, V> entry = this.cache.peekEntry(key);
+            return entry == null ? null : new Hit(entry.getValue(), false);
+        }
+        return this.cache.invoke(key, e -> {
+            if (!e.exists())
+                return null;
+            long age = e.getCurrentTime() - e.getRefreshedTime();
+            return age >= this.retentionTime ? null : new Hit(e.getValue(), age >= this.refreshTime);
+        });
+    }
+
+    // Request a new value in the background, unless a request is already in progress or there is no room to refresh
+    private void refresh(K key, V current, Function<K, CompletableFuture<V>> loader) {
+        CompletableFuture<V> pending = new CompletableFuture<>();
+        if (this.inFlight.putIfAbsent(key, pending) != null)
+            return;
+        try {
+            loader.apply(key).whenComplete((value, ex) -> {
+                if (ex != null)
+                    this.fail(key, pending, ex);
+                else
+                    this.complete(key, pending, value);
+            });
+        } catch (RejectedExecutionException ex) {
+            this.release(key, pending, current);
+        } catch (RuntimeException ex) {
+            this.fail(key, pending, ex);
+        }
+    }
+
+    // Record a value and release anyone waiting for it
+    private void complete(K key, CompletableFuture<V> pending, V value) {
+        if (value != null || this.cacheNulls)
+            this.cache.put(key, value);
+        this.release(key, pending, value);
+    }
+
+    // Release anyone waiting for a value that is already in the cache
+    private void release(K key, CompletableFuture<V> pending, V value) {
+        this.inFlight.remove(key, pending);
+        pending.complete(value);
+    }
+
+    // Record a failure and release anyone waiting for it
+    private void fail(K key, CompletableFuture<V> pending, Throwable ex) {
+        this.inFlight.remove(key, pending);
+        pending.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+    }
+
+    /**
+     * Wait for a future value, unwrapping any exception.
+     *
+     * @param future The future
+     * @param <T> The value type
+     *
+     * @return The value
+     *
+     * @throws RuntimeException if the future failed
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new ClientException("Unable to complete request", ex.getCause());
+        }
+    }
+
+    /**
+     * A value found in the cache.
+     */
+    private class Hit {
+        /** The cached value */
+        private final V value;
+        /** The value is due to be refreshed */
+        private final boolean due;
+
+        public Hit(V value, boolean due) {
+            this.value = value;
+            this.due = due;
+        }
+    }
+
+    /**
+     * The state of a bulk request.
+     */
+    private class Bulk {
+        /** The result for each key, null for a null key */
+        private final List<CompletableFuture<V>> results;
+        /** The keys to request, with null for keys that do not need to be requested */
+        private final List<K> query;
+        /** The request in progress for each requested key, null for keys that are not requested */
+        private final List<CompletableFuture<V>> pending;
+        /** The number of missing keys to request */
+        private int requested;
+        /** The number of keys requested to refresh a cached value */
+        private int refreshing;
+
+        public Bulk(List<K> keys) {
+            this.results = new ArrayList<>(keys.size());
+            this.query = new ArrayList<>(keys.size());
+            this.pending = new ArrayList<>(keys.size());
+            this.requested = 0;
+            this.refreshing = 0;
+            for (K key : keys) {
+                CompletableFuture<V> result = null;
+                CompletableFuture<V> request = null;
+                if (key != null) {
+                    Hit entry = lookup(key);
+                    if (entry != null) {
+                        result = CompletableFuture.completedFuture(entry.value);
+                        if (entry.due) {
+                            CompletableFuture<V> refresh = new CompletableFuture<>();
+                            if (inFlight.putIfAbsent(key, refresh) == null) {
+                                request = refresh;
+                                this.refreshing++;
+                            }
+                        }
+                    } else {
+                        CompletableFuture<V> miss = new CompletableFuture<>();
+                        result = inFlight.putIfAbsent(key, miss);
+                        if (result == null) {
+                            result = miss;
+                            request = miss;
+                            this.requested++;
+                        }
+                    }
+                }
+                this.results.add(result);
+                this.query.add(request == null ? null : key);
+                this.pending.add(request);
+            }
+        }
+
+        /**
+         * Complete the requested keys.
+         *
+         * @param values The values returned, in query order
+         */
+        public void complete(List<V> values) {
+            for (int i = 0; i < this.query.size(); i++) {
+                K key = this.query.get(i);
+                if (key != null)
+                    SingleFlightCache.this.complete(key, this.pending.get(i), values != null && i < values.size() ? values.get(i) : null);
+            }
+        }
+
+        /**
+         * Skip a refresh, releasing the requested keys with their cached values.
+         */
+        public void skip() {
+            for (int i = 0; i < this.query.size(); i++) {
+                K key = this.query.get(i);
+                if (key != null)
+                    release(key, this.pending.get(i), this.results.get(i).join());
+            }
+        }
+
+        /**
+         * Fail the requested keys.
+         *
+         * @param ex The failure
+         */
+        public void fail(Throwable ex) {
+            for (int i = 0; i < this.query.size(); i++) {
+                K key = this.query.get(i);
+                if (key != null)
+                    SingleFlightCache.this.fail(key, this.pending.get(i), ex);
+            }
+        }
+    }
+}
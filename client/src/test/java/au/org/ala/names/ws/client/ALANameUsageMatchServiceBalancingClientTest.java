@@ -0,0 +1,241 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.util.TestUtils;
+import au.org.ala.ws.ClientConfiguration;
+import au.org.ala.ws.LoadBalancer;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ALANameUsageMatchServiceBalancingClientTest extends TestUtils {
+    private MockWebServer server1;
+    private MockWebServer server2;
+    private ALANameUsageMatchServiceClient client;
+    private String response;
+
+    @Before
+    public void setUp() throws Exception {
+        this.response = this.getResource("response-1.json");
+        this.server1 = new MockWebServer();
+        this.server2 = new MockWebServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.client != null)
+            this.client.close();
+        this.server1.shutdown();
+        this.server2.shutdown();
+    }
+
+    private Dispatcher dispatcher(long delay) {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(response).setHeadersDelay(delay, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    private void createClient(boolean hedge, Long hedgeDelay) throws Exception {
+        this.createClient(hedge, hedgeDelay, null);
+    }
+
+    private void createClient(boolean hedge, Long hedgeDelay, LoadBalancer.Strategy routing) throws Exception {
+        this.createClient(hedge, hedgeDelay, routing, null);
+    }
+
+    private void createClient(boolean hedge, Long hedgeDelay, LoadBalancer.Strategy routing, Integer maxRequests) throws Exception {
+        ClientConfiguration configuration = ClientConfiguration.builder()
+                .endpoints(Arrays.asList(this.server1.url("").url(), this.server2.url("").url()))
+                .cache(false)
+                .hedge(hedge)
+                .hedgeDelay(hedgeDelay)
+                .routing(routing)
+                .maxRequests(maxRequests)
+                .build();
+        this.client = new ALANameUsageMatchServiceClient(configuration);
+    }
+
+    private NameSearch search(int i) {
+        return NameSearch.builder().scientificName("Acacia dealbata").genus("Acacia" + i).build();
+    }
+
+    /** Requests are spread across endpoints */
+    @Test
+    public void testBalance1() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(0));
+        this.server2.setDispatcher(this.dispatcher(0));
+        this.server1.start();
+        this.server2.start();
+        this.createClient(false, null);
+        for (int i = 0; i < 20; i++) {
+            NameUsageMatch match = this.client.match(this.search(i));
+            assertEquals("Acacia dealbata", match.getScientificName());
+        }
+        assertEquals(20, this.server1.getRequestCount() + this.server2.getRequestCount());
+        assertTrue(this.server1.getRequestCount() > 0);
+        assertTrue(this.server2.getRequestCount() > 0);
+    }
+
+    /** Requests that can be repeated fail over to another endpoint */
+    @Test
+    public void testFailover1() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(0));
+        this.server1.start();
+        this.server2.start();
+        this.createClient(false, null);
+        this.server2.shutdown();
+        for (int i = 0; i < 10; i++) {
+            NameUsageMatch match = this.client.match(this.search(i));
+            assertEquals("Acacia dealbata", match.getScientificName());
+        }
+        assertEquals(10, this.server1.getRequestCount());
+    }
+
+    /** Slow requests are hedged and the first answer is used */
+    @Test
+    public void testHedge1() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(5000));
+        this.server2.setDispatcher(this.dispatcher(0));
+        this.server1.start();
+        this.server2.start();
+        this.createClient(true, 100L);
+        for (int i = 0; i < 10; i++) {
+            long start = System.currentTimeMillis();
+            NameUsageMatch match = this.client.match(this.search(i));
+            assertEquals("Acacia dealbata", match.getScientificName());
+            assertTrue(System.currentTimeMillis() - start < 2000);
+        }
+        assertEquals(10, this.server2.getRequestCount());
+    }
+
+    /** A hedged request that fails before the hedge delay is retried on another endpoint */
+    @Test
+    public void testHedgeFailover1() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(0));
+        this.server1.start();
+        this.server2.start();
+        this.createClient(true, 2000L);
+        this.server2.shutdown();
+        for (int i = 0; i < 10; i++) {
+            long start = System.currentTimeMillis();
+            NameUsageMatch match = this.client.match(this.search(i));
+            assertEquals("Acacia dealbata", match.getScientificName());
+            assertTrue(System.currentTimeMillis() - start < 1500);
+        }
+        assertEquals(10, this.server1.getRequestCount());
+    }
+
+    /** A primary that fails while its hedge is waiting for the only dispatcher slot is retried rather than waiting */
+    @Test
+    public void testHedgeFailover2() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        Dispatcher dispatcher = new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (requests.getAndIncrement() == 0) {
+                    Thread.sleep(500);
+                    return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+                }
+                return new MockResponse().setBody(response);
+            }
+        };
+        this.server1.setDispatcher(dispatcher);
+        this.server2.setDispatcher(dispatcher);
+        this.server1.start();
+        this.server2.start();
+        this.createClient(true, 100L, null, 1);
+        for (int i = 0; i < 5; i++) {
+            NameUsageMatch match = this.client.matchAsync(this.search(i)).get(5, TimeUnit.SECONDS);
+            assertEquals("Acacia dealbata", match.getScientificName());
+        }
+        assertEquals(6, requests.get());
+    }
+
+    /** Hedging does not need a thread per request */
+    @Test
+    public void testHedgeThreads1() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(0));
+        this.server2.setDispatcher(this.dispatcher(0));
+        this.server1.start();
+        this.server2.start();
+        this.createClient(true, 1000L);
+        for (int i = 0; i < 10; i++)
+            this.client.match(this.search(i));
+        assertTrue(Thread.getAllStackTraces().keySet().stream().noneMatch(t -> t.getName().startsWith("hedge-") && !t.getName().equals("hedge-watch")));
+    }
+
+    /** Endpoints with different context paths */
+    @Test
+    public void testContextPath1() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(0));
+        this.server2.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (!request.getPath().startsWith("/other/api/"))
+                    return new MockResponse().setResponseCode(404);
+                return new MockResponse().setBody(response);
+            }
+        });
+        this.server1.start();
+        this.server2.start();
+        ClientConfiguration configuration = ClientConfiguration.builder()
+                .endpoints(Arrays.asList(this.server1.url("/").url(), this.server2.url("/other/").url()))
+                .cache(false)
+                .build();
+        this.client = new ALANameUsageMatchServiceClient(configuration);
+        for (int i = 0; i < 20; i++) {
+            NameUsageMatch match = this.client.match(this.search(i));
+            assertEquals("Acacia dealbata", match.getScientificName());
+        }
+        assertTrue(this.server2.getRequestCount() > 0);
+    }
+
+    /** Equivalent searches are sent to the same endpoint */
+    @Test
+    public void testAffinity1() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(0));
+        this.server2.setDispatcher(this.dispatcher(0));
+        this.server1.start();
+        this.server2.start();
+        this.createClient(false, null, LoadBalancer.Strategy.AFFINITY);
+        NameSearch search1 = NameSearch.builder().scientificName("Acacia dealbata").build();
+        NameSearch search2 = NameSearch.builder().scientificName("  Acacia   dealbata ").build();
+        assertEquals(ALANameUsageMatchServiceClient.routingKey(search1), ALANameUsageMatchServiceClient.routingKey(search2));
+        for (int i = 0; i < 10; i++) {
+            NameUsageMatch match = this.client.match(i % 2 == 0 ? search1 : search2);
+            assertEquals("Acacia dealbata", match.getScientificName());
+        }
+        assertEquals(10, Math.max(this.server1.getRequestCount(), this.server2.getRequestCount()));
+        assertEquals(0, Math.min(this.server1.getRequestCount(), this.server2.getRequestCount()));
+    }
+
+    /** Different searches are spread across endpoints */
+    @Test
+    public void testAffinity2() throws Exception {
+        this.server1.setDispatcher(this.dispatcher(0));
+        this.server2.setDispatcher(this.dispatcher(0));
+        this.server1.start();
+        this.server2.start();
+        this.createClient(false, null, LoadBalancer.Strategy.AFFINITY);
+        for (int i = 0; i < 40; i++)
+            this.client.match(this.search(i));
+        assertEquals(40, this.server1.getRequestCount() + this.server2.getRequestCount());
+        assertTrue(this.server1.getRequestCount() > 0);
+        assertTrue(this.server2.getRequestCount() > 0);
+    }
+}
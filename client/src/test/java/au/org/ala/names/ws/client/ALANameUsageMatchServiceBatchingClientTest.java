@@ -0,0 +1,174 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.util.TestUtils;
+import au.org.ala.ws.ClientConfiguration;
+import au.org.ala.ws.DataCacheConfiguration;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.HttpException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ALANameUsageMatchServiceBatchingClientTest extends TestUtils {
+    private MockWebServer server;
+    private ALANameUsageMatchServiceClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.server.shutdown();
+        if (this.client != null)
+            this.client.close();
+    }
+
+    private void createClient(int size, long window, boolean cache) throws Exception {
+        ClientConfiguration configuration = ClientConfiguration.builder()
+                .baseUrl(server.url("").url())
+                .batchSize(size)
+                .batchWindow(window)
+                .dataCache(cache ? DataCacheConfiguration.builder().build() : null)
+                .build();
+        this.client = new ALANameUsageMatchServiceClient(configuration);
+    }
+
+    /** Two searches within the window are sent together */
+    @Test
+    public void testBatch1() throws Exception {
+        String request = this.getResource("request-all-1.json");
+        String response = this.getResource("response-all-1.json");
+        this.createClient(10, 500, false);
+
+        server.enqueue(new MockResponse().setBody(response));
+        CompletableFuture<NameUsageMatch> future1 = client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata").build());
+        CompletableFuture<NameUsageMatch> future2 = client.matchAsync(NameSearch.builder().scientificName("Osphranter rufus").build());
+        assertEquals("Acacia dealbata", future1.get(10, TimeUnit.SECONDS).getScientificName());
+        assertEquals("Osphranter rufus", future2.get(10, TimeUnit.SECONDS).getScientificName());
+
+        assertEquals(1, server.getRequestCount());
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/searchAllByClassification", req.getPath());
+        assertEquals(request, req.getBody().readUtf8());
+    }
+
+    /** A full batch is sent without waiting for the window */
+    @Test
+    public void testBatch2() throws Exception {
+        String response = this.getResource("response-all-1.json");
+        this.createClient(2, 60000, false);
+
+        server.enqueue(new MockResponse().setBody(response));
+        CompletableFuture<NameUsageMatch> future1 = client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata").build());
+        CompletableFuture<NameUsageMatch> future2 = client.matchAsync(NameSearch.builder().scientificName("Osphranter rufus").build());
+        assertEquals("Acacia dealbata", future1.get(10, TimeUnit.SECONDS).getScientificName());
+        assertEquals("Osphranter rufus", future2.get(10, TimeUnit.SECONDS).getScientificName());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /** A single search is sent as a single search after the window */
+    @Test
+    public void testBatch3() throws Exception {
+        String request = this.getResource("request-1.json");
+        String response = this.getResource("response-1.json");
+        this.createClient(10, 20, false);
+
+        server.enqueue(new MockResponse().setBody(response));
+        NameUsageMatch match = client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+        assertEquals("Acacia dealbata", match.getScientificName());
+
+        assertEquals(1, server.getRequestCount());
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/searchByClassification", req.getPath());
+        assertEquals(request, req.getBody().readUtf8());
+    }
+
+    /** Blocking searches from separate threads are combined */
+    @Test
+    public void testBatch4() throws Exception {
+        String response = this.getResource("response-all-1.json");
+        this.createClient(2, 60000, false);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            server.enqueue(new MockResponse().setBody(response));
+            Future<NameUsageMatch> future1 = executor.submit(() -> client.match(NameSearch.builder().scientificName("Acacia dealbata").build()));
+            Future<NameUsageMatch> future2 = executor.submit(() -> client.match(NameSearch.builder().scientificName("Osphranter rufus").build()));
+            NameUsageMatch match1 = future1.get(10, TimeUnit.SECONDS);
+            NameUsageMatch match2 = future2.get(10, TimeUnit.SECONDS);
+            // Either thread may get in first, but each should get its own result
+            assertNotEquals(match1.getScientificName(), match2.getScientificName());
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Batched results go into the cache */
+    @Test
+    public void testBatch5() throws Exception {
+        String response = this.getResource("response-all-1.json");
+        this.createClient(10, 200, true);
+
+        server.enqueue(new MockResponse().setBody(response));
+        CompletableFuture<NameUsageMatch> future1 = client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata").build());
+        CompletableFuture<NameUsageMatch> future2 = client.matchAsync(NameSearch.builder().scientificName("Osphranter rufus").build());
+        CompletableFuture.allOf(future1, future2).get(10, TimeUnit.SECONDS);
+        assertEquals(1, server.getRequestCount());
+
+        NameUsageMatch match = client.match(NameSearch.builder().scientificName("Osphranter rufus").build());
+        assertEquals("Osphranter rufus", match.getScientificName());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /** Errors are passed to every search in the batch */
+    @Test
+    public void testBatchError1() throws Exception {
+        this.createClient(2, 60000, false);
+
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("Unable to connect to index"));
+        CompletableFuture<NameUsageMatch> future1 = client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata").build());
+        CompletableFuture<NameUsageMatch> future2 = client.matchAsync(NameSearch.builder().scientificName("Osphranter rufus").build());
+        for (CompletableFuture<NameUsageMatch> future : new CompletableFuture[] { future1, future2 }) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("Expecting ExecutionException");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof HttpException);
+                assertEquals(500, ((HttpException) ex.getCause()).code());
+            }
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /** Errors are rethrown for blocking searches */
+    @Test
+    public void testBatchError2() throws Exception {
+        this.createClient(10, 10, false);
+
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("Unable to connect to index"));
+        try {
+            client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+            fail("Expecting HttpException");
+        } catch (HttpException ex) {
+            assertEquals(500, ex.code());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+}
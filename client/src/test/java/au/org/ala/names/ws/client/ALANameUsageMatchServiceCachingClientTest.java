@@ -5,6 +5,7 @@ import au.org.ala.names.ws.api.NameUsageMatch;
 import au.org.ala.util.TestUtils;
 import au.org.ala.ws.ClientConfiguration;
 import au.org.ala.ws.DataCacheConfiguration;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -14,8 +15,14 @@ import org.junit.Test;
 import retrofit2.HttpException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -246,4 +253,261 @@ public class ALANameUsageMatchServiceCachingClientTest extends TestUtils {
         RecordedRequest req = server.takeRequest();
         assertEquals("/api/search?q=Acacia%20dealbata", req.getPath());
     }
+
+    /** Asynchronous request with caching */
+    @Test
+    public void testMatchAsync1() throws Exception {
+        String response = this.getResource("response-1.json");
+
+        server.enqueue(new MockResponse().setBody(response));
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        NameUsageMatch match = client.matchAsync(search).get(10, TimeUnit.SECONDS);
+        assertTrue(match.isSuccess());
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals(1, server.getRequestCount());
+
+        CompletableFuture<NameUsageMatch> future = client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata").build());
+        assertTrue(future.isDone());
+        assertEquals("Acacia dealbata", future.get().getScientificName());
+        match = client.match(search);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /** Asynchronous multiple search with caching */
+    @Test
+    public void testMatchAllAsync1() throws Exception {
+        String request1 = this.getResource("request-all-1.json");
+        String request2 = this.getResource("request-all-2.json");
+        String response1 = this.getResource("response-all-1.json");
+        String response2 = this.getResource("response-all-2.json");
+
+        server.enqueue(new MockResponse().setBody(response1));
+        server.enqueue(new MockResponse().setBody(response2));
+        List<NameSearch> searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(NameSearch.builder().scientificName("Osphranter rufus").build());
+        List<NameUsageMatch> matches = client.matchAllAsync(searches).get(10, TimeUnit.SECONDS);
+        assertEquals(2, matches.size());
+        assertEquals("Acacia dealbata", matches.get(0).getScientificName());
+        assertEquals("Osphranter rufus", matches.get(1).getScientificName());
+
+        CompletableFuture<List<NameUsageMatch>> future = client.matchAllAsync(searches);
+        assertTrue(future.isDone());
+        assertEquals(1, server.getRequestCount());
+
+        searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(NameSearch.builder().scientificName("Vachellia nilotica").build());
+        searches.add(NameSearch.builder().scientificName("Dalatias licha").build());
+        matches = client.matchAllAsync(searches).get(10, TimeUnit.SECONDS);
+        assertEquals(3, matches.size());
+        assertEquals("Acacia dealbata", matches.get(0).getScientificName());
+        assertEquals("Vachellia nilotica", matches.get(1).getScientificName());
+        assertEquals("Dalatias licha", matches.get(2).getScientificName());
+
+        assertEquals(2, server.getRequestCount());
+        RecordedRequest req1 = server.takeRequest();
+        assertEquals(request1, req1.getBody().readUtf8());
+        RecordedRequest req2 = server.takeRequest();
+        assertEquals(request2, req2.getBody().readUtf8());
+    }
+
+    /** Concurrent misses for the same search share a single request */
+    @Test
+    public void testMatchConcurrent1() throws Exception {
+        String response = this.getResource("response-1.json");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            server.enqueue(new MockResponse().setBody(response).setBodyDelay(200, TimeUnit.MILLISECONDS));
+            List<Future<NameUsageMatch>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                futures.add(executor.submit(() -> client.match(NameSearch.builder().scientificName("Acacia dealbata").build())));
+            for (Future<NameUsageMatch> future : futures)
+                assertEquals("Acacia dealbata", future.get(10, TimeUnit.SECONDS).getScientificName());
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** A bulk search waits for a single search that is already in progress */
+    @Test
+    public void testMatchConcurrent2() throws Exception {
+        String response1 = this.getResource("response-1.json");
+        String response2 = this.getResource("response-all-2.json");
+
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/api/searchByClassification"))
+                    return new MockResponse().setBody(response1).setBodyDelay(200, TimeUnit.MILLISECONDS);
+                return new MockResponse().setBody(response2);
+            }
+        });
+        CompletableFuture<NameUsageMatch> single = client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata").build());
+        List<NameSearch> searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(NameSearch.builder().scientificName("Vachellia nilotica").build());
+        searches.add(NameSearch.builder().scientificName("Dalatias licha").build());
+        List<NameUsageMatch> matches = client.matchAllAsync(searches).get(10, TimeUnit.SECONDS);
+        assertEquals(3, matches.size());
+        assertEquals("Acacia dealbata", matches.get(0).getScientificName());
+        assertEquals("Vachellia nilotica", matches.get(1).getScientificName());
+        assertEquals("Dalatias licha", matches.get(2).getScientificName());
+        assertTrue(single.isDone());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /** Taxon identifier lookups are cached */
+    @Test
+    public void testGet1() throws Exception {
+        String response = this.getResource("response-1.json");
+
+        server.enqueue(new MockResponse().setBody(response));
+        NameUsageMatch match = client.get("https://id.biodiversity.org.au/taxon/apni/51286863", false);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        match = client.get("https://id.biodiversity.org.au/taxon/apni/51286863", false);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        match = client.getAsync("https://id.biodiversity.org.au/taxon/apni/51286863", false).get(10, TimeUnit.SECONDS);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /** Bulk taxon identifier lookups only request uncached identifiers */
+    @Test
+    public void testGetAll1() throws Exception {
+        String response = this.getResource("response-1.json");
+        String responseAll = this.getResource("response-all-1.json");
+
+        server.enqueue(new MockResponse().setBody(response));
+        server.enqueue(new MockResponse().setBody("[" + responseAll.substring(responseAll.lastIndexOf('{')))); // Just the second match
+        NameUsageMatch match = client.get("ID1", false);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        List<NameUsageMatch> matches = client.getAll(Arrays.asList("ID1", "ID2", "ID1"), false);
+        assertEquals(3, matches.size());
+        assertEquals("Acacia dealbata", matches.get(0).getScientificName());
+        assertEquals("Osphranter rufus", matches.get(1).getScientificName());
+        assertEquals("Acacia dealbata", matches.get(2).getScientificName());
+        matches = client.getAllAsync(Arrays.asList("ID2", "ID1"), false).get(10, TimeUnit.SECONDS);
+        assertEquals("Osphranter rufus", matches.get(0).getScientificName());
+        assertEquals("Acacia dealbata", matches.get(1).getScientificName());
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/getAllByTaxonID?taxonIDs=ID2&follow=false", req.getPath());
+    }
+
+    /** Identifiers that are followed are cached separately */
+    @Test
+    public void testGetAll2() throws Exception {
+        String response = this.getResource("response-1.json");
+
+        server.enqueue(new MockResponse().setBody(response));
+        server.enqueue(new MockResponse().setBody("[" + response + "]"));
+        client.get("ID1", false);
+        List<NameUsageMatch> matches = client.getAll(Arrays.asList("ID1"), true);
+        assertEquals(1, matches.size());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /** Bulk name lookups only request uncached identifiers */
+    @Test
+    public void testGetAllNames1() throws Exception {
+        server.enqueue(new MockResponse().setBody("Acacia dealbata"));
+        server.enqueue(new MockResponse().setBody("[\"Osphranter rufus\", null]"));
+        assertEquals("Acacia dealbata", client.getName("ID1", false));
+        List<String> names = client.getAllNames(Arrays.asList("ID1", "ID2", "ID3"), false);
+        assertEquals(Arrays.asList("Acacia dealbata", "Osphranter rufus", null), names);
+        names = client.getAllNamesAsync(Arrays.asList("ID3", "ID2"), false).get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(null, "Osphranter rufus"), names);
+        assertNull(client.getName("ID3", false));
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/getAllNamesByTaxonID?taxonIDs=ID2&taxonIDs=ID3&follow=false", req.getPath());
+    }
+
+    /** Checks, scientific name, vernacular name and LSID lookups are cached */
+    @Test
+    public void testLookups1() throws Exception {
+        String response = this.getResource("response-1.json");
+
+        server.enqueue(new MockResponse().setBody("true"));
+        server.enqueue(new MockResponse().setBody(response));
+        server.enqueue(new MockResponse().setBody(response));
+        server.enqueue(new MockResponse().setBody("https://id.biodiversity.org.au/taxon/apni/51286863"));
+        server.enqueue(new MockResponse().setBody("[\"Silver Wattle\"]"));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(true, client.check("Animalia", "kingdom"));
+            assertEquals("Acacia dealbata", client.match("Acacia dealbata").getScientificName());
+            assertEquals("Acacia dealbata", client.matchVernacular("Silver Wattle").getScientificName());
+            assertEquals("https://id.biodiversity.org.au/taxon/apni/51286863", client.searchForLSID("Acacia dealbata"));
+            assertEquals(Collections.singleton("Silver Wattle"), client.getCommonNamesForLSID("https://id.biodiversity.org.au/taxon/apni/51286863", 10));
+        }
+        assertEquals(5, server.getRequestCount());
+        assertTrue(client.checkAsync("Animalia", "kingdom").isDone());
+        assertTrue(client.matchVernacularAsync("Silver Wattle").isDone());
+    }
+
+    /** Chunked searches only send uncached searches, without padding */
+    @Test
+    public void testMatchChunked1() throws Exception {
+        String response1 = this.getResource("response-1.json");
+        String response2 = this.getResource("response-all-2.json");
+
+        server.enqueue(new MockResponse().setBody(response1));
+        server.enqueue(new MockResponse().setBody(response2.replaceFirst("null\\s*,", "")));
+        client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+        List<NameSearch> searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(null);
+        searches.add(NameSearch.builder().scientificName("Vachellia nilotica").build());
+        searches.add(NameSearch.builder().scientificName("Dalatias licha").build());
+        List<NameUsageMatch> matches = new ArrayList<>();
+        client.matchChunked(searches.iterator(), 10, 2).forEachRemaining(matches::add);
+        assertEquals(4, matches.size());
+        assertEquals("Acacia dealbata", matches.get(0).getScientificName());
+        assertNull(matches.get(1));
+        assertEquals("Vachellia nilotica", matches.get(2).getScientificName());
+        assertEquals("Dalatias licha", matches.get(3).getScientificName());
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/searchAllByClassification", req.getPath());
+        assertEquals("[{\"scientificName\":\"Vachellia nilotica\"},{\"scientificName\":\"Dalatias licha\"}]", req.getBody().readUtf8());
+
+        // All cached
+        matches.clear();
+        client.matchChunked(searches.iterator(), 2, 1).forEachRemaining(matches::add);
+        assertEquals(4, matches.size());
+        assertEquals("Dalatias licha", matches.get(3).getScientificName());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /** Searches past the refresh time are returned from the cache and refreshed in the background */
+    @Test
+    public void testMatchRefresh1() throws Exception {
+        String response = this.getResource("response-1.json");
+        this.client.close();
+        this.configuration = ClientConfiguration.builder()
+                .baseUrl(server.url("").url())
+                .cache(false)
+                .dataCache(DataCacheConfiguration.builder().expireAfterWrite(60000L).refreshAhead(59900L).build())
+                .build();
+        this.client = new ALANameUsageMatchServiceClient(configuration);
+
+        server.enqueue(new MockResponse().setBody(response));
+        server.enqueue(new MockResponse().setBody(response).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        Thread.sleep(200);
+        long start = System.currentTimeMillis();
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        assertTrue(System.currentTimeMillis() - start < 400);
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        assertEquals(2, server.getRequestCount());
+    }
 }
@@ -5,6 +5,7 @@ import au.org.ala.names.ws.api.NameUsageMatch;
 import au.org.ala.util.TestUtils;
 import au.org.ala.ws.ClientConfiguration;
 import au.org.ala.ws.ClientException;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -16,6 +17,10 @@ import retrofit2.HttpException;
 
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -132,6 +137,44 @@ public class ALANameUsageMatchServiceClientTest extends TestUtils {
         assertEquals(request, req.getBody().readUtf8());
     }
 
+    /** Streaming search, split into segments */
+    @Test
+    public void testMatchStream1() throws Exception {
+        server.enqueue(new MockResponse().setBody(this.getResource("response-stream-1.ndjson")));
+        server.enqueue(new MockResponse().setBody(this.getResource("response-stream-2.ndjson")));
+        List<NameSearch> searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(null);
+        searches.add(NameSearch.builder().scientificName("Osphranter rufus").build());
+        List<NameUsageMatch> matches = new ArrayList<>();
+        client.matchStream(searches.iterator(), matches::add, 2);
+
+        assertEquals(3, matches.size());
+        NameUsageMatch match = matches.get(0);
+        assertTrue(match.isSuccess());
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertNull(matches.get(1));
+        match = matches.get(2);
+        assertTrue(match.isSuccess());
+        assertEquals("Osphranter rufus", match.getScientificName());
+
+        assertEquals(2, server.getRequestCount());
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/searchAllByClassification/stream", req.getPath());
+        assertEquals("application/x-ndjson", req.getHeader("Content-Type"));
+        assertEquals(this.getResource("request-stream-1.ndjson"), req.getBody().readUtf8());
+        req = server.takeRequest();
+        assertEquals(this.getResource("request-stream-2.ndjson"), req.getBody().readUtf8());
+    }
+
+    /** Error in streaming search */
+    @Test(expected = HttpException.class)
+    public void testMatchStream2() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        List<NameSearch> searches = Collections.singletonList(NameSearch.builder().scientificName("Acacia dealbata").build());
+        client.matchStream(searches.iterator(), m -> {});
+    }
+
     /** Ignored. Does not cache on POST request */
     @Test
     @Ignore
@@ -286,4 +329,137 @@ public class ALANameUsageMatchServiceClientTest extends TestUtils {
         }
         assertEquals(0, server.getRequestCount());
     }
+
+    /** Asynchronous request/response */
+    @Test
+    public void testMatchAsync1() throws Exception {
+        String request = this.getResource("request-1.json");
+        String response = this.getResource("response-1.json");
+
+        server.enqueue(new MockResponse().setBody(response));
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        NameUsageMatch match = client.matchAsync(search).get(10, TimeUnit.SECONDS);
+
+        assertTrue(match.isSuccess());
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals("https://id.biodiversity.org.au/taxon/apni/51286863", match.getTaxonConceptID());
+        assertEquals(1, server.getRequestCount());
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/searchByClassification", req.getPath());
+        assertEquals(request, req.getBody().readUtf8());
+    }
+
+    /** Asynchronous multiple search */
+    @Test
+    public void testMatchAllAsync1() throws Exception {
+        String request = this.getResource("request-all-1.json");
+        String response = this.getResource("response-all-1.json");
+
+        server.enqueue(new MockResponse().setBody(response));
+        List<NameSearch> searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(NameSearch.builder().scientificName("Osphranter rufus").build());
+        List<NameUsageMatch> matches = client.matchAllAsync(searches).get(10, TimeUnit.SECONDS);
+
+        assertNotNull(matches);
+        assertEquals(2, matches.size());
+        assertEquals("Acacia dealbata", matches.get(0).getScientificName());
+        assertEquals("Osphranter rufus", matches.get(1).getScientificName());
+        assertEquals(1, server.getRequestCount());
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/searchAllByClassification", req.getPath());
+        assertEquals(request, req.getBody().readUtf8());
+    }
+
+    /** Asynchronous request with URL parameters */
+    @Test
+    public void testCheckAsync1() throws Exception {
+        String response = this.getResource("response-4.json");
+
+        server.enqueue(new MockResponse().setBody(response));
+        Boolean valid = client.checkAsync("Animalia", "kingdom").get(10, TimeUnit.SECONDS);
+        assertEquals(true, valid);
+        RecordedRequest req = server.takeRequest();
+        assertEquals("/api/check?name=Animalia&rank=kingdom", req.getPath());
+    }
+
+    /** Many requests in flight from a single thread, limited by the dispatcher */
+    @Test
+    public void testMatchAsync2() throws Exception {
+        String response = this.getResource("response-1.json");
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                Thread.sleep(20);
+                active.decrementAndGet();
+                return new MockResponse().setBody(response);
+            }
+        });
+        this.client.close();
+        this.configuration = ClientConfiguration.builder().baseUrl(server.url("").url()).cache(false).maxRequestsPerHost(8).build();
+        this.client = new ALANameUsageMatchServiceClient(this.configuration);
+        List<CompletableFuture<NameUsageMatch>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            futures.add(client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata " + i).build()));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        for (CompletableFuture<NameUsageMatch> future : futures)
+            assertEquals("Acacia dealbata", future.get().getScientificName());
+        assertEquals(40, server.getRequestCount());
+        assertTrue(peak.get() > 1);
+        assertTrue(peak.get() <= 8);
+    }
+
+    /** Respond to error asynchronously */
+    @Test
+    public void testErrorAsync1() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("Unable to connect to index"));
+        try {
+            client.matchAsync("Acacia dealbata").get(10, TimeUnit.SECONDS);
+            fail("Expecting ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof HttpException);
+            assertEquals(500, ((HttpException) ex.getCause()).code());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /** Respond to client error asynchronously */
+    @Test
+    public void testErrorAsync2() throws Exception {
+        ClientConfiguration errorConfiguration = ClientConfiguration.builder().baseUrl(new URL("http://nothing.nowhere")).build();
+        this.client.close();
+        this.client = new ALANameUsageMatchServiceClient(errorConfiguration);
+        try {
+            client.matchAsync("Acacia dealbata").get(30, TimeUnit.SECONDS);
+            fail("Expecting ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ClientException);
+        }
+        assertEquals(0, server.getRequestCount());
+    }
+
+    /** Chunked searches are sent a chunk at a time */
+    @Test
+    public void testMatchChunked1() throws Exception {
+        String response = this.getResource("response-1.json");
+
+        server.enqueue(new MockResponse().setBody("[" + response + "]"));
+        server.enqueue(new MockResponse().setBody("[" + response + "]"));
+        List<NameSearch> searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(null);
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        Iterator<NameUsageMatch> matches = client.matchChunked(searches.iterator(), 2, 1);
+        assertTrue(matches.hasNext());
+        assertEquals("Acacia dealbata", matches.next().getScientificName());
+        assertNull(matches.next());
+        assertEquals("Acacia dealbata", matches.next().getScientificName());
+        assertFalse(matches.hasNext());
+        assertEquals(2, server.getRequestCount());
+        RecordedRequest req = server.takeRequest();
+        assertEquals("[{\"scientificName\":\"Acacia dealbata\"}]", req.getBody().readUtf8());
+    }
 }
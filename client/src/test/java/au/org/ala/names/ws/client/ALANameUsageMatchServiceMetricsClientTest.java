@@ -0,0 +1,118 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.util.TestUtils;
+import au.org.ala.ws.ClientConfiguration;
+import au.org.ala.ws.DataCacheConfiguration;
+import au.org.ala.ws.DropwizardClientMetrics;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.HttpException;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ALANameUsageMatchServiceMetricsClientTest extends TestUtils {
+    private MockWebServer server;
+    private MetricRegistry registry;
+    private ALANameUsageMatchServiceClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new MockWebServer();
+        this.server.start();
+        this.registry = new MetricRegistry();
+        ClientConfiguration configuration = ClientConfiguration.builder()
+                .baseUrl(this.server.url("").url())
+                .dataCache(DataCacheConfiguration.builder().build())
+                .build();
+        this.client = new ALANameUsageMatchServiceClient(configuration, new DropwizardClientMetrics(this.registry, "client"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.server.shutdown();
+        this.client.close();
+    }
+
+    /** Calls, cache lookups and requests are counted */
+    @Test
+    public void testMatch1() throws Exception {
+        String response = this.getResource("response-1.json");
+        this.server.enqueue(new MockResponse().setBody(response));
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        NameUsageMatch match = this.client.match(search);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        match = this.client.match(search);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals(1, this.server.getRequestCount());
+
+        assertEquals(2, this.registry.meter("client.calls.match").getCount());
+        assertEquals(1, this.registry.meter("client.cache.match.hits").getCount());
+        assertEquals(1, this.registry.meter("client.cache.match.misses").getCount());
+        assertEquals(0.5, (Double) this.registry.getGauges().get("client.cache.match.hitRatio").getValue(), 0.001);
+        assertEquals(1, this.registry.timer("client.requests.match").getCount());
+        Histogram requestBytes = this.registry.histogram("client.requests.match.requestBytes");
+        assertEquals(1, requestBytes.getCount());
+        assertTrue(requestBytes.getSnapshot().getMax() > 0);
+        Histogram responseBytes = this.registry.histogram("client.requests.match.responseBytes");
+        assertEquals(1, responseBytes.getCount());
+        assertEquals(response.getBytes("UTF-8").length, responseBytes.getSnapshot().getMax());
+        assertEquals(0, this.registry.counter("client.requests.inFlight").getCount());
+    }
+
+    /** Bulk requests report the batch size */
+    @Test
+    public void testMatchAll1() throws Exception {
+        this.server.enqueue(new MockResponse().setBody(this.getResource("response-all-1.json")));
+        List<NameSearch> searches = Arrays.asList(
+                NameSearch.builder().scientificName("Acacia dealbata").build(),
+                NameSearch.builder().scientificName("Osphranter rufus").build()
+        );
+        List<NameUsageMatch> matches = this.client.matchAll(searches);
+        assertEquals(2, matches.size());
+        assertEquals(1, this.registry.meter("client.calls.matchAll").getCount());
+        assertEquals(2, this.registry.meter("client.cache.match.misses").getCount());
+        Histogram batches = this.registry.histogram("client.batches.matchAll");
+        assertEquals(1, batches.getCount());
+        assertEquals(2, batches.getSnapshot().getMax());
+        assertEquals(1, this.registry.timer("client.requests.matchAll").getCount());
+        assertEquals(0, this.registry.counter("client.requests.inFlight").getCount());
+    }
+
+    /** Error responses are counted */
+    @Test
+    public void testError1() throws Exception {
+        this.server.enqueue(new MockResponse().setResponseCode(500));
+        try {
+            this.client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+            fail("Expected HttpException");
+        } catch (HttpException ex) {
+            assertEquals(500, ex.code());
+        }
+        assertEquals(1, this.registry.meter("client.requests.match.errors").getCount());
+        assertEquals(0, this.registry.counter("client.requests.inFlight").getCount());
+    }
+
+    /** Without metrics, nothing is reported */
+    @Test
+    public void testNoMetrics1() throws Exception {
+        ClientConfiguration configuration = ClientConfiguration.builder()
+                .baseUrl(this.server.url("").url())
+                .build();
+        try (ALANameUsageMatchServiceClient plain = new ALANameUsageMatchServiceClient(configuration)) {
+            this.server.enqueue(new MockResponse().setBody(this.getResource("response-1.json")));
+            NameUsageMatch match = plain.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+            assertEquals("Acacia dealbata", match.getScientificName());
+        }
+        assertTrue(this.registry.getMetrics().keySet().stream().allMatch(n -> n.equals("client.requests.inFlight")));
+    }
+}
@@ -0,0 +1,197 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.util.TestUtils;
+import au.org.ala.ws.ClientConfiguration;
+import au.org.ala.ws.DataCacheConfiguration;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ALANameUsageMatchServiceStoreClientTest extends TestUtils {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ALANameUsageMatchServiceClient client;
+    private volatile String version;
+    private AtomicInteger searches;
+    private AtomicInteger versionFailures;
+
+    @Before
+    public void setUp() throws Exception {
+        String response1 = this.getResource("response-1.json");
+        String responseAll1 = this.getResource("response-all-1.json");
+        String responseAll2 = this.getResource("response-all-2.json");
+        this.version = "v1";
+        this.searches = new AtomicInteger();
+        this.versionFailures = new AtomicInteger();
+        this.server = new MockWebServer();
+        this.server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                switch (request.getPath()) {
+                    case "/api/indexVersion":
+                        if (versionFailures.getAndDecrement() > 0)
+                            return new MockResponse().setResponseCode(503);
+                        return new MockResponse().setBody(version);
+                    case "/api/searchByClassification":
+                        searches.incrementAndGet();
+                        return new MockResponse().setBody(response1);
+                    case "/api/searchAllByClassification":
+                        searches.incrementAndGet();
+                        return new MockResponse().setBody(request.getBody().readUtf8().startsWith("[null,") ? responseAll2 : responseAll1);
+                    default:
+                        return new MockResponse().setResponseCode(404);
+                }
+            }
+        });
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.server.shutdown();
+        if (this.client != null)
+            this.client.close();
+    }
+
+    private void createClient(boolean cache) throws Exception {
+        if (this.client != null)
+            this.client.close();
+        ClientConfiguration configuration = ClientConfiguration.builder()
+                .baseUrl(server.url("").url())
+                .cache(false)
+                .dataCache(cache ? DataCacheConfiguration.builder().build() : null)
+                .storeDir(this.folder.getRoot().toPath())
+                .build();
+        this.client = new ALANameUsageMatchServiceClient(configuration);
+    }
+
+    /** Stored results are used by a new client */
+    @Test
+    public void testStore1() throws Exception {
+        this.createClient(true);
+        NameUsageMatch match = client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals(1, this.searches.get());
+
+        this.createClient(true);
+        match = client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+        assertEquals("Acacia dealbata", match.getScientificName());
+        match = client.matchAsync(NameSearch.builder().scientificName("Acacia dealbata").build()).get(10, TimeUnit.SECONDS);
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals(1, this.searches.get());
+    }
+
+    /** Bulk searches only request searches that are not stored */
+    @Test
+    public void testStore2() throws Exception {
+        this.createClient(false);
+        List<NameSearch> searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(NameSearch.builder().scientificName("Osphranter rufus").build());
+        client.matchAll(searches);
+        assertEquals(1, this.searches.get());
+
+        this.createClient(false);
+        searches = new ArrayList<>();
+        searches.add(NameSearch.builder().scientificName("Acacia dealbata").build());
+        searches.add(NameSearch.builder().scientificName("Vachellia nilotica").build());
+        searches.add(NameSearch.builder().scientificName("Dalatias licha").build());
+        List<NameUsageMatch> matches = client.matchAll(searches);
+        assertEquals(3, matches.size());
+        assertEquals("Acacia dealbata", matches.get(0).getScientificName());
+        assertEquals("Vachellia nilotica", matches.get(1).getScientificName());
+        assertEquals("Dalatias licha", matches.get(2).getScientificName());
+        assertEquals(2, this.searches.get());
+
+        matches = client.matchAllAsync(searches).get(10, TimeUnit.SECONDS);
+        assertEquals("Dalatias licha", matches.get(2).getScientificName());
+        assertEquals(2, this.searches.get());
+    }
+
+    /** A new index version discards stored results */
+    @Test
+    public void testStore3() throws Exception {
+        this.createClient(false);
+        client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+        assertEquals(1, this.searches.get());
+
+        this.version = "v2";
+        this.createClient(false);
+        assertEquals("v2", client.getIndexVersion());
+        client.match(NameSearch.builder().scientificName("Acacia dealbata").build());
+        assertEquals(2, this.searches.get());
+    }
+
+    /** A failure to open the store is retried later */
+    @Test
+    public void testStoreRetry1() throws Exception {
+        this.createClient(false);
+        this.client.storeRetryDelay = 200L;
+        this.versionFailures.set(1);
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        assertEquals(2, this.searches.get());
+        Thread.sleep(300);
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        assertEquals(3, this.searches.get());
+    }
+
+    /** Asynchronous searches open the store in the background */
+    @Test
+    public void testStoreAsync1() throws Exception {
+        this.createClient(false);
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        assertEquals("Acacia dealbata", client.matchAsync(search).get(10, TimeUnit.SECONDS).getScientificName());
+        long end = System.currentTimeMillis() + 5000;
+        while (this.folder.getRoot().listFiles().length == 0 && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        Thread.sleep(100);
+        int before = this.searches.get();
+        assertEquals("Acacia dealbata", client.matchAsync(search).get(10, TimeUnit.SECONDS).getScientificName());
+        assertEquals("Acacia dealbata", client.matchAsync(search).get(10, TimeUnit.SECONDS).getScientificName());
+        assertTrue(this.searches.get() <= before + 1);
+    }
+
+    /** A change of index version on the server replaces the store without restarting the client */
+    @Test
+    public void testStoreCheck1() throws Exception {
+        this.createClient(false);
+        this.client.storeCheckDelay = 100L;
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        Thread.sleep(200);
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        assertEquals(1, this.searches.get());
+
+        this.version = "v2";
+        Thread.sleep(200);
+        client.match(search);
+        long end = System.currentTimeMillis() + 5000;
+        while (this.searches.get() < 2 && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+            assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        }
+        assertEquals(2, this.searches.get());
+        assertEquals("Acacia dealbata", client.match(search).getScientificName());
+        assertEquals(2, this.searches.get());
+    }
+}
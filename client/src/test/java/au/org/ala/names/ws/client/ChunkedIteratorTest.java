@@ -0,0 +1,140 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.ws.ClientException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ChunkedIteratorTest {
+    private List<Integer> range(int n) {
+        return IntStream.range(0, n).boxed().collect(Collectors.toList());
+    }
+
+    private CompletableFuture<List<String>> convert(List<Integer> chunk) {
+        return CompletableFuture.completedFuture(chunk.stream().map(i -> "v" + i).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testIterate1() {
+        List<List<Integer>> chunks = new ArrayList<>();
+        ChunkedIterator<Integer, String> iterator = new ChunkedIterator<>(this.range(10).iterator(), c -> { chunks.add(c); return this.convert(c); }, 4, 2);
+        List<String> results = new ArrayList<>();
+        iterator.forEachRemaining(results::add);
+        assertEquals(this.range(10).stream().map(i -> "v" + i).collect(Collectors.toList()), results);
+        assertEquals(3, chunks.size());
+        assertEquals(4, chunks.get(0).size());
+        assertEquals(4, chunks.get(1).size());
+        assertEquals(2, chunks.get(2).size());
+    }
+
+    @Test
+    public void testIterate2() {
+        ChunkedIterator<Integer, String> iterator = new ChunkedIterator<>(Collections.<Integer>emptyIterator(), c -> { fail("Should not be called"); return null; }, 4, 2);
+        assertFalse(iterator.hasNext());
+    }
+
+    /** No more than the maximum number of chunks are in progress and results are in order */
+    @Test
+    public void testInFlight1() {
+        List<CompletableFuture<List<String>>> started = new CopyOnWriteArrayList<>();
+        List<List<Integer>> chunks = new CopyOnWriteArrayList<>();
+        ChunkedIterator<Integer, String> iterator = new ChunkedIterator<>(this.range(20).iterator(), c -> {
+            CompletableFuture<List<String>> future = new CompletableFuture<>();
+            started.add(future);
+            chunks.add(c);
+            return future;
+        }, 5, 2);
+        // Complete chunks out of order
+        CompletableFuture.runAsync(() -> {
+            try {
+                while (started.size() < 2)
+                    Thread.sleep(10);
+                started.get(1).complete(this.convert(chunks.get(1)).join());
+                Thread.sleep(50);
+                started.get(0).complete(this.convert(chunks.get(0)).join());
+            } catch (InterruptedException ex) {
+            }
+        });
+        for (int i = 0; i < 5; i++)
+            assertEquals("v" + i, iterator.next());
+        assertEquals(2, started.size());
+        for (int i = 5; i < 10; i++)
+            assertEquals("v" + i, iterator.next());
+        assertEquals(3, started.size());
+        assertTrue(iterator.getPending() <= 2);
+        started.get(2).complete(this.convert(chunks.get(2)).join());
+        assertEquals("v10", iterator.next());
+        assertEquals(4, started.size());
+        assertEquals(1, iterator.getPending());
+    }
+
+    /** Failures are passed to the reader */
+    @Test
+    public void testError1() {
+        ChunkedIterator<Integer, String> iterator = new ChunkedIterator<>(this.range(10).iterator(), c -> {
+            if (c.get(0) >= 4) {
+                CompletableFuture<List<String>> future = new CompletableFuture<>();
+                future.completeExceptionally(new IllegalStateException("Failed"));
+                return future;
+            }
+            return this.convert(c);
+        }, 4, 2);
+        for (int i = 0; i < 4; i++)
+            assertEquals("v" + i, iterator.next());
+        try {
+            iterator.next();
+            fail("Expecting IllegalStateException");
+        } catch (IllegalStateException ex) {
+            assertEquals("Failed", ex.getMessage());
+        }
+    }
+
+    /** Results must match the chunk */
+    @Test
+    public void testError2() {
+        ChunkedIterator<Integer, String> iterator = new ChunkedIterator<>(this.range(10).iterator(), c -> CompletableFuture.completedFuture(Collections.singletonList("x")), 4, 2);
+        try {
+            iterator.hasNext();
+            fail("Expecting ClientException");
+        } catch (ClientException ex) {
+        }
+    }
+
+    /** Reading past a failed chunk keeps failing rather than skipping results */
+    @Test
+    public void testError3() {
+        ChunkedIterator<Integer, String> iterator = new ChunkedIterator<>(this.range(20).iterator(), c -> {
+            if (c.get(0) == 4) {
+                CompletableFuture<List<String>> future = new CompletableFuture<>();
+                future.completeExceptionally(new IllegalStateException("Failed"));
+                return future;
+            }
+            return this.convert(c);
+        }, 4, 2);
+        for (int i = 0; i < 4; i++)
+            assertEquals("v" + i, iterator.next());
+        for (int i = 0; i < 3; i++) {
+            try {
+                iterator.hasNext();
+                fail("Expecting IllegalStateException");
+            } catch (IllegalStateException ex) {
+                assertEquals("Failed", ex.getMessage());
+            }
+            try {
+                iterator.next();
+                fail("Expecting IllegalStateException");
+            } catch (IllegalStateException ex) {
+                assertEquals("Failed", ex.getMessage());
+            }
+        }
+        assertEquals(0, iterator.getPending());
+    }
+}
@@ -0,0 +1,173 @@
+package au.org.ala.names.ws.client;
+
+import au.org.ala.names.ws.api.NameSearch;
+import au.org.ala.names.ws.api.NameUsageMatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class PersistentStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NameUsageMatch match(String name) {
+        return NameUsageMatch.builder().success(true).scientificName(name).build();
+    }
+
+    @Test
+    public void testPutGet1() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+            assertNull(store.get(search));
+            store.put(search, this.match("Acacia dealbata"));
+            NameUsageMatch match = store.get(NameSearch.builder().scientificName("Acacia dealbata").build());
+            assertNotNull(match);
+            assertEquals("Acacia dealbata", match.getScientificName());
+            assertNull(store.get(NameSearch.builder().scientificName("Acacia").build()));
+            assertEquals(1, store.size());
+        }
+    }
+
+    /** Entries survive reopening */
+    @Test
+    public void testReopen1() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        NameSearch search1 = NameSearch.builder().scientificName("Acacia dealbata").build();
+        NameSearch search2 = NameSearch.builder().scientificName("Osphranter rufus").build();
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            store.put(search1, this.match("Acacia dealbata"));
+            store.put(search2, this.match("Osphranter rufus"));
+            store.put(search1, this.match("Acacia"));
+        }
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            assertEquals(2, store.size());
+            assertEquals("Acacia dealbata", store.get(search1).getScientificName());
+            assertEquals("Osphranter rufus", store.get(search2).getScientificName());
+        }
+    }
+
+    /** A new index version drops the old entries */
+    @Test
+    public void testVersion1() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        Path old;
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            store.put(search, this.match("Acacia dealbata"));
+            old = store.getFile();
+        }
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v2", NameSearch.class, NameUsageMatch.class)) {
+            assertNull(store.get(search));
+            assertEquals(0, store.size());
+            assertFalse(Files.exists(old));
+        }
+    }
+
+    /** Stores for other versions that are still in use elsewhere are not removed */
+    @Test
+    public void testVersion2() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        Path old;
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            old = store.getFile();
+        }
+        try (FileChannel channel = FileChannel.open(old, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.lock(Long.MAX_VALUE - 1, 1L, true);
+            try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v2", NameSearch.class, NameUsageMatch.class)) {
+                assertTrue(Files.exists(old));
+            }
+        }
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v3", NameSearch.class, NameUsageMatch.class)) {
+            assertFalse(Files.exists(old));
+        }
+    }
+
+    /** Stores open in this process are not removed */
+    @Test
+    public void testVersion3() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").build();
+        try (PersistentStore<NameSearch, NameUsageMatch> store1 = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            try (PersistentStore<NameSearch, NameUsageMatch> store2 = new PersistentStore<>(dir, "v2", NameSearch.class, NameUsageMatch.class)) {
+                assertTrue(Files.exists(store1.getFile()));
+                store1.put(search, this.match("Acacia dealbata"));
+                assertEquals("Acacia dealbata", store1.get(search).getScientificName());
+                assertNull(store2.get(search));
+            }
+        }
+    }
+
+    /** Long keys are found by digest and checked against the stored key */
+    @Test
+    public void testLongKey1() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            name.append("Acacia ");
+        NameSearch search1 = NameSearch.builder().scientificName(name.toString()).build();
+        NameSearch search2 = NameSearch.builder().scientificName(name.toString() + "dealbata").build();
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            store.put(search1, this.match("Acacia"));
+            assertEquals("Acacia", store.get(search1).getScientificName());
+            assertNull(store.get(search2));
+        }
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            assertEquals("Acacia", store.get(search1).getScientificName());
+        }
+    }
+
+    /** Two stores on the same file see each other's entries */
+    @Test
+    public void testShared1() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        NameSearch search1 = NameSearch.builder().scientificName("Acacia dealbata").build();
+        NameSearch search2 = NameSearch.builder().scientificName("Osphranter rufus").build();
+        try (
+                PersistentStore<NameSearch, NameUsageMatch> store1 = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class);
+                PersistentStore<NameSearch, NameUsageMatch> store2 = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)
+        ) {
+            store1.put(search1, this.match("Acacia dealbata"));
+            assertEquals("Acacia dealbata", store2.get(search1).getScientificName());
+            store2.put(search2, this.match("Osphranter rufus"));
+            assertEquals("Osphranter rufus", store1.get(search2).getScientificName());
+            store2.put(search1, this.match("Acacia"));
+            assertEquals("Acacia dealbata", store2.get(search1).getScientificName());
+        }
+    }
+
+    /** A partly written entry is ignored and then replaced */
+    @Test
+    public void testIncomplete1() throws Exception {
+        Path dir = this.folder.getRoot().toPath();
+        NameSearch search1 = NameSearch.builder().scientificName("Acacia dealbata").build();
+        NameSearch search2 = NameSearch.builder().scientificName("Osphranter rufus").build();
+        Path file;
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            store.put(search1, this.match("Acacia dealbata"));
+            file = store.getFile();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer partial = ByteBuffer.allocate(8);
+            partial.putInt(100).putInt(12345).flip();
+            channel.write(partial);
+        }
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            assertEquals(1, store.size());
+            assertEquals("Acacia dealbata", store.get(search1).getScientificName());
+            store.put(search2, this.match("Osphranter rufus"));
+        }
+        try (PersistentStore<NameSearch, NameUsageMatch> store = new PersistentStore<>(dir, "v1", NameSearch.class, NameUsageMatch.class)) {
+            assertEquals(2, store.size());
+            assertEquals("Osphranter rufus", store.get(search2).getScientificName());
+        }
+    }
+}
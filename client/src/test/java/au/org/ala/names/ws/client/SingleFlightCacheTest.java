@@ -0,0 +1,313 @@
+package au.org.ala.names.ws.client;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightCacheTest {
+    private Cache<String, String> cache;
+    private SingleFlightCache<String, String> singleFlight;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.cache = new Cache2kBuilder<String, String>() {}.permitNullValues(true).build();
+        this.singleFlight = new SingleFlightCache<>(this.cache, true);
+        this.executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        this.cache.clearAndClose();
+    }
+
+    @Test
+    public void testGet1() {
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("a:loaded", this.singleFlight.get("a", k -> { calls.incrementAndGet(); return k + ":loaded"; }));
+        assertEquals("a:loaded", this.singleFlight.get("a", k -> { calls.incrementAndGet(); return k + ":loaded"; }));
+        assertEquals(1, calls.get());
+        assertEquals(0, this.singleFlight.getInFlight());
+    }
+
+    /** Concurrent misses share a single load */
+    @Test
+    public void testGet2() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            futures.add(this.executor.submit(() -> this.singleFlight.get("a", k -> {
+                calls.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return k + ":loaded";
+            })));
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<String> future : futures)
+            assertEquals("a:loaded", future.get(10, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(0, this.singleFlight.getInFlight());
+    }
+
+    /** Failures are passed to waiting threads and not cached */
+    @Test
+    public void testGet3() throws Exception {
+        try {
+            this.singleFlight.get("a", k -> { throw new IllegalStateException("Failed"); });
+            fail("Expecting IllegalStateException");
+        } catch (IllegalStateException ex) {
+            assertEquals("Failed", ex.getMessage());
+        }
+        assertEquals(0, this.singleFlight.getInFlight());
+        assertEquals("a:loaded", this.singleFlight.get("a", k -> k + ":loaded"));
+    }
+
+    /** Null results are cached if allowed */
+    @Test
+    public void testGet4() {
+        AtomicInteger calls = new AtomicInteger();
+        assertNull(this.singleFlight.get("a", k -> { calls.incrementAndGet(); return null; }));
+        assertNull(this.singleFlight.get("a", k -> { calls.incrementAndGet(); return null; }));
+        assertEquals(1, calls.get());
+        SingleFlightCache<String, String> noNulls = new SingleFlightCache<>(new Cache2kBuilder<String, String>() {}.build(), false);
+        assertNull(noNulls.get("a", k -> { calls.incrementAndGet(); return null; }));
+        assertNull(noNulls.get("a", k -> { calls.incrementAndGet(); return null; }));
+        assertEquals(3, calls.get());
+    }
+
+    /** An asynchronous load is shared with a later request */
+    @Test
+    public void testGetAsync1() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> future1 = this.singleFlight.getAsync("a", k -> { calls.incrementAndGet(); return load; });
+        CompletableFuture<String> future2 = this.singleFlight.getAsync("a", k -> { calls.incrementAndGet(); return CompletableFuture.completedFuture("wrong"); });
+        assertFalse(future1.isDone());
+        assertEquals(1, this.singleFlight.getInFlight());
+        load.complete("a:loaded");
+        assertEquals("a:loaded", future1.get());
+        assertEquals("a:loaded", future2.get());
+        assertEquals(1, calls.get());
+        assertTrue(this.singleFlight.getAsync("a", k -> null).isDone());
+    }
+
+    @Test
+    public void testGetAsync2() throws Exception {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> future = this.singleFlight.getAsync("a", k -> load);
+        load.completeExceptionally(new IllegalStateException("Failed"));
+        try {
+            future.get();
+            fail("Expecting ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, this.singleFlight.getInFlight());
+    }
+
+    /** Bulk loads only request missing, non-null, unique keys */
+    @Test
+    public void testGetAll1() {
+        this.singleFlight.get("a", k -> k + ":loaded");
+        List<List<String>> queries = new ArrayList<>();
+        List<String> values = this.singleFlight.getAll(Arrays.asList("a", "b", null, "c", "b"), q -> {
+            queries.add(q);
+            return q.stream().map(k -> k == null ? null : k + ":bulk").collect(Collectors.toList());
+        });
+        assertEquals(Arrays.asList("a:loaded", "b:bulk", null, "c:bulk", "b:bulk"), values);
+        assertEquals(1, queries.size());
+        assertEquals(Arrays.asList(null, "b", null, "c", null), queries.get(0));
+
+        values = this.singleFlight.getAll(Arrays.asList("a", "b", "c"), q -> {
+            queries.add(q);
+            return Collections.emptyList();
+        });
+        assertEquals(Arrays.asList("a:loaded", "b:bulk", "c:bulk"), values);
+        assertEquals(1, queries.size());
+    }
+
+    /** Bulk loads wait for keys that are already being requested */
+    @Test
+    public void testGetAll2() throws Exception {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> single = this.singleFlight.getAsync("a", k -> load);
+        List<List<String>> queries = new ArrayList<>();
+        CompletableFuture<List<String>> bulk = this.singleFlight.getAllAsync(Arrays.asList("a", "b"), q -> {
+            queries.add(q);
+            return CompletableFuture.completedFuture(q.stream().map(k -> k == null ? null : k + ":bulk").collect(Collectors.toList()));
+        });
+        assertEquals(Arrays.asList(null, "b"), queries.get(0));
+        assertFalse(bulk.isDone());
+        load.complete("a:single");
+        assertEquals("a:single", single.get());
+        assertEquals(Arrays.asList("a:single", "b:bulk"), bulk.get(10, TimeUnit.SECONDS));
+        assertEquals(0, this.singleFlight.getInFlight());
+    }
+
+    /** Bulk failures release the requested keys */
+    @Test
+    public void testGetAll3() {
+        try {
+            this.singleFlight.getAll(Arrays.asList("a", "b"), q -> { throw new IllegalStateException("Failed"); });
+            fail("Expecting IllegalStateException");
+        } catch (IllegalStateException ex) {
+        }
+        assertEquals(0, this.singleFlight.getInFlight());
+        assertEquals(Arrays.asList("a:ok", "b:ok"), this.singleFlight.getAll(Arrays.asList("a", "b"), q -> q.stream().map(k -> k + ":ok").collect(Collectors.toList())));
+    }
+
+    // A cache that records write times
+    private Cache<String, String> timedCache() {
+        this.cache.clearAndClose();
+        this.cache = new Cache2kBuilder<String, String>() {}.permitNullValues(true).recordRefreshedTime(true).build();
+        return this.cache;
+    }
+
+    // Wait for a condition, failing after a few seconds
+    private void await(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    /** Entries past the refresh time are returned and refreshed in the background */
+    @Test
+    public void testRefresh1() throws Exception {
+        SingleFlightCache<String, String> refreshing = new SingleFlightCache<>(this.timedCache(), true, 50L, 60000L);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        assertEquals("a:1", refreshing.get("a", k -> k + ":" + calls.incrementAndGet()));
+        Thread.sleep(100);
+        assertEquals("a:1", refreshing.get("a", k -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+            }
+            return k + ":" + calls.incrementAndGet();
+        }));
+        assertEquals(1, refreshing.getInFlight());
+        assertEquals("a:1", refreshing.get("a", k -> k + ":" + calls.incrementAndGet()));
+        release.countDown();
+        this.await(() -> refreshing.getInFlight() == 0);
+        assertEquals(2, calls.get());
+        assertEquals("a:2", refreshing.get("a", k -> k + ":" + calls.incrementAndGet()));
+        assertEquals(2, calls.get());
+    }
+
+    /** Entries past the retention time are missing */
+    @Test
+    public void testRefresh2() throws Exception {
+        SingleFlightCache<String, String> refreshing = new SingleFlightCache<>(this.timedCache(), true, 20L, 50L);
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("a:1", refreshing.get("a", k -> k + ":" + calls.incrementAndGet()));
+        Thread.sleep(100);
+        assertEquals("a:2", refreshing.get("a", k -> k + ":" + calls.incrementAndGet()));
+        assertEquals(2, calls.get());
+    }
+
+    /** A failed refresh keeps the old value */
+    @Test
+    public void testRefresh3() throws Exception {
+        SingleFlightCache<String, String> refreshing = new SingleFlightCache<>(this.timedCache(), true, 50L, 60000L);
+        assertEquals("a:1", refreshing.getAsync("a", k -> CompletableFuture.completedFuture(k + ":1")).get());
+        Thread.sleep(100);
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("Failed"));
+        assertEquals("a:1", refreshing.getAsync("a", k -> failed).get());
+        assertEquals(0, refreshing.getInFlight());
+        assertEquals("a:1", this.cache.peek("a"));
+    }
+
+    /** Bulk requests include refreshes and only wait for missing keys */
+    @Test
+    public void testRefreshAll1() throws Exception {
+        SingleFlightCache<String, String> refreshing = new SingleFlightCache<>(this.timedCache(), true, 50L, 60000L);
+        List<List<String>> queries = new ArrayList<>();
+        assertEquals(Arrays.asList("a:1", "b:1"), refreshing.getAll(Arrays.asList("a", "b"), q -> {
+            queries.add(q);
+            return q.stream().map(k -> k == null ? null : k + ":1").collect(Collectors.toList());
+        }));
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("a:1", "c:2"), refreshing.getAll(Arrays.asList("a", "c"), q -> {
+            queries.add(q);
+            return q.stream().map(k -> k == null ? null : k + ":2").collect(Collectors.toList());
+        }));
+        assertEquals(Arrays.asList("a", "c"), queries.get(1));
+        assertEquals("a:2", this.cache.peek("a"));
+        assertEquals("b:1", this.cache.peek("b"));
+        // Only refreshes, done in the background
+        CountDownLatch release = new CountDownLatch(1);
+        assertEquals(Collections.singletonList("b:1"), refreshing.getAll(Collections.singletonList("b"), q -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+            }
+            queries.add(q);
+            return q.stream().map(k -> k == null ? null : k + ":3").collect(Collectors.toList());
+        }));
+        release.countDown();
+        this.await(() -> refreshing.getInFlight() == 0);
+        assertEquals("b:3", this.cache.peek("b"));
+    }
+
+    /** Background refreshes are bounded and skipped when there is no room */
+    @Test
+    public void testRefreshBounded1() throws Exception {
+        SingleFlightCache<String, String> refreshing = new SingleFlightCache<>(this.timedCache(), true, 50L, 60000L);
+        int keys = SingleFlightCache.REFRESH_THREADS + SingleFlightCache.REFRESH_QUEUE + 50;
+        for (int i = 0; i < keys; i++)
+            refreshing.get("k" + i, k -> k + ":1");
+        Thread.sleep(100);
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < keys; i++) {
+            assertEquals("k" + i + ":1", refreshing.get("k" + i, k -> {
+                calls.incrementAndGet();
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                }
+                active.decrementAndGet();
+                return k + ":2";
+            }));
+        }
+        assertTrue(refreshing.getInFlight() <= SingleFlightCache.REFRESH_THREADS + SingleFlightCache.REFRESH_QUEUE);
+        release.countDown();
+        this.await(() -> refreshing.getInFlight() == 0);
+        assertTrue(peak.get() <= SingleFlightCache.REFRESH_THREADS);
+        assertTrue(calls.get() <= SingleFlightCache.REFRESH_THREADS + SingleFlightCache.REFRESH_QUEUE);
+        // Skipped entries are refreshed later
+        assertEquals("k" + (keys - 1) + ":1", refreshing.get("k" + (keys - 1), k -> k + ":3"));
+        this.await(() -> refreshing.getInFlight() == 0);
+        assertEquals("k" + (keys - 1) + ":3", this.cache.peek("k" + (keys - 1)));
+    }
+}
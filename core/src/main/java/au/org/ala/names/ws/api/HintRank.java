@@ -0,0 +1,39 @@
+package au.org.ala.names.ws.api;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The ranks that can be hinted, with accessors for the corresponding search and match fields.
+ * <p>
+ * The ranks are listed in {@link NameSearch#HINT_ORDER} order.
+ * This replaces reflective field and method lookups with a static table.
+ * </p>
+ */
+enum HintRank {
+    PHYLUM("phylum", NameSearch::getPhylum, NameSearch::withPhylum, NameUsageMatch::getPhylum),
+    GENUS("genus", NameSearch::getGenus, NameSearch::withGenus, NameUsageMatch::getGenus),
+    ORDER("order", NameSearch::getOrder, NameSearch::withOrder, NameUsageMatch::getOrder),
+    CLASS("class", NameSearch::getClazz, NameSearch::withClazz, NameUsageMatch::getClasss),
+    FAMILY("family", NameSearch::getFamily, NameSearch::withFamily, NameUsageMatch::getFamily),
+    KINGDOM("kingdom", NameSearch::getKingdom, NameSearch::withKingdom, NameUsageMatch::getKingdom);
+
+    /** The ranks, in hint order */
+    static final HintRank[] RANKS = values();
+
+    /** The rank name, as used in hints */
+    final String rank;
+    /** Get the search value for this rank */
+    final Function<NameSearch, String> search;
+    /** Make a copy of a search with a new value for this rank */
+    final BiFunction<NameSearch, String, NameSearch> with;
+    /** Get the match value for this rank */
+    final Function<NameUsageMatch, String> match;
+
+    HintRank(String rank, Function<NameSearch, String> search, BiFunction<NameSearch, String, NameSearch> with, Function<NameUsageMatch, String> match) {
+        this.rank = rank;
+        this.search = search;
+        this.with = with;
+        this.match = match;
+    }
+}
@@ -1,23 +1,37 @@
 package au.org.ala.names.ws.api;
 
-import au.org.ala.util.BasicNormaliser;
+import au.org.ala.util.FastNormaliser;
 import au.org.ala.util.Normaliser;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
 import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.With;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 @JsonInclude(JsonInclude.Include.NON_DEFAULT)
 @JsonDeserialize(builder = NameSearch.NameSearchBuilder.class)
 @Value
@@ -35,30 +49,15 @@ public class NameSearch {
     /**
      * Used to normalise request strings before processing
      */
-    private static final Normaliser NORMALISER = new BasicNormaliser(true, true, true, false, false, true);
+    private static final Normaliser NORMALISER = new FastNormaliser(true, true, true, false, false, true);
 
     /**
      * The order in which hints are applied. Hints are tried in <em>reverse</em> order to the list.
      */
     public static final String[] HINT_ORDER = {"phylum", "genus", "order", "class", "family", "kingdom"};
 
-    /** Quick lookup of fields/methods for hinting */
-    private static final String[] HINT_FIELD_NAMES = {"phylum", "genus", "order", "clazz", "family", "kingdom"};
-    private static final Field[] HINT_FIELDS;
-    private static final Method[] WITH_METHODS;
-
-    static {
-        try {
-            HINT_FIELDS = new Field[HINT_FIELD_NAMES.length];
-            for (int i = 0; i < HINT_FIELD_NAMES.length; i++)
-              HINT_FIELDS[i] = NameSearch.class.getDeclaredField(HINT_FIELD_NAMES[i]);
-            WITH_METHODS = new Method[HINT_FIELD_NAMES.length];
-            for (int i = 0; i < HINT_FIELD_NAMES.length; i++)
-                WITH_METHODS[i] = NameSearch.class.getMethod("with" + HINT_FIELD_NAMES[i].substring(0, 1).toUpperCase() + HINT_FIELD_NAMES[i].substring(1), String.class);
-        } catch (Exception ex) {
-            throw new IllegalStateException("Also seriously, this is impossible!", ex);
-        }
-    }
+    /** The default maximum number of candidate searches generated from hints */
+    public static final int DEFAULT_HINT_BUDGET = Integer.MAX_VALUE;
 
     @Schema(
         example = "Animalia",
@@ -140,6 +139,10 @@ public class NameSearch {
         description = "Taxonomic hints. A map of Linnaean rank names onto possible values if there is difficulty looking up a name. This also acts as a sanity check on the returned results. http://rs.tdwg.org/dwc/terms/vernacularName"
     )
     private Map<String, List<String>> hints;
+    /** The hints as case-insensitive sets, computed on first use. See {@link #hintSets()} */
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final transient AtomicReference<Set<String>[]> hintSets = new AtomicReference<>();
     @Schema(
         description = "Allow a loose search. Loose searches will treat the scientific name as a vernacular name or a taxon identifier if the name cannot be found."
     )
@@ -182,6 +185,66 @@ public class NameSearch {
             .build();
     }
 
+    /**
+     * Get a canonical version of this search, suitable for use as a cache key.
+     * <p>
+     * The canonical search is the {@link #normalised()} search with
+     * the hints tidied up and the loose flag cleared when it cannot make a difference.
+     * Searches that would give the same result should, as far as possible, have the same canonical form.
+     * </p>
+     * <ul>
+     *     <li>Hint ranks are normalised and kept in sorted order. Ranks that normalise to the same rank are merged.</li>
+     *     <li>Hint values are normalised and duplicate and null values removed. The order of the remaining values is kept, since hints are tried in the order given.</li>
+     *     <li>Ranks with no hint values are removed and an empty set of hints becomes null.</li>
+     *     <li>A loose search only makes a difference when there is a scientific name.</li>
+     * </ul>
+     *
+     * @return The canonical search
+     */
+    public NameSearch canonical() {
+        Map<String, List<String>> canonicalHints = null;
+        if (this.hints != null) {
+            Map<String, Set<String>> merged = new TreeMap<>();
+            for (Map.Entry<String, List<String>> entry : this.hints.entrySet()) {
+                String rank = NORMALISER.normalise(entry.getKey());
+                if (rank == null || entry.getValue() == null)
+                    continue;
+                Set<String> values = merged.computeIfAbsent(rank, k -> new LinkedHashSet<>());
+                for (String value : entry.getValue()) {
+                    value = NORMALISER.normalise(value);
+                    if (value != null)
+                        values.add(value);
+                }
+            }
+            canonicalHints = new TreeMap<>();
+            for (Map.Entry<String, Set<String>> entry : merged.entrySet())
+                if (!entry.getValue().isEmpty())
+                    canonicalHints.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            if (canonicalHints.isEmpty())
+                canonicalHints = null;
+        }
+        String canonicalName = NORMALISER.normalise(this.scientificName);
+        return NameSearch.builder()
+            .kingdom(NORMALISER.normalise(this.kingdom))
+            .phylum(NORMALISER.normalise(this.phylum))
+            .clazz(NORMALISER.normalise(this.clazz))
+            .order(NORMALISER.normalise(this.order))
+            .family(NORMALISER.normalise(this.family))
+            .genus(NORMALISER.normalise(this.genus))
+            .specificEpithet(NORMALISER.normalise(this.specificEpithet))
+            .infraspecificEpithet(NORMALISER.normalise(this.infraspecificEpithet))
+            .rank(NORMALISER.normalise(this.rank))
+            .verbatimTaxonRank(NORMALISER.normalise(this.verbatimTaxonRank))
+            .taxonConceptID(this.taxonConceptID) // Not text
+            .taxonID(this.taxonID)
+            .scientificNameAuthorship(NORMALISER.normalise(this.scientificNameAuthorship))
+            .scientificName(canonicalName)
+            .vernacularName(NORMALISER.normalise(this.vernacularName))
+            .hints(canonicalHints)
+            .loose(this.loose && canonicalName != null)
+            .build();
+    }
+
     /**
      * Fill out a search with inferred properties.
      * <p>
@@ -230,10 +293,21 @@ public class NameSearch {
         return template;
     }
 
+    /**
+     * Generate a stream of hinted searches.
+     *
+     * @return The hint stream
+     *
+     * @see #hintStream(int)
+     */
+    public Stream<NameSearch> hintStream() {
+        return this.hintStream(DEFAULT_HINT_BUDGET);
+    }
+
     /**
      * Generate a stream of hinted searches.
      * <p>
-     * The hinted searches take any supplied hints and gerate a list of possible searches,
+     * The hinted searches take any supplied hints and generate a list of possible searches,
      * from the least specific to the most specific.
      * A stream is returned so that we can stop generating after finding one.
      * </p>
@@ -241,19 +315,72 @@ public class NameSearch {
      * If there are no hints, the bare stream is returned.
      * Hints are tried in {@link #HINT_ORDER} order, since there are a few elements that can be quickly used
      * to rapidly home in on a suitable name.
+     * Hints are only applied to ranks that do not already have a value.
      * </p>
+     * <p>
+     * The number of candidates grows multiplicatively with the number of hints,
+     * so candidates are generated one at a time, duplicates are skipped and
+     * generation stops after a maximum number of candidates.
+     * </p>
+     *
+     * @param budget The maximum number of candidate searches to generate
      *
      * @return The hint stream
      */
-    public Stream<NameSearch> hintStream() {
+    public Stream<NameSearch> hintStream(int budget) {
         if (this.hints == null || this.hints.isEmpty()) {
-            return this.bareStream();
+            return this.bareStream().limit(budget);
         }
-        try {
-            return this.hinted(0);
-        } catch (Exception ex) {
-            throw new IllegalStateException("Seriously, this is impossible!", ex);
+        return this.candidateStream(budget).map(Candidate::getSearch);
+    }
+
+    /**
+     * Generate a stream of hinted searches, labelled with the shape of each search.
+     * <p>
+     * The searches are the same as those of {@link #hintStream(int)}, in the same order.
+     * The shape records how each candidate was derived from this search,
+     * so that the success of different shapes of search can be tracked.
+     * </p>
+     *
+     * @param budget The maximum number of candidate searches to generate
+     *
+     * @return The candidate stream
+     *
+     * @see Candidate#getShape()
+     */
+    public Stream<Candidate> candidateStream(int budget) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new HintIterator(budget), Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Get a readable name for a candidate shape.
+     * <p>
+     * The name is <code>bare</code> for the search itself, otherwise a list of
+     * <code>inferred</code> (if the scientific name has been inferred) and the hinted ranks,
+     * separated by <code>-</code>.
+     * For example, <code>inferred-genus-kingdom</code>.
+     * </p>
+     *
+     * @param shape The shape
+     *
+     * @return The shape name
+     *
+     * @see Candidate#getShape()
+     */
+    public static String shapeName(int shape) {
+        if (shape == 0)
+            return "bare";
+        StringBuilder name = new StringBuilder();
+        if ((shape & Candidate.INFERRED) != 0)
+            name.append("inferred");
+        for (HintRank rank : HintRank.RANKS) {
+            if ((shape & (1 << rank.ordinal())) != 0) {
+                if (name.length() > 0)
+                    name.append('-');
+                name.append(rank.rank);
+            }
         }
+        return name.toString();
     }
 
     /**
@@ -270,40 +397,148 @@ public class NameSearch {
     }
 
     /**
-     * Generate the hinted stream.
+     * Get the hints as sets of values for each rank.
      * <p>
-     * Hints are applied to the current search, from the rank in the index onwards.
-     * The {@link #hints} field is assumed to be non-null and non-empty.
+     * The sets ignore case, so that a value can be quickly checked against the hints.
+     * They are built once, on first use, and shared by later calls; callers must not modify them.
      * </p>
      *
-     * @param index The index into the rank list
-     *
-     * @return A stream of hinted elements
-     *
-     * @throws IllegalAccessException Impossible! Occurs if a field isn't found
-     * @throws InvocationTargetException Inconceivable! Occurs if a method isn't found
+     * @return The hint sets, indexed by {@link HintRank#ordinal()}, with null for a rank with no hints
      */
-    protected Stream<NameSearch> hinted(int index) throws IllegalAccessException, InvocationTargetException {
-        if (index >= HINT_ORDER.length) {
-            return this.bareStream();
+    Set<String>[] hintSets() {
+        Set<String>[] sets = this.hintSets.get();
+        if (sets == null) {
+            sets = this.buildHintSets();
+            this.hintSets.compareAndSet(null, sets);
         }
-        Stream<NameSearch> output = null;
-        String rank = HINT_ORDER[index];
-        Field field = HINT_FIELDS[index];
-        Method with = WITH_METHODS[index];
-        String value = (String) field.get(this);
-        if (value == null) {
-            List<String> hs = this.hints.get(rank);
+        return sets;
+    }
+
+    // Build the hint sets
+    private Set<String>[] buildHintSets() {
+        @SuppressWarnings("unchecked")
+        Set<String>[] sets = (Set<String>[]) new Set[HintRank.RANKS.length];
+        if (this.hints == null)
+            return sets;
+        for (HintRank rank : HintRank.RANKS) {
+            List<String> hs = this.hints.get(rank.rank);
             if (hs != null) {
-                for (String h : hs) {
-                    NameSearch template = (NameSearch) with.invoke(this, h);
-                    Stream<NameSearch> hinted = template.hinted(index + 1);
-                    output = output == null ? hinted : Stream.concat(output, hinted); // In order of suggestion
+                Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                for (String h : hs)
+                    if (h != null)
+                        set.add(h);
+                sets[rank.ordinal()] = set;
+            }
+        }
+        return sets;
+    }
+
+    /**
+     * Generate hinted searches, one at a time.
+     * <p>
+     * Each hintable rank has a list of choices: no hint, followed by the hints for that rank.
+     * Combinations of choices are generated in order, with the earliest rank in {@link #HINT_ORDER}
+     * changing least often, and the bare stream for each combination is returned.
+     * This gives the same order as applying the hints recursively, rank by rank.
+     * </p>
+     */
+    private class HintIterator implements Iterator<Candidate> {
+        /** The ranks that have hints to apply */
+        private final List<HintRank> ranks;
+        /** The hints for each rank */
+        private final List<List<String>> choices;
+        /** The current choice for each rank, 0 for no hint */
+        private final int[] position;
+        /** The candidates already generated */
+        private final Set<NameSearch> seen;
+        /** Candidates waiting to be returned */
+        private final Deque<Candidate> pending;
+        /** The number of candidates that can still be generated */
+        private int remaining;
+        /** All combinations have been generated */
+        private boolean exhausted;
+
+        public HintIterator(int budget) {
+            this.ranks = new ArrayList<>(HintRank.RANKS.length);
+            this.choices = new ArrayList<>(HintRank.RANKS.length);
+            for (HintRank rank : HintRank.RANKS) {
+                List<String> hs = hints == null ? null : hints.get(rank.rank);
+                if (hs != null && !hs.isEmpty() && rank.search.apply(NameSearch.this) == null) {
+                    this.ranks.add(rank);
+                    this.choices.add(hs);
+                }
+            }
+            this.position = new int[this.ranks.size()];
+            this.seen = new HashSet<>();
+            this.pending = new ArrayDeque<>(2);
+            this.remaining = budget;
+            this.exhausted = false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.pending.isEmpty() && !this.exhausted && this.remaining > 0)
+                this.advance();
+            return !this.pending.isEmpty();
+        }
+
+        @Override
+        public Candidate next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            this.remaining--;
+            return this.pending.removeFirst();
+        }
+
+        // Queue the candidates for the current combination and move to the next combination
+        private void advance() {
+            NameSearch template = NameSearch.this;
+            int shape = 0;
+            for (int i = 0; i < this.position.length; i++) {
+                if (this.position[i] > 0) {
+                    HintRank rank = this.ranks.get(i);
+                    template = rank.with.apply(template, this.choices.get(i).get(this.position[i] - 1));
+                    shape |= 1 << rank.ordinal();
                 }
             }
+            NameSearch inferred = template.inferred();
+            if (this.seen.add(inferred))
+                this.pending.add(new Candidate(inferred, inferred.equals(template) ? shape : shape | Candidate.INFERRED));
+            if (this.seen.add(template))
+                this.pending.add(new Candidate(template, shape));
+            int i = this.position.length - 1;
+            while (i >= 0 && this.position[i] == this.choices.get(i).size()) {
+                this.position[i] = 0;
+                i--;
+            }
+            if (i < 0)
+                this.exhausted = true;
+            else
+                this.position[i]++;
         }
-        Stream<NameSearch> bare = this.hinted(index + 1);
-        return output == null ? bare : Stream.concat(bare, output);
+    }
+
+    /**
+     * A candidate search, generated from hints.
+     */
+    @Value
+    public static class Candidate {
+        /** The shape flag for a search with an inferred scientific name */
+        public static final int INFERRED = 1 << HintRank.RANKS.length;
+        /** The number of possible shapes */
+        public static final int SHAPES = INFERRED << 1;
+
+        /** The candidate search */
+        private NameSearch search;
+        /**
+         * The shape of the search.
+         * <p>
+         * The shape has a bit set for each hinted rank, in {@link #HINT_ORDER} order,
+         * and the {@link #INFERRED} bit set if the scientific name has been inferred.
+         * A shape of 0 is the original search.
+         * </p>
+         */
+        private int shape;
     }
 
     @JsonPOJOBuilder(withPrefix = "" )
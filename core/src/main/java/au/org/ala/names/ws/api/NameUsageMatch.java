@@ -9,10 +9,10 @@ import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Value;
 
-import java.lang.reflect.Field;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 @JsonDeserialize(builder = NameUsageMatch.NameUsageMatchBuilder.class)
@@ -24,19 +24,6 @@ import java.util.Map;
         description = "A matching taxon (or not) from a search."
 )
 public class NameUsageMatch {
-    /** Field lookup based on ranks, corresponding to {@link NameSearch#HINT_ORDER} */
-    private static final String[] RANK_FIELD_NAMES = {"phylum", "genus", "order", "classs", "family", "kingdom"};
-    private static final Field[] RANK_FIELDS = new Field[RANK_FIELD_NAMES.length];
-
-    static {
-        try {
-            for (int i = 0; i < RANK_FIELD_NAMES.length; i++)
-                RANK_FIELDS[i] = NameUsageMatch.class.getDeclaredField(RANK_FIELD_NAMES[i]);
-        } catch (Exception ex) {
-            throw new IllegalStateException("Also seriously, this is impossible!" , ex);
-        }
-    }
-
     @Schema(
             description = "Found/not found flag. A not-found result may be because the query is ambigious",
             nullable = false
@@ -225,17 +212,13 @@ public class NameUsageMatch {
         Map<String, List<String>> hints = search.getHints();
         if (hints == null || hints.isEmpty())
             return true;
-        for (int i = 0; i < NameSearch.HINT_ORDER.length; i++) {
-            try {
-                final String value = (String) RANK_FIELDS[i].get(this);
-                if (value != null) {
-                    String rank = NameSearch.HINT_ORDER[i];
-                    List<String> hl = hints.get(rank);
-                    if (hl != null && !hl.stream().anyMatch(h -> value.equalsIgnoreCase(h)))
-                        return false;
-                }
-            } catch (IllegalAccessException ex) {
-                throw new IllegalStateException("Right now, I need to go and have a lie-down" , ex);
+        Set<String>[] hintSets = search.hintSets();
+        for (HintRank rank : HintRank.RANKS) {
+            Set<String> hs = hintSets[rank.ordinal()];
+            if (hs != null) {
+                String value = rank.match.apply(this);
+                if (value != null && !hs.contains(value))
+                    return false;
             }
         }
         return true;
@@ -0,0 +1,332 @@
+package au.org.ala.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A normaliser that gives the same results as {@link BasicNormaliser} with less work.
+ * <p>
+ * The basic normaliser makes a number of passes over a string, using boxed maps and regular
+ * expressions, each of which allocates a new string.
+ * This normaliser uses precomputed, character-indexed tables and only builds a new string when something
+ * actually needs to change.
+ * Pure ASCII strings, which make up most requests, are checked in a single scan and returned untouched
+ * if they are already normal.
+ * </p>
+ * <p>
+ * Each step is carried out in the same order as {@link BasicNormaliser#normalise(String)},
+ * since Unicode normalisation, translation and accent removal do not commute.
+ * </p>
+ */
+@JsonTypeInfo(use= JsonTypeInfo.Id.CLASS, include= JsonTypeInfo.As.PROPERTY, property="@class")
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+public class FastNormaliser implements Normaliser {
+    /** The last whitespace character in the basic multilingual plane (ideographic space) */
+    private static final char LAST_SPACE = '\u3000';
+    /** The start of the combining diacritical marks block */
+    private static final char DIACRITICS_START = '\u0300';
+    /** The end of the combining diacritical marks block */
+    private static final char DIACRITICS_END = '\u036f';
+
+    /** Punctuation translations, indexed by character */
+    private static final String[] PUNCTUATION = buildTable(BasicNormaliser.getPunctuationMap());
+    /** Symbol translations, indexed by character */
+    private static final String[] SYMBOLS = buildTable(BasicNormaliser.getSymbolMap());
+    /** Whitespace, as understood by a unicode \s regular expression, indexed by character */
+    private static final boolean[] SPACES = buildSpaces();
+    /** Lower case ASCII, indexed by character */
+    private static final char[] LOWER = buildLower();
+
+    /** Reduce runs of spaces to a single space */
+    @JsonProperty
+    private final boolean normaliseSpaces;
+    /** Turn things like open/close quotes into single direction quotes */
+    @JsonProperty
+    private final boolean normalisePunctuation;
+    /** Spell out unusual symbols */
+    @JsonProperty
+    private final boolean normaliseSymbols;
+    /** Turn accented characters into non-accented characters */
+    @JsonProperty
+    private final boolean normaliseAccents;
+    /** Convert case into upper/lower case */
+    @JsonProperty
+    private final boolean normaliseCase;
+    /** Strip surrounding quotes */
+    @JsonProperty
+    private final boolean stripSurroundingQuotes;
+
+    /**
+     * Construct a normaliser
+     *
+     * @param normaliseSpaces Normalise spaces into a single space
+     * @param normalisePunctuation Normalise open/close punctuation characters
+     * @param normaliseSymbols Normalise symbols such as \beta
+     * @param normaliseAccents Convert accented characters into unaccented characters
+     * @param normaliseCase Ensure all lower-case
+     * @param stripSurroundingQuotes Remove matching open/close quotes around a string
+     */
+    public FastNormaliser(boolean normaliseSpaces, boolean normalisePunctuation, boolean normaliseSymbols, boolean normaliseAccents, boolean normaliseCase, boolean stripSurroundingQuotes) {
+        this.normaliseSpaces = normaliseSpaces;
+        this.normalisePunctuation = normalisePunctuation;
+        this.normaliseSymbols = normaliseSymbols;
+        this.normaliseAccents = normaliseAccents;
+        this.normaliseCase = normaliseCase;
+        this.stripSurroundingQuotes = stripSurroundingQuotes;
+    }
+
+    /**
+     * Construct a default normaliser that performs all normalisations
+     */
+    public FastNormaliser() {
+        this(true, true, true, true, true, true);
+    }
+
+    /**
+     * Build a character-indexed translation table from a translation map.
+     *
+     * @param map The map
+     *
+     * @return An array, indexed by character, of translations or null for no translation
+     */
+    private static String[] buildTable(Map<Character, String> map) {
+        char max = map.keySet().stream().max(Character::compare).orElse('\0');
+        String[] table = new String[max + 1];
+        for (Map.Entry<Character, String> entry : map.entrySet())
+            table[entry.getKey()] = entry.getValue();
+        return table;
+    }
+
+    /**
+     * Build a character-indexed whitespace table that matches the regular expression used by {@link BasicNormaliser}
+     *
+     * @return The whitespace table
+     */
+    private static boolean[] buildSpaces() {
+        Pattern spaces = Pattern.compile("\\s", Pattern.UNICODE_CHARACTER_CLASS);
+        boolean[] table = new boolean[LAST_SPACE + 1];
+        for (char ch = 0; ch <= LAST_SPACE; ch++)
+            table[ch] = spaces.matcher(String.valueOf(ch)).matches();
+        return table;
+    }
+
+    /**
+     * Build a lower-case table for ASCII characters.
+     *
+     * @return The lower case table
+     */
+    private static char[] buildLower() {
+        char[] table = new char[0x80];
+        for (char ch = 0; ch < 0x80; ch++)
+            table[ch] = ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch;
+        return table;
+    }
+
+    /**
+     * Check that the default locale lower-cases ASCII letters to ASCII letters.
+     * <p>
+     * Turkish and Azerbaijani lower-case <code>I</code> to a dotless <code>ı</code>
+     * </p>
+     *
+     * @return True if the ASCII table gives the same results as {@link String#toLowerCase()}
+     */
+    private static boolean isAsciiFolding() {
+        String language = Locale.getDefault().getLanguage();
+        return !"tr".equals(language) && !"az".equals(language);
+    }
+
+    private static boolean isSpace(char ch) {
+        return ch <= LAST_SPACE && SPACES[ch];
+    }
+
+    private static String lookup(String[] table, char ch) {
+        return ch < table.length ? table[ch] : null;
+    }
+
+    @Override
+    public String normalise(String s) {
+        if (s == null)
+            return null;
+        if (this.isAscii(s)) {
+            if (this.isNormalAscii(s))
+                return s;
+        } else {
+            if (!Normalizer.isNormalized(s, Normalizer.Form.NFKC))
+                s = Normalizer.normalize(s, Normalizer.Form.NFKC); // Get into canonical form
+            if (this.normalisePunctuation || this.normaliseSymbols)
+                s = this.translate(s);
+            if (this.normaliseAccents) {
+                if (!Normalizer.isNormalized(s, Normalizer.Form.NFD))
+                    s = Normalizer.normalize(s, Normalizer.Form.NFD);
+                s = this.removeDiacritics(s);
+            }
+        }
+        if (this.normaliseAccents)
+            s = s.trim();
+        if (this.normaliseSpaces || this.normaliseCase)
+            s = this.collapseAndFold(s);
+        if (this.stripSurroundingQuotes && this.isSurroundedByQuotes(s))
+            s = s.substring(1, s.length() - 1);
+        return s.trim();
+    }
+
+    private boolean isAscii(String s) {
+        final int len = s.length();
+        for (int i = 0; i < len; i++)
+            if (s.charAt(i) >= 0x80)
+                return false;
+        return true;
+    }
+
+    /**
+     * Check an ASCII string to see whether it is already normalised.
+     *
+     * @param s The string
+     *
+     * @return True if normalisation would not change the string
+     */
+    private boolean isNormalAscii(String s) {
+        final int len = s.length();
+        if (len == 0)
+            return true;
+        if (s.charAt(0) <= ' ' || s.charAt(len - 1) <= ' ')
+            return false;
+        char last = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (this.normaliseCase && ch >= 'A' && ch <= 'Z')
+                return false;
+            if (this.normaliseSpaces && isSpace(ch) && (ch != ' ' || last == ' '))
+                return false;
+            last = ch;
+        }
+        return !(this.stripSurroundingQuotes && this.isSurroundedByQuotes(s));
+    }
+
+    /**
+     * Apply punctuation and symbol translations in a single pass.
+     * <p>
+     * Punctuation translations never produce symbols, so applying both tables
+     * to each character gives the same result as translating punctuation and then symbols.
+     * </p>
+     *
+     * @param s The string
+     *
+     * @return The translated string, or the original string if there is nothing to translate
+     */
+    private String translate(String s) {
+        final int len = s.length();
+        StringBuilder builder = null;
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            String r = this.normalisePunctuation ? lookup(PUNCTUATION, ch) : null;
+            if (r == null && this.normaliseSymbols)
+                r = lookup(SYMBOLS, ch);
+            if (r != null && builder == null) {
+                builder = new StringBuilder(len + 16);
+                builder.append(s, 0, i);
+            }
+            if (builder != null) {
+                if (r == null)
+                    builder.append(ch);
+                else
+                    builder.append(r);
+            }
+        }
+        return builder == null ? s : builder.toString();
+    }
+
+    /**
+     * Remove combining diacritical marks from a decomposed string.
+     *
+     * @param s The string
+     *
+     * @return The string without diacritics, or the original string if there are none
+     */
+    private String removeDiacritics(String s) {
+        final int len = s.length();
+        StringBuilder builder = null;
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            boolean diacritic = ch >= DIACRITICS_START && ch <= DIACRITICS_END;
+            if (diacritic && builder == null) {
+                builder = new StringBuilder(len);
+                builder.append(s, 0, i);
+            }
+            if (builder != null && !diacritic)
+                builder.append(ch);
+        }
+        return builder == null ? s : builder.toString();
+    }
+
+    /**
+     * Replace runs of whitespace with a single space and trim, and convert to lower case, in a single pass.
+     * <p>
+     * ASCII characters are lower-cased from a table as they are copied.
+     * Lower-casing non-ASCII characters can depend on context (eg. a final sigma) or change the length
+     * of the string (eg. a dotted capital I), so a string with any non-ASCII characters is passed
+     * to {@link String#toLowerCase()} once spaces have been collapsed, as {@link BasicNormaliser} does.
+     * Neither step creates or removes whitespace, so doing both together gives the same result
+     * as collapsing and then lower-casing.
+     * </p>
+     *
+     * @param s The string
+     *
+     * @return The collapsed, lower case string, or the original string if there is nothing to change
+     */
+    private String collapseAndFold(String s) {
+        final int len = s.length();
+        final boolean spaces = this.normaliseSpaces;
+        final boolean fold = this.normaliseCase && isAsciiFolding();
+        StringBuilder builder = null;
+        boolean space = false;
+        boolean ascii = true;
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            boolean sp = spaces && isSpace(ch);
+            char lc = ch;
+            if (ch >= 0x80)
+                ascii = false;
+            else if (fold)
+                lc = LOWER[ch];
+            boolean change = sp ? ch != ' ' || space : lc != ch;
+            if (change && builder == null) {
+                builder = new StringBuilder(len);
+                builder.append(s, 0, i);
+            }
+            if (builder != null) {
+                if (!sp)
+                    builder.append(lc);
+                else if (!space)
+                    builder.append(' ');
+            }
+            space = sp;
+        }
+        String result = builder == null ? s : builder.toString();
+        if (spaces)
+            result = result.trim();
+        if (this.normaliseCase && (!fold || !ascii))
+            result = result.toLowerCase();
+        return result;
+    }
+
+    private boolean isSurroundedByQuotes(String s) {
+        if (s.length() < 2)
+            return false;
+        char start = s.charAt(0);
+        char end = s.charAt(s.length() - 1);
+        return
+                (start == '\'' && end == '\'') ||
+                (start == '"' && end == '"') ||
+                (start == '\u2018' && end == '\u2019') ||
+                (start == '\u201a' && end == '\u2019') ||
+                (start == '\u201c' && end == '\u201d') ||
+                (start == '\u201e' && end == '\u2019');
+    }
+}
@@ -3,9 +3,11 @@ package au.org.ala.names.ws.api;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -20,6 +22,64 @@ public class NameSearchTest {
         assertEquals(search1, search2);
     }
 
+    @Test
+    public void testCanonical1() throws Exception {
+        NameSearch search1 = NameSearch.builder()
+            .scientificName("Anas superciliosa")
+            .build();
+        NameSearch search2 = NameSearch.builder()
+            .scientificName("  Anas   superciliosa ")
+            .build();
+        NameSearch search3 = NameSearch.builder()
+            .scientificName("'Anas superciliosa'")
+            .build();
+        assertEquals(search1, search1.canonical());
+        assertEquals(search1, search2.canonical());
+        assertEquals(search1, search3.canonical());
+    }
+
+    /** Duplicate and empty hints are removed, keeping the order of hint values */
+    @Test
+    public void testCanonical2() throws Exception {
+        Map<String, List<String>> hints1 = new HashMap<>();
+        hints1.put("genus", Arrays.asList("Osphranter", "Macropus", "Osphranter"));
+        hints1.put("family", Arrays.asList());
+        hints1.put(" genus ", Arrays.asList("Notamacropus", null));
+        NameSearch search1 = NameSearch.builder()
+            .scientificName("Osphranter rufus")
+            .hints(hints1)
+            .build();
+        NameSearch canonical = search1.canonical();
+        assertEquals(1, canonical.getHints().size());
+        assertEquals(3, canonical.getHints().get("genus").size());
+        assertTrue(canonical.getHints().get("genus").indexOf("Osphranter") < canonical.getHints().get("genus").indexOf("Macropus"));
+        assertTrue(canonical.getHints().get("genus").contains("Notamacropus"));
+        Map<String, List<String>> hints2 = new HashMap<>();
+        hints2.put("family", Arrays.asList());
+        NameSearch search2 = NameSearch.builder()
+            .scientificName("Osphranter rufus")
+            .hints(hints2)
+            .build();
+        assertNull(search2.canonical().getHints());
+        assertEquals(NameSearch.builder().scientificName("Osphranter rufus").build(), search2.canonical());
+    }
+
+    /** The loose flag is only kept when there is a scientific name */
+    @Test
+    public void testCanonical3() throws Exception {
+        NameSearch search1 = NameSearch.builder()
+            .scientificName("Anas superciliosa")
+            .loose(true)
+            .build();
+        assertTrue(search1.canonical().isLoose());
+        NameSearch search2 = NameSearch.builder()
+            .vernacularName("Pacific Black Duck")
+            .loose(true)
+            .build();
+        assertFalse(search2.canonical().isLoose());
+        assertEquals(NameSearch.builder().vernacularName("Pacific Black Duck").build(), search2.canonical());
+    }
+
     @Test
     public void testInferred1() throws Exception {
         NameSearch search1 = NameSearch.builder()
@@ -160,6 +220,123 @@ public class NameSearchTest {
         assertEquals("Fabaceae", result.getFamily());
     }
 
+    /** Ranks are applied with the first rank in hint order changing least often */
+    @Test
+    public void testHinted7() throws Exception {
+        Map<String, List<String>> hints = new HashMap<>();
+        hints.put("kingdom", Arrays.asList("Plantae", "Fungi"));
+        hints.put("genus", Arrays.asList("Acacia"));
+        NameSearch search1 = NameSearch.builder()
+            .scientificName("Acacia dealbata")
+            .hints(hints)
+            .build();
+        List<NameSearch> hinted = search1.hintStream().collect(Collectors.toList());
+        assertEquals(6, hinted.size());
+        assertEquals(search1, hinted.get(0));
+        assertEquals(search1.withKingdom("Plantae"), hinted.get(1));
+        assertEquals(search1.withKingdom("Fungi"), hinted.get(2));
+        assertEquals(search1.withGenus("Acacia"), hinted.get(3));
+        assertEquals(search1.withGenus("Acacia").withKingdom("Plantae"), hinted.get(4));
+        assertEquals(search1.withGenus("Acacia").withKingdom("Fungi"), hinted.get(5));
+    }
+
+    /** Duplicate candidates are removed */
+    @Test
+    public void testHinted8() throws Exception {
+        Map<String, List<String>> hints = new HashMap<>();
+        hints.put("kingdom", Arrays.asList("Plantae", "Plantae", "Fungi"));
+        NameSearch search1 = NameSearch.builder()
+            .scientificName("Acacia dealbata")
+            .hints(hints)
+            .build();
+        List<NameSearch> hinted = search1.hintStream().collect(Collectors.toList());
+        assertEquals(3, hinted.size());
+        assertEquals(search1, hinted.get(0));
+        assertEquals("Plantae", hinted.get(1).getKingdom());
+        assertEquals("Fungi", hinted.get(2).getKingdom());
+    }
+
+    /** Inferred candidates are included and not repeated */
+    @Test
+    public void testHinted9() throws Exception {
+        Map<String, List<String>> hints = new HashMap<>();
+        hints.put("kingdom", Arrays.asList("Plantae"));
+        NameSearch search1 = NameSearch.builder()
+            .genus("Acacia")
+            .specificEpithet("dealbata")
+            .hints(hints)
+            .build();
+        List<NameSearch> hinted = search1.hintStream().collect(Collectors.toList());
+        assertEquals(4, hinted.size());
+        assertEquals("Acacia dealbata", hinted.get(0).getScientificName());
+        assertEquals(search1, hinted.get(1));
+        assertEquals("Acacia dealbata", hinted.get(2).getScientificName());
+        assertEquals("Plantae", hinted.get(2).getKingdom());
+        assertEquals("Plantae", hinted.get(3).getKingdom());
+        assertNull(hinted.get(3).getScientificName());
+    }
+
+    /** The number of candidates is limited by the budget */
+    @Test
+    public void testHintBudget1() throws Exception {
+        Map<String, List<String>> hints = new HashMap<>();
+        hints.put("kingdom", Arrays.asList("Plantae", "Fungi", "Animalia"));
+        hints.put("family", Arrays.asList("Fabaceae", "Mimosaceae"));
+        hints.put("genus", Arrays.asList("Acacia", "Racosperma"));
+        NameSearch search1 = NameSearch.builder()
+            .scientificName("Acacia dealbata")
+            .hints(hints)
+            .build();
+        assertEquals(36, search1.hintStream().count());
+        List<NameSearch> hinted = search1.hintStream(5).collect(Collectors.toList());
+        assertEquals(5, hinted.size());
+        assertEquals(search1.hintStream().limit(5).collect(Collectors.toList()), hinted);
+        assertEquals(1, search1.withHints(null).hintStream(5).count());
+        assertEquals(0, search1.hintStream(0).count());
+    }
+
+    /** Hint sets are built once and ignored by equality */
+    @Test
+    public void testHintSets1() throws Exception {
+        NameSearch search1 = NameSearch.builder()
+            .scientificName("Acacia dealbata")
+            .hints(Collections.singletonMap("kingdom", Arrays.asList("Plantae", "Fungi")))
+            .build();
+        NameSearch search2 = search1.withScientificName("Acacia dealbata");
+        Set<String>[] sets = search1.hintSets();
+        assertSame(sets, search1.hintSets());
+        assertTrue(sets[HintRank.KINGDOM.ordinal()].contains("plantae"));
+        assertNull(sets[HintRank.GENUS.ordinal()]);
+        assertEquals(search1, search2);
+        assertEquals(search1.hashCode(), search2.hashCode());
+        assertFalse(search1.toString().contains("hintSets"));
+    }
+
+    /** Candidates are labelled with their shape */
+    @Test
+    public void testCandidates1() throws Exception {
+        Map<String, List<String>> hints = new HashMap<>();
+        hints.put("kingdom", Arrays.asList("Plantae"));
+        hints.put("genus", Arrays.asList("Acacia"));
+        NameSearch search1 = NameSearch.builder()
+            .specificEpithet("dealbata")
+            .hints(hints)
+            .build();
+        List<NameSearch.Candidate> candidates = search1.candidateStream(Integer.MAX_VALUE).collect(Collectors.toList());
+        assertEquals(search1.hintStream().collect(Collectors.toList()), candidates.stream().map(NameSearch.Candidate::getSearch).collect(Collectors.toList()));
+        assertEquals("bare", NameSearch.shapeName(candidates.get(0).getShape()));
+        assertEquals("inferred-kingdom", NameSearch.shapeName(candidates.get(1).getShape()));
+        assertEquals("Plantae", candidates.get(1).getSearch().getScientificName());
+        assertEquals("kingdom", NameSearch.shapeName(candidates.get(2).getShape()));
+        assertEquals("inferred-genus", NameSearch.shapeName(candidates.get(3).getShape()));
+        assertEquals("Acacia dealbata", candidates.get(3).getSearch().getScientificName());
+        assertEquals("genus", NameSearch.shapeName(candidates.get(4).getShape()));
+        assertEquals("inferred-genus-kingdom", NameSearch.shapeName(candidates.get(5).getShape()));
+        assertEquals("genus-kingdom", NameSearch.shapeName(candidates.get(6).getShape()));
+        assertEquals(7, candidates.size());
+        assertEquals(1, search1.withHints(null).candidateStream(10).count());
+    }
+
     @Test
     public void testBare1() throws Exception {
         NameSearch search1 = NameSearch.builder()
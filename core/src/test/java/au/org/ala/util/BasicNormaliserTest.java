@@ -4,7 +4,13 @@ package au.org.ala.util;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * Test cases for normalisation
@@ -101,4 +107,85 @@ public class BasicNormaliserTest {
         assertEquals("ssomething good alpha", normaliser.normalise("ßomething good α"));
         assertEquals("garcon desole", normaliser.normalise("Garçon désolé"));
     }
+
+    /** Characters that exercise the various normalisation steps */
+    private static final String DIFFERENTIAL_POOL =
+            "aAbBzZ09 .,-'\"()\t\n\r\u000b\f\u0000\u001f" +
+            "\u0085\u00a0\u1680\u2000\u2007\u200a\u2028\u2029\u202f\u205f\u3000" +
+            "\u00ad‐–—‘’‚“”„‧\u202a\u202e" +
+            "¡¨«²µ×ßẞ†…″‽✕⩿" +
+            "ÀçéñÆİıŒǄ΅ﬁＡ" +
+            "\u0301\u0308\u0327\u0345\u0360Ͱ\u20dd" +
+            "ΑΣαβηςσάώἀ" +
+            "Аа中😀";
+
+    private static final String[] DIFFERENTIAL_EXAMPLES = {
+            "", " ", "'", "''", "\"\"", "Something good", "   Something    good    ", "‘Something good’",
+            "“Something good”", "Something—good", "Something good α", "ẞomething good α",
+            "Garçon désolé", "' Acacia dealbata '", "„ Acacia’", "Acacia  dealbata", "acacia dealbata",
+            "ΣΟΣ", "İstanbul", "άα", "á̧", "\t x "
+    };
+
+    private static List<String> differentialSamples() {
+        List<String> samples = new ArrayList<>(Arrays.asList(DIFFERENTIAL_EXAMPLES));
+        Random random = new Random(1847);
+        for (int i = 0; i < 3000; i++) {
+            int len = random.nextInt(12);
+            StringBuilder builder = new StringBuilder(len);
+            for (int j = 0; j < len; j++)
+                builder.append(DIFFERENTIAL_POOL.charAt(random.nextInt(DIFFERENTIAL_POOL.length())));
+            samples.add(builder.toString());
+        }
+        return samples;
+    }
+
+    /** The fast normaliser gives the same results as the basic normaliser for every combination of options */
+    @Test
+    public void testDifferential1() {
+        List<String> samples = differentialSamples();
+        for (int options = 0; options < 64; options++) {
+            boolean[] o = new boolean[6];
+            for (int i = 0; i < 6; i++)
+                o[i] = (options & (1 << i)) != 0;
+            BasicNormaliser basic = new BasicNormaliser(o[0], o[1], o[2], o[3], o[4], o[5]);
+            FastNormaliser fast = new FastNormaliser(o[0], o[1], o[2], o[3], o[4], o[5]);
+            for (String sample : samples)
+                assertEquals("Options " + options + " for \"" + sample + "\"", basic.normalise(sample), fast.normalise(sample));
+        }
+    }
+
+    /** Every character in the basic multilingual plane gives the same result, both alone and in context */
+    @Test
+    public void testDifferential2() {
+        BasicNormaliser basic = new BasicNormaliser();
+        FastNormaliser fast = new FastNormaliser();
+        for (int ch = 0; ch <= 0xffff; ch++) {
+            String single = String.valueOf((char) ch);
+            String context = "'A " + (char) ch + "b  '";
+            assertEquals("Character " + Integer.toHexString(ch), basic.normalise(single), fast.normalise(single));
+            assertEquals("Character " + Integer.toHexString(ch) + " in context", basic.normalise(context), fast.normalise(context));
+        }
+    }
+
+    /** Null is passed through and normal ASCII is returned untouched */
+    @Test
+    public void testFastUntouched1() {
+        FastNormaliser fast = new FastNormaliser(true, true, true, false, false, true);
+        assertEquals(null, fast.normalise(null));
+        String s = "Acacia dealbata";
+        assertSame(s, fast.normalise(s));
+        s = "Osphranter rufus (Desmarest, 1822)";
+        assertSame(s, fast.normalise(s));
+    }
+
+    /** Spaces and case are normalised together */
+    @Test
+    public void testFastSpacesCase1() {
+        FastNormaliser fast = new FastNormaliser(true, false, false, false, true, false);
+        String s = "acacia dealbata";
+        assertSame(s, fast.normalise(s));
+        assertEquals("acacia dealbata", fast.normalise(" Acacia\t  DEALBATA "));
+        assertEquals("σος", fast.normalise("ΣΟΣ"));
+        assertEquals("i\u0307stanbul  x", new FastNormaliser(false, false, false, false, true, false).normalise("İstanbul  X"));
+    }
 }
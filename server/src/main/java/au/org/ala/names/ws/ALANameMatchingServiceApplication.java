@@ -1,5 +1,6 @@
 package au.org.ala.names.ws;
 
+import au.org.ala.names.ws.core.NameSearcherRegistry;
 import au.org.ala.names.ws.health.NameSearchHealthCheck;
 import au.org.ala.names.ws.resources.NameSearchResource;
 import com.google.common.collect.ImmutableMap;
@@ -59,7 +60,12 @@ public class ALANameMatchingServiceApplication extends Application<ALANameMatchi
         environment.jersey().register(new OpenApiResource()
                 .openApiConfiguration(configuration.getSwaggerConfiguration()));
 
-        final NameSearchResource resource = new NameSearchResource(configuration.getSearch());
+        // Searchers are shared between the resource, species groups and health check and closed on shutdown
+        final NameSearcherRegistry registry = NameSearcherRegistry.getInstance();
+        environment.lifecycle().manage(registry);
+        final NameSearchResource resource = new NameSearchResource(configuration.getSearch(), registry);
+        environment.lifecycle().manage(resource);
+        resource.registerMetrics(environment.metrics());
         environment.jersey().register(resource);
         environment.healthChecks().register("namesearch", new NameSearchHealthCheck(resource));
     }
@@ -0,0 +1,353 @@
+package au.org.ala.names.ws.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.cache2k.Cache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A snapshot of the most used entries in a collection of caches.
+ * <p>
+ * The snapshot is written when the server shuts down and read when the
+ * server starts up, so that a restarted server begins with its working set in memory.
+ * Each cache is registered as a named section, along with a {@link HotKeys} tracker that
+ * decides which entries are worth keeping.
+ * </p>
+ * <p>
+ * The file is a gzipped binary stream containing a header, with the index version, followed by
+ * each section as a name, an entry count and a list of length-prefixed JSON keys and values.
+ * A snapshot with a different format or index version is ignored,
+ * since the cached results may no longer be valid.
+ * </p>
+ */
+@Slf4j
+public class CacheSnapshot {
+    /** The file identifier */
+    private static final int MAGIC = 0x414c4143;
+    /** The file format version */
+    private static final int FORMAT = 1;
+
+    /** The snapshot file */
+    private final Path file;
+    /** The version of the index that the cached values come from */
+    private final String version;
+    /** The maximum number of entries to write for each section */
+    private final int size;
+    /** The mapper used to convert keys and values */
+    private final ObjectMapper mapper;
+    /** The registered sections */
+    private final Map<String, Section<?, ?>> sections;
+
+    /**
+     * Construct a snapshot.
+     *
+     * @param file The snapshot file
+     * @param version The index version
+     * @param size The maximum number of entries to write for each cache
+     */
+    public CacheSnapshot(Path file, String version, int size) {
+        this.file = file;
+        this.version = version;
+        this.size = size;
+        this.mapper = new ObjectMapper();
+        this.sections = new LinkedHashMap<>();
+    }
+
+    /**
+     * Add a cache to the snapshot.
+     *
+     * @param name The section name
+     * @param cache The cache
+     * @param keyClass The key class
+     * @param valueClass The value class
+     * @param <K> The key type
+     * @param <V> The value type
+     *
+     * @return A tracker that should be touched every time the cache is used
+     */
+    public <K, V> HotKeys<K> register(String name, Cache<K, V> cache, Class<K> keyClass, Class<V> valueClass) {
+        return this.register(name, new CacheStore<>(cache), keyClass, valueClass);
+    }
+
+    /**
+     * Add a store of values to the snapshot.
+     *
+     * @param name The section name
+     * @param store The store
+     * @param keyClass The key class
+     * @param valueClass The value class
+     * @param <K> The key type
+     * @param <V> The value type
+     *
+     * @return A tracker that should be touched every time the store is used
+     */
+    public <K, V> HotKeys<K> register(String name, Store<K, V> store, Class<K> keyClass, Class<V> valueClass) {
+        HotKeys<K> hot = new HotKeys<>(this.size * 2);
+        this.sections.put(name, new Section<>(store, hot, this.mapper.readerFor(keyClass), this.mapper.readerFor(valueClass), this.mapper.writerFor(keyClass), this.mapper.writerFor(valueClass)));
+        return hot;
+    }
+
+    /**
+     * Load the snapshot into the caches.
+     * <p>
+     * Missing, unreadable or out-of-date snapshots are logged and ignored.
+     * </p>
+     *
+     * @return The number of entries loaded
+     */
+    public int load() {
+        if (!Files.exists(this.file)) {
+            log.info("No cache snapshot at {}", this.file);
+            return 0;
+        }
+        int loaded = 0;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(this.file))))) {
+            if (is.readInt() != MAGIC || is.readInt() != FORMAT) {
+                log.warn("Cache snapshot {} is not a recognised snapshot, ignoring", this.file);
+                return 0;
+            }
+            String fileVersion = is.readUTF();
+            if (!this.version.equals(fileVersion)) {
+                log.info("Cache snapshot {} is for index {} rather than {}, ignoring", this.file, fileVersion, this.version);
+                return 0;
+            }
+            int count = is.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = is.readUTF();
+                Section<?, ?> section = this.sections.get(name);
+                int entries = is.readInt();
+                for (int j = 0; j < entries; j++) {
+                    byte[] key = this.readBlock(is);
+                    byte[] value = this.readBlock(is);
+                    if (section != null) {
+                        section.put(key, value);
+                        loaded++;
+                    }
+                }
+            }
+            log.info("Loaded {} entries from cache snapshot {}", loaded, this.file);
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Unable to load cache snapshot " + this.file + " after " + loaded + " entries", ex);
+        }
+        return loaded;
+    }
+
+    /**
+     * Write the most used cache entries to the snapshot file.
+     * <p>
+     * The snapshot is written to a temporary file and then moved into place,
+     * so that an interrupted write does not leave a damaged snapshot.
+     * </p>
+     *
+     * @return The number of entries written
+     */
+    public int save() {
+        int saved = 0;
+        Path temp = null;
+        try {
+            Path parent = this.file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            temp = Files.createTempFile(parent, this.file.getFileName().toString(), ".tmp");
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                os.writeInt(MAGIC);
+                os.writeInt(FORMAT);
+                os.writeUTF(this.version);
+                os.writeInt(this.sections.size());
+                for (Map.Entry<String, Section<?, ?>> entry : this.sections.entrySet()) {
+                    List<byte[]> entries = entry.getValue().hottest(this.size);
+                    os.writeUTF(entry.getKey());
+                    os.writeInt(entries.size() / 2);
+                    for (byte[] block : entries)
+                        this.writeBlock(os, block);
+                    saved += entries.size() / 2;
+                }
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Saved {} entries to cache snapshot {}", saved, this.file);
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Unable to save cache snapshot " + this.file, ex);
+            saved = 0;
+        } finally {
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ex) {
+                log.warn("Unable to remove temporary snapshot " + temp, ex);
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Construct a version identifier for an index.
+     * <p>
+     * Index directories do not carry an explicit version, so the version is
+     * a digest of the contents of the index.
+     * The digest covers the relative path and size of each file in the index
+     * and the contents of the Lucene metadata files (<code>segments_*</code> and <code>*.si</code>),
+     * which identify each commit and segment.
+     * Copies of the same index, for example on different replicas, have the same version wherever they are
+     * and whenever they were copied, while rebuilding or replacing the index changes the version.
+     * </p>
+     *
+     * @param index The path to the index
+     *
+     * @return The index version
+     */
+    public static String indexVersion(String index) {
+        Path path = new File(index).toPath();
+        try (Stream<Path> files = Files.walk(path, 2)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            List<Path> contents = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            for (Path file : contents) {
+                String name = path.relativize(file).toString().replace(File.separatorChar, '/');
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+                digest.update(Long.toString(Files.size(file)).getBytes(StandardCharsets.UTF_8));
+                String base = file.getFileName().toString();
+                if (base.startsWith("segments_") || base.endsWith(".si"))
+                    digest.update(Files.readAllBytes(file));
+            }
+            StringBuilder version = new StringBuilder(64);
+            for (byte b : digest.digest())
+                version.append(String.format("%02x", b));
+            return version.toString();
+        } catch (IOException | UncheckedIOException | NoSuchAlgorithmException ex) {
+            log.warn("Unable to get version of index " + index, ex);
+            return index;
+        }
+    }
+
+    private byte[] readBlock(DataInputStream is) throws IOException {
+        byte[] block = new byte[is.readInt()];
+        is.readFully(block);
+        return block;
+    }
+
+    private void writeBlock(DataOutputStream os, byte[] block) throws IOException {
+        os.writeInt(block.length);
+        os.write(block);
+    }
+
+    /**
+     * A cache in the snapshot.
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    private static class Section<K, V> {
+        private final Store<K, V> cache;
+        private final HotKeys<K> hot;
+        private final ObjectReader keyReader;
+        private final ObjectReader valueReader;
+        private final ObjectWriter keyWriter;
+        private final ObjectWriter valueWriter;
+
+        private Section(Store<K, V> cache, HotKeys<K> hot, ObjectReader keyReader, ObjectReader valueReader, ObjectWriter keyWriter, ObjectWriter valueWriter) {
+            this.cache = cache;
+            this.hot = hot;
+            this.keyReader = keyReader;
+            this.valueReader = valueReader;
+            this.keyWriter = keyWriter;
+            this.valueWriter = valueWriter;
+        }
+
+        /**
+         * Add an entry to the cache.
+         *
+         * @param key The encoded key
+         * @param value The encoded value
+         *
+         * @throws IOException if unable to decode the entry
+         */
+        private void put(byte[] key, byte[] value) throws IOException {
+            K k = this.keyReader.readValue(key);
+            V v = this.valueReader.readValue(value);
+            this.cache.putIfAbsent(k, v);
+            this.hot.touch(k);
+        }
+
+        /**
+         * Get the encoded entries for the most used keys that are still in the cache.
+         *
+         * @param n The maximum number of entries
+         *
+         * @return A list of alternating encoded keys and values
+         *
+         * @throws IOException if unable to encode an entry
+         */
+        private List<byte[]> hottest(int n) throws IOException {
+            List<byte[]> entries = new ArrayList<>(n * 2);
+            for (K key : this.hot.hottest(n)) {
+                V value = this.cache.peek(key);
+                if (value != null) {
+                    entries.add(this.keyWriter.writeValueAsBytes(key));
+                    entries.add(this.valueWriter.writeValueAsBytes(value));
+                }
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Somewhere to get values from and put values into.
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    public interface Store<K, V> {
+        /**
+         * Get a value without counting it as a use.
+         *
+         * @param key The key
+         *
+         * @return The value, or null for not present
+         */
+        V peek(K key);
+
+        /**
+         * Add a value, unless there is already a value for the key.
+         *
+         * @param key The key
+         * @param value The value
+         */
+        void putIfAbsent(K key, V value);
+    }
+
+    /**
+     * A store backed by a plain cache.
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    private static class CacheStore<K, V> implements Store<K, V> {
+        private final Cache<K, V> cache;
+
+        private CacheStore(Cache<K, V> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public V peek(K key) {
+            return this.cache.peek(key);
+        }
+
+        @Override
+        public void putIfAbsent(K key, V value) {
+            this.cache.putIfAbsent(key, value);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.ws.api.NameUsageMatch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A dictionary of normalised scientific names that map directly onto a single match.
+ * <p>
+ * The dictionary is intended as a fast path for simple name-only searches,
+ * where the name is known to resolve unambiguously.
+ * Names that are added more than once with different results are
+ * treated as ambiguous and left out of the dictionary.
+ * </p>
+ * <p>
+ * The dictionary uses an open-addressed hash table of primitive arrays,
+ * with the names packed into a single UTF-8 byte array,
+ * to keep the per-entry overhead low.
+ * Instances are immutable once built and can be shared between threads.
+ * </p>
+ */
+public class ExactMatchDictionary {
+    /** The hash table, containing an entry index + 1 or 0 for empty */
+    private final int[] table;
+    /** The hash of each entry */
+    private final int[] hashes;
+    /** The start of each entry name in the name buffer. There is one more offset than entry */
+    private final int[] offsets;
+    /** The packed entry names */
+    private final byte[] names;
+    /** The entry matches */
+    private final NameUsageMatch[] matches;
+
+    private ExactMatchDictionary(Map<String, NameUsageMatch> entries) {
+        int size = entries.size();
+        int capacity = Integer.highestOneBit(Math.max(size * 2, 2) - 1) << 1;
+        this.table = new int[capacity];
+        this.hashes = new int[size];
+        this.offsets = new int[size + 1];
+        this.matches = new NameUsageMatch[size];
+        List<byte[]> encoded = new ArrayList<>(size);
+        int length = 0;
+        int index = 0;
+        for (Map.Entry<String, NameUsageMatch> entry : entries.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            int hash = hash(entry.getKey());
+            encoded.add(name);
+            this.offsets[index] = length;
+            this.hashes[index] = hash;
+            this.matches[index] = entry.getValue();
+            length += name.length;
+            int slot = hash & (capacity - 1);
+            while (this.table[slot] != 0)
+                slot = (slot + 1) & (capacity - 1);
+            this.table[slot] = index + 1;
+            index++;
+        }
+        this.offsets[size] = length;
+        this.names = new byte[length];
+        for (int i = 0; i < size; i++)
+            System.arraycopy(encoded.get(i), 0, this.names, this.offsets[i], encoded.get(i).length);
+    }
+
+    /**
+     * Create a new dictionary builder.
+     *
+     * @return The builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Look up a name.
+     *
+     * @param name The normalised name
+     *
+     * @return The match for the name, or null for not found
+     */
+    public NameUsageMatch get(String name) {
+        if (name == null || this.matches.length == 0)
+            return null;
+        int hash = hash(name);
+        int mask = this.table.length - 1;
+        byte[] encoded = null;
+        for (int slot = hash & mask; this.table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = this.table[slot] - 1;
+            if (this.hashes[index] != hash)
+                continue;
+            if (encoded == null)
+                encoded = name.getBytes(StandardCharsets.UTF_8);
+            if (this.matches(index, encoded))
+                return this.matches[index];
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of entries in the dictionary.
+     *
+     * @return The dictionary size
+     */
+    public int size() {
+        return this.matches.length;
+    }
+
+    /**
+     * Get the approximate size of the dictionary tables in bytes.
+     * <p>
+     * This does not include the matches themselves, which are usually shared with other caches.
+     * </p>
+     *
+     * @return The approximate footprint
+     */
+    public long getFootprint() {
+        return 4L * (this.table.length + this.hashes.length + this.offsets.length + this.matches.length) + this.names.length;
+    }
+
+    private boolean matches(int index, byte[] encoded) {
+        int start = this.offsets[index];
+        int length = this.offsets[index + 1] - start;
+        if (length != encoded.length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (this.names[start + i] != encoded[i])
+                return false;
+        return true;
+    }
+
+    // Spread the string hash so that the low bits are usable
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Build a dictionary.
+     */
+    public static class Builder {
+        private final Map<String, NameUsageMatch> entries = new LinkedHashMap<>();
+        private final Set<String> ambiguous = new HashSet<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Add an entry to the dictionary.
+         * <p>
+         * If the name has already been added with a different match,
+         * the name is marked as ambiguous and removed.
+         * </p>
+         *
+         * @param name The normalised name
+         * @param match The match for the name
+         *
+         * @return The builder
+         */
+        public Builder add(String name, NameUsageMatch match) {
+            if (name == null || match == null || this.ambiguous.contains(name))
+                return this;
+            NameUsageMatch existing = this.entries.putIfAbsent(name, match);
+            if (existing != null && !existing.equals(match))
+                this.ambiguous(name);
+            return this;
+        }
+
+        /**
+         * Mark a name as ambiguous, so that it is not included in the dictionary.
+         *
+         * @param name The name
+         *
+         * @return The builder
+         */
+        public Builder ambiguous(String name) {
+            this.entries.remove(name);
+            this.ambiguous.add(name);
+            return this;
+        }
+
+        /**
+         * Build the dictionary.
+         *
+         * @return The built dictionary
+         */
+        public ExactMatchDictionary build() {
+            return new ExactMatchDictionary(this.entries);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.ws.api.NameSearch;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Keep track of which candidate shapes produce results when searching with hints.
+ * <p>
+ * A hinted search generates a series of candidate searches, each with a shape
+ * (see {@link NameSearch.Candidate}) describing whether it is the bare search, an inferred search
+ * or a search with hints applied at some ranks.
+ * The number of times each shape is tried and the number of times it gives the result are recorded.
+ * </p>
+ * <p>
+ * If adaptive ordering is enabled, and enough searches have been seen to make the statistics meaningful,
+ * the hinted candidates are tried in order of how likely their shape is to succeed.
+ * The bare and inferred searches are always tried first, in their original order, so a search that
+ * succeeds without hints gives the same result whether or not ordering adapts.
+ * Hinted candidates are reordered a window of {@link #ADAPTIVE_WINDOW} candidates at a time,
+ * as they are generated, so that the full set of candidates is never built up front.
+ * Candidates with equally likely shapes keep their original order.
+ * The candidates themselves, and the rules for accepting a result, are the same.
+ * However, if more than one hinted candidate would give a result, a different hinted candidate may be tried first
+ * and so adaptive ordering can change the result for searches that need hints.
+ * </p>
+ */
+public class HintStatistics {
+    /** The number of candidates that need to have been tried before ordering adapts */
+    public static final long MIN_SAMPLES = 100;
+    /** The number of hinted candidates reordered at a time */
+    public static final int ADAPTIVE_WINDOW = 16;
+
+    /** Reorder candidates by likelihood of success */
+    @Getter
+    private final boolean adaptive;
+    /** The number of times each shape has been tried */
+    private final LongAdder[] tries;
+    /** The number of times each shape has given a result */
+    private final LongAdder[] hits;
+    /** The total number of tries */
+    private final LongAdder total;
+    /** Shapes that have had metrics registered */
+    private final AtomicIntegerArray registered;
+    /** The metric registry, null until metrics are registered */
+    private volatile MetricRegistry registry;
+    /** The prefix for metric names */
+    private volatile String prefix;
+
+    /**
+     * Construct a statistics collector.
+     *
+     * @param adaptive Reorder candidates by likelihood of success
+     */
+    public HintStatistics(boolean adaptive) {
+        this.adaptive = adaptive;
+        this.tries = new LongAdder[NameSearch.Candidate.SHAPES];
+        this.hits = new LongAdder[NameSearch.Candidate.SHAPES];
+        for (int i = 0; i < NameSearch.Candidate.SHAPES; i++) {
+            this.tries[i] = new LongAdder();
+            this.hits[i] = new LongAdder();
+        }
+        this.total = new LongAdder();
+        this.registered = new AtomicIntegerArray(NameSearch.Candidate.SHAPES);
+    }
+
+    /**
+     * Find the first candidate search that gives a result.
+     *
+     * @param search The search to generate candidates from
+     * @param budget The maximum number of candidates to try
+     * @param finder Perform a candidate search
+     * @param found Test for a usable result
+     *
+     * @param <T> The type of result
+     *
+     * @return The first usable result, or null for none found
+     */
+    public <T> T findFirst(NameSearch search, int budget, Function<NameSearch, T> finder, Predicate<T> found) {
+        boolean adapt = this.adaptive && this.total.sum() >= MIN_SAMPLES;
+        Iterator<NameSearch.Candidate> candidates = search.candidateStream(budget).iterator();
+        List<NameSearch.Candidate> window = new ArrayList<>(adapt ? ADAPTIVE_WINDOW : 1);
+        T result;
+        while (candidates.hasNext()) {
+            NameSearch.Candidate candidate = candidates.next();
+            boolean hinted = adapt && (candidate.getShape() & ~NameSearch.Candidate.INFERRED) != 0;
+            if (!hinted && !window.isEmpty()) {
+                if ((result = this.attempt(window, adapt, finder, found)) != null)
+                    return result;
+            }
+            window.add(candidate);
+            if (!hinted || window.size() >= ADAPTIVE_WINDOW) {
+                if ((result = this.attempt(window, adapt, finder, found)) != null)
+                    return result;
+            }
+        }
+        return window.isEmpty() ? null : this.attempt(window, adapt, finder, found);
+    }
+
+    // Try a group of candidates, most likely first if adapting, and clear the group
+    private <T> T attempt(List<NameSearch.Candidate> candidates, boolean adapt, Function<NameSearch, T> finder, Predicate<T> found) {
+        if (adapt && candidates.size() > 1)
+            candidates.sort(Comparator.comparingDouble((NameSearch.Candidate c) -> this.getSuccessRate(c.getShape())).reversed());
+        try {
+            for (NameSearch.Candidate candidate : candidates) {
+                T result = finder.apply(candidate.getSearch());
+                this.tries[candidate.getShape()].increment();
+                this.total.increment();
+                this.register(candidate.getShape());
+                if (found.test(result)) {
+                    this.hits[candidate.getShape()].increment();
+                    return result;
+                }
+            }
+            return null;
+        } finally {
+            candidates.clear();
+        }
+    }
+
+    /**
+     * Get the number of times a shape has been tried.
+     *
+     * @param shape The shape
+     *
+     * @return The number of tries
+     */
+    public long getTries(int shape) {
+        return this.tries[shape].sum();
+    }
+
+    /**
+     * Get the number of times a shape has given a result.
+     *
+     * @param shape The shape
+     *
+     * @return The number of hits
+     */
+    public long getHits(int shape) {
+        return this.hits[shape].sum();
+    }
+
+    /**
+     * Get the estimated likelihood of a shape giving a result.
+     * <p>
+     * The estimate is smoothed, so that an untried shape has an estimate of 0.5
+     * </p>
+     *
+     * @param shape The shape
+     *
+     * @return The estimated success rate
+     */
+    public double getSuccessRate(int shape) {
+        return (this.getHits(shape) + 1.0) / (this.getTries(shape) + 2.0);
+    }
+
+    /**
+     * Register metrics for the candidate shapes.
+     * <p>
+     * Each shape has <code><em>shape</em>.tries</code> and <code><em>shape</em>.hits</code> counts,
+     * named by {@link NameSearch#shapeName(int)}, eg. <code>bare.hits</code> or <code>inferred-genus.tries</code>.
+     * Most of the possible shapes never occur, so a shape's metrics are only registered once it has been tried.
+     * </p>
+     *
+     * @param registry The metric registry
+     * @param prefix The prefix for the metric names
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        this.prefix = prefix;
+        this.registry = registry;
+        for (int i = 0; i < NameSearch.Candidate.SHAPES; i++)
+            if (this.getTries(i) > 0)
+                this.register(i);
+    }
+
+    // Register the metrics for a shape, if there is a registry and they have not already been registered
+    private void register(int shape) {
+        MetricRegistry registry = this.registry;
+        if (registry == null || this.registered.get(shape) != 0 || !this.registered.compareAndSet(shape, 0, 1))
+            return;
+        String name = NameSearch.shapeName(shape);
+        registry.register(MetricRegistry.name(this.prefix, name, "tries"), (Gauge<Long>) () -> this.getTries(shape));
+        registry.register(MetricRegistry.name(this.prefix, name, "hits"), (Gauge<Long>) () -> this.getHits(shape));
+    }
+}
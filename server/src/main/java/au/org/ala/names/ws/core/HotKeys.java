@@ -0,0 +1,98 @@
+package au.org.ala.names.ws.core;
+
+import lombok.Getter;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Keep an approximate count of how often keys are used.
+ * <p>
+ * The number of keys tracked is bounded.
+ * When the capacity is exceeded, all counts are halved and keys
+ * with a count of zero are discarded, so that the counts favour
+ * keys that have been used often and recently.
+ * If that is not enough, the least used keys are discarded until
+ * there is some headroom.
+ * </p>
+ *
+ * @param <K> The type of key
+ */
+public class HotKeys<K> {
+    /** The maximum number of keys to track */
+    @Getter
+    private final int capacity;
+    /** The usage counts */
+    private final Map<K, AtomicInteger> counts;
+
+    /**
+     * Construct for a capacity.
+     *
+     * @param capacity The maximum number of keys to track
+     */
+    public HotKeys(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.counts = new ConcurrentHashMap<>(Math.min(capacity, 1024));
+    }
+
+    /**
+     * Record the use of a key.
+     *
+     * @param key The key, nulls are ignored
+     */
+    public void touch(K key) {
+        if (key == null)
+            return;
+        this.counts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+        if (this.counts.size() > this.capacity)
+            this.decay();
+    }
+
+    /**
+     * Get the number of keys being tracked.
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return this.counts.size();
+    }
+
+    /**
+     * Get the most used keys.
+     *
+     * @param n The maximum number of keys to return
+     *
+     * @return The keys, most used first
+     */
+    public List<K> hottest(int n) {
+        List<Map.Entry<K, Integer>> snapshot = new ArrayList<>(this.counts.size());
+        for (Map.Entry<K, AtomicInteger> entry : this.counts.entrySet())
+            snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+        return snapshot.stream()
+                .sorted(Map.Entry.<K, Integer>comparingByValue(Comparator.reverseOrder()))
+                .limit(n)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    // Halve all counts and drop anything that reaches zero, then trim to three-quarters capacity if needed
+    private synchronized void decay() {
+        if (this.counts.size() <= this.capacity)
+            return;
+        this.counts.entrySet().removeIf(e -> e.getValue().updateAndGet(c -> c >> 1) == 0);
+        int target = this.capacity - this.capacity / 4;
+        if (this.counts.size() > target) {
+            List<K> keep = this.hottest(target);
+            this.counts.keySet().retainAll(new HashSet<>(keep));
+        }
+    }
+}
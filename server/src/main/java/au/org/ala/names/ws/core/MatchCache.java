@@ -0,0 +1,403 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.ws.DataCacheConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import lombok.Getter;
+import org.cache2k.Cache;
+import org.cache2k.CacheEntry;
+import org.cache2k.core.InternalCache;
+import org.cache2k.integration.CacheLoaderException;
+import org.cache2k.integration.FunctionalCacheLoader;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of match results that keeps unsuccessful results apart from successful ones.
+ * <p>
+ * Successful matches are held in a large, long-lived cache.
+ * Unsuccessful matches (including {@link NameUsageMatch#FAIL}) are held in a separate,
+ * usually much smaller and shorter-lived, cache.
+ * That way, a bulk job full of unmatchable names can only evict other unmatchable names
+ * and leaves the working set of good matches alone.
+ * </p>
+ * <p>
+ * Each tier is configured by its own {@link DataCacheConfiguration}.
+ * A missing entry is computed once, no matter how many threads ask for it at the same time,
+ * and then put in the tier that matches the result.
+ * An entry that is due for a refresh (see {@link DataCacheConfiguration#getRefreshTime()})
+ * is returned straight away and recomputed in the background, on a small, bounded pool of threads.
+ * If the pool is busy, the refresh is skipped and tried again the next time the entry is used.
+ * A refreshed result goes into the tier that matches it, so a match that stops being successful
+ * moves to the unsuccessful tier, and vice versa.
+ * Hits, misses, refreshes and evictions are counted for each tier and can be reported via
+ * {@link #registerMetrics(MetricRegistry, String)}.
+ * </p>
+ *
+ * @param <K> The key type
+ */
+public class MatchCache<K> implements CacheSnapshot.Store<K, NameUsageMatch> {
+    /** The number of threads used for background refreshes */
+    public static final int REFRESH_THREADS = 4;
+    /** The maximum number of background refreshes waiting to run. Further refreshes are skipped */
+    public static final int REFRESH_QUEUE = 64;
+    /** Used to name refresh threads */
+    private static final AtomicInteger THREAD = new AtomicInteger();
+    /** Runs background refreshes */
+    private static final ThreadPoolExecutor REFRESHER = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE), r -> {
+        Thread thread = new Thread(r, "match-refresh-" + THREAD.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        REFRESHER.allowCoreThreadTimeOut(true);
+    }
+
+    /** The cache name */
+    @Getter
+    private final String name;
+    /** The source of matches */
+    private final FunctionalCacheLoader<K, NameUsageMatch> loader;
+    /** The matches being computed */
+    private final Map<K, CompletableFuture<NameUsageMatch>> inFlight;
+    /** Successful matches */
+    private final Tier<K> success;
+    /** Unsuccessful matches */
+    private final Tier<K> failure;
+
+    /**
+     * Construct a match cache.
+     *
+     * @param name The cache name
+     * @param configuration The configuration for successful matches
+     * @param negativeConfiguration The configuration for unsuccessful matches
+     * @param keyClass The key class
+     * @param loader The source of matches
+     */
+    public MatchCache(String name, DataCacheConfiguration configuration, DataCacheConfiguration negativeConfiguration, Class<K> keyClass, FunctionalCacheLoader<K, NameUsageMatch> loader) {
+        this.name = name;
+        this.loader = loader;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.success = new Tier<>(configuration.cacheBuilder(keyClass, Stamped.class).build(), configuration);
+        this.failure = new Tier<>(negativeConfiguration.cacheBuilder(keyClass, Stamped.class).build(), negativeConfiguration);
+    }
+
+    /**
+     * Get a match, computing it if necessary.
+     *
+     * @param key The key
+     *
+     * @return The match
+     *
+     * @throws CacheLoaderException if unable to compute the match
+     */
+    public NameUsageMatch get(K key) {
+        Hit hit = this.find(key);
+        if (hit != null) {
+            hit.tier.hits.increment();
+            if (hit.due)
+                this.refresh(key, hit.value);
+            return hit.value;
+        }
+        CompletableFuture<NameUsageMatch> pending = new CompletableFuture<>();
+        CompletableFuture<NameUsageMatch> existing = this.inFlight.putIfAbsent(key, pending);
+        if (existing != null)
+            return join(existing);
+        try {
+            hit = this.find(key); // May have arrived while registering
+            if (hit != null) {
+                hit.tier.hits.increment();
+                this.release(key, pending, hit.value);
+                return hit.value;
+            }
+            NameUsageMatch match = this.loader.load(key);
+            this.tier(match).misses.increment();
+            this.complete(key, pending, match);
+            return match;
+        } catch (Exception ex) {
+            CacheLoaderException failed = ex instanceof CacheLoaderException ? (CacheLoaderException) ex : new CacheLoaderException(ex);
+            this.fail(key, pending, failed);
+            throw failed;
+        }
+    }
+
+    /**
+     * Get a match from either tier, without counting it as a use or refreshing it.
+     *
+     * @param key The key
+     *
+     * @return The match, or null for not present
+     */
+    @Override
+    public NameUsageMatch peek(K key) {
+        Hit hit = this.find(key);
+        return hit == null ? null : hit.value;
+    }
+
+    /**
+     * Add a match to the tier that suits it, unless the key is already present.
+     *
+     * @param key The key
+     * @param match The match
+     */
+    @Override
+    public void putIfAbsent(K key, NameUsageMatch match) {
+        if (this.find(key) == null)
+            this.tier(match).cache.putIfAbsent(key, new Stamped(match, System.currentTimeMillis()));
+    }
+
+    /**
+     * Test to see whether a tier holds a key.
+     *
+     * @param key The key
+     * @param successful Look in the successful (true) or unsuccessful (false) tier
+     *
+     * @return True if the tier has an entry for the key
+     */
+    public boolean contains(K key, boolean successful) {
+        return (successful ? this.success : this.failure).cache.containsKey(key);
+    }
+
+    /**
+     * Get the number of lookups satisfied from the cache.
+     *
+     * @param successful Count successful (true) or unsuccessful (false) matches
+     *
+     * @return The hit count
+     */
+    public long getHits(boolean successful) {
+        return (successful ? this.success : this.failure).hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that needed to be computed.
+     *
+     * @param successful Count lookups that gave successful (true) or unsuccessful (false) matches
+     *
+     * @return The miss count
+     */
+    public long getMisses(boolean successful) {
+        return (successful ? this.success : this.failure).misses.sum();
+    }
+
+    /**
+     * Get the number of background refreshes.
+     *
+     * @param successful Count refreshes that gave successful (true) or unsuccessful (false) matches
+     *
+     * @return The refresh count
+     */
+    public long getRefreshes(boolean successful) {
+        return (successful ? this.success : this.failure).refreshes.sum();
+    }
+
+    /**
+     * Get the number of entries evicted to make room for other entries.
+     *
+     * @param successful Count successful (true) or unsuccessful (false) matches
+     *
+     * @return The eviction count
+     */
+    public long getEvictions(boolean successful) {
+        return (successful ? this.success : this.failure).getEvictions();
+    }
+
+    /**
+     * Get the number of entries in the cache.
+     *
+     * @param successful Count successful (true) or unsuccessful (false) matches
+     *
+     * @return The number of entries
+     */
+    public int size(boolean successful) {
+        return (successful ? this.success : this.failure).size();
+    }
+
+    /**
+     * Register metrics for this cache.
+     * <p>
+     * Metrics for successful matches are under <code>success</code>
+     * and metrics for unsuccessful matches are under <code>failure</code>.
+     * </p>
+     *
+     * @param registry The metric registry
+     * @param prefix The prefix for the metric names
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        this.success.registerMetrics(registry, MetricRegistry.name(prefix, "success"));
+        this.failure.registerMetrics(registry, MetricRegistry.name(prefix, "failure"));
+    }
+
+    /**
+     * Clear the cache.
+     */
+    public void clear() {
+        this.success.cache.clear();
+        this.failure.cache.clear();
+    }
+
+    // Find a usable entry in either tier
+    private Hit find(K key) {
+        Hit hit = this.success.peek(key);
+        return hit != null ? hit : this.failure.peek(key);
+    }
+
+    // The tier that a match belongs in
+    private Tier<K> tier(NameUsageMatch match) {
+        return match != null && match.isSuccess() ? this.success : this.failure;
+    }
+
+    // Recompute a match in the background, unless it is already being computed or there is no room to refresh
+    private void refresh(K key, NameUsageMatch current) {
+        CompletableFuture<NameUsageMatch> pending = new CompletableFuture<>();
+        if (this.inFlight.putIfAbsent(key, pending) != null)
+            return;
+        try {
+            REFRESHER.execute(() -> {
+                try {
+                    NameUsageMatch match = this.loader.load(key);
+                    this.tier(match).refreshes.increment();
+                    this.complete(key, pending, match);
+                } catch (Exception ex) {
+                    this.fail(key, pending, ex instanceof CacheLoaderException ? (CacheLoaderException) ex : new CacheLoaderException(ex));
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            this.release(key, pending, current);
+        }
+    }
+
+    // Put a new match in the tier that suits it, remove it from the other tier and release anyone waiting for it
+    private void complete(K key, CompletableFuture<NameUsageMatch> pending, NameUsageMatch match) {
+        Tier<K> tier = this.tier(match);
+        tier.cache.put(key, new Stamped(match, System.currentTimeMillis()));
+        (tier == this.success ? this.failure : this.success).cache.remove(key);
+        this.release(key, pending, match);
+    }
+
+    // Release anyone waiting for a match
+    private void release(K key, CompletableFuture<NameUsageMatch> pending, NameUsageMatch match) {
+        this.inFlight.remove(key, pending);
+        pending.complete(match);
+    }
+
+    // Record a failure and release anyone waiting for it
+    private void fail(K key, CompletableFuture<NameUsageMatch> pending, CacheLoaderException ex) {
+        this.inFlight.remove(key, pending);
+        pending.completeExceptionally(ex);
+    }
+
+    // Wait for a match being computed by another thread
+    private static NameUsageMatch join(CompletableFuture<NameUsageMatch> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new CacheLoaderException(ex.getCause());
+        }
+    }
+
+    /**
+     * A cached match, along with the time it was computed.
+     */
+    private static class Stamped {
+        /** The match */
+        private final NameUsageMatch value;
+        /** The time the match was written, in milliseconds since the epoch */
+        private final long written;
+
+        public Stamped(NameUsageMatch value, long written) {
+            this.value = value;
+            this.written = written;
+        }
+    }
+
+    /**
+     * A usable cache entry.
+     */
+    private static class Hit {
+        /** The tier holding the entry */
+        private final Tier<?> tier;
+        /** The cached match */
+        private final NameUsageMatch value;
+        /** The entry should be refreshed */
+        private final boolean due;
+
+        public Hit(Tier<?> tier, NameUsageMatch value, boolean due) {
+            this.tier = tier;
+            this.value = value;
+            this.due = due;
+        }
+    }
+
+    /**
+     * One tier of the cache, with its counts.
+     */
+    private static class Tier<K> {
+        /** The underlying cache */
+        private final Cache<K, Stamped> cache;
+        /** The age after which an entry should be refreshed, or {@link Long#MAX_VALUE} for never */
+        private final long refreshTime;
+        /** The age after which an entry can no longer be used, or {@link Long#MAX_VALUE} for never */
+        private final long retentionTime;
+        /** The number of hits */
+        private final LongAdder hits;
+        /** The number of misses */
+        private final LongAdder misses;
+        /** The number of background refreshes */
+        private final LongAdder refreshes;
+
+        public Tier(Cache<K, Stamped> cache, DataCacheConfiguration configuration) {
+            Long refresh = configuration.getRefreshTime();
+            Long retention = configuration.getRetentionTime();
+            this.cache = cache;
+            this.refreshTime = refresh == null ? Long.MAX_VALUE : refresh;
+            this.retentionTime = retention == null ? Long.MAX_VALUE : retention;
+            this.hits = new LongAdder();
+            this.misses = new LongAdder();
+            this.refreshes = new LongAdder();
+        }
+
+        // Find a usable entry, noting whether it is due for a refresh
+        public Hit peek(K key) {
+            CacheEntry<K, Stamped> entry = this.cache.peekEntry(key);
+            if (entry == null)
+                return null;
+            Stamped stamped = entry.getValue();
+            if (this.refreshTime == Long.MAX_VALUE)
+                return new Hit(this, stamped.value, false);
+            long age = System.currentTimeMillis() - stamped.written;
+            return age >= this.retentionTime ? null : new Hit(this, stamped.value, age >= this.refreshTime);
+        }
+
+        // The number of entries
+        public int size() {
+            return this.cache.asMap().size();
+        }
+
+        // The number of evictions, from the cache's own statistics
+        public long getEvictions() {
+            return this.cache.requestInterface(InternalCache.class).getInfo().getEvictedCount();
+        }
+
+        public void registerMetrics(MetricRegistry registry, String prefix) {
+            registry.register(MetricRegistry.name(prefix, "hits"), (Gauge<Long>) this.hits::sum);
+            registry.register(MetricRegistry.name(prefix, "misses"), (Gauge<Long>) this.misses::sum);
+            registry.register(MetricRegistry.name(prefix, "refreshes"), (Gauge<Long>) this.refreshes::sum);
+            registry.register(MetricRegistry.name(prefix, "evictions"), (Gauge<Long>) this::getEvictions);
+            registry.register(MetricRegistry.name(prefix, "size"), (Gauge<Integer>) this::size);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package au.org.ala.names.ws.core;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Execute bulk matches in parallel.
+ * <p>
+ * A bulk request is deduplicated, so that identical searches are only performed once,
+ * and the distinct searches are shared out between a number of workers.
+ * The calling thread always acts as one of the workers, with the remainder
+ * drawn from a fixed-size pool that is shared between all requests.
+ * The pool size limits the total number of concurrent searches (plus calling threads)
+ * and the parallelism limits how many workers any one request can use.
+ * </p>
+ * <p>
+ * Work is never queued behind other requests.
+ * If there are no idle pool threads, the request gets fewer workers (possibly just the calling thread)
+ * and any worker that has not started by the time the calling thread runs out of work is abandoned.
+ * </p>
+ * <p>
+ * Results are returned in request order. Null searches are not dispatched and
+ * give a null result.
+ * </p>
+ */
+@Slf4j
+public class MatchExecutor implements Closeable {
+    /** The maximum number of workers for a single request, including the calling thread */
+    @Getter
+    private final int parallelism;
+    /** The shared worker pool */
+    private final ExecutorService pool;
+
+    /**
+     * Construct an executor.
+     *
+     * @param name The name of the executor, used to name worker threads
+     * @param threads The number of pool threads, zero for the number of available processors
+     * @param parallelism The maximum number of workers for a single request, zero for the number of pool threads
+     */
+    public MatchExecutor(String name, int threads, int parallelism) {
+        if (threads < 0)
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        if (parallelism < 0)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        threads = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        this.parallelism = parallelism == 0 ? threads : parallelism;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Match executor {} with {} threads and parallelism {}", name, threads, this.parallelism);
+    }
+
+    /**
+     * Construct an executor from a search configuration.
+     *
+     * @param configuration The configuration
+     */
+    public MatchExecutor(NameSearchConfiguration configuration) {
+        this("match", configuration.getBulkThreads(), configuration.getBulkParallelism());
+    }
+
+    /**
+     * Match a list of keys.
+     *
+     * @param keys The keys to match, which may contain nulls
+     * @param matcher The matching function
+     * @param <K> The type of key
+     * @param <V> The type of result
+     *
+     * @return The list of results in the same order as the keys, with null for a null key
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> List<V> matchAll(List<K> keys, Function<K, V> matcher) {
+        Map<K, Integer> slots = new LinkedHashMap<>(keys.size() * 2);
+        for (K key : keys) {
+            if (key != null)
+                slots.putIfAbsent(key, slots.size());
+        }
+        List<K> unique = new ArrayList<>(slots.keySet());
+        Object[] results = this.run(unique, matcher);
+        List<V> matches = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            matches.add(key == null ? null : (V) results[slots.get(key)]);
+        }
+        return matches;
+    }
+
+    /**
+     * Match a list of distinct, non-null keys.
+     *
+     * @param keys The keys
+     * @param matcher The matcher
+     *
+     * @return An array of results
+     */
+    private <K, V> Object[] run(List<K> keys, Function<K, V> matcher) {
+        final int size = keys.size();
+        final Object[] results = new Object[size];
+        final AtomicInteger next = new AtomicInteger();
+        final Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < size)
+                results[i] = matcher.apply(keys.get(i));
+        };
+        int workers = Math.min(this.parallelism, size);
+        List<Future<?>> futures = new ArrayList<>(Math.max(0, workers - 1));
+        List<AtomicBoolean> claims = new ArrayList<>(Math.max(0, workers - 1));
+        try {
+            for (int w = 1; w < workers; w++) {
+                AtomicBoolean claim = new AtomicBoolean();
+                futures.add(this.pool.submit(() -> {
+                    if (claim.compareAndSet(false, true))
+                        worker.run();
+                }));
+                claims.add(claim);
+            }
+        } catch (RejectedExecutionException ex) {
+            log.debug("No idle pool threads, running {} of {} workers", futures.size() + 1, workers);
+        }
+        worker.run();
+        try {
+            for (int w = 0; w < futures.size(); w++) {
+                // A worker that has not started has nothing left to do, so only wait for started workers
+                if (claims.get(w).compareAndSet(false, true))
+                    futures.get(w).cancel(false);
+                else
+                    futures.get(w).get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for matches", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException("Unable to complete match", cause);
+        }
+        return results;
+    }
+
+    /**
+     * Shut down the worker pool.
+     */
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+}
@@ -1,5 +1,6 @@
 package au.org.ala.names.ws.core;
 
+import au.org.ala.names.ws.api.NameSearch;
 import au.org.ala.ws.DataCacheConfiguration;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -25,17 +26,55 @@ public class NameSearchConfiguration {
     /** The location of the species subgroups. Defaults to <code>file:///data/ala-namematching-service/config/subgroups.json</code> */
     @JsonProperty
     private URL subgroups;
+    /** The location of a list of names, one per line, to build an exact match dictionary from. Defaults to null, for no dictionary */
+    @JsonProperty
+    private URL exactNames;
     /** Use hints when matching (true by default) */
     @JsonProperty
     private boolean useHints = true;
     /** Use hints to confirm the matching result (true by default) */
     @JsonProperty
     private boolean checkHints = true;
+    /** The maximum number of candidate searches to try when using hints. Defaults to unlimited; 32 is recommended for services with wide hints */
+    @JsonProperty
+    private int hintBudget = NameSearch.DEFAULT_HINT_BUDGET;
+    /** Try hinted candidate searches in order of how often their shape has given a result, rather than least to most specific. Needs a finite hint budget and is ignored otherwise. Defaults to false */
+    @JsonProperty
+    private boolean adaptiveHints = false;
     /** Allow loose searching on taxon identifier and vernacular name in place of scientific name, if requested */
     private boolean allowLoose = true;
+    /** The number of threads shared by bulk searches. Defaults to 0, meaning the number of available processors */
+    @JsonProperty
+    private int bulkThreads = 0;
+    /** The maximum number of threads that a single bulk search can use, including the request thread. Defaults to 4 */
+    @JsonProperty
+    private int bulkParallelism = 4;
+    /** The file to hold a snapshot of the most used cache entries between restarts. Defaults to null, for no snapshot */
+    @JsonProperty
+    private String snapshot;
+    /** The maximum number of entries from each cache to keep in the snapshot. Defaults to 10000 */
+    @JsonProperty
+    private int snapshotSize = 10000;
+    /**
+     * The maximum number of raw searches to remember the canonical search key for,
+     * so that exact repeats of a search do not need to be normalised again.
+     * Defaults to 0, for no raw search cache
+     */
+    @JsonProperty
+    private int rawKeyCacheSize = 0;
     /** The cache configuration */
     @JsonProperty
     private DataCacheConfiguration cache = DataCacheConfiguration.builder().build();
+    /**
+     * The cache configuration for unsuccessful matches.
+     * Defaults to 10000 entries that expire after 10 minutes, so that
+     * unmatchable names do not crowd good matches out of the main cache
+     */
+    @JsonProperty
+    private DataCacheConfiguration negativeCache = DataCacheConfiguration.builder()
+            .entryCapacity(10000)
+            .expireAfterWrite(600000L)
+            .build();
 
     public NameSearchConfiguration() {
         try {
@@ -0,0 +1,147 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.search.ALANameSearcher;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A registry of shared name searchers.
+ * <p>
+ * Opening a name index is expensive, both in time and in the memory
+ * taken by the underlying index readers.
+ * Components that need a searcher borrow one from the registry with
+ * {@link #acquire(NameSearchConfiguration)} and give it back with {@link #release(NameSearchConfiguration)}.
+ * Searchers are reference counted and closed when the last borrower releases them
+ * or when the registry is stopped as part of the application lifecycle.
+ * </p>
+ */
+@Slf4j
+public class NameSearcherRegistry implements Managed {
+    /** The default, shared registry */
+    private static final NameSearcherRegistry INSTANCE = new NameSearcherRegistry();
+
+    /** The open searchers */
+    private final Map<NameSearchConfiguration, Entry> searchers = new HashMap<>();
+
+    /**
+     * Get the default registry.
+     *
+     * @return The shared registry instance
+     */
+    public static NameSearcherRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrow a searcher for a configuration.
+     * <p>
+     * If there is no open searcher, one is opened.
+     * Each call should be balanced with a call to {@link #release(NameSearchConfiguration)}.
+     * </p>
+     *
+     * @param configuration The search configuration
+     *
+     * @return The shared searcher
+     *
+     * @throws IOException if unable to open the index
+     */
+    public synchronized ALANameSearcher acquire(NameSearchConfiguration configuration) throws IOException {
+        Entry entry = this.searchers.get(configuration);
+        if (entry == null) {
+            log.info("Opening name searcher for {}", configuration.getIndex());
+            entry = new Entry(this.open(configuration));
+            this.searchers.put(configuration, entry);
+        }
+        entry.references++;
+        return entry.searcher;
+    }
+
+    /**
+     * Give back a searcher.
+     * <p>
+     * When there are no more references to the searcher, it is closed.
+     * </p>
+     *
+     * @param configuration The search configuration used to acquire the searcher
+     */
+    public synchronized void release(NameSearchConfiguration configuration) {
+        Entry entry = this.searchers.get(configuration);
+        if (entry == null) {
+            log.warn("Release of unknown searcher for {}", configuration.getIndex());
+            return;
+        }
+        if (--entry.references <= 0) {
+            this.searchers.remove(configuration);
+            this.close(configuration, entry.searcher);
+        }
+    }
+
+    /**
+     * Get the number of references to a searcher.
+     *
+     * @param configuration The search configuration
+     *
+     * @return The number of outstanding borrows, zero if there is no open searcher
+     */
+    public synchronized int getReferences(NameSearchConfiguration configuration) {
+        Entry entry = this.searchers.get(configuration);
+        return entry == null ? 0 : entry.references;
+    }
+
+    /**
+     * Open a new searcher for a configuration.
+     *
+     * @param configuration The search configuration
+     *
+     * @return The new searcher
+     *
+     * @throws IOException if unable to open the index
+     */
+    protected ALANameSearcher open(NameSearchConfiguration configuration) throws IOException {
+        return new ALANameSearcher(configuration.getIndex());
+    }
+
+    @Override
+    public void start() {
+    }
+
+    /**
+     * Close any remaining searchers.
+     */
+    @Override
+    public synchronized void stop() {
+        for (Map.Entry<NameSearchConfiguration, Entry> entry : this.searchers.entrySet()) {
+            if (entry.getValue().references > 0)
+                log.info("Closing searcher for {} with {} outstanding references", entry.getKey().getIndex(), entry.getValue().references);
+            this.close(entry.getKey(), entry.getValue().searcher);
+        }
+        this.searchers.clear();
+    }
+
+    // Close a searcher, if it is able to be closed. Otherwise, let the GC reclaim the readers.
+    private void close(NameSearchConfiguration configuration, ALANameSearcher searcher) {
+        log.info("Releasing name searcher for {}", configuration.getIndex());
+        if (searcher instanceof Closeable) {
+            try {
+                ((Closeable) searcher).close();
+            } catch (IOException ex) {
+                log.warn("Unable to close searcher for " + configuration.getIndex(), ex);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final ALANameSearcher searcher;
+        private int references;
+
+        private Entry(ALANameSearcher searcher) {
+            this.searcher = searcher;
+            this.references = 0;
+        }
+    }
+}
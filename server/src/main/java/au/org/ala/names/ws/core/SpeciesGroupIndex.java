@@ -0,0 +1,129 @@
+package au.org.ala.names.ws.core;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * A precompiled index of species group and subgroup membership.
+ * <p>
+ * Each group is made up of a list of left-right ranges, with any excluded ranges
+ * coming first so that the first matching range decides membership
+ * (see {@link SpeciesGroup#isPartOfGroup(Integer)}).
+ * The index splits the taxonomic tree at every range boundary, giving a set of
+ * elementary segments where membership cannot change.
+ * Group membership for each segment is computed once, when the index is built,
+ * so that a lookup is a binary search over a sorted array of boundaries.
+ * </p>
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ * </p>
+ */
+public class SpeciesGroupIndex {
+    /** The empty membership, for taxa outside any group */
+    public static final Membership EMPTY = new Membership(Collections.emptyList(), Collections.emptyList());
+
+    /** The sorted, distinct boundaries of the segments */
+    private final int[] bounds;
+    /** The membership index for the segment starting at the corresponding boundary */
+    private final int[] segments;
+    /** The distinct memberships */
+    private final Membership[] memberships;
+
+    /**
+     * Build an index from lists of species groups and subgroups.
+     *
+     * @param groups The species groups, in reporting order
+     * @param subgroups The species subgroups, in reporting order
+     */
+    public SpeciesGroupIndex(List<SpeciesGroup> groups, List<SpeciesGroup> subgroups) {
+        SortedSet<Integer> boundaries = new TreeSet<>();
+        this.collectBounds(groups, boundaries);
+        this.collectBounds(subgroups, boundaries);
+        this.bounds = boundaries.stream().mapToInt(Integer::intValue).toArray();
+        this.segments = new int[this.bounds.length];
+        Map<Membership, Integer> distinct = new HashMap<>();
+        List<Membership> memberships = new ArrayList<>();
+        distinct.put(EMPTY, 0);
+        memberships.add(EMPTY);
+        for (int i = 0; i < this.bounds.length; i++) {
+            Membership membership = new Membership(
+                    this.classify(this.bounds[i], groups),
+                    this.classify(this.bounds[i], subgroups)
+            );
+            Integer index = distinct.get(membership);
+            if (index == null) {
+                index = memberships.size();
+                distinct.put(membership, index);
+                memberships.add(membership);
+            }
+            this.segments[i] = index;
+        }
+        this.memberships = memberships.toArray(new Membership[0]);
+    }
+
+    /**
+     * Find the group and subgroup membership for a left-value.
+     *
+     * @param lft The left value of the taxon, may be null
+     *
+     * @return The membership, {@link #EMPTY} if not in any group
+     */
+    public Membership lookup(Integer lft) {
+        if (lft == null || this.bounds.length == 0)
+            return EMPTY;
+        int pos = Arrays.binarySearch(this.bounds, lft);
+        if (pos < 0)
+            pos = -pos - 2; // Insertion point - 1 gives the segment containing lft
+        return pos < 0 ? EMPTY : this.memberships[this.segments[pos]];
+    }
+
+    /**
+     * Get the number of distinct segments in the index.
+     *
+     * @return The segment count
+     */
+    public int size() {
+        return this.bounds.length;
+    }
+
+    private void collectBounds(List<SpeciesGroup> groups, Set<Integer> boundaries) {
+        for (SpeciesGroup group : groups) {
+            for (LftRgtValues range : group.lftRgtValues) {
+                boundaries.add(range.lft);
+                boundaries.add(range.rgt);
+            }
+        }
+    }
+
+    private List<String> classify(int lft, List<SpeciesGroup> groups) {
+        List<String> names = new ArrayList<>();
+        for (SpeciesGroup group : groups) {
+            if (group.isPartOfGroup(lft))
+                names.add(group.name);
+        }
+        return names.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(names);
+    }
+
+    /**
+     * The groups and subgroups that a taxon belongs to.
+     * <p>
+     * The lists are shared between lookups and are unmodifiable.
+     * </p>
+     */
+    @EqualsAndHashCode
+    public static class Membership {
+        /** The species groups, in configuration order */
+        @Getter
+        private final List<String> groups;
+        /** The species subgroups, in configuration order */
+        @Getter
+        private final List<String> subgroups;
+
+        private Membership(List<String> groups, List<String> subgroups) {
+            this.groups = groups;
+            this.subgroups = subgroups;
+        }
+    }
+}
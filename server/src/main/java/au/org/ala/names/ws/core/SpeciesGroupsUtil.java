@@ -4,6 +4,7 @@ import au.org.ala.names.model.NameSearchResult;
 import au.org.ala.names.search.ALANameSearcher;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.URL;
@@ -17,10 +18,15 @@ import java.util.Map;
  */
 @Slf4j
 public class SpeciesGroupsUtil {
-    /** Making resources is fairly expensive. Reuse existing instances */
-    private static final Map<NameSearchConfiguration, SpeciesGroupsUtil> managerCache = new HashMap<>();
+    /** Making resources is fairly expensive. Reuse existing instances, for each registry and configuration */
+    private static final Map<Key, SpeciesGroupsUtil> managerCache = new HashMap<>();
 
-    /** The name index used to match names to actual taxon entries */
+    /** The cache key */
+    private final Key key;
+    /** The number of outstanding users of this instance, guarded by the class */
+    private int references;
+
+    /** The name index used to match names to actual taxon entries, borrowed from a {@link NameSearcherRegistry} */
     @Getter
     private final ALANameSearcher nameIndex;
     /** The list of possible species groups */
@@ -29,20 +35,33 @@ public class SpeciesGroupsUtil {
     /** The list of possible species subgroups */
     @Getter
     private final List<SpeciesGroup> speciesSubgroups;
+    /** The precompiled group/subgroup index */
+    @Getter
+    private final SpeciesGroupIndex index;
 
     /**
      * Construct for a name index configuration
      *
      * @param configuration The name index configuration
+     * @param registry The registry to borrow a name searcher from
      *
      * @throws IllegalArgumentException if unable to open any of the resources specified in the configuration, which makes an invalid configuration
      */
-    private SpeciesGroupsUtil(NameSearchConfiguration configuration) throws IllegalArgumentException {
+    private SpeciesGroupsUtil(NameSearchConfiguration configuration, NameSearcherRegistry registry) throws IllegalArgumentException {
+        this.key = new Key(registry, configuration);
+        this.references = 0;
+        try {
+            this.nameIndex = registry.acquire(configuration);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Invalid name searcher configuration", ex);
+        }
         try {
-            this.nameIndex = new ALANameSearcher(configuration.getIndex());
             this.speciesGroups = this.readSpeciesGroups(configuration.getGroups());
             this.speciesSubgroups = this.readSpeciesSubgroups(configuration.getSubgroups());
+            this.index = new SpeciesGroupIndex(this.speciesGroups, this.speciesSubgroups);
+            log.info("Species group index has {} segments", this.index.size());
         } catch (Exception ex) {
+            registry.release(configuration);
             throw new IllegalArgumentException("Invalid name searcher configuration", ex);
         }
     }
@@ -185,23 +204,53 @@ public class SpeciesGroupsUtil {
      * Returns all the species groups to which the supplied left right values belong
      */
     public List<String> getSpeciesGroups(Integer lft) throws Exception {
-        return getGenericGroups(lft,  getSpeciesGroups());
+        return this.index.lookup(lft).getGroups();
     }
 
     public List<String> getSpeciesSubGroups(Integer lft) throws Exception {
-        return getGenericGroups(lft, getSpeciesSubgroups());
+        return this.index.lookup(lft).getSubgroups();
     }
 
-    private List<String> getGenericGroups(Integer lft, List<SpeciesGroup> groupingList) {
-        List<String> matchedGroups = new ArrayList<String>();
-        if (lft != null) {
-            for (SpeciesGroup sg : groupingList) {
-                if (sg.isPartOfGroup(lft)) {
-                    matchedGroups.add(sg.name);
-                }
+    /**
+     * Returns both the species groups and subgroups to which the supplied left value belongs.
+     *
+     * @param lft The left value, may be null
+     *
+     * @return The group and subgroup membership
+     */
+    public SpeciesGroupIndex.Membership getMembership(Integer lft) {
+        return this.index.lookup(lft);
+    }
+
+    /**
+     * Give back this instance.
+     * <p>
+     * Each call to {@link #getInstance(NameSearchConfiguration, NameSearcherRegistry)} should be balanced by a release.
+     * When the last user releases the instance, it is discarded and the name searcher is returned to the registry.
+     * </p>
+     */
+    public void release() {
+        synchronized (SpeciesGroupsUtil.class) {
+            if (this.references <= 0) {
+                log.warn("Release of unused species groups for {}", this.key.getConfiguration().getIndex());
+                return;
             }
+            if (--this.references > 0)
+                return;
+            managerCache.remove(this.key);
+        }
+        this.key.getRegistry().release(this.key.getConfiguration());
+    }
+
+    /**
+     * Get the number of outstanding users of this instance.
+     *
+     * @return The reference count
+     */
+    public int getReferences() {
+        synchronized (SpeciesGroupsUtil.class) {
+            return this.references;
         }
-        return matchedGroups;
     }
 
     /**
@@ -217,6 +266,37 @@ public class SpeciesGroupsUtil {
      * @throws Exception if unable to load the resource
      */
     synchronized public static SpeciesGroupsUtil getInstance(NameSearchConfiguration configuration) throws Exception {
-        return managerCache.computeIfAbsent(configuration, c -> new SpeciesGroupsUtil(c));
+        return getInstance(configuration, NameSearcherRegistry.getInstance());
+    }
+
+    /**
+     * Get an instance of the species group resource, based on configuration.
+     * <p>
+     * The name searcher used to look up the group taxa is borrowed from the registry,
+     * so that it is shared with any other users of the same configuration.
+     * Instances are shared by users of the same registry and configuration;
+     * the caller should {@link #release()} the instance when finished with it.
+     * </p>
+     *
+     * @param configuration The configuration
+     * @param registry The searcher registry
+     *
+     * @return An species group resource
+     *
+     * @throws Exception if unable to load the resource
+     */
+    synchronized public static SpeciesGroupsUtil getInstance(NameSearchConfiguration configuration, NameSearcherRegistry registry) throws Exception {
+        SpeciesGroupsUtil util = managerCache.computeIfAbsent(new Key(registry, configuration), k -> new SpeciesGroupsUtil(k.getConfiguration(), k.getRegistry()));
+        util.references++;
+        return util;
+    }
+
+    /**
+     * Instances are shared by registry and configuration.
+     */
+    @Value
+    private static class Key {
+        private NameSearcherRegistry registry;
+        private NameSearchConfiguration configuration;
     }
 }
@@ -0,0 +1,209 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.model.ErrorType;
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MetricsResultDTO;
+import au.org.ala.names.model.NameSearchResult;
+import au.org.ala.names.search.SearchResultException;
+import au.org.ala.ws.DataCacheConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import lombok.Value;
+import org.cache2k.Cache;
+import org.gbif.api.vocabulary.NameType;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of the results of individual index searches.
+ * <p>
+ * A single request can turn into a number of candidate searches, bare, inferred or hinted.
+ * Different requests often turn into the same candidate searches; for example, records with
+ * different kingdom spellings may all end up searching for the same genus and family.
+ * This cache sits underneath the request cache and holds the result of each candidate search,
+ * keyed by the classification searched for and whether the search was approximate.
+ * </p>
+ * <p>
+ * Results are held as compact, immutable entries and a fresh {@link MetricsResultDTO}
+ * is built for each lookup, so callers are free to modify what they get back.
+ * Searches that find nothing are also cached.
+ * Searches that fail with an exception are not cached.
+ * </p>
+ */
+public class SubSearchCache {
+    /** The source of search results */
+    private final SubSearchSource source;
+    /** The underlying cache */
+    private final Cache<Key, Entry> cache;
+    /** The number of lookups satisfied from the cache */
+    private final LongAdder hits;
+    /** The number of lookups passed to the source */
+    private final LongAdder misses;
+
+    /**
+     * Construct a sub-search cache.
+     *
+     * @param configuration The cache configuration
+     * @param source The source of search results
+     */
+    public SubSearchCache(DataCacheConfiguration configuration, SubSearchSource source) {
+        this.source = source;
+        this.cache = configuration.cacheBuilder(Key.class, Entry.class).build();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * Search for a classification, using a cached result if there is one.
+     *
+     * @param classification The classification to search for
+     * @param approximate Allow approximate (fuzzy) matches
+     *
+     * @return The search result, or null for no result
+     *
+     * @throws SearchResultException if the search fails
+     */
+    public MetricsResultDTO get(LinnaeanRankClassification classification, boolean approximate) throws SearchResultException {
+        Key key = new Key(classification, approximate);
+        Entry entry = this.cache.peek(key);
+        if (entry != null) {
+            this.hits.increment();
+            return entry.toMetrics();
+        }
+        this.misses.increment();
+        MetricsResultDTO metrics = this.source.search(classification, approximate);
+        this.cache.put(key, Entry.of(metrics));
+        return metrics;
+    }
+
+    /**
+     * Get the number of lookups satisfied from the cache.
+     *
+     * @return The hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that needed to go to the index.
+     *
+     * @return The miss count
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of entries in the cache.
+     *
+     * @return The cache size
+     */
+    public int size() {
+        return this.cache.asMap().size();
+    }
+
+    /**
+     * Register metrics for this cache.
+     *
+     * @param registry The metric registry
+     * @param prefix The prefix for the metric names
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        registry.register(MetricRegistry.name(prefix, "hits"), (Gauge<Long>) this::getHits);
+        registry.register(MetricRegistry.name(prefix, "misses"), (Gauge<Long>) this::getMisses);
+        registry.register(MetricRegistry.name(prefix, "size"), (Gauge<Integer>) this::size);
+    }
+
+    /**
+     * Clear the cache.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * The parts of a search that affect the result.
+     */
+    @Value
+    private static class Key {
+        private String scientificName;
+        private String authorship;
+        private String kingdom;
+        private String phylum;
+        private String klass;
+        private String order;
+        private String family;
+        private String genus;
+        private String specificEpithet;
+        private String infraspecificEpithet;
+        private String rank;
+        private boolean approximate;
+
+        Key(LinnaeanRankClassification classification, boolean approximate) {
+            this.scientificName = classification.getScientificName();
+            this.authorship = classification.getAuthorship();
+            this.kingdom = classification.getKingdom();
+            this.phylum = classification.getPhylum();
+            this.klass = classification.getKlass();
+            this.order = classification.getOrder();
+            this.family = classification.getFamily();
+            this.genus = classification.getGenus();
+            this.specificEpithet = classification.getSpecificEpithet();
+            this.infraspecificEpithet = classification.getInfraspecificEpithet();
+            this.rank = classification.getRank();
+            this.approximate = approximate;
+        }
+    }
+
+    /**
+     * An immutable copy of a search result.
+     */
+    @Value
+    private static class Entry {
+        /** The entry for no result */
+        private static final Entry NONE = new Entry(null, null, null);
+
+        private NameSearchResult result;
+        private NameType nameType;
+        private Set<ErrorType> errors;
+
+        static Entry of(MetricsResultDTO metrics) {
+            if (metrics == null)
+                return NONE;
+            Set<ErrorType> errors = metrics.getErrors() == null ? null : Collections.unmodifiableSet(new HashSet<>(metrics.getErrors()));
+            return new Entry(metrics.getResult(), metrics.getNameType(), errors);
+        }
+
+        MetricsResultDTO toMetrics() {
+            if (this == NONE)
+                return null;
+            MetricsResultDTO metrics = new MetricsResultDTO();
+            metrics.setResult(this.result);
+            metrics.setNameType(this.nameType);
+            metrics.setErrors(this.errors == null ? null : new HashSet<>(this.errors));
+            return metrics;
+        }
+    }
+
+    /**
+     * A source of search results.
+     */
+    @FunctionalInterface
+    public interface SubSearchSource {
+        /**
+         * Search for a classification.
+         *
+         * @param classification The classification
+         * @param approximate Allow approximate (fuzzy) matches
+         *
+         * @return The search result, or null for no result
+         *
+         * @throws SearchResultException if unable to search
+         */
+        MetricsResultDTO search(LinnaeanRankClassification classification, boolean approximate) throws SearchResultException;
+    }
+}
@@ -0,0 +1,196 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.ws.DataCacheConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.cache2k.Cache;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of the preferred vernacular names for a taxon.
+ * <p>
+ * Every successful match looks up the vernacular name of the matched taxon.
+ * Popular taxa are looked up over and over again, so the results are kept
+ * here rather than going back to the index each time.
+ * </p>
+ * <p>
+ * The cache keeps hit, miss and background refresh counts and an estimate of the memory used,
+ * which can be reported via {@link #registerMetrics(MetricRegistry, String)}.
+ * </p>
+ */
+public class VernacularCache {
+    /** Estimated fixed overhead for a cache entry, in bytes */
+    private static final int ENTRY_OVERHEAD = 96;
+    /** Estimated fixed overhead for a string, in bytes */
+    private static final int STRING_OVERHEAD = 40;
+
+    /** The source of vernacular names */
+    private final VernacularSource source;
+    /** The underlying cache */
+    private final Cache<String, Set<String>> cache;
+    /** The number of requests satisfied from the cache */
+    private final LongAdder hits;
+    /** The number of requests that loaded from the source */
+    private final LongAdder misses;
+    /** The number of background loads from the source, refreshing an entry */
+    private final LongAdder refreshes;
+    /** Set while a request is getting an entry, cleared if the request loads the entry itself */
+    private final ThreadLocal<Boolean> request;
+    /** The estimated total size of all loaded entries */
+    private final LongAdder loadedBytes;
+
+    /**
+     * Construct a vernacular cache.
+     *
+     * @param configuration The cache configuration
+     * @param source The source of vernacular names
+     */
+    public VernacularCache(DataCacheConfiguration configuration, VernacularSource source) {
+        this.source = source;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.refreshes = new LongAdder();
+        this.request = new ThreadLocal<>();
+        this.loadedBytes = new LongAdder();
+        this.cache = configuration.loadingCacheBuilder(String.class, stringSetClass(), this::load)
+                .build();
+    }
+
+    /**
+     * Get the vernacular names for a taxon.
+     *
+     * @param lsid The taxon identifier
+     *
+     * @return An unmodifiable set of vernacular names, empty for none
+     */
+    public Set<String> get(String lsid) {
+        if (lsid == null)
+            return Collections.emptySet();
+        Set<String> names;
+        this.request.set(Boolean.TRUE);
+        try {
+            names = this.cache.get(lsid);
+        } finally {
+            if (this.request.get() == Boolean.TRUE)
+                this.hits.increment();
+            this.request.remove();
+        }
+        return names == null ? Collections.emptySet() : names;
+    }
+
+    /**
+     * Get the number of lookups satisfied from the cache.
+     *
+     * @return The hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that needed to go to the index.
+     *
+     * @return The miss count
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of background loads that refreshed an entry before it expired.
+     * <p>
+     * Refreshes are not requests and are not counted as hits or misses.
+     * </p>
+     *
+     * @return The refresh count
+     */
+    public long getRefreshes() {
+        return this.refreshes.sum();
+    }
+
+    /**
+     * Get the number of entries in the cache.
+     *
+     * @return The cache size
+     */
+    public int size() {
+        return this.cache.asMap().size();
+    }
+
+    /**
+     * Get an estimate of the memory used by the cache, in bytes.
+     * <p>
+     * This is the number of entries multiplied by the average estimated size of a loaded entry.
+     * </p>
+     *
+     * @return The estimated footprint
+     */
+    public long getFootprint() {
+        long loads = this.misses.sum() + this.refreshes.sum();
+        return loads == 0 ? 0 : (this.loadedBytes.sum() / loads) * this.size();
+    }
+
+    /**
+     * Register metrics for this cache.
+     *
+     * @param registry The metric registry
+     * @param prefix The prefix for the metric names
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        registry.register(MetricRegistry.name(prefix, "hits"), (Gauge<Long>) this::getHits);
+        registry.register(MetricRegistry.name(prefix, "misses"), (Gauge<Long>) this::getMisses);
+        registry.register(MetricRegistry.name(prefix, "refreshes"), (Gauge<Long>) this::getRefreshes);
+        registry.register(MetricRegistry.name(prefix, "size"), (Gauge<Integer>) this::size);
+        registry.register(MetricRegistry.name(prefix, "footprint"), (Gauge<Long>) this::getFootprint);
+    }
+
+    /**
+     * Clear the cache.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Set<String>> stringSetClass() {
+        return (Class<Set<String>>) (Class<?>) Set.class;
+    }
+
+    // Load an entry from the source, either for a request on the same thread or as a background refresh
+    private Set<String> load(String lsid) throws Exception {
+        if (this.request.get() == Boolean.TRUE) {
+            this.request.set(Boolean.FALSE);
+            this.misses.increment();
+        } else {
+            this.refreshes.increment();
+        }
+        Set<String> names = this.source.get(lsid);
+        names = names == null || names.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(names));
+        long size = ENTRY_OVERHEAD + STRING_OVERHEAD + 2L * lsid.length();
+        for (String name : names)
+            size += STRING_OVERHEAD + 2L * name.length();
+        this.loadedBytes.add(size);
+        return names;
+    }
+
+    /**
+     * A source of vernacular names.
+     */
+    @FunctionalInterface
+    public interface VernacularSource {
+        /**
+         * Get the vernacular names for a taxon.
+         *
+         * @param lsid The taxon identifier
+         *
+         * @return The vernacular names
+         *
+         * @throws Exception if unable to get the names
+         */
+        Set<String> get(String lsid) throws Exception;
+    }
+}
@@ -6,9 +6,26 @@ import au.org.ala.names.search.SearchResultException;
 import au.org.ala.names.ws.api.NameMatchService;
 import au.org.ala.names.ws.api.NameSearch;
 import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.core.CacheSnapshot;
+import au.org.ala.names.ws.core.MatchCache;
+import au.org.ala.names.ws.core.ExactMatchDictionary;
+import au.org.ala.names.ws.core.HintStatistics;
+import au.org.ala.names.ws.core.HotKeys;
+import au.org.ala.names.ws.core.MatchExecutor;
 import au.org.ala.names.ws.core.NameSearchConfiguration;
+import au.org.ala.names.ws.core.NameSearcherRegistry;
+import au.org.ala.names.ws.core.SpeciesGroupIndex;
+import au.org.ala.names.ws.core.SubSearchCache;
 import au.org.ala.names.ws.core.SpeciesGroupsUtil;
+import au.org.ala.names.ws.core.VernacularCache;
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.dropwizard.lifecycle.Managed;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
@@ -20,12 +37,24 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
 import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.cache2k.integration.FunctionalCacheLoader;
 import org.gbif.api.vocabulary.NameType;
 
 import javax.inject.Singleton;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -36,8 +65,36 @@ import java.util.stream.Collectors;
 @Path("/api")
 @Slf4j
 @Singleton
-public class NameSearchResource implements NameMatchService {
-    /** Searcher for names */
+public class NameSearchResource implements NameMatchService, Managed {
+    /** The media type for newline-delimited JSON */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    /** The name of the search cache, used for cache configuration, snapshots and metrics */
+    public static final String SEARCH_CACHE = "search";
+    /** The name of the taxon identifier lookup cache */
+    public static final String ID_CACHE = "id";
+    /** The name of the accepted taxon identifier lookup cache */
+    public static final String ID_ACCEPTED_CACHE = "idAccepted";
+    /** The name of the vernacular name cache */
+    public static final String VERNACULAR_CACHE = "vernacular";
+    /** The name of the cache of individual index searches */
+    public static final String SUB_SEARCH_CACHE = "subSearch";
+    /** The match types that can be used in an exact match dictionary */
+    private static final Set<String> EXACT_MATCH_TYPES = new HashSet<>(Arrays.asList(MatchType.EXACT.toString(), MatchType.CANONICAL.toString()));
+    /** The number of names resolved at a time when building an exact match dictionary */
+    private static final int EXACT_CHUNK = 1000;
+    /** The number of streamed searches per worker handled at a time */
+    private static final int STREAM_CHUNK_FACTOR = 16;
+
+    /** Reader for streamed searches */
+    private static final ObjectReader STREAM_READER = new ObjectMapper().readerFor(NameSearch.class);
+    /** Writer for streamed matches */
+    private static final ObjectWriter STREAM_WRITER = new ObjectMapper().writerFor(NameUsageMatch.class);
+
+    /** The search configuration */
+    private final NameSearchConfiguration configuration;
+    /** The registry that supplies the searcher */
+    private final NameSearcherRegistry registry;
+    /** Searcher for names, borrowed from the registry */
     private final ALANameSearcher searcher;
     /** Map taxa onto species groups */
     private final SpeciesGroupsUtil speciesGroupsUtil;
@@ -47,37 +104,137 @@ public class NameSearchResource implements NameMatchService {
     private final boolean checkHints;
     /** Allow loose searched */
     private final boolean allowLoose;
+    /** Statistics on the candidate searches that give results, used to order hinted searches */
+    private final HintStatistics hintStatistics;
+    /** Parallel executor for bulk searches */
+    private final MatchExecutor matchExecutor;
+    /** An opaque identifier for the index, which changes when the index is rebuilt */
+    private final String indexVersion;
+    /** Fast path dictionary for unambiguous names, null until built or if not configured */
+    private volatile ExactMatchDictionary dictionary;
 
-    // Cache2k instance for searches
-    private final Cache<NameSearch, NameUsageMatch> searchCache;
-    // Cache2k instance for lookups
-    private final Cache<String, NameUsageMatch> idCache;
-    // Cache2k instance for derefereced lookups
-    private final Cache<String, NameUsageMatch> idAcceptedCache;
+    // Cache for searches, keyed by canonical search
+    private final MatchCache<NameSearch> searchCache;
+    // Canonical search keys for raw searches, if configured
+    private final Cache<NameSearch, NameSearch> rawKeyCache;
+    // Cache for lookups
+    private final MatchCache<String> idCache;
+    // Cache for derefereced lookups
+    private final MatchCache<String> idAcceptedCache;
+    // Preferred vernacular names for taxa
+    private final VernacularCache vernacularCache;
+    // Results of individual index searches, shared by different requests
+    private final SubSearchCache subSearchCache;
+    // Set once the resource has been closed, so that resources are only released once
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // Snapshot of the caches for restarts, if configured
+    private final CacheSnapshot snapshot;
+    // Cache use tracking, if snapshots are configured
+    private final HotKeys<NameSearch> searchHot;
+    private final HotKeys<String> idHot;
+    private final HotKeys<String> idAcceptedHot;
+
+    /**
+     * Construct a resource, using the shared searcher registry.
+     *
+     * @param configuration The search configuration
+     */
+    public NameSearchResource(NameSearchConfiguration configuration) {
+        this(configuration, NameSearcherRegistry.getInstance());
+    }
 
-    public NameSearchResource(NameSearchConfiguration configuration){
+    /**
+     * Construct a resource.
+     * <p>
+     * The name searcher is borrowed from the registry and shared with
+     * the species groups.
+     * </p>
+     *
+     * @param configuration The search configuration
+     * @param registry The registry to borrow searchers from
+     */
+    public NameSearchResource(NameSearchConfiguration configuration, NameSearcherRegistry registry){
         try {
             log.info("Initialising NameSearchResource.....");
-            this.searcher = new ALANameSearcher(configuration.getIndex());
-            this.speciesGroupsUtil = SpeciesGroupsUtil.getInstance(configuration);
+            this.configuration = configuration;
+            this.registry = registry;
+            this.searcher = registry.acquire(configuration);
+            this.speciesGroupsUtil = SpeciesGroupsUtil.getInstance(configuration, registry);
             this.useHints = configuration.isUseHints();
             this.checkHints = configuration.isCheckHints();
             this.allowLoose = configuration.isAllowLoose();
-            this.searchCache = configuration.getCache().cacheBuilder(NameSearch.class, NameUsageMatch.class)
-                    .loader(nameSearch -> this.search(nameSearch)) //auto populating function
-                    .build();
-            this.idCache = configuration.getCache().cacheBuilder(String.class, NameUsageMatch.class)
-                    .loader(id -> this.lookup(id, false)) //auto populating function
-                    .build();
-            this.idAcceptedCache = configuration.getCache().cacheBuilder(String.class, NameUsageMatch.class)
-                    .loader(id -> this.lookup(id, true)) //auto populating function
+            boolean adaptiveHints = configuration.isAdaptiveHints();
+            if (adaptiveHints && configuration.getHintBudget() == NameSearch.DEFAULT_HINT_BUDGET) {
+                log.warn("adaptiveHints needs a finite hintBudget, ignoring adaptiveHints");
+                adaptiveHints = false;
+            }
+            this.hintStatistics = new HintStatistics(adaptiveHints);
+            this.matchExecutor = new MatchExecutor(configuration);
+            this.indexVersion = CacheSnapshot.indexVersion(configuration.getIndex());
+            this.searchCache = this.buildCache(SEARCH_CACHE, NameSearch.class, nameSearch -> this.search(nameSearch));
+            this.rawKeyCache = configuration.getRawKeyCacheSize() <= 0 ? null : Cache2kBuilder.of(NameSearch.class, NameSearch.class)
+                    .entryCapacity(configuration.getRawKeyCacheSize())
+                    .eternal(true)
                     .build();
+            this.idCache = this.buildCache(ID_CACHE, String.class, id -> this.lookup(id, false));
+            this.idAcceptedCache = this.buildCache(ID_ACCEPTED_CACHE, String.class, id -> this.lookup(id, true));
+            this.vernacularCache = new VernacularCache(configuration.getCache().forMethod(VERNACULAR_CACHE), lsid -> this.searcher.getCommonNamesForLSID(lsid, 1));
+            this.subSearchCache = new SubSearchCache(configuration.getCache().forMethod(SUB_SEARCH_CACHE), (lrc, approximate) -> this.searcher.searchForRecordMetrics(lrc, approximate, approximate));
+            if (configuration.getSnapshot() != null) {
+                this.snapshot = new CacheSnapshot(Paths.get(configuration.getSnapshot()), this.indexVersion, configuration.getSnapshotSize());
+                this.searchHot = this.snapshot.register(SEARCH_CACHE, this.searchCache, NameSearch.class, NameUsageMatch.class);
+                this.idHot = this.snapshot.register(ID_CACHE, this.idCache, String.class, NameUsageMatch.class);
+                this.idAcceptedHot = this.snapshot.register(ID_ACCEPTED_CACHE, this.idAcceptedCache, String.class, NameUsageMatch.class);
+            } else {
+                this.snapshot = null;
+                this.searchHot = null;
+                this.idHot = null;
+                this.idAcceptedHot = null;
+            }
         } catch (Exception e){
             log.error(e.getMessage(), e);
             throw new RuntimeException("Unable to initialise searcher: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Build a cache for match results.
+     * <p>
+     * The configuration for each tier can be overridden for the cache by name.
+     * </p>
+     *
+     * @param name The cache name
+     * @param keyClass The key class
+     * @param loader The source of matches
+     *
+     * @param <K> The key type
+     *
+     * @return The cache
+     */
+    private <K> MatchCache<K> buildCache(String name, Class<K> keyClass, FunctionalCacheLoader<K, NameUsageMatch> loader) {
+        return new MatchCache<>(
+                name,
+                this.configuration.getCache().forMethod(name),
+                this.configuration.getNegativeCache().forMethod(name),
+                keyClass,
+                loader
+        );
+    }
+
+    /**
+     * Register resource metrics, beyond the standard timings.
+     *
+     * @param registry The metric registry
+     */
+    public void registerMetrics(MetricRegistry registry) {
+        this.searchCache.registerMetrics(registry, MetricRegistry.name(NameSearchResource.class, SEARCH_CACHE));
+        this.idCache.registerMetrics(registry, MetricRegistry.name(NameSearchResource.class, ID_CACHE));
+        this.idAcceptedCache.registerMetrics(registry, MetricRegistry.name(NameSearchResource.class, ID_ACCEPTED_CACHE));
+        this.vernacularCache.registerMetrics(registry, MetricRegistry.name(NameSearchResource.class, VERNACULAR_CACHE));
+        this.subSearchCache.registerMetrics(registry, MetricRegistry.name(NameSearchResource.class, SUB_SEARCH_CACHE));
+        this.hintStatistics.registerMetrics(registry, MetricRegistry.name(NameSearchResource.class, "hints"));
+    }
+
     /**
      * Make sure that the system is still operating.
      *
@@ -106,7 +263,7 @@ public class NameSearchResource implements NameMatchService {
     @Path("/searchByClassification")
     public NameUsageMatch match(NameSearch search) {
         try {
-            return this.searchCache.get(search);
+            return this.searchCached(search);
         } catch (Exception e){
             log.warn("Problem matching name : " + e.getMessage() + " with nameSearch: " + search);
         }
@@ -131,7 +288,63 @@ public class NameSearchResource implements NameMatchService {
     @Timed
     @Path("searchAllByClassification")
     public List<NameUsageMatch> matchAll(List<NameSearch> search) {
-        return search.stream().map(s -> s == null ? null : this.match(s)).collect(Collectors.toList());
+        return this.matchExecutor.matchAll(search, this::match);
+    }
+
+    @Operation(
+            summary = "Streaming bulk search by full classification",
+            description = "Search based on a stream of partially filled out classifications. " +
+                    "The request body is newline-delimited JSON, with one classification per line. " +
+                    "The response is newline-delimited JSON, with one match per line in the same order as the request. " +
+                    "A null classification gives a null match. " +
+                    "Searches are read, matched and written in small chunks, so that " +
+                    "arbitrarily large requests can be handled without holding them in memory. " +
+                    "Clients that cannot read the response until the whole request has been sent " +
+                    "should send a large stream as a series of requests."
+    )
+    @POST
+    @Consumes(APPLICATION_NDJSON)
+    @Produces(APPLICATION_NDJSON)
+    @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(schema = @Schema(implementation = NameUsageMatch.class), mediaType = APPLICATION_NDJSON))
+    @RequestBody(description = "Newline-delimited partially filled out classifications", content = @Content(schema = @Schema(implementation = NameSearch.class), mediaType = APPLICATION_NDJSON))
+    @Timed
+    @Path("searchAllByClassification/stream")
+    public StreamingOutput matchStream(InputStream searches) {
+        return output -> this.matchStream(searches, output);
+    }
+
+    /**
+     * Match a stream of searches, writing the results as they become available.
+     *
+     * @param input The newline-delimited JSON searches
+     * @param output The output stream to write newline-delimited JSON matches to
+     *
+     * @throws IOException if unable to read or write the stream
+     */
+    public void matchStream(InputStream input, OutputStream output) throws IOException {
+        final int chunkSize = this.matchExecutor.getParallelism() * STREAM_CHUNK_FACTOR;
+        final List<NameSearch> chunk = new ArrayList<>(chunkSize);
+        try (JsonParser parser = STREAM_READER.getFactory().createParser(input)) {
+            while (parser.nextToken() != null) {
+                chunk.add(parser.currentToken() == JsonToken.VALUE_NULL ? null : STREAM_READER.readValue(parser));
+                if (chunk.size() >= chunkSize) {
+                    this.writeStream(chunk, output);
+                    chunk.clear();
+                }
+            }
+            this.writeStream(chunk, output);
+        }
+    }
+
+    // Match a chunk of searches and write them as newline-delimited JSON
+    private void writeStream(List<NameSearch> chunk, OutputStream output) throws IOException {
+        if (chunk.isEmpty())
+            return;
+        for (NameUsageMatch match: this.matchAll(chunk)) {
+            output.write(STREAM_WRITER.writeValueAsBytes(match));
+            output.write('\n');
+        }
+        output.flush();
     }
 
     @Operation(
@@ -170,7 +383,7 @@ public class NameSearchResource implements NameMatchService {
                 .loose(true)
                 .build();
         try {
-            return this.searchCache.get(search);
+            return this.searchCached(search);
         } catch (Exception e){
             log.warn("Problem matching name : " + e.getMessage() + " with nameSearch: " + search);
         }
@@ -192,7 +405,7 @@ public class NameSearchResource implements NameMatchService {
     ) {
         try {
             NameSearch cl = NameSearch.builder().scientificName(name).loose(true).build();
-            return this.searchCache.get(cl);
+            return this.searchCached(cl);
         } catch (Exception e){
             log.warn("Problem matching name : " + e.getMessage() + " with query: " + name);
         }
@@ -214,7 +427,7 @@ public class NameSearchResource implements NameMatchService {
     ) {
         try {
             NameSearch cl = NameSearch.builder().vernacularName(vernacularName).build();
-            return this.searchCache.get(cl);
+            return this.searchCached(cl);
         } catch (Exception e){
             log.warn("Problem matching name : " + e.getMessage() + " with vernacularName: " + vernacularName);
         }
@@ -234,8 +447,7 @@ public class NameSearchResource implements NameMatchService {
             @Parameter(description = "Follow synonyms to the accepted taxon") @QueryParam("follow") @DefaultValue("false") Boolean follow
     ) {
         try {
-            Cache<String, NameUsageMatch> cache = follow ? this.idAcceptedCache : this.idCache;
-            return cache.get(taxonID);
+            return this.lookupCached(taxonID, follow);
          } catch (Exception e){
             log.warn("Problem matching name : " + e.getMessage() + " with taxonID: " + taxonID);
         }
@@ -255,11 +467,10 @@ public class NameSearchResource implements NameMatchService {
             @Parameter(description = "Follow synonyms to the accepted taxon") @QueryParam("follow") @DefaultValue("false") Boolean follow
     ) {
         List<NameUsageMatch> matches = new ArrayList<>(taxonIDs.size());
-        Cache<String, NameUsageMatch> cache = follow ? this.idAcceptedCache : this.idCache;
         for (String taxonID: taxonIDs) {
             NameUsageMatch match = NameUsageMatch.FAIL;
             try {
-                match = cache.get(taxonID);
+                match = this.lookupCached(taxonID, follow);
             } catch (Exception e) {
                 log.warn("Problem matching name : " + e.getMessage() + " with taxonID: " + taxonID);
             }
@@ -281,8 +492,7 @@ public class NameSearchResource implements NameMatchService {
             @Parameter(description = "Follow synonyms to the accepted taxon") @QueryParam("follow") @DefaultValue("false") Boolean follow
     ) {
         try {
-            Cache<String, NameUsageMatch> cache = follow ? this.idAcceptedCache : this.idCache;
-            NameUsageMatch match = cache.get(taxonID);
+            NameUsageMatch match = this.lookupCached(taxonID, follow);
             return match != null && match.isSuccess() ? match.getScientificName() : null;
         } catch (Exception e){
             log.warn("Problem matching name : " + e.getMessage() + " with taxonID: " + taxonID);
@@ -333,6 +543,20 @@ public class NameSearchResource implements NameMatchService {
         }
     }
 
+    @Operation(
+            summary = "Get the version of the index used for searches.",
+            description = "The version is an opaque identifier, derived from the index contents, that changes when the index is rebuilt or replaced. " +
+                    "Clients that keep search results between runs can use it to discard out-of-date results."
+    )
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    @ApiResponse(responseCode = "200", description = "successful operation", content = @Content(schema = @Schema(implementation = String.class), mediaType = MediaType.TEXT_PLAIN))
+    @Timed
+    @Path("/indexVersion")
+    public String indexVersion() {
+        return this.indexVersion;
+    }
+
     @Operation(
             summary = "Autocomplete search with the beginning of a scientific or common name.",
             description = "Returns a list of matches. Up to 2 * max matches are returned."
@@ -432,6 +656,9 @@ public class NameSearchResource implements NameMatchService {
 
     /**
      * Perform a search based on a classification built from various calls.
+     * <p>
+     * This bypasses the search cache and always goes to the index.
+     * </p>
      *
      * @param search The search classification
      *
@@ -439,7 +666,7 @@ public class NameSearchResource implements NameMatchService {
      *
      * @throws Exception if something goes horribly wrong
      */
-    private NameUsageMatch search(NameSearch search) throws Exception {
+    public NameUsageMatch search(NameSearch search) throws Exception {
         NameUsageMatch match = null;
         //attempt 1: search via taxonConceptID or taxonID if provided
         NameSearchResult idnsr = null;
@@ -451,16 +678,23 @@ public class NameSearchResource implements NameMatchService {
         }
 
         if (idnsr != null){
-            Set<String> vernacularNames = searcher.getCommonNamesForLSID(idnsr.getLsid(), 1);
+            Set<String> vernacularNames = this.vernacularCache.get(idnsr.getLsid());
             return create(idnsr, vernacularNames, idnsr.getMatchType(), null, null, null);
         }
         // Start searching by names
         final NameSearch nsearch = search.normalised();
+        // Use the fast path if this is a simple name search
+        final ExactMatchDictionary dictionary = this.dictionary;
+        if (dictionary != null && isNameOnly(nsearch)) {
+            match = dictionary.get(nsearch.getScientificName());
+            if (match != null)
+                return match;
+        }
         MetricsResultDTO metrics = null;
         NameSearchResult result = null;
         // Get the first result that works
         if (useHints) {
-            metrics = nsearch.hintStream().map(s -> this.findMetrics(s, false)).filter(m -> m != null && m.getResult() != null).findFirst().orElse(null);
+            metrics = this.hintStatistics.findFirst(nsearch, this.configuration.getHintBudget(), s -> this.findMetrics(s, false), m -> m != null && m.getResult() != null);
             result = metrics == null ? null : metrics.getResult();
         }
 
@@ -474,7 +708,7 @@ public class NameSearchResource implements NameMatchService {
         if (this.allowLoose && search.isLoose()) {
             idnsr = searcher.searchForRecordByLsid(search.getScientificName());
             if (idnsr != null){
-                Set<String> vernacularNames = searcher.getCommonNamesForLSID(idnsr.getLsid(), 1);
+                Set<String> vernacularNames = this.vernacularCache.get(idnsr.getLsid());
                 return create(idnsr, vernacularNames, idnsr.getMatchType(), null, null, null);
             }
         }
@@ -505,7 +739,7 @@ public class NameSearchResource implements NameMatchService {
                 if (result != null)
                     metrics.setResult(result);
             }
-            Set<String> vernacularNames = searcher.getCommonNamesForLSID(metrics.getResult().getLsid(), 1);
+            Set<String> vernacularNames = this.vernacularCache.get(metrics.getResult().getLsid());
             match = create(metrics.getResult(), vernacularNames, matchType, metrics.getNameType(), synonymType, metrics.getErrors());
         } else {
             match = create(metrics.getResult(), null, null, metrics.getNameType(), null, metrics.getErrors());
@@ -517,6 +751,93 @@ public class NameSearchResource implements NameMatchService {
         return match;
     }
 
+    /**
+     * Is this a search on the scientific name alone?
+     *
+     * @param search The search
+     *
+     * @return True if there is a scientific name and no other information that can affect the search
+     */
+    private static boolean isNameOnly(NameSearch search) {
+        return search.getScientificName() != null
+                && search.getKingdom() == null
+                && search.getPhylum() == null
+                && search.getClazz() == null
+                && search.getOrder() == null
+                && search.getFamily() == null
+                && search.getGenus() == null
+                && search.getSpecificEpithet() == null
+                && search.getInfraspecificEpithet() == null
+                && search.getRank() == null
+                && search.getVerbatimTaxonRank() == null
+                && search.getTaxonConceptID() == null
+                && search.getTaxonID() == null
+                && search.getScientificNameAuthorship() == null
+                && search.getVernacularName() == null
+                && (search.getHints() == null || search.getHints().isEmpty());
+    }
+
+    /**
+     * Build an exact match dictionary from a list of names.
+     * <p>
+     * Each name is matched using the full search, and only names with an
+     * unambiguous, successful, exact or canonical match are kept.
+     * Since the dictionary result is the result that the full search would have given,
+     * using the dictionary does not change the result of a search, only the time taken.
+     * </p>
+     *
+     * @param source The source of names, one per line. Blank lines and lines starting with # are ignored.
+     *
+     * @return The dictionary
+     *
+     * @throws IOException if unable to read the names
+     */
+    public ExactMatchDictionary buildDictionary(URL source) throws IOException {
+        ExactMatchDictionary.Builder builder = ExactMatchDictionary.builder();
+        List<NameSearch> chunk = new ArrayList<>(EXACT_CHUNK);
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(source.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                chunk.add(NameSearch.builder().scientificName(line).build().normalised());
+                if (chunk.size() >= EXACT_CHUNK) {
+                    count += this.addDictionary(builder, chunk);
+                    chunk.clear();
+                }
+            }
+            count += this.addDictionary(builder, chunk);
+        }
+        ExactMatchDictionary built = builder.build();
+        log.info("Built exact match dictionary from {} with {} of {} names, approximately {} bytes", source, built.size(), count, built.getFootprint());
+        return built;
+    }
+
+    // Resolve a chunk of names and add them to the dictionary
+    private int addDictionary(ExactMatchDictionary.Builder builder, List<NameSearch> chunk) {
+        List<NameUsageMatch> matches = this.matchExecutor.matchAll(chunk, s -> {
+            try {
+                return this.search(s);
+            } catch (Exception ex) {
+                log.warn("Unable to match " + s.getScientificName() + " for exact match dictionary", ex);
+                return null;
+            }
+        });
+        for (int i = 0; i < chunk.size(); i++) {
+            String name = chunk.get(i).getScientificName();
+            NameUsageMatch match = matches.get(i);
+            if (name == null || match == null)
+                continue;
+            if (match.isSuccess() && EXACT_MATCH_TYPES.contains(match.getMatchType()) && Collections.singletonList("noIssue").equals(match.getIssues()))
+                builder.add(name, match);
+            else
+                builder.ambiguous(name);
+        }
+        return chunk.size();
+    }
+
     private MetricsResultDTO findMetrics(NameSearch search, boolean approximate) {
         if (search.getScientificName() == null)
             return null;
@@ -535,7 +856,7 @@ public class NameSearchResource implements NameMatchService {
 
         MetricsResultDTO metrics = null;
         try {
-            metrics = searcher.searchForRecordMetrics(lrc, approximate, approximate);
+            metrics = this.subSearchCache.get(lrc, approximate);
         } catch (SearchResultException ex) {
             log.warn("Unable to complete search for " + lrc, ex);
         }
@@ -565,7 +886,7 @@ public class NameSearchResource implements NameMatchService {
                 result = searcher.searchForRecordByLsid(result.getAcceptedLsid());
             }
         }
-        Set<String> vernacularNames = searcher.getCommonNamesForLSID(result.getLsid(), 1);
+        Set<String> vernacularNames = this.vernacularCache.get(result.getLsid());
         return create(result, vernacularNames, matchType, null, synonymType, null);
     }
 
@@ -589,6 +910,7 @@ public class NameSearchResource implements NameMatchService {
             LinnaeanRankClassification lrc = nsr.getRankClassification();
             Integer lft = nsr.getLeft() != null ? Integer.parseInt(nsr.getLeft()) : null;
             Integer rgt = nsr.getRight() != null ? Integer.parseInt(nsr.getRight()) : null;
+            SpeciesGroupIndex.Membership membership = speciesGroupsUtil.getMembership(lft);
             return NameUsageMatch.builder()
                     .success(true)
                     .scientificName(lrc.getScientificName())
@@ -616,8 +938,8 @@ public class NameSearchResource implements NameMatchService {
                     .species(lrc.getSpecies())
                     .speciesID(lrc.getSid())
                     .vernacularName(!vernacularNames.isEmpty() ? vernacularNames.iterator().next() : null)
-                    .speciesGroup(speciesGroupsUtil.getSpeciesGroups(lft))
-                    .speciesSubgroup(speciesGroupsUtil.getSpeciesSubGroups(lft))
+                    .speciesGroup(membership.getGroups())
+                    .speciesSubgroup(membership.getSubgroups())
                     .issues(issues != null ? issues.stream().map(ErrorType::toString).sorted().collect(Collectors.toList()) : Collections.singletonList("noIssue"))
                     .build();
         } else {
@@ -632,10 +954,122 @@ public class NameSearchResource implements NameMatchService {
         }
     }
 
+    /**
+     * Start the resource as part of the application lifecycle.
+     * <p>
+     * If there is a cache snapshot, the caches are loaded from the snapshot.
+     * If there is a list of exact names, the exact match dictionary is built in the background
+     * and used once it is ready.
+     * </p>
+     */
+    @Override
+    public void start() {
+        if (this.snapshot != null)
+            this.snapshot.load();
+        if (this.configuration.getExactNames() != null) {
+            Thread builder = new Thread(() -> {
+                try {
+                    this.dictionary = this.buildDictionary(this.configuration.getExactNames());
+                } catch (Exception ex) {
+                    log.error("Unable to build exact match dictionary from " + this.configuration.getExactNames(), ex);
+                }
+            }, "exact-match-dictionary");
+            builder.setDaemon(true);
+            builder.start();
+        }
+    }
+
+    /**
+     * Stop the resource as part of the application lifecycle.
+     * <p>
+     * If there is a cache snapshot, the most used cache entries are written to the snapshot.
+     * </p>
+     */
+    @Override
+    public void stop() {
+        if (this.snapshot != null)
+            this.snapshot.save();
+        this.close();
+    }
+
+    /**
+     * Get a search result from the cache, noting the use of the search.
+     * <p>
+     * The cache is keyed by the canonical search, so that searches that differ
+     * only in spacing, quotes, duplicate hints and the like share a single entry.
+     * </p>
+     *
+     * @param search The search
+     *
+     * @return The cached or computed match
+     *
+     * @see #canonical(NameSearch)
+     */
+    private NameUsageMatch searchCached(NameSearch search) {
+        NameSearch key = this.rawKeyCache == null ? this.canonical(search) : this.rawKeyCache.computeIfAbsent(search, () -> this.canonical(search));
+        if (this.searchHot != null)
+            this.searchHot.touch(key);
+        return this.searchCache.get(key);
+    }
+
+    /**
+     * Get the canonical form of a search.
+     * <p>
+     * As well as the tidying done by {@link NameSearch#canonical()},
+     * the loose flag is cleared if loose searches are not allowed, since it then makes no difference.
+     * </p>
+     *
+     * @param search The search
+     *
+     * @return The canonical search
+     */
+    private NameSearch canonical(NameSearch search) {
+        NameSearch canonical = search.canonical();
+        return !this.allowLoose && canonical.isLoose() ? canonical.withLoose(false) : canonical;
+    }
+
+    /**
+     * Get a taxon from the cache, noting the use of the identifier.
+     *
+     * @param taxonID The taxon identifier
+     * @param follow Follow synonyms to the accepted taxon
+     *
+     * @return The cached or computed match
+     */
+    private NameUsageMatch lookupCached(String taxonID, boolean follow) {
+        HotKeys<String> hot = follow ? this.idAcceptedHot : this.idHot;
+        if (hot != null)
+            hot.touch(taxonID);
+        return follow ? this.idAcceptedCache.get(taxonID) : this.idCache.get(taxonID);
+    }
+
+    /**
+     * Clear the caches of individual index searches and vernacular names.
+     * <p>
+     * These caches are shared by {@link #search(NameSearch)} and the cached request methods.
+     * Clearing them means that the next search goes all the way to the index,
+     * which is useful when measuring the cost of matching a name.
+     * The caches of complete matches are left alone.
+     * </p>
+     */
+    public void clearSearchCaches() {
+        this.subSearchCache.clear();
+        this.vernacularCache.clear();
+    }
+
     /**
      * Close the resource.
+     * <p>
+     * The bulk executor is shut down and the searcher and species groups are returned.
+     * Closing an already closed resource does nothing.
+     * </p>
      */
     @Override
     public void close()  {
+        if (!this.closed.compareAndSet(false, true))
+            return;
+        this.matchExecutor.close();
+        this.speciesGroupsUtil.release();
+        this.registry.release(this.configuration);
     }
 }
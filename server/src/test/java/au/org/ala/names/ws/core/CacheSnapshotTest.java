@@ -0,0 +1,170 @@
+package au.org.ala.names.ws.core;
+
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CacheSnapshotTest {
+    private Path dir;
+    private Path file;
+    private Cache<String, Integer> cache1;
+    private Cache<String, String> cache2;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("snapshot");
+        this.file = this.dir.resolve("snapshot.bin");
+        this.cache1 = Cache2kBuilder.of(String.class, Integer.class).build();
+        this.cache2 = Cache2kBuilder.of(String.class, String.class).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.cache1.close();
+        this.cache2.close();
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(this.dir);
+    }
+
+    private void fill(CacheSnapshot snapshot) {
+        HotKeys<String> hot1 = snapshot.register("one", this.cache1, String.class, Integer.class);
+        HotKeys<String> hot2 = snapshot.register("two", this.cache2, String.class, String.class);
+        for (int i = 0; i < 10; i++) {
+            this.cache1.put("k" + i, i);
+            for (int j = 0; j <= i; j++)
+                hot1.touch("k" + i);
+        }
+        this.cache2.put("a", "A");
+        hot2.touch("a");
+        hot2.touch("missing");
+    }
+
+    @Test
+    public void testSaveLoad1() throws Exception {
+        CacheSnapshot snapshot = new CacheSnapshot(this.file, "v1", 5);
+        this.fill(snapshot);
+        assertEquals(6, snapshot.save());
+        assertTrue(Files.exists(this.file));
+
+        this.cache1.clear();
+        this.cache2.clear();
+        CacheSnapshot reload = new CacheSnapshot(this.file, "v1", 5);
+        reload.register("one", this.cache1, String.class, Integer.class);
+        reload.register("two", this.cache2, String.class, String.class);
+        assertEquals(6, reload.load());
+        for (int i = 0; i < 5; i++)
+            assertFalse(this.cache1.containsKey("k" + i));
+        for (int i = 5; i < 10; i++)
+            assertEquals(Integer.valueOf(i), this.cache1.peek("k" + i));
+        assertEquals("A", this.cache2.peek("a"));
+        assertFalse(this.cache2.containsKey("missing"));
+    }
+
+    /** A snapshot for a different index is ignored */
+    @Test
+    public void testLoadVersion1() throws Exception {
+        CacheSnapshot snapshot = new CacheSnapshot(this.file, "v1", 5);
+        this.fill(snapshot);
+        snapshot.save();
+        this.cache1.clear();
+        CacheSnapshot reload = new CacheSnapshot(this.file, "v2", 5);
+        reload.register("one", this.cache1, String.class, Integer.class);
+        assertEquals(0, reload.load());
+        assertFalse(this.cache1.containsKey("k9"));
+    }
+
+    /** Unknown sections are skipped */
+    @Test
+    public void testLoadSection1() throws Exception {
+        CacheSnapshot snapshot = new CacheSnapshot(this.file, "v1", 5);
+        this.fill(snapshot);
+        snapshot.save();
+        this.cache2.clear();
+        CacheSnapshot reload = new CacheSnapshot(this.file, "v1", 5);
+        reload.register("two", this.cache2, String.class, String.class);
+        assertEquals(1, reload.load());
+        assertEquals("A", this.cache2.peek("a"));
+    }
+
+    @Test
+    public void testLoadMissing1() throws Exception {
+        CacheSnapshot snapshot = new CacheSnapshot(this.file, "v1", 5);
+        snapshot.register("one", this.cache1, String.class, Integer.class);
+        assertEquals(0, snapshot.load());
+    }
+
+    @Test
+    public void testLoadCorrupt1() throws Exception {
+        Files.write(this.file, "Not a snapshot".getBytes());
+        CacheSnapshot snapshot = new CacheSnapshot(this.file, "v1", 5);
+        snapshot.register("one", this.cache1, String.class, Integer.class);
+        assertEquals(0, snapshot.load());
+    }
+
+    @Test
+    public void testIndexVersion1() throws Exception {
+        Path index = this.index(this.dir.resolve("index1"), "abc");
+        try {
+            String version = CacheSnapshot.indexVersion(index.toString());
+            assertEquals(64, version.length());
+            assertEquals(version, CacheSnapshot.indexVersion(index.toString()));
+            assertEquals("/nowhere/at/all", CacheSnapshot.indexVersion("/nowhere/at/all"));
+        } finally {
+            this.delete(index);
+        }
+    }
+
+    // Copies of the same index have the same version wherever they are
+    @Test
+    public void testIndexVersion2() throws Exception {
+        Path index1 = this.index(this.dir.resolve("index1"), "abc");
+        Path index2 = this.index(this.dir.resolve("index2"), "abc");
+        try {
+            Files.setLastModifiedTime(index2.resolve("cb/segments_1"), FileTime.fromMillis(0L));
+            assertEquals(CacheSnapshot.indexVersion(index1.toString()), CacheSnapshot.indexVersion(index2.toString()));
+        } finally {
+            this.delete(index1);
+            this.delete(index2);
+        }
+    }
+
+    // A rebuilt index has a different version
+    @Test
+    public void testIndexVersion3() throws Exception {
+        Path index1 = this.index(this.dir.resolve("index1"), "abc");
+        Path index2 = this.index(this.dir.resolve("index2"), "abd");
+        try {
+            assertNotEquals(CacheSnapshot.indexVersion(index1.toString()), CacheSnapshot.indexVersion(index2.toString()));
+        } finally {
+            this.delete(index1);
+            this.delete(index2);
+        }
+    }
+
+    // Build something that looks like a Lucene index with a commit identified by id
+    private Path index(Path index, String id) throws Exception {
+        Path cb = Files.createDirectories(index.resolve("cb"));
+        Files.write(cb.resolve("segments_1"), id.getBytes());
+        Files.write(cb.resolve("_0.si"), id.getBytes());
+        Files.write(cb.resolve("_0.cfs"), "data".getBytes());
+        return index;
+    }
+
+    private void delete(Path index) throws Exception {
+        try (Stream<Path> files = Files.walk(index)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.ws.api.NameUsageMatch;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExactMatchDictionaryTest {
+    private static NameUsageMatch match(String name, String id) {
+        return NameUsageMatch.builder().success(true).scientificName(name).taxonConceptID(id).build();
+    }
+
+    @Test
+    public void testGet1() {
+        NameUsageMatch m1 = match("Acacia dealbata", "A1");
+        NameUsageMatch m2 = match("Osphranter rufus", "O1");
+        ExactMatchDictionary dictionary = ExactMatchDictionary.builder()
+                .add("Acacia dealbata", m1)
+                .add("Osphranter rufus", m2)
+                .build();
+        assertEquals(2, dictionary.size());
+        assertSame(m1, dictionary.get("Acacia dealbata"));
+        assertSame(m2, dictionary.get("Osphranter rufus"));
+        assertNull(dictionary.get("Acacia"));
+        assertNull(dictionary.get(null));
+        assertTrue(dictionary.getFootprint() > 0);
+    }
+
+    @Test
+    public void testGetEmpty1() {
+        ExactMatchDictionary dictionary = ExactMatchDictionary.builder().build();
+        assertEquals(0, dictionary.size());
+        assertNull(dictionary.get("Acacia dealbata"));
+    }
+
+    /** Names with conflicting results are left out */
+    @Test
+    public void testAmbiguous1() {
+        ExactMatchDictionary dictionary = ExactMatchDictionary.builder()
+                .add("Macropus", match("Macropus", "M1"))
+                .add("Macropus", match("Macropus", "M2"))
+                .add("Macropus", match("Macropus", "M1"))
+                .add("Acacia", match("Acacia", "A1"))
+                .add("Acacia", match("Acacia", "A1"))
+                .add("Bettongia", match("Bettongia", "B1"))
+                .ambiguous("Bettongia")
+                .build();
+        assertEquals(1, dictionary.size());
+        assertNull(dictionary.get("Macropus"));
+        assertNull(dictionary.get("Bettongia"));
+        assertNotNull(dictionary.get("Acacia"));
+    }
+
+    /** Colliding hashes and non-ASCII names */
+    @Test
+    public void testCollision1() {
+        // "Aa" and "BB" have the same string hash
+        ExactMatchDictionary dictionary = ExactMatchDictionary.builder()
+                .add("Aa", match("Aa", "1"))
+                .add("BB", match("BB", "2"))
+                .add("Ærodramus", match("Ærodramus", "3"))
+                .build();
+        assertEquals("1", dictionary.get("Aa").getTaxonConceptID());
+        assertEquals("2", dictionary.get("BB").getTaxonConceptID());
+        assertEquals("3", dictionary.get("Ærodramus").getTaxonConceptID());
+        assertNull(dictionary.get("C#"));
+    }
+
+    @Test
+    public void testLarge1() {
+        ExactMatchDictionary.Builder builder = ExactMatchDictionary.builder();
+        for (int i = 0; i < 5000; i++)
+            builder.add("Name " + i, match("Name " + i, Integer.toString(i)));
+        ExactMatchDictionary dictionary = builder.build();
+        assertEquals(5000, dictionary.size());
+        for (int i = 0; i < 5000; i++)
+            assertEquals(Integer.toString(i), dictionary.get("Name " + i).getTaxonConceptID());
+        assertNull(dictionary.get("Name 5000"));
+    }
+}
@@ -0,0 +1,195 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.ws.api.NameSearch;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class HintStatisticsTest {
+    private static final NameSearch SEARCH = NameSearch.builder()
+            .scientificName("Acacia dealbata")
+            .hints(Collections.singletonMap("kingdom", Collections.singletonList("Plantae")))
+            .build();
+
+    private static int shape(String name) {
+        for (int i = 0; i < NameSearch.Candidate.SHAPES; i++)
+            if (NameSearch.shapeName(i).equals(name))
+                return i;
+        throw new IllegalArgumentException(name);
+    }
+
+    // Only searches with a kingdom find anything
+    private static String find(NameSearch search, List<NameSearch> tried) {
+        tried.add(search);
+        return search.getKingdom();
+    }
+
+    /** Fixed order, recording shapes */
+    @Test
+    public void testFindFirst1() {
+        HintStatistics statistics = new HintStatistics(false);
+        for (int i = 0; i < 200; i++) {
+            List<NameSearch> tried = new ArrayList<>();
+            assertEquals("Plantae", statistics.findFirst(SEARCH, 32, s -> find(s, tried), r -> r != null));
+            assertEquals(2, tried.size());
+            assertNull(tried.get(0).getKingdom());
+        }
+        assertEquals(200, statistics.getTries(shape("bare")));
+        assertEquals(0, statistics.getHits(shape("bare")));
+        assertEquals(200, statistics.getTries(shape("kingdom")));
+        assertEquals(200, statistics.getHits(shape("kingdom")));
+    }
+
+    /** Adaptive order still tries the bare search first */
+    @Test
+    public void testFindFirst2() {
+        HintStatistics statistics = new HintStatistics(true);
+        for (int i = 0; i < HintStatistics.MIN_SAMPLES / 2; i++) {
+            List<NameSearch> tried = new ArrayList<>();
+            statistics.findFirst(SEARCH, 32, s -> find(s, tried), r -> r != null);
+            assertEquals(2, tried.size());
+        }
+        List<NameSearch> tried = new ArrayList<>();
+        assertEquals("Plantae", statistics.findFirst(SEARCH, 32, s -> find(s, tried), r -> r != null));
+        assertEquals(2, tried.size());
+        assertNull(tried.get(0).getKingdom());
+        assertEquals("Plantae", tried.get(1).getKingdom());
+        assertEquals(HintStatistics.MIN_SAMPLES / 2 + 1, statistics.getTries(shape("bare")));
+    }
+
+    /** Nothing found */
+    @Test
+    public void testFindFirst3() {
+        HintStatistics statistics = new HintStatistics(true);
+        assertNull(statistics.findFirst(SEARCH, 32, s -> null, r -> r != null));
+        assertEquals(1, statistics.getTries(shape("bare")));
+        assertEquals(1, statistics.getTries(shape("kingdom")));
+        assertEquals(0, statistics.getHits(shape("kingdom")));
+    }
+
+    /** Budget limits the candidates tried */
+    @Test
+    public void testFindFirst4() {
+        HintStatistics statistics = new HintStatistics(false);
+        List<NameSearch> tried = new ArrayList<>();
+        assertNull(statistics.findFirst(SEARCH, 1, s -> find(s, tried), r -> r != null));
+        assertEquals(1, tried.size());
+    }
+
+    private static final NameSearch WIDE = NameSearch.builder()
+            .scientificName("Acacia dealbata")
+            .hints(wideHints())
+            .build();
+
+    private static Map<String, List<String>> wideHints() {
+        Map<String, List<String>> hints = new HashMap<>();
+        hints.put("kingdom", Arrays.asList("Plantae", "Fungi"));
+        hints.put("family", Arrays.asList("Fabaceae", "Mimosaceae"));
+        return hints;
+    }
+
+    // Only searches with both a kingdom and a family find anything
+    private static String findBoth(NameSearch search, List<NameSearch> tried) {
+        tried.add(search);
+        return search.getKingdom() != null && search.getFamily() != null ? search.getFamily() : null;
+    }
+
+    /** Adaptive order moves the successful hinted shape ahead of other hinted shapes */
+    @Test
+    public void testFindFirst5() {
+        HintStatistics fixed = new HintStatistics(false);
+        List<NameSearch> fixedTried = new ArrayList<>();
+        assertEquals("Fabaceae", fixed.findFirst(WIDE, 32, s -> findBoth(s, fixedTried), r -> r != null));
+        HintStatistics statistics = new HintStatistics(true);
+        while (statistics.getTries(shape("bare")) < HintStatistics.MIN_SAMPLES)
+            statistics.findFirst(WIDE, 32, s -> findBoth(s, new ArrayList<>()), r -> r != null);
+        List<NameSearch> tried = new ArrayList<>();
+        assertEquals("Fabaceae", statistics.findFirst(WIDE, 32, s -> findBoth(s, tried), r -> r != null));
+        assertTrue(tried.size() < fixedTried.size());
+        assertEquals(fixedTried.get(0), tried.get(0));
+        assertNull(tried.get(0).getKingdom());
+        assertNull(tried.get(0).getFamily());
+    }
+
+    /** A search whose bare candidate succeeds gives the same result with or without adaptive ordering */
+    @Test
+    public void testFindFirst6() {
+        HintStatistics fixed = new HintStatistics(false);
+        HintStatistics statistics = new HintStatistics(true);
+        while (statistics.getTries(shape("bare")) < HintStatistics.MIN_SAMPLES)
+            statistics.findFirst(WIDE, 32, s -> findBoth(s, new ArrayList<>()), r -> r != null);
+        // Everything matches, but the bare search gives a different answer
+        Function<NameSearch, String> finder = s -> s.getKingdom() == null && s.getFamily() == null ? "bare" : "hinted";
+        assertEquals("bare", fixed.findFirst(WIDE, 32, finder, r -> r != null));
+        assertEquals("bare", statistics.findFirst(WIDE, 32, finder, r -> r != null));
+        assertEquals("bare", statistics.findFirst(WIDE, Integer.MAX_VALUE, finder, r -> r != null));
+    }
+
+    /** Adaptive ordering works through more candidates than a window with an unlimited budget */
+    @Test
+    public void testFindFirst7() {
+        Map<String, List<String>> hints = new HashMap<>();
+        hints.put("kingdom", Arrays.asList("Plantae", "Fungi", "Animalia"));
+        hints.put("family", Arrays.asList("Fabaceae", "Mimosaceae"));
+        hints.put("genus", Arrays.asList("Acacia", "Racosperma"));
+        NameSearch search = NameSearch.builder().scientificName("Acacia dealbata").hints(hints).build();
+        HintStatistics statistics = new HintStatistics(true);
+        for (int i = 0; i < HintStatistics.MIN_SAMPLES; i++)
+            statistics.findFirst(search, 32, s -> null, r -> r != null);
+        List<NameSearch> tried = new ArrayList<>();
+        assertNull(statistics.findFirst(search, Integer.MAX_VALUE, s -> {
+            tried.add(s);
+            return null;
+        }, r -> r != null));
+        assertEquals(search.hintStream().count(), tried.size());
+        assertTrue(tried.size() > HintStatistics.ADAPTIVE_WINDOW);
+    }
+
+    @Test
+    public void testSuccessRate1() {
+        HintStatistics statistics = new HintStatistics(false);
+        assertEquals(0.5, statistics.getSuccessRate(shape("bare")), 0.0001);
+        statistics.findFirst(SEARCH, 32, s -> find(s, new ArrayList<>()), r -> r != null);
+        assertEquals(1.0 / 3.0, statistics.getSuccessRate(shape("bare")), 0.0001);
+        assertEquals(2.0 / 3.0, statistics.getSuccessRate(shape("kingdom")), 0.0001);
+    }
+
+    @Test
+    public void testMetrics1() {
+        HintStatistics statistics = new HintStatistics(false);
+        MetricRegistry registry = new MetricRegistry();
+        statistics.registerMetrics(registry, "hints");
+        statistics.findFirst(SEARCH, 32, s -> find(s, new ArrayList<>()), r -> r != null);
+        Map<String, Gauge> gauges = registry.getGauges();
+        assertEquals(1L, gauges.get("hints.bare.tries").getValue());
+        assertEquals(0L, gauges.get("hints.bare.hits").getValue());
+        assertEquals(1L, gauges.get("hints.kingdom.tries").getValue());
+        assertEquals(1L, gauges.get("hints.kingdom.hits").getValue());
+        assertNull(gauges.get("hints.inferred-genus.tries"));
+        assertEquals(4, gauges.size());
+    }
+
+    /** Shapes tried before registration are registered straight away */
+    @Test
+    public void testMetrics2() {
+        HintStatistics statistics = new HintStatistics(false);
+        MetricRegistry registry = new MetricRegistry();
+        statistics.findFirst(SEARCH, 32, s -> find(s, new ArrayList<>()), r -> r != null);
+        statistics.registerMetrics(registry, "hints");
+        statistics.findFirst(SEARCH, 32, s -> find(s, new ArrayList<>()), r -> r != null);
+        Map<String, Gauge> gauges = registry.getGauges();
+        assertEquals(2L, gauges.get("hints.bare.tries").getValue());
+        assertEquals(2L, gauges.get("hints.kingdom.hits").getValue());
+        assertEquals(4, gauges.size());
+    }
+}
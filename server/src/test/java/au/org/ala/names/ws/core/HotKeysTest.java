@@ -0,0 +1,43 @@
+package au.org.ala.names.ws.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class HotKeysTest {
+    @Test
+    public void testHottest1() {
+        HotKeys<String> hot = new HotKeys<>(10);
+        hot.touch("a");
+        hot.touch("b");
+        hot.touch("b");
+        hot.touch("c");
+        hot.touch("c");
+        hot.touch("c");
+        hot.touch(null);
+        assertEquals(3, hot.size());
+        assertEquals(Arrays.asList("c", "b"), hot.hottest(2));
+        assertEquals(Arrays.asList("c", "b", "a"), hot.hottest(5));
+    }
+
+    @Test
+    public void testHottestEmpty1() {
+        HotKeys<String> hot = new HotKeys<>(10);
+        assertEquals(Collections.emptyList(), hot.hottest(5));
+    }
+
+    /** Capacity is bounded and frequently used keys survive */
+    @Test
+    public void testDecay1() {
+        HotKeys<String> hot = new HotKeys<>(20);
+        for (int i = 0; i < 1000; i++) {
+            hot.touch("hot");
+            hot.touch("cold" + i);
+            assertTrue(hot.size() <= 20);
+        }
+        assertEquals("hot", hot.hottest(1).get(0));
+    }
+}
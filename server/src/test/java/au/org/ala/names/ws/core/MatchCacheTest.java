@@ -0,0 +1,231 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.ws.DataCacheConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.cache2k.integration.CacheLoaderException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MatchCacheTest {
+    private AtomicInteger loads;
+    private MatchCache<String> cache;
+
+    @Before
+    public void setUp() {
+        this.loads = new AtomicInteger();
+        this.cache = this.create(100, 5);
+    }
+
+    private MatchCache<String> create(int capacity, int negativeCapacity) {
+        return new MatchCache<>(
+                "test",
+                DataCacheConfiguration.builder().entryCapacity(capacity).build(),
+                DataCacheConfiguration.builder().entryCapacity(negativeCapacity).build(),
+                String.class,
+                this::load
+        );
+    }
+
+    private NameUsageMatch load(String key) throws Exception {
+        this.loads.incrementAndGet();
+        if (key.startsWith("error"))
+            throw new Exception("Unable to load " + key);
+        if (key.startsWith("bad"))
+            return NameUsageMatch.FAIL;
+        return NameUsageMatch.builder().success(true).scientificName(key).build();
+    }
+
+    @Test
+    public void testGet1() {
+        assertEquals("Acacia", this.cache.get("Acacia").getScientificName());
+        assertEquals("Acacia", this.cache.get("Acacia").getScientificName());
+        assertSame(NameUsageMatch.FAIL, this.cache.get("bad1"));
+        assertSame(NameUsageMatch.FAIL, this.cache.get("bad1"));
+        assertEquals(2, this.loads.get());
+        assertEquals(1, this.cache.getHits(true));
+        assertEquals(1, this.cache.getMisses(true));
+        assertEquals(1, this.cache.getHits(false));
+        assertEquals(1, this.cache.getMisses(false));
+        assertEquals(1, this.cache.size(true));
+        assertEquals(1, this.cache.size(false));
+        assertTrue(this.cache.contains("Acacia", true));
+        assertFalse(this.cache.contains("bad1", true));
+        assertTrue(this.cache.contains("bad1", false));
+    }
+
+    /** Lots of failures do not evict successful matches */
+    @Test
+    public void testEvict1() {
+        for (int i = 0; i < 20; i++)
+            this.cache.get("Acacia" + i);
+        for (int i = 0; i < 200; i++)
+            this.cache.get("bad" + i);
+        assertEquals(20, this.cache.size(true));
+        assertEquals(0, this.cache.getEvictions(true));
+        assertTrue(this.cache.size(false) <= 5);
+        assertTrue(this.cache.getEvictions(false) > 0);
+        int loaded = this.loads.get();
+        for (int i = 0; i < 20; i++)
+            this.cache.get("Acacia" + i);
+        assertEquals(loaded, this.loads.get());
+        assertEquals(20, this.cache.getHits(true));
+    }
+
+    @Test(expected = CacheLoaderException.class)
+    public void testError1() {
+        this.cache.get("error1");
+    }
+
+    /** Concurrent misses only load once */
+    @Test
+    public void testSingleFlight1() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MatchCache<String> slow = new MatchCache<>(
+                "slow",
+                DataCacheConfiguration.builder().build(),
+                DataCacheConfiguration.builder().build(),
+                String.class,
+                key -> {
+                    this.loads.incrementAndGet();
+                    started.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    return NameUsageMatch.builder().success(true).scientificName(key).build();
+                }
+        );
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<NameUsageMatch> first = executor.submit(() -> slow.get("Acacia"));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<NameUsageMatch> second = executor.submit(() -> slow.get("Acacia"));
+            Thread.sleep(50);
+            release.countDown();
+            assertEquals("Acacia", first.get(10, TimeUnit.SECONDS).getScientificName());
+            assertEquals("Acacia", second.get(10, TimeUnit.SECONDS).getScientificName());
+            assertEquals(1, this.loads.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Wait for a background refresh to reach a tier
+    private static void awaitTier(MatchCache<String> cache, String key, boolean successful) throws Exception {
+        for (int i = 0; i < 200 && !cache.contains(key, successful); i++)
+            Thread.sleep(10);
+    }
+
+    /** A refresh that stops being successful moves to the unsuccessful tier and is not reloaded into the successful tier */
+    @Test
+    public void testRefresh1() throws Exception {
+        AtomicInteger successes = new AtomicInteger(1);
+        DataCacheConfiguration configuration = DataCacheConfiguration.builder().entryCapacity(100).expireAfterWrite(2000L).refreshAhead(1950L).build();
+        MatchCache<String> refreshing = new MatchCache<>(
+                "refreshing",
+                configuration,
+                configuration,
+                String.class,
+                key -> {
+                    this.loads.incrementAndGet();
+                    boolean success = successes.getAndDecrement() > 0;
+                    return success ? NameUsageMatch.builder().success(true).scientificName(key).build() : NameUsageMatch.FAIL;
+                }
+        );
+        assertTrue(refreshing.get("Acacia").isSuccess());
+        assertTrue(refreshing.get("Acacia").isSuccess());
+        assertEquals(1, this.loads.get());
+        Thread.sleep(100);
+        assertTrue(refreshing.get("Acacia").isSuccess()); // Current value, refreshed in the background
+        awaitTier(refreshing, "Acacia", false);
+        assertEquals(2, this.loads.get());
+        assertFalse(refreshing.contains("Acacia", true));
+        assertTrue(refreshing.contains("Acacia", false));
+        assertSame(NameUsageMatch.FAIL, refreshing.get("Acacia"));
+        assertEquals(0, refreshing.size(true));
+        assertEquals(1, refreshing.getRefreshes(false));
+        assertEquals(1, refreshing.getMisses(true));
+        assertEquals(0, refreshing.getMisses(false));
+    }
+
+    /** A refresh does not block the caller, and other callers use the current value while it runs */
+    @Test
+    public void testRefresh2() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger version = new AtomicInteger();
+        DataCacheConfiguration configuration = DataCacheConfiguration.builder().entryCapacity(100).expireAfterWrite(5000L).refreshAhead(4950L).build();
+        MatchCache<String> refreshing = new MatchCache<>(
+                "refreshing",
+                configuration,
+                configuration,
+                String.class,
+                key -> {
+                    if (version.getAndIncrement() > 0) {
+                        started.countDown();
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                    return NameUsageMatch.builder().success(true).scientificName(key + version.get()).build();
+                }
+        );
+        assertEquals("Acacia1", refreshing.get("Acacia").getScientificName());
+        Thread.sleep(100);
+        assertEquals("Acacia1", refreshing.get("Acacia").getScientificName());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals("Acacia1", refreshing.get("Acacia").getScientificName());
+        assertEquals(2, version.get());
+        release.countDown();
+        for (int i = 0; i < 200 && !"Acacia2".equals(refreshing.peek("Acacia").getScientificName()); i++)
+            Thread.sleep(10);
+        assertEquals("Acacia2", refreshing.get("Acacia").getScientificName());
+    }
+
+    /** Snapshot entries go into the tier that suits them */
+    @Test
+    public void testPutIfAbsent1() {
+        this.cache.putIfAbsent("Acacia", NameUsageMatch.builder().success(true).scientificName("Acacia").build());
+        this.cache.putIfAbsent("bad1", NameUsageMatch.FAIL);
+        this.cache.putIfAbsent("Acacia", NameUsageMatch.FAIL);
+        assertTrue(this.cache.contains("Acacia", true));
+        assertFalse(this.cache.contains("Acacia", false));
+        assertTrue(this.cache.contains("bad1", false));
+        assertSame(NameUsageMatch.FAIL, this.cache.peek("bad1"));
+        assertEquals(0, this.loads.get());
+    }
+
+    @Test
+    public void testMetrics1() {
+        MetricRegistry registry = new MetricRegistry();
+        this.cache.registerMetrics(registry, "test");
+        this.cache.get("Acacia");
+        this.cache.get("Acacia");
+        this.cache.get("bad1");
+        Map<String, Gauge> gauges = registry.getGauges();
+        assertEquals(1L, gauges.get("test.success.hits").getValue());
+        assertEquals(1L, gauges.get("test.success.misses").getValue());
+        assertEquals(0L, gauges.get("test.success.evictions").getValue());
+        assertEquals(1, gauges.get("test.success.size").getValue());
+        assertEquals(0L, gauges.get("test.failure.hits").getValue());
+        assertEquals(1L, gauges.get("test.failure.misses").getValue());
+        assertEquals(1, gauges.get("test.failure.size").getValue());
+    }
+
+    @Test
+    public void testClear1() {
+        this.cache.get("Acacia");
+        this.cache.get("bad1");
+        this.cache.clear();
+        assertEquals(0, this.cache.size(true));
+        assertEquals(0, this.cache.size(false));
+    }
+}
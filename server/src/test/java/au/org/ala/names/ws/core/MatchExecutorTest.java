@@ -0,0 +1,133 @@
+package au.org.ala.names.ws.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MatchExecutorTest {
+    private MatchExecutor executor;
+
+    @Before
+    public void setUp() {
+        this.executor = new MatchExecutor("test", 4, 3);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.close();
+    }
+
+    @Test
+    public void testMatchAll1() {
+        List<String> keys = Arrays.asList("a", "b", "c");
+        List<String> results = this.executor.matchAll(keys, String::toUpperCase);
+        assertEquals(Arrays.asList("A", "B", "C"), results);
+    }
+
+    @Test
+    public void testMatchAllNulls1() {
+        List<String> keys = Arrays.asList(null, "b", null, "d");
+        List<String> results = this.executor.matchAll(keys, String::toUpperCase);
+        assertEquals(Arrays.asList(null, "B", null, "D"), results);
+    }
+
+    @Test
+    public void testMatchAllEmpty1() {
+        assertEquals(Collections.emptyList(), this.executor.matchAll(Collections.<String>emptyList(), String::toUpperCase));
+    }
+
+    @Test
+    public void testMatchAllDeduplicate1() {
+        AtomicInteger calls = new AtomicInteger();
+        List<String> keys = Arrays.asList("a", "b", "a", null, "b", "a");
+        List<String> results = this.executor.matchAll(keys, k -> {
+            calls.incrementAndGet();
+            return k.toUpperCase();
+        });
+        assertEquals(Arrays.asList("A", "B", "A", null, "B", "A"), results);
+        assertEquals(2, calls.get());
+    }
+
+    /** Results stay in order and no more than the parallelism limit runs at once */
+    @Test
+    public void testMatchAllParallel1() {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            keys.add(i);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        List<Integer> results = this.executor.matchAll(keys, k -> {
+            int now = active.incrementAndGet();
+            peak.accumulateAndGet(now, Math::max);
+            threads.add(Thread.currentThread());
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            return k * 2;
+        });
+        for (int i = 0; i < 200; i++)
+            assertEquals(Integer.valueOf(i * 2), results.get(i));
+        assertTrue(peak.get() <= 3);
+        assertTrue(threads.size() > 1);
+        assertTrue(threads.contains(Thread.currentThread()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatchAllException1() {
+        this.executor.matchAll(Arrays.asList("a", "b", "c", "d"), k -> {
+            throw new IllegalArgumentException(k);
+        });
+    }
+
+    /** A request is not held up behind another request that has taken all the pool threads */
+    @Test
+    public void testMatchAllSaturated1() throws Exception {
+        MatchExecutor small = new MatchExecutor("small", 1, 2);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<String>> blocked = caller.submit(() -> small.matchAll(Arrays.asList("a", "b"), k -> {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return k.toUpperCase();
+            }));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            assertEquals(Arrays.asList("C", "D"), small.matchAll(Arrays.asList("c", "d"), String::toUpperCase));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(1, release.getCount());
+            release.countDown();
+            assertEquals(Arrays.asList("A", "B"), blocked.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            caller.shutdown();
+            small.close();
+        }
+    }
+
+    @Test
+    public void testClosed1() {
+        this.executor.close();
+        assertEquals(Arrays.asList("A", "B"), this.executor.matchAll(Arrays.asList("a", "b"), String::toUpperCase));
+    }
+}
@@ -0,0 +1,121 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.search.ALANameSearcher;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NameSearcherRegistryTest {
+    private List<String> opened;
+    private NameSearcherRegistry registry;
+
+    @Before
+    public void setUp() {
+        this.opened = new ArrayList<>();
+        // Record opens without needing a real index
+        this.registry = new NameSearcherRegistry() {
+            @Override
+            protected ALANameSearcher open(NameSearchConfiguration configuration) {
+                opened.add(configuration.getIndex());
+                return null;
+            }
+        };
+    }
+
+    private NameSearchConfiguration configuration(String index) {
+        NameSearchConfiguration configuration = new NameSearchConfiguration();
+        configuration.setIndex(index);
+        configuration.setGroups(this.getClass().getResource("test-groups-empty.json"));
+        configuration.setSubgroups(this.getClass().getResource("test-subgroups-empty.json"));
+        return configuration;
+    }
+
+    @Test
+    public void testAcquire1() throws Exception {
+        NameSearchConfiguration configuration = this.configuration("/data/index1");
+        this.registry.acquire(configuration);
+        this.registry.acquire(configuration);
+        assertEquals(2, this.registry.getReferences(configuration));
+        assertEquals(1, this.opened.size());
+        this.registry.release(configuration);
+        assertEquals(1, this.registry.getReferences(configuration));
+        this.registry.release(configuration);
+        assertEquals(0, this.registry.getReferences(configuration));
+        this.registry.acquire(configuration);
+        assertEquals(2, this.opened.size());
+    }
+
+    /** Different configurations get different searchers */
+    @Test
+    public void testAcquire2() throws Exception {
+        NameSearchConfiguration configuration1 = this.configuration("/data/index1");
+        NameSearchConfiguration configuration2 = this.configuration("/data/index2");
+        this.registry.acquire(configuration1);
+        this.registry.acquire(configuration2);
+        assertEquals(1, this.registry.getReferences(configuration1));
+        assertEquals(1, this.registry.getReferences(configuration2));
+        assertEquals(2, this.opened.size());
+    }
+
+    /** Releasing something never acquired is ignored */
+    @Test
+    public void testRelease1() throws Exception {
+        NameSearchConfiguration configuration = this.configuration("/data/index1");
+        this.registry.release(configuration);
+        assertEquals(0, this.registry.getReferences(configuration));
+    }
+
+    @Test
+    public void testStop1() throws Exception {
+        NameSearchConfiguration configuration = this.configuration("/data/index1");
+        this.registry.acquire(configuration);
+        this.registry.stop();
+        assertEquals(0, this.registry.getReferences(configuration));
+    }
+
+    /** Species groups share an instance and hold one searcher reference until the last release */
+    @Test
+    public void testSpeciesGroups1() throws Exception {
+        NameSearchConfiguration configuration = this.configuration("/data/index1");
+        SpeciesGroupsUtil util1 = SpeciesGroupsUtil.getInstance(configuration, this.registry);
+        SpeciesGroupsUtil util2 = SpeciesGroupsUtil.getInstance(configuration, this.registry);
+        assertSame(util1, util2);
+        assertEquals(2, util1.getReferences());
+        assertEquals(1, this.registry.getReferences(configuration));
+        util1.release();
+        assertEquals(1, this.registry.getReferences(configuration));
+        util2.release();
+        assertEquals(0, util1.getReferences());
+        assertEquals(0, this.registry.getReferences(configuration));
+        util2.release();
+        assertEquals(0, this.registry.getReferences(configuration));
+        SpeciesGroupsUtil util3 = SpeciesGroupsUtil.getInstance(configuration, this.registry);
+        assertNotSame(util1, util3);
+        util3.release();
+    }
+
+    /** Species groups for different registries are kept apart */
+    @Test
+    public void testSpeciesGroups2() throws Exception {
+        NameSearchConfiguration configuration = this.configuration("/data/index1");
+        NameSearcherRegistry other = new NameSearcherRegistry() {
+            @Override
+            protected ALANameSearcher open(NameSearchConfiguration configuration) {
+                return null;
+            }
+        };
+        SpeciesGroupsUtil util1 = SpeciesGroupsUtil.getInstance(configuration, this.registry);
+        SpeciesGroupsUtil util2 = SpeciesGroupsUtil.getInstance(configuration, other);
+        assertNotSame(util1, util2);
+        assertEquals(1, this.registry.getReferences(configuration));
+        assertEquals(1, other.getReferences(configuration));
+        util1.release();
+        util2.release();
+        assertEquals(0, this.registry.getReferences(configuration));
+        assertEquals(0, other.getReferences(configuration));
+    }
+}
@@ -0,0 +1,84 @@
+package au.org.ala.names.ws.core;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SpeciesGroupIndexTest {
+    private static LftRgtValues range(int lft, int rgt, boolean include) {
+        return LftRgtValues.builder().lft(lft).rgt(rgt).tobeIncluded(include).build();
+    }
+
+    private static SpeciesGroup group(String name, LftRgtValues... ranges) {
+        return SpeciesGroup.builder().name(name).lftRgtValues(Arrays.asList(ranges)).build();
+    }
+
+    private static List<String> linear(Integer lft, List<SpeciesGroup> groups) {
+        List<String> names = new ArrayList<>();
+        if (lft != null) {
+            for (SpeciesGroup group : groups)
+                if (group.isPartOfGroup(lft))
+                    names.add(group.name);
+        }
+        return names;
+    }
+
+    @Test
+    public void testLookup1() {
+        List<SpeciesGroup> groups = Arrays.asList(
+                group("Animals", range(100, 200, true)),
+                group("Mammals", range(120, 140, true))
+        );
+        List<SpeciesGroup> subgroups = Collections.singletonList(group("Marsupials", range(125, 130, true)));
+        SpeciesGroupIndex index = new SpeciesGroupIndex(groups, subgroups);
+        assertSame(SpeciesGroupIndex.EMPTY, index.lookup(null));
+        assertSame(SpeciesGroupIndex.EMPTY, index.lookup(99));
+        assertEquals(Collections.singletonList("Animals"), index.lookup(100).getGroups());
+        assertEquals(Arrays.asList("Animals", "Mammals"), index.lookup(120).getGroups());
+        assertEquals(Arrays.asList("Animals", "Mammals"), index.lookup(127).getGroups());
+        assertEquals(Collections.singletonList("Marsupials"), index.lookup(127).getSubgroups());
+        assertEquals(Collections.emptyList(), index.lookup(130).getSubgroups());
+        assertEquals(Collections.singletonList("Animals"), index.lookup(140).getGroups());
+        assertSame(SpeciesGroupIndex.EMPTY, index.lookup(200));
+    }
+
+    /** Excluded ranges come first and win over an enclosing inclusion */
+    @Test
+    public void testExclusion1() {
+        List<SpeciesGroup> groups = Collections.singletonList(
+                group("Invertebrates", range(150, 160, false), range(100, 200, true))
+        );
+        SpeciesGroupIndex index = new SpeciesGroupIndex(groups, Collections.emptyList());
+        assertEquals(Collections.singletonList("Invertebrates"), index.lookup(149).getGroups());
+        assertEquals(Collections.emptyList(), index.lookup(150).getGroups());
+        assertEquals(Collections.emptyList(), index.lookup(159).getGroups());
+        assertEquals(Collections.singletonList("Invertebrates"), index.lookup(160).getGroups());
+    }
+
+    /** The index gives the same answer as a linear scan of the groups */
+    @Test
+    public void testCompareLinear1() {
+        Random random = new Random(3217);
+        List<SpeciesGroup> groups = new ArrayList<>();
+        List<SpeciesGroup> subgroups = new ArrayList<>();
+        for (int g = 0; g < 140; g++) {
+            List<LftRgtValues> ranges = new ArrayList<>();
+            int n = random.nextInt(4) + 1;
+            for (int r = 0; r < n; r++) {
+                int lft = random.nextInt(10000);
+                ranges.add(range(lft, lft + random.nextInt(2000), r == n - 1 || random.nextBoolean()));
+            }
+            SpeciesGroup group = group("G" + g, ranges.toArray(new LftRgtValues[0]));
+            (g < 40 ? groups : subgroups).add(group);
+        }
+        SpeciesGroupIndex index = new SpeciesGroupIndex(groups, subgroups);
+        for (int lft = -1; lft < 12100; lft++) {
+            SpeciesGroupIndex.Membership membership = index.lookup(lft);
+            assertEquals("Groups at " + lft, linear(lft, groups), membership.getGroups());
+            assertEquals("Subgroups at " + lft, linear(lft, subgroups), membership.getSubgroups());
+        }
+    }
+}
@@ -3,6 +3,7 @@ package au.org.ala.names.ws.core;
 import au.org.ala.names.model.NameSearchResult;
 import au.org.ala.names.model.RankType;
 import au.org.ala.util.TestUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -25,6 +26,11 @@ public class SpeciesGroupsUtilTest extends TestUtils {
         this.speciesGroupsUtil = SpeciesGroupsUtil.getInstance(configuration);
     }
 
+    @After
+    public void tearDown() throws Exception {
+        this.speciesGroupsUtil.release();
+    }
+
     protected int getLeft(String name)  throws Exception {
         NameSearchResult result =  this.speciesGroupsUtil
                         .getNameIndex()
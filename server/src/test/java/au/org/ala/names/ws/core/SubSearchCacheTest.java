@@ -0,0 +1,130 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.names.model.ErrorType;
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MetricsResultDTO;
+import au.org.ala.names.model.NameSearchResult;
+import au.org.ala.names.search.SearchResultException;
+import au.org.ala.ws.DataCacheConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SubSearchCacheTest {
+    private AtomicInteger searches;
+    private SubSearchCache cache;
+
+    @Before
+    public void setUp() {
+        this.searches = new AtomicInteger();
+        this.cache = new SubSearchCache(DataCacheConfiguration.builder().entryCapacity(100).build(), this::search);
+    }
+
+    private MetricsResultDTO search(LinnaeanRankClassification classification, boolean approximate) throws SearchResultException {
+        this.searches.incrementAndGet();
+        if (classification.getScientificName().startsWith("error"))
+            throw new SearchResultException("Unable to search for " + classification.getScientificName());
+        if (classification.getScientificName().startsWith("bad"))
+            return null;
+        NameSearchResult result = new NameSearchResult();
+        result.setLsid(classification.getScientificName() + (approximate ? "-approximate" : ""));
+        MetricsResultDTO metrics = new MetricsResultDTO();
+        metrics.setResult(result);
+        metrics.setErrors(EnumSet.of(ErrorType.NONE));
+        return metrics;
+    }
+
+    private static LinnaeanRankClassification classification(String scientificName, String kingdom) {
+        LinnaeanRankClassification classification = new LinnaeanRankClassification();
+        classification.setScientificName(scientificName);
+        classification.setKingdom(kingdom);
+        return classification;
+    }
+
+    @Test
+    public void testGet1() throws Exception {
+        MetricsResultDTO metrics1 = this.cache.get(classification("Acacia", "Plantae"), false);
+        MetricsResultDTO metrics2 = this.cache.get(classification("Acacia", "Plantae"), false);
+        assertEquals("Acacia", metrics1.getResult().getLsid());
+        assertEquals("Acacia", metrics2.getResult().getLsid());
+        assertEquals(1, this.searches.get());
+        assertEquals(1, this.cache.getHits());
+        assertEquals(1, this.cache.getMisses());
+        assertEquals(1, this.cache.size());
+    }
+
+    /** Different classifications and approximate searches are kept apart */
+    @Test
+    public void testGet2() throws Exception {
+        this.cache.get(classification("Acacia", "Plantae"), false);
+        this.cache.get(classification("Acacia", "Animalia"), false);
+        this.cache.get(classification("Acacia", null), false);
+        assertEquals("Acacia-approximate", this.cache.get(classification("Acacia", "Plantae"), true).getResult().getLsid());
+        assertEquals(4, this.searches.get());
+        assertEquals(4, this.cache.size());
+    }
+
+    /** No result is also cached */
+    @Test
+    public void testGet3() throws Exception {
+        assertNull(this.cache.get(classification("bad1", null), false));
+        assertNull(this.cache.get(classification("bad1", null), false));
+        assertEquals(1, this.searches.get());
+        assertEquals(1, this.cache.getHits());
+    }
+
+    /** Errors are not cached */
+    @Test
+    public void testGet4() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                this.cache.get(classification("error1", null), false);
+                fail("Expected SearchResultException");
+            } catch (SearchResultException ex) {
+            }
+        }
+        assertEquals(2, this.searches.get());
+        assertEquals(0, this.cache.size());
+    }
+
+    /** Changes to a result do not affect the cached copy */
+    @Test
+    public void testCopy1() throws Exception {
+        MetricsResultDTO metrics1 = this.cache.get(classification("Acacia", null), false);
+        metrics1.setResult(null);
+        metrics1.getErrors().add(ErrorType.HOMONYM);
+        MetricsResultDTO metrics2 = this.cache.get(classification("Acacia", null), false);
+        assertEquals("Acacia", metrics2.getResult().getLsid());
+        assertEquals(EnumSet.of(ErrorType.NONE), metrics2.getErrors());
+        metrics2.getErrors().add(ErrorType.HOMONYM);
+        MetricsResultDTO metrics3 = this.cache.get(classification("Acacia", null), false);
+        assertEquals(EnumSet.of(ErrorType.NONE), metrics3.getErrors());
+        assertNotSame(metrics2, metrics3);
+    }
+
+    @Test
+    public void testMetrics1() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        this.cache.registerMetrics(registry, "test");
+        this.cache.get(classification("Acacia", null), false);
+        this.cache.get(classification("Acacia", null), false);
+        Map<String, Gauge> gauges = registry.getGauges();
+        assertEquals(1L, gauges.get("test.hits").getValue());
+        assertEquals(1L, gauges.get("test.misses").getValue());
+        assertEquals(1, gauges.get("test.size").getValue());
+    }
+
+    @Test
+    public void testClear1() throws Exception {
+        this.cache.get(classification("Acacia", null), false);
+        this.cache.clear();
+        assertEquals(0, this.cache.size());
+    }
+}
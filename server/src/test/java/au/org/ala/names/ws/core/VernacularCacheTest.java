@@ -0,0 +1,84 @@
+package au.org.ala.names.ws.core;
+
+import au.org.ala.ws.DataCacheConfiguration;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class VernacularCacheTest {
+    private AtomicInteger loads;
+    private VernacularCache cache;
+
+    @Before
+    public void setUp() {
+        this.loads = new AtomicInteger();
+        Map<String, Set<String>> names = new HashMap<>();
+        names.put("K1", Collections.singleton("Red Kangaroo"));
+        names.put("K2", new HashSet<>());
+        this.cache = new VernacularCache(DataCacheConfiguration.builder().build(), lsid -> {
+            this.loads.incrementAndGet();
+            return names.get(lsid);
+        });
+    }
+
+    @Test
+    public void testGet1() {
+        assertEquals(Collections.singleton("Red Kangaroo"), this.cache.get("K1"));
+        assertEquals(Collections.singleton("Red Kangaroo"), this.cache.get("K1"));
+        assertEquals(Collections.emptySet(), this.cache.get("K2"));
+        assertEquals(Collections.emptySet(), this.cache.get("K3"));
+        assertEquals(Collections.emptySet(), this.cache.get("K3"));
+        assertEquals(Collections.emptySet(), this.cache.get(null));
+        assertEquals(3, this.loads.get());
+        assertEquals(2, this.cache.getHits());
+        assertEquals(3, this.cache.getMisses());
+        assertEquals(0, this.cache.getRefreshes());
+        assertEquals(3, this.cache.size());
+        assertTrue(this.cache.getFootprint() > 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testGetUnmodifiable1() {
+        this.cache.get("K1").add("Big Red");
+    }
+
+    @Test
+    public void testMetrics1() {
+        MetricRegistry registry = new MetricRegistry();
+        this.cache.registerMetrics(registry, "test");
+        this.cache.get("K1");
+        this.cache.get("K1");
+        Map<String, Gauge> gauges = registry.getGauges();
+        assertEquals(1L, gauges.get("test.hits").getValue());
+        assertEquals(1L, gauges.get("test.misses").getValue());
+        assertEquals(0L, gauges.get("test.refreshes").getValue());
+        assertEquals(1, gauges.get("test.size").getValue());
+        assertNotNull(gauges.get("test.footprint").getValue());
+    }
+
+    /** Names are refreshed in the background before they expire */
+    @Test
+    public void testRefresh1() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        VernacularCache refreshing = new VernacularCache(DataCacheConfiguration.builder().expireAfterWrite(400L).refreshAhead(200L).build(), lsid -> {
+            loads.incrementAndGet();
+            return Collections.singleton("Red Kangaroo");
+        });
+        assertEquals(Collections.singleton("Red Kangaroo"), refreshing.get("K1"));
+        long end = System.currentTimeMillis() + 5000;
+        while (loads.get() < 2 && System.currentTimeMillis() < end)
+            Thread.sleep(20);
+        assertTrue(loads.get() >= 2);
+        assertEquals(Collections.singleton("Red Kangaroo"), refreshing.get("K1"));
+        assertEquals(1, refreshing.size());
+        assertEquals(1, refreshing.getMisses());
+        assertEquals(1, refreshing.getHits());
+        assertTrue(refreshing.getRefreshes() >= 1);
+    }
+}
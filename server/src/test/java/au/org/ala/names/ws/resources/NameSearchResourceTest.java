@@ -2,14 +2,21 @@ package au.org.ala.names.ws.resources;
 
 import au.org.ala.names.ws.api.NameSearch;
 import au.org.ala.names.ws.api.NameUsageMatch;
+import au.org.ala.names.ws.core.ExactMatchDictionary;
 import au.org.ala.names.ws.core.NameSearchConfiguration;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 
 import static org.junit.Assert.*;
@@ -343,6 +350,37 @@ public class NameSearchResourceTest {
         assertEquals("Chelonia mydas", match.getScientificName());
     }
 
+    @Test
+    public void testMatchStream1() throws Exception {
+        String input = "{\"scientificName\":\"Acacia dealbata\"}\nnull\n{\"scientificName\":\"Osphranter rufus\"}\n";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        this.resource.matchStream(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+        String[] lines = output.toString("UTF-8").split("\n");
+        assertEquals(3, lines.length);
+        ObjectMapper mapper = new ObjectMapper();
+        NameUsageMatch match = mapper.readValue(lines[0], NameUsageMatch.class);
+        assertTrue(match.isSuccess());
+        assertEquals("Acacia dealbata", match.getScientificName());
+        assertEquals("null", lines[1]);
+        match = mapper.readValue(lines[2], NameUsageMatch.class);
+        assertTrue(match.isSuccess());
+        assertEquals("Osphranter rufus", match.getScientificName());
+    }
+
+    @Test
+    public void testBuildDictionary1() throws Exception {
+        File names = File.createTempFile("names", ".txt");
+        names.deleteOnExit();
+        Files.write(names.toPath(), Arrays.asList("# Test names", "Acacia dealbata", "", "Macropus", "Osphranter rufus"));
+        ExactMatchDictionary dictionary = this.resource.buildDictionary(names.toURI().toURL());
+        assertEquals(2, dictionary.size());
+        NameUsageMatch match = dictionary.get("Acacia dealbata");
+        assertNotNull(match);
+        assertEquals("https://id.biodiversity.org.au/taxon/apni/51286863", match.getTaxonConceptID());
+        assertNotNull(dictionary.get("Osphranter rufus"));
+        assertNull(dictionary.get("Macropus")); // Homonym
+    }
+
     @Test
     public void testGetAllByTaxonID2() throws Exception {
         List<String> ids = Arrays.asList(
@@ -541,4 +579,11 @@ public class NameSearchResourceTest {
         assertNotNull(result);
         assertEquals(result.size(), 0);
     }
+
+    @Test
+    public void testIndexVersion1() throws Exception {
+        String version = this.resource.indexVersion();
+        assertNotNull(version);
+        assertEquals(version, this.resource.indexVersion());
+    }
 }